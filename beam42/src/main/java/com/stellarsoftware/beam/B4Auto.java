@@ -0,0 +1,89 @@
+package com.stellarsoftware.beam;
+
+import com.stellarsoftware.beam.core.*;
+
+import java.io.File;
+
+/** B4Auto.java  --- supplies main() for headless AutoAdjust
+  *
+  *   java com.stellarsoftware.beam.B4Auto in.OPT in.RAY out.OPT [-every N] [-threads N] [-analytic]
+  *
+  * Loads the optics and ray tables, runs AutoAdjust without any UI
+  * and writes the adjusted optics table to out.OPT.  User options,
+  * e.g. the AutoAdjust step, tolerance and weights, come from
+  * B4OPTIONS.TXT in the working directory as usual.
+  *   -every N    also publishes to the tables every Nth iteration
+  *   -threads N  traces with N worker threads, 0=all processors;
+  *               by default as the AutoAdjust option "Trace threads"
+  *   -analytic   builds the Jacobian by RT13Tangent where it can
+  */
+public class B4Auto
+{
+    public static void main(String[] args)
+    {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args)
+    // Returns the process exit code: 0=adjusted, 1=usage, 2=failure.
+    {
+        if (args.length < 3)
+        {
+            System.err.println("usage: B4Auto in.OPT in.RAY out.OPT [-every N] [-threads N] [-analytic]");
+            return 1;
+        }
+        int every = 0;
+        int nthreads = -1;    // -1: the AutoAdjust option
+        boolean bAnalytic = false;
+        for (int i=3; i<args.length; i++)
+        {
+            if ("-analytic".equals(args[i]))
+              bAnalytic = true;
+            else if ("-every".equals(args[i]) && (i+1<args.length))
+              every = U.suckInt(args[++i]);
+            else if ("-threads".equals(args[i]) && (i+1<args.length))
+              nthreads = U.suckInt(args[++i]);
+        }
+
+        Globals.init();
+        Globals.reg = new Registry(null);
+        if (nthreads < 0)
+          nthreads = U.suckInt(Globals.reg.getuo(B4constants.UO_AUTO, 9));
+        Globals.setTraceThreads(nthreads);
+        RT13 rt13 = Globals.RT13;
+        OPTDataModel optDataModel = new OPTDataModel(rt13);
+        if (!optDataModel.bLoadFile(new File(args[0])))
+        {
+            System.err.println("B4Auto: cannot read " + args[0]);
+            return 2;
+        }
+        RAYDataModel rayDataModel = new RAYDataModel(rt13);
+        if (!rayDataModel.bLoadFile(new File(args[1])))
+        {
+            System.err.println("B4Auto: cannot read " + args[1]);
+            return 2;
+        }
+        new B4DataParser(optDataModel, rayDataModel, null, rt13).parse(true);
+
+        AutoAdjuster auto = new AutoAdjuster(optDataModel, rayDataModel, null, null, rt13);
+        auto.setHeadless(every);
+        auto.setAnalyticJacobian(bAnalytic);
+        auto.run();
+        Globals.bAutoBusy = false;
+        if (auto.hostiter < 1)
+        {
+            System.err.println("B4Auto: AutoAdjust failed " + Globals.sAutoErr);
+            return 2;
+        }
+        if (!optDataModel.save(new File(args[2])))
+        {
+            System.err.println("B4Auto: cannot write " + args[2]);
+            return 2;
+        }
+        System.out.println("Iterations = " + auto.hostiter
+            + "  RMS = " + U.fwe(auto.rms)
+            + "  Nrays = " + auto.ngood
+            + "  Nadj = " + auto.nadj);
+        return 0;
+    }
+}
@@ -1,10 +1,21 @@
 package com.stellarsoftware.beam.core;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /** AutoAdj.java
   * A207: eliminated groups
   * class LMadj is at the bottom of this file. 
   * A190, Nov 2015: introducing weights.
+  * With Globals.nTraceThreads > 1 the Jacobian columns are built
+  * concurrently, each on its own RT13 trace context; see bBuildJacobian().
+  * After setHeadless() the iterations work on RT13's arrays alone and
+  * the editors are only written by vPublish(); see B4Auto.
+  * After setAnalyticJacobian(true) the Jacobian comes from RT13Tangent
+  * wherever that supports the optics and goals, else from differences.
   * @author: M.Lampton (c) 2003..2006 STELLAR SOFTWARE all rights reserved.
   */
 public class AutoAdjuster implements B4constants
@@ -28,6 +39,13 @@ public class AutoAdjuster implements B4constants
     public int istatus;
     public double sos, rms;               // from Comparo.resid[]
     private double jac[][];                // [npts][nadj]; dense
+    private int adjWhere[];                // [nadj]: surface or ray of each adjustable
+    private int adjAttr[];                 // [nadj]: its attribute
+    private int adjSlaves[][];             // [nadj][]: signed slave surfaces or rays
+    private boolean bHeadless = false;     // no editor writes between publications
+    private int nPublish = 0;              // headless: publish every Nth iteration; 0=final only
+    private boolean bAnalytic = false;     // try RT13Tangent before differences
+    private boolean bTraced = false;       // rt13 and resid[] hold a good trace of the current parms
     private double wx, wy, wz, wu, wv, ww; // weights for each goal
 
     private Comparo comparo;
@@ -112,6 +130,7 @@ public class AutoAdjuster implements B4constants
         {
             dDelta[iadj] = getDelta(iadj); 
         }
+        vCacheAdjustables();
 
 
         //----turn off blinker parsing of surfs[] raystarts[] etc---------
@@ -142,17 +161,64 @@ public class AutoAdjuster implements B4constants
         return true;
     }
 
+    public void setHeadless(int every)
+    // Call before start(). Iterations then nudge RT13 numerically and
+    // reuse the goals read at start(); the editors and listeners see
+    // only vPublish(), every Nth iteration if every>0, and at the end.
+    {
+        bHeadless = true;
+        nPublish = Math.max(0, every);
+    }
+
+    public boolean isHeadless()
+    {
+        return bHeadless;
+    }
+
+    public void setAnalyticJacobian(boolean b)
+    // Call before start() or between iterations.
+    {
+        bAnalytic = b;
+    }
+
     public void run() {
         if (!start()) {
             return;
         }
         while (!bComplete) {
             iterate();
-            vUpdateRayTable();
-            vUpdateOpticsTable();
+            if (!bHeadless) {
+                vUpdateRayTable();
+                vUpdateOpticsTable();
+            } else if ((nPublish > 0) && (hostiter % nPublish == 0) && !bComplete) {
+                vPublish();
+            }
+        }
+        if (bHeadless)
+            vPublish();
+    }
+
+    private void vCacheAdjustables()
+    // Copies each adjustable's location, attribute and slaves out of
+    // the editors so that worker threads never need to consult them.
+    {
+        adjWhere = new int[nadj];
+        adjAttr = new int[nadj];
+        adjSlaves = new int[nadj][];
+        for (int iadj=0; iadj<nadj; iadj++)
+        {
+            boolean bOpt = iadj < onadj;
+            int i = bOpt ? iadj : iadj-onadj;
+            adjWhere[iadj] = bOpt ? optEditor.getAdjSurf(i) : rayEditor.getAdjRay(i);
+            adjAttr[iadj] = bOpt ? optEditor.getAdjAttrib(i) : rayEditor.getAdjAttrib(i);
+            ArrayList<Integer> slaves = bOpt ? optEditor.getSlaves(i) : rayEditor.getSlaves(i);
+            adjSlaves[iadj] = new int[(slaves != null) ? slaves.size() : 0];
+            for (int n=0; n<adjSlaves[iadj].length; n++)
+              adjSlaves[iadj][n] = slaves.get(n).intValue();
         }
     }
 
+
     private double getDelta(int iadj)
     // For each adjustable's attribute to get a derivative step.
     // Assumes predetermined editors and dUserStep.
@@ -254,6 +320,40 @@ public class AutoAdjuster implements B4constants
     }
 
 
+    public void vPublish()
+    // Posts the current numeric state onto the editors in one pass:
+    // every adjustable and slave, the trace outputs and floating goals.
+    // Headless runs call this instead of writing at every nudge.
+    {
+        for (int iadj=0; iadj<nadj; iadj++)
+        {
+            boolean bOpt = iadj < onadj;
+            int field = bOpt ? optEditor.getAdjField(iadj) : rayEditor.getAdjField(iadj-onadj);
+            double table[][] = bOpt ? rt13.surfs : rt13.raystarts;
+            int attr = adjAttr[iadj];
+            int where = adjWhere[iadj];
+            if (bOpt)
+              optEditor.putFieldDouble(field, where+2, table[where][attr]);
+            else
+              rayEditor.putFieldDouble(field, where+2, table[where][attr]);
+            for (int i=0; i<adjSlaves[iadj].length; i++)
+            {
+                int j = Math.abs(adjSlaves[iadj][i]);
+                if (bOpt)
+                  optEditor.putFieldDouble(field, j+2, table[j][attr]);
+                else
+                  rayEditor.putFieldDouble(field, j+2, table[j][attr]);
+            }
+        }
+        comparo.doResiduals();    // posts floating goals
+        vUpdateRayTable();
+        if (optDataModelListener != null)
+            optDataModelListener.optModelUpdated();
+        if (rayDataModelListener != null)
+            rayDataModelListener.rayModelUpdated();
+    }
+
+
     public void vUpdateRayTable()
     // Assumed globals: nrays, nfields, ngoals, rayEditor
     // Be sure to run iSetupGoals() first, before running this.
@@ -331,14 +431,27 @@ public class AutoAdjuster implements B4constants
     // Employed by LM and by dBuildJacobian() via dNudge(). 
     // Returns sum-of-squares. 
     {
-        int nrays = rt13.iBuildRays(false);   // run only good rays
+        return dPerformResid(0); 
+    }
+
+
+    private double dPerformResid(int jfirst)
+    // As dPerformResid() but retraces only from surface jfirst onward;
+    // nothing upstream may have changed since the previous trace.
+    {
+        bTraced = false; 
+        int nrays = rt13.iBuildRaysFrom(jfirst, false);   // run only good rays
         if (nrays < ngood)
         {
             return BIGVAL; // special error code
         }
-        comparo.doResiduals();
+        if (bHeadless)
+          comparo.doCachedResiduals();
+        else
+          comparo.doResiduals();
         sos = comparo.dGetSOS();
         rms = comparo.dGetRMS();
+        bTraced = true; 
         return sos;
     }
 
@@ -349,6 +462,18 @@ public class AutoAdjuster implements B4constants
     // Splits total adjustable vector into Optics and Ray portions. 
     // This cannot fail, but passes through failures in dPerformResid() 
     {
+        return dNudge(dp, 0); 
+    }
+
+
+    private double dNudge(double dp[], int jfirst)
+    // As dNudge(dp) but retraces from surface jfirst, see iFirstNudged().
+    {
+        if (bHeadless)
+        {
+            vNudgeArrays(rt13, dp);
+            return dPerformResid(jfirst);
+        }
         double dpo[] = new double[onadj]; 
         double dpr[] = new double[rnadj]; 
         int i; 
@@ -358,24 +483,24 @@ public class AutoAdjuster implements B4constants
         for (i=0; i<rnadj; i++)
           dpr[i] = dp[onadj + i]; 
         nudgeRay(dpr); 
-        return dPerformResid();
+        return dPerformResid(jfirst);
     }
 
 
     void nudgeOpt(double dp[])
     {
-        boolean bAngle = false; 
         for (int iadj=0; iadj<onadj; iadj++)
         {
             int surf = optEditor.getAdjSurf(iadj); 
             int attr = optEditor.getAdjAttrib(iadj); 
-            if ((attr==OTILT) ||(attr==OPITCH) || (attr==OROLL))
-              bAngle = true; 
+            boolean bAngle = (attr==OTILT) ||(attr==OPITCH) || (attr==OROLL); 
             int field = optEditor.getAdjField(iadj); 
 
             //---modify the master adjustable----------------
 
             rt13.surfs[surf][attr] += dp[iadj];
+            if (bAngle)
+              rt13.setEulers(surf); 
 
             optEditor.putFieldDouble(field, surf+2, rt13.surfs[surf][attr]);
 
@@ -390,12 +515,12 @@ public class AutoAdjuster implements B4constants
                 j = Math.abs(j); 
                 rt13.surfs[j][attr] += dSign * dp[iadj];
                 optEditor.putFieldDouble(field, j+2, rt13.surfs[j][attr]);
+                if (bAngle)
+                  rt13.setEulers(j); 
             }
             if (attr==OSHAPE)
               rt13.surfs[surf][OASPHER] += dp[iadj];
         }
-        if (bAngle)
-          rt13.setEulers();
         if (optDataModelListener != null)
             optDataModelListener.optModelUpdated();
         //optEditor.repaint();
@@ -440,6 +565,7 @@ public class AutoAdjuster implements B4constants
     // Preliminary test of jac.length: SNH but see A148.
     // Called by LM.bLMiter().
     // All failures return false and are triggered within dNudge.
+    // With Globals.nTraceThreads > 1 the columns are built concurrently.
     {
         double delta[] = new double[nadj];
         double d=0; 
@@ -449,12 +575,26 @@ public class AutoAdjuster implements B4constants
             return false; 
         }
 
+        if (bAnalytic && bBuildJacobianAnalytic())
+          return true;
+
+        if ((Globals.nTraceThreads > 1) && (nadj > 1))
+          return bBuildJacobianParallel();
+
+        // The nudges retrace from a good trace of the current parms. 
+        // LM has just made one; the analytic attempt works on its own context. 
+        if (!bTraced && (dPerformResid() == BIGVAL))
+        {
+            return false; 
+        }
+
         for (int j=0; j<nadj; j++)
         {
             for (int k=0; k<nadj; k++)  // one component at a time.
               delta[k] = (k==j) ? dDelta[j] : 0.0;
+            int jfirst = iFirstNudged(delta); 
 
-            d = dNudge(delta); // resid at pplus
+            d = dNudge(delta, jfirst); // resid at pplus
             if (d==BIGVAL)
             {
                 return false;  
@@ -465,7 +605,7 @@ public class AutoAdjuster implements B4constants
             for (int k=0; k<nadj; k++)
               delta[k] = (k==j) ? -2.0*dDelta[j] : 0.0;
 
-            d = dNudge(delta); // resid at pminus
+            d = dNudge(delta, jfirst); // resid at pminus
             if (d==BIGVAL)
             {
                 return false;  
@@ -480,7 +620,7 @@ public class AutoAdjuster implements B4constants
             for (int k=0; k<nadj; k++)
               delta[k] = (k==j) ? dDelta[j] : 0.0;
 
-            d = dNudge(delta);  // return this parm to starting value.
+            d = dNudge(delta, jfirst);  // return this parm to starting value.
             if (d==BIGVAL)
             {
                 return false;  
@@ -490,6 +630,185 @@ public class AutoAdjuster implements B4constants
     }
 
 
+
+    private boolean bBuildJacobianParallel()
+    // Each column is an independent task: it nudges its own two trace
+    // contexts to pplus and pminus, traces them and fills jac[][j].
+    // The live RT13, its tables and comparo.resid[] are never touched,
+    // so no restoring nudge is needed; columns are disjoint in jac[][]
+    // and each is computed serially, so results do not depend on timing.
+    // The unnudged rays are traced once, into a base context that every
+    // column copies and retraces only downstream of its nudged surfaces.
+    {
+        RT13Snapshot snap = rt13.snapshot();
+        RT13 base = snap.newContext();
+        if (!bContextResid(base, new double[npts], 0))
+          base = null;                      // columns trace from scratch
+        final RT13 shared = base;
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int j=0; j<nadj; j++)
+        {
+            final int jcol = j;
+            tasks.add(() -> bJacobianColumn(snap, shared, jcol));
+        }
+        try
+        {
+            boolean bOK = true;
+            for (Future<Boolean> f : TracePool.get(Globals.nTraceThreads).invokeAll(tasks))
+              bOK &= f.get().booleanValue();
+            return bOK;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e)
+        {
+            return false;
+        }
+    }
+
+
+    private boolean bJacobianColumn(RT13Snapshot snap, RT13 base, int j)
+    // Central difference for adjustable j on private trace contexts.
+    // With a base trace, each side retraces from the first nudged surface.
+    {
+        double rplus[] = new double[npts];
+        double rminus[] = new double[npts];
+        double dp[] = new double[nadj];
+
+        dp[j] = dDelta[j];
+        int jfirst = (base != null) ? iFirstNudged(dp) : 0;
+        RT13 rt = snap.newContext();
+        if (jfirst > 1)
+          rt.copyTraceFrom(base);
+        vNudgeArrays(rt, dp);
+        if (!bContextResid(rt, rplus, jfirst))      // resid at pplus
+          return false;
+
+        dp[j] = -dDelta[j];
+        rt = snap.newContext();
+        if (jfirst > 1)
+          rt.copyTraceFrom(base);
+        vNudgeArrays(rt, dp);
+        if (!bContextResid(rt, rminus, jfirst))     // resid at pminus
+          return false;
+
+        for (int i=0; i<npts; i++)
+          jac[i][j] = (rplus[i] - rminus[i]) / (2.0*dDelta[j]);
+        return true;
+    }
+
+
+    private boolean bBuildJacobianAnalytic()
+    // One RT13Tangent sweep per good ray, on a private trace context
+    // so that the derivatives belong to the current parameters.
+    // False if anything is unsupported; then differences are used.
+    {
+        RT13 rt = rt13.snapshot().newContext();
+        double r[] = new double[npts];
+        if (!bContextResid(rt, r, 0))
+          return false;
+
+        RT13Tangent tan = new RT13Tangent(rt, nadj);
+        for (int iadj=0; iadj<nadj; iadj++)
+        {
+            boolean bOpt = iadj < onadj;
+            int attr = adjAttr[iadj];
+            if (bOpt)
+              tan.addSurfVar(iadj, adjWhere[iadj], attr, 1.0);
+            else
+              tan.addRayVar(iadj, adjWhere[iadj], attr, 1.0);
+            for (int i=0; i<adjSlaves[iadj].length; i++)
+            {
+                int j = adjSlaves[iadj][i];
+                double dSign = (j > 0) ? +1.0 : -1.0;
+                if (!bOpt)
+                  tan.addRayVar(iadj, Math.abs(j), attr, dSign);
+                else if (attr != OSHAPE)   // vNudgeArrays() moves master OASPHER only
+                  tan.addSurfVar(iadj, Math.abs(j), attr, dSign);
+            }
+        }
+        if (!tan.isSupported())
+          return false;
+
+        double deriv[][][] = new double[nrays+1][][];
+        for (int kray=1; kray<=nrays; kray++)
+          if (rt.isRayOK[kray])
+          {
+              if (!tan.bTrace(kray))
+                return false;
+              deriv[kray] = tan.getDerivs(nsurfs);
+          }
+        return comparo.bJacobian(rt, deriv, jac);
+    }
+
+
+    private void vNudgeArrays(RT13 rt, double dp[])
+    // The arithmetic of nudgeOpt() and nudgeRay() applied to the arrays
+    // of rt, with slaves, OASPHER and the Eulers of the surfaces moved;
+    // editors are not touched.
+    {
+        for (int iadj=0; iadj<nadj; iadj++)
+        {
+            if (dp[iadj] == 0.0)
+              continue;
+            int where = adjWhere[iadj];
+            int attr = adjAttr[iadj];
+            boolean bAngle = (iadj < onadj) && ((attr==OTILT) || (attr==OPITCH) || (attr==OROLL));
+            double table[][] = (iadj < onadj) ? rt.surfs : rt.raystarts;
+            table[where][attr] += dp[iadj];
+            if (bAngle)
+              rt.setEulers(where);
+            for (int i=0; i<adjSlaves[iadj].length; i++)
+            {
+                int j = adjSlaves[iadj][i];
+                double dSign = (j > 0) ? +1.0 : -1.0;
+                table[Math.abs(j)][attr] += dSign * dp[iadj];
+                if (bAngle)
+                  rt.setEulers(Math.abs(j));
+            }
+            if ((iadj < onadj) && (attr==OSHAPE))
+              rt.surfs[where][OASPHER] += dp[iadj];
+        }
+    }
+
+
+    private int iFirstNudged(double dp[])
+    // First surface moved by dp[], for RT13.iBuildRaysFrom(): 
+    // 0 if dp[] moves any ray start, since then every surface retraces.
+    {
+        int jfirst = 0;
+        for (int iadj=0; iadj<nadj; iadj++)
+        {
+            if (dp[iadj] == 0.0)
+              continue;
+            if (iadj >= onadj)
+              return 0;
+            if ((jfirst == 0) || (adjWhere[iadj] < jfirst))
+              jfirst = adjWhere[iadj];
+            for (int i=0; i<adjSlaves[iadj].length; i++)
+              if (Math.abs(adjSlaves[iadj][i]) < jfirst)
+                jfirst = Math.abs(adjSlaves[iadj][i]);
+        }
+        return jfirst;
+    }
+
+
+    private boolean bContextResid(RT13 rt, double r[], int jfirst)
+    // Traces the initially good rays of context rt and fills r[].
+    // Returns false if any of them fails, like dPerformResid().
+    // With jfirst>1, rt already holds the trace upstream of jfirst.
+    {
+        System.arraycopy(rt13.isRayOK, 0, rt.isRayOK, 0, rt.isRayOK.length);
+        if (rt.iBuildRaysFrom(jfirst, false, 1) < ngood)
+          return false;
+        comparo.dResiduals(rt, r);
+        return true;
+    }
+
+
     double dFetchJac(int i, int j)
     // Returns one element of the Jacobian matrix.
     // i=datapoint, j=whichparm.
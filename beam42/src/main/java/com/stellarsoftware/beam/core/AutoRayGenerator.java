@@ -33,6 +33,7 @@ package com.stellarsoftware.beam.core;
   * 
   *
   *  RayHost supplies bBuildJacobian() which calls dNudge(), which calls dPerformResid().
+  *  After setAnalyticJacobian(true) it first tries RT13Tangent instead.
   *
   *
   * 
@@ -69,6 +70,7 @@ public class AutoRayGenerator implements B4constants
     private double resid[]  = {0, 0}; 
     private double dDelta[] = {1E-6, 1E-6}; 
     private boolean badray  = false;      // flag when a ray goes sour
+    private boolean bAnalytic = false;    // try RT13Tangent before differences
 
     
 
@@ -79,6 +81,11 @@ public class AutoRayGenerator implements B4constants
         this.rt13 = rt13;
     }
 
+    public void setAnalyticJacobian(boolean b)
+    {
+        bAnalytic = b;
+    }
+
     public boolean generate() {
         if ((optEditor==null) || (rayEditor==null))
             return false;                         // SNH thanks to graying.
@@ -241,6 +248,9 @@ public class AutoRayGenerator implements B4constants
     // False should trigger an explanation. 
     // Called by LMray.iLMiter().
     {
+        if (bAnalytic && bBuildJacobianAnalytic())
+          return true;
+
         double delta[] = new double[nadj];
         double d=0; 
         for (int j=0; j<nadj; j++)
@@ -287,6 +297,26 @@ public class AutoRayGenerator implements B4constants
         return true; 
     }
 
+    private boolean bBuildJacobianAnalytic()
+    // Retraces gkray, then one RT13Tangent sweep gives both columns.
+    // False if unsupported; then bBuildJacobian() uses differences.
+    {
+        for (int i=0; i<ngoals; i++)
+          if ((igoals[i]<RX) || (igoals[i]>=RTWFE))
+            return false;
+        if (dPerformResid() == BIGVAL)
+          return false;
+        RT13Tangent tan = new RT13Tangent(rt13, nadj);
+        for (int iadj=0; iadj<nadj; iadj++)
+          tan.addRayVar(iadj, gkray, rayEditor.getAdjAttrib(iadj), 1.0);
+        if (!tan.bTrace(gkray))
+          return false;
+        for (int i=0; i<ngoals; i++)
+          for (int j=0; j<nadj; j++)
+            jac[i][j] = tan.dGetDeriv(nsurfs, igoals[i], j);
+        return true;
+    }
+
     double dFetchJac(int i, int j)
     // Returns one element of the Jacobian matrix.
     // i=datapoint, j=whichparm.
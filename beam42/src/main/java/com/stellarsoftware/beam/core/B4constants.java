@@ -45,6 +45,7 @@ public interface B4constants
     static final int MAXSORT        = 10000;  // sorted layout items
     static final int MAXHOLES       = 1000;   // array iris ceiling
     static final int MAXBUNCH       = 10000;  // max random rays per refresh
+    static final int MAXMCBUNCH     = 1000000; // max streamed random rays per refresh, see RT13MonteCarlo
 
     static final int ABSENT         = -1;     // but yikes see below...
     static final int TRUE           = 1;
@@ -898,7 +899,8 @@ public interface B4constants
           {"Weight Zgoal",          "1.0"},    // 5
           {"Weight Ugoal",          "1.0"},    // 6
           {"Weight Vgoal",          "1.0"},    // 7
-          {"Weight Wgoal",          "1.0"}     // 8
+          {"Weight Wgoal",          "1.0"},    // 8
+          {"Trace threads, 0=all",    "0"}     // 9
        },
 
        {  // group 3 = UO_PLOT2
@@ -1052,7 +1054,8 @@ public interface B4constants
           {"Quartic Bell?",             "F"},  // 9
           {"Gaussian?*",                "F"},  // 10
           {"Lorentzian?*",              "F"},  // 11
-          {"*Concentration=",           "4"}   // 12
+          {"*Concentration=",           "4"},  // 12
+          {"Seed, blank=clock",          ""}   // 13
        },  
 
        {  // group 10 = UO_CAD
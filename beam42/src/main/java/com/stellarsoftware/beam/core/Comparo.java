@@ -33,6 +33,7 @@ public class Comparo implements B4constants
     private int npts=0;
     private double sos=0.0;
     private double goalValue[][];  // [ngoals][nrays]; sparse in rays
+    private char goalTag[][];      // [ngoals][nrays]; REJIF tags, for dResiduals()
     private boolean bDone[];
     private boolean bHasWFE;
 
@@ -93,6 +94,103 @@ public class Comparo implements B4constants
         }
     }
 
+    public void doCachedResiduals()
+    // Like doResiduals() but reuses the goals and tags captured by the
+    // latest doResiduals(): REJIF is neither read nor posted.
+    // Used by headless AutoAdjust between publications.
+    {
+        if (resid == null)
+        {
+            npts = 0;
+            return;
+        }
+        sos = dResiduals(rt13, resid);
+        npts = 0;
+        int nper = ((ngoals > 0) ? ngoals : 0) + (bHasWFE ? 1 : 0);
+        for (int kray=1; kray<=nrays; kray++)
+          if (rt13.isRayOK[kray])
+            npts += nper;
+    }
+
+
+    public double dResiduals(RT13 rt, double r[])
+    // Thread-safe companion to doResiduals(), for trace contexts.
+    // Uses the goals and tags captured by the latest doResiduals()
+    // and averages ganged goals afresh from rt, but posts nothing
+    // onto REJIF and leaves resid[], sos and npts untouched.
+    // Assumes rt has the same good rays as that latest trace.
+    // Places residuals into r[] and returns their sum-of-squares.
+    {
+        double s = -0.0;
+        int n = 0;
+
+        if (ngoals > 0)  // explicit goals case
+        {
+            double value[][] = new double[ngoals][];
+            for (int igoal=0; igoal<ngoals; igoal++)
+              value[igoal] = getGangedGoals(rt, igoal);
+
+            for (int kray=1; kray<=nrays; kray++)
+            {
+                if (rt.isRayOK[kray])
+                  for (int igoal=0; igoal<ngoals; igoal++)
+                  {
+                      r[n] = getRay(rt, kray, goalAttrib[igoal]) - value[igoal][kray];
+                      s += r[n]*r[n];
+                      n++;
+                  }
+            }
+        }
+
+        if (bHasWFE)  // implicit goal case
+        {
+            for (int kray=1; kray<=nrays; kray++)
+              if (rt.isRayOK[kray])
+              {
+                  r[n] = getRay(rt, kray, RTWFE);
+                  s += r[n]*r[n];
+                  n++;
+              }
+        }
+        return s;
+    }
+
+
+    public boolean bJacobian(RT13 rt, double deriv[][][], double jac[][])
+    // Analytic companion to dResiduals(): deriv[kray][iattrib][ivar] holds
+    // final-surface ray derivatives, e.g. from RT13Tangent.getDerivs(),
+    // for each good ray of rt.  Fills jac[][] in residual order, with
+    // ganged goals moving as their cohort averages do.
+    // False if a goal, e.g. WFE, has no such derivative.
+    {
+        if (bHasWFE)
+          return false;
+        int n = 0;
+        if (ngoals > 0)
+        {
+            for (int igoal=0; igoal<ngoals; igoal++)
+              if ((goalAttrib[igoal]<RX) || (goalAttrib[igoal]>=RTWFE))
+                return false;
+
+            double goal[][][] = new double[ngoals][][];
+            for (int igoal=0; igoal<ngoals; igoal++)
+              goal[igoal] = getGangedDerivs(rt, deriv, igoal);
+
+            for (int kray=1; kray<=nrays; kray++)
+            {
+                if (rt.isRayOK[kray])
+                  for (int igoal=0; igoal<ngoals; igoal++)
+                  {
+                      double d[] = deriv[kray][goalAttrib[igoal]];
+                      for (int ivar=0; ivar<d.length; ivar++)
+                        jac[n][ivar] = d[ivar] - ((goal[igoal][kray] != null) ? goal[igoal][kray][ivar] : 0.0);
+                      n++;
+                  }
+            }
+        }
+        return true;
+    }
+
     public int iGetNPTS()
     {
         return npts;
@@ -134,6 +232,7 @@ public class Comparo implements B4constants
         goalAttrib = new int[MAXGOALS]; 
         goalField = new int[MAXGOALS]; 
         goalValue = new double[MAXGOALS][nrays+1]; // dense in goals, sparse in rays
+        goalTag = new char[MAXGOALS][nrays+1];
         resid  = new double[MAXGOALS*nrays];       // dense array of residuals 
         return true; 
     } // end of bSetup()
@@ -161,6 +260,7 @@ public class Comparo implements B4constants
                 {
                    int row = kray + 2; 
                    goalValue[igoal][kray] = rayEditor.getFieldDouble(f, row);
+                   goalTag[igoal][kray] = rayEditor.getTag(f, row);
                 }
                 igoal++; 
             }
@@ -171,10 +271,16 @@ public class Comparo implements B4constants
 
 
     private double getRay(int kray, int iattrib)  // at final surface
+    {
+        return getRay(rt13, kray, iattrib);
+    }
+
+
+    private double getRay(RT13 rt, int kray, int iattrib)  // at final surface
     {
         if ((iattrib>=RX) && (iattrib<RNATTRIBS))
         {
-            double d = rt13.dGetRay(kray, nsurfs, iattrib);
+            double d = rt.dGetRay(kray, nsurfs, iattrib);
             return d; 
         }
         return -0.0;
@@ -238,5 +344,72 @@ public class Comparo implements B4constants
         } // each goal
     } // end of vGangGoals().
 
+
+
+    private double[] getGangedGoals(RT13 rt, int igoal)
+    // Same averaging as vGangGoals() but into a private copy of
+    // goalValue[igoal][] using the cached tags; REJIF is not touched.
+    // Cohorts are summed in ascending ray order, as in vGangGoals().
+    {
+        double value[] = goalValue[igoal].clone();
+        double sum[] = new double[128];
+        int count[] = new int[128];
+        boolean bTagged = false;
+        for (int k=1; k<=nrays; k++)
+        {
+            char tag = goalTag[igoal][k];
+            if ((tag<'A') || (tag>'z'))           // not tagged or averaged
+              continue;
+            bTagged = true;
+            if (rt.isRayOK[k])
+            {
+                sum[tag] += getRay(rt, k, goalAttrib[igoal]);
+                count[tag]++;
+            }
+        }
+        if (bTagged)
+          for (int k=1; k<=nrays; k++)
+          {
+              char tag = goalTag[igoal][k];
+              if ((tag>='A') && (tag<='z') && (count[tag]>0))
+                value[k] = sum[tag]/count[tag];
+          }
+        return value;
+    } // end of getGangedGoals().
+
+
+
+    private double[][] getGangedDerivs(RT13 rt, double deriv[][][], int igoal)
+    // Derivatives of getGangedGoals(): [kray][ivar], null for fixed goals.
+    {
+        double value[][] = new double[nrays+1][];
+        double sum[][] = new double[128][];
+        int count[] = new int[128];
+        int attr = goalAttrib[igoal];
+        for (int k=1; k<=nrays; k++)
+        {
+            char tag = goalTag[igoal][k];
+            if ((tag<'A') || (tag>'z') || !rt.isRayOK[k])
+              continue;
+            double d[] = deriv[k][attr];
+            if (sum[tag] == null)
+              sum[tag] = new double[d.length];
+            for (int ivar=0; ivar<d.length; ivar++)
+              sum[tag][ivar] += d[ivar];
+            count[tag]++;
+        }
+        for (int k=1; k<=nrays; k++)
+        {
+            char tag = goalTag[igoal][k];
+            if ((tag>='A') && (tag<='z') && (count[tag]>0))
+            {
+                value[k] = sum[tag].clone();
+                for (int ivar=0; ivar<value[k].length; ivar++)
+                  value[k][ivar] /= count[tag];
+            }
+        }
+        return value;
+    } // end of getGangedDerivs().
+
     
 } //--------end of Comparo----------------
\ No newline at end of file
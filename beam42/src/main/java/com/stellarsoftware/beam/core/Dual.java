@@ -0,0 +1,160 @@
+package com.stellarsoftware.beam.core;
+
+/**  Dual.java: a value carrying its first derivatives, one per variable.
+  *  Forward-mode arithmetic for RT13Tangent and the Z tangent methods.
+  *  Immutable; every operation returns a new Dual.
+  *
+  *  sqrt() at exactly zero returns a zero tangent rather than infinity:
+  *  the cone r=sqrt(x*x+y*y) is treated as flat at its apex,
+  *  which is what an axial ray through a polynomial surface needs.
+  */
+
+final class Dual
+{
+    final double v;        // value
+    final double d[];      // tangent, d[i] = dv/dp[i]
+
+    Dual(double gv, int n)
+    // A constant: all derivatives zero.
+    {
+        v = gv;
+        d = new double[n];
+    }
+
+    Dual(double gv, double gd[])
+    // Takes ownership of gd[].
+    {
+        v = gv;
+        d = gd;
+    }
+
+    static Dual par(double surf[], double sdot[][], int attr, int n)
+    // A surface parameter, with its tangent row if it has one.
+    {
+        if ((sdot == null) || (sdot[attr] == null))
+          return new Dual(surf[attr], n);
+        return new Dual(surf[attr], sdot[attr].clone());
+    }
+
+    Dual withValue(double gv)
+    // Same tangent, another value: e.g. a primal value recorded by RT13.
+    {
+        return new Dual(gv, d.clone());
+    }
+
+    Dual plus(Dual b)
+    {
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = d[i] + b.d[i];
+        return new Dual(v + b.v, r);
+    }
+
+    Dual plus(double b)
+    {
+        return new Dual(v + b, d.clone());
+    }
+
+    Dual minus(Dual b)
+    {
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = d[i] - b.d[i];
+        return new Dual(v - b.v, r);
+    }
+
+    Dual rminus(double a)
+    // a - this
+    {
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = -d[i];
+        return new Dual(a - v, r);
+    }
+
+    Dual negate()
+    {
+        return rminus(0.0);
+    }
+
+    Dual times(Dual b)
+    {
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = d[i]*b.v + v*b.d[i];
+        return new Dual(v*b.v, r);
+    }
+
+    Dual times(double b)
+    {
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = d[i]*b;
+        return new Dual(v*b, r);
+    }
+
+    Dual over(Dual b)
+    {
+        double q = v/b.v;
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = (d[i] - q*b.d[i])/b.v;
+        return new Dual(q, r);
+    }
+
+    Dual over(double b)
+    {
+        return times(1.0/b);
+    }
+
+    Dual rover(double a)
+    // a / this
+    {
+        double q = a/v;
+        double r[] = new double[d.length];
+        for (int i=0; i<d.length; i++)
+          r[i] = -q*d[i]/v;
+        return new Dual(q, r);
+    }
+
+    Dual sqr()
+    {
+        return times(this);
+    }
+
+    Dual sqrt()
+    {
+        double s = Math.sqrt(v);
+        double r[] = new double[d.length];
+        if (s > 0.0)
+          for (int i=0; i<d.length; i++)
+            r[i] = 0.5*d[i]/s;
+        return new Dual(s, r);
+    }
+
+    Dual exp()
+    {
+        double e = Math.exp(v);
+        return new Dual(e, times(e).d);
+    }
+
+    Dual cosd()
+    // cosine of an angle in degrees, as U.cosd()
+    {
+        double a = Math.toRadians(v);
+        return new Dual(Math.cos(a), times(-Math.sin(a)*Math.PI/180.0).d);
+    }
+
+    Dual sind()
+    // sine of an angle in degrees, as U.sind()
+    {
+        double a = Math.toRadians(v);
+        return new Dual(Math.sin(a), times(Math.cos(a)*Math.PI/180.0).d);
+    }
+
+    static Dual dot(Dual a[], Dual b[])
+    // three-vector dot product
+    {
+        return a[0].times(b[0]).plus(a[1].times(b[1])).plus(a[2].times(b[2]));
+    }
+}
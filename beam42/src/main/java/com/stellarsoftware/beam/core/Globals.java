@@ -7,6 +7,7 @@ public class Globals {
     public static String sAutoErr = ""; // RT13 reports to AutoAdj, if necessary
     public static boolean bAutoBusy = false;    // forbid parsing when AutoAdj is running
     public static RT13 RT13 = new RT13(); // Interim solution for migrating static data
+    public static int nTraceThreads = 1;  // RT13.iBuildRays() workers; 1=serial, see setTraceThreads()
 
     public static void init() {
         giFlags = new int[B4constants.NFLAGS];
@@ -15,5 +16,12 @@ public class Globals {
         sAutoErr = ""; // RT13 reports to AutoAdj, if necessary
         bAutoBusy = false;    // forbid parsing when AutoAdj is running
         RT13 = new RT13(); // Interim solution for migrating static data
+        nTraceThreads = 1;  // RT13.iBuildRays() workers; 1=serial
+    }
+
+    public static void setTraceThreads(int n) {
+        // n trace workers, as set by the AutoAdjust option UO_AUTO 9;
+        // n<1 means one per available processor.
+        nTraceThreads = (n < 1) ? Runtime.getRuntime().availableProcessors() : n;
     }
 }
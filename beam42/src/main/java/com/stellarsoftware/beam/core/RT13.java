@@ -2,7 +2,16 @@ package com.stellarsoftware.beam.core;
 
 import com.stellarsoftware.beam.ui.DMF;
 
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
 /** This file contains public class RT13 and private class MinFit
+  *  Trace contexts: an RT13 built from an RT13Snapshot owns arrays sized to
+  *  that snapshot and takes nsurfs, nrays, Osize and user options from it
+  *  rather than from Globals & DMF, so contexts may run on any thread.
+  *  Globals.RT13 remains the live instance filled by the table parsers.
+  *
   *  A207: eliminating groups, using 5x4 ray/surf logic.
   *  A207.11 implementing TASK DIAGRAM in DevelopmentNotes.txt
   *  ..including distinguishing getHowfarOK vs getHowfarLoop(), getFailSurf and getFailCode.
@@ -57,7 +66,7 @@ import com.stellarsoftware.beam.ui.DMF;
   * To run the rays, call public method iBuildRays(bAll, nrays, nsurfs).
   *   Here, use nsurfs, not ngroups.  Collapsing to groups happens later. 
   *   Runs all table rays,
-  *   Makes output available as dRays[][][].
+  *   Makes output available through dGetRay(), see vReserve().
   *   Computes all ganged goals
   *   Computes WFE, using MinFit for pupil piston & slopes
   *
@@ -153,9 +162,10 @@ import com.stellarsoftware.beam.ui.DMF;
   *      media[][]          << filled by MEJIF
   *
   *----output array-------------- 
-  *      dRays[][][]        << now private! replaced by a public accessor.
+  *      store[]            << private, flat, sized to nrays x recorded surfaces.
   *      dGetRay(kray, jsurf, iattrib) to include WFE, whose internal 
-  *      organization is very different from dRays[].
+  *      organization is very different from store[].
+  *      setRecordedSurfaces() may restrict store[] to a few surfaces.
   *
   * Uses no classes other than Consts; LUTs are based *here*. 
   * Based on 13-element rays: lab6 + local6 + path. 
@@ -184,15 +194,15 @@ public class RT13 implements B4constants
     /*--------public input working arrays for OEJIF and REJIF------*/
     /*-------RNSTARTS = 10, the number of ray start attributes-----*/
 
-    public double  surfs[][]      = new double[MAXSURFS+1][ONPARMS];
-    public double  raystarts[][]  = new double[MAXRAYS+1][RNSTARTS];
+    public double  surfs[][];      // [MAXSURFS+1][ONPARMS]
+    public double  raystarts[][];  // [MAXRAYS+1][RNSTARTS]
     public double  spans[]        = new double[RNSTARTS];  // set by REJIF
     public double  smins[]        = new double[RNSTARTS];  // set by REJIF
     public double  smaxs[]        = new double[RNSTARTS];  // set by REJIF
-    public double  media[][]      = new double[MAXMEDIA+1][MAXFIELDS];
+    public double  media[][];      // [MAXMEDIA+1][MAXFIELDS]
 
-    public int     gO2M[] = new int[MAXSURFS+1]; // from DMF; for jsurf gives glass ID
-    public int     gR2W[] = new int[MAXRAYS+1];  // from DMF; for kray gives wavel ID
+    public int     gO2M[];  // from DMF; for jsurf gives glass ID
+    public int     gR2W[];  // from DMF; for kray gives wavel ID
 
     //----gwave allows MPlotPanel to commandeer wavelengths; see getRefraction()---
     //------for all other purposes keep gwave=0 so rays control wavelengths--------
@@ -202,12 +212,96 @@ public class RT13 implements B4constants
     /*----------------public output arrays-------------------*/
 
 
-    public double  refractLayoutShading[] = new double[MAXSURFS+1];
-    public boolean isRayOK[] = new boolean[MAXRAYS+1];
+    public double  refractLayoutShading[];
+    public boolean isRayOK[];
     // public static int     iWFEgroup[] = new int[MAXRAYS+1];  // eliminated A207
     // public static double     dot[] = new double[MAXRAYS+1];  // moved into attribs
     
 
+    /*------------------------------------------------------*/
+    /*--------------------- constructors--------------------*/
+    /*------------------------------------------------------*/
+
+    public RT13()
+    // The live instance, Globals.RT13, filled by OEJIF, REJIF, MEJIF.
+    // Sized for the largest tables; reads nsurfs & nrays from Globals.
+    {
+        fixed = null;
+        allocate(MAXRAYS, MAXSURFS, MAXMEDIA+1);
+    }
+
+    public RT13(RT13Snapshot snap)
+    // A private trace context for one thread, see RT13Snapshot.
+    // Arrays are sized to the snapshot and filled from it.
+    {
+        fixed = snap;
+        int nr = snap.getNrays();
+        int ns = snap.getNsurfs();
+        allocate(nr, ns, snap.media().length);
+        for (int j=0; j<=ns; j++)
+          System.arraycopy(snap.surfs()[j], 0, surfs[j], 0, ONPARMS);
+        for (int k=0; k<=nr; k++)
+          System.arraycopy(snap.raystarts()[k], 0, raystarts[k], 0, RNSTARTS);
+        for (int m=0; m<media.length; m++)
+          System.arraycopy(snap.media()[m], 0, media[m], 0, MAXFIELDS);
+        System.arraycopy(snap.spans(), 0, spans, 0, RNSTARTS);
+        System.arraycopy(snap.smins(), 0, smins, 0, RNSTARTS);
+        System.arraycopy(snap.smaxs(), 0, smaxs, 0, RNSTARTS);
+        System.arraycopy(snap.gO2M(), 0, gO2M, 0, ns+1);
+        System.arraycopy(snap.gR2W(), 0, gR2W, 0, nr+1);
+        gwave = snap.getGwave();
+        scatterSeed = snap.getScatterSeed();
+    }
+
+    private void allocate(int nr, int ns, int nmedia)
+    // nr, ns are the largest kray and jsurf that will be traced.
+    // The ray store is not allocated here but by vReserve() at trace time.
+    {
+        surfs      = new double[ns+1][ONPARMS];
+        raystarts  = new double[nr+1][RNSTARTS];
+        media      = new double[nmedia][MAXFIELDS];
+        gO2M       = new int[ns+1];
+        gR2W       = new int[nr+1];
+        refractLayoutShading = new double[ns+1];
+        isRayOK    = new boolean[nr+1];
+        bExtend    = new boolean[nr+1];
+        status     = new int[nr+1];
+        howfarOK   = new int[nr+1];
+        howfarLoop = new int[nr+1];
+        failSurf   = new int[nr+1];
+        failCode   = new int[nr+1];
+        bRan       = new boolean[nr+1];
+        bGood      = new boolean[nr+1];
+    }
+
+    public RT13Snapshot snapshot()
+    // Freezes this RT13 and its Globals into an immutable, shareable snapshot.
+    {
+        return new RT13Snapshot(this);
+    }
+
+    public boolean isContext()
+    // True if this RT13 was built from a snapshot.
+    {
+        return fixed != null;
+    }
+
+    int nsurfs()
+    {
+        return (fixed != null) ? fixed.getNsurfs() : Globals.giFlags[ONSURFS];
+    }
+
+    private int nrays()
+    {
+        return (fixed != null) ? fixed.getNrays() : Globals.giFlags[RNRAYS];
+    }
+
+    private double osize()
+    {
+        return (fixed != null) ? fixed.getOsize() : DMF.getOsize();
+    }
+
+
     /*------------------------------------------------------*/
     /*-------------------- public methods-------------------*/
     /*------------------------------------------------------*/
@@ -229,10 +323,7 @@ public class RT13 implements B4constants
         if (j<0)
             System.out.println("RT13.dGetRay() HAS BEEN ASKED ABOUT NEGATIVE SURFACE = "+j);
         if ((iattrib >= RX) && (iattrib < RTWFE))  // now includes RTDOT
-        {
-            double x = dRays[kray][j][iattrib];
-            return x; 
-        }
+            return dStored(kray, j, iattrib); 
         // if (iattrib == RTWFE)
         //   return dWFE[kray]; //--why use a special array for WFE?
         return -0.0; 
@@ -241,8 +332,32 @@ public class RT13 implements B4constants
     public double dGetRayFinal(int kray, int iatt)
     // called by MapPanel after iBuildRays() has been run.
     {
-        int jsurf = Globals.giFlags[ONSURFS];
-        return dRays[kray][jsurf][iatt]; 
+        int jsurf = nsurfs();
+        return dStored(kray, jsurf, iatt); 
+    }
+
+    public void setRecordedSurfaces(int... jsurfs)
+    // Restricts the ray store to the listed surfaces, e.g. {0, nsurfs}
+    // or just {nsurfs} for a spot diagram; the others read back as -0.0.
+    // No arguments, or null, restores recording of every surface.
+    // Takes effect at the next iBuildRays() or bRunOneRay().
+    {
+        if ((jsurfs == null) || (jsurfs.length == 0))
+          bRecord = null;
+        else
+        {
+            bRecord = new boolean[MAXSURFS+2];
+            for (int j : jsurfs)
+              if ((j >= 0) && (j <= MAXSURFS+1))
+                bRecord[j] = true;
+        }
+        reservedNs = -1;   // force a new slot map
+    }
+
+    public boolean isRecordingAll()
+    // True unless setRecordedSurfaces() has restricted the ray store.
+    {
+        return bRecord == null;
     }
     
     
@@ -253,7 +368,7 @@ public class RT13 implements B4constants
     {
          if ((iatt < 0) || (iatt > ONPARMS))  // allows OTYPE etc
            return -0.0; 
-         if ((jsurf < 1) || (jsurf > MAXSURFS))
+         if ((jsurf < 1) || (jsurf >= surfs.length))
            return -0.0; 
          return surfs[jsurf][iatt]; 
     }
@@ -334,6 +449,13 @@ public class RT13 implements B4constants
         return kGuideRay;
     }
 
+    private int getGuideRay(int kray)
+    // Table rays are their own guide rays; random ray zero uses kGuideRay.
+    // Lets iBuildRays() workers share this RT13 without sharing kGuideRay.
+    {
+        return (kray > 0) ? kray : kGuideRay;
+    }
+
 
     public double getRefraction(int jsurf, int gkray)
     // if gwave==0: Returns index approaching jsurf, using gkray @wave.
@@ -347,7 +469,7 @@ public class RT13 implements B4constants
         // First: try to get refr from surfs[][] set by OEJIF.
         // If OK, use it; else use media LUT. 
         // System.out.println("-------RT13.getRefraction is starting with jsurf, gkray = "+jsurf+"  "+gkray);
-        int nsurfs = Globals.giFlags[ONSURFS];
+        int nsurfs = nsurfs();
         if (jsurf<1)
           return 1.0;        // error condition
         if (jsurf > nsurfs)
@@ -359,7 +481,7 @@ public class RT13 implements B4constants
             int k = gkray; 
             if (gkray==0)
             {
-                k = getGuideRay();
+                k = getGuideRay(0);
                 // System.out.println("RT13.getRefraction is trying GuideRay = "+k);
             }
             
@@ -408,9 +530,21 @@ public class RT13 implements B4constants
     // Used by RT13:: labtovx() and vxtolab()().
     // M.Lampton STELLAR SOFTWARE (C) 1989, 2003 
     // Enlarged to include six Hettrick implicit groove parameters, A192 March 2016
+    {
+       int nsurfs = nsurfs();
+       for (int j = 1; j<= nsurfs; j++)
+           setEulers(j); 
+    }
+
+
+    public void setEulers(int j)
+    // As setEulers() but for surface j alone: enough after a change of
+    // surface j only, e.g. one adjustable nudged or one MPlot/Map cell.
     {
        double ct, st, cp, sp, cr, sr; 
-       for (int j = 1; j<= Globals.giFlags[ONSURFS]; j++)
+       int nsurfs = nsurfs();
+       if ((j < 1) || (j > nsurfs))
+           return; 
        {
            ct = U.cosd(surfs[j][OTILT]); 
            st = U.sind(surfs[j][OTILT]); 
@@ -430,7 +564,7 @@ public class RT13 implements B4constants
        }
        
        //---Hettrick implicit polynomial coefficients  A192; A193---------
-       for (int j = 1; j< Globals.giFlags[ONSURFS]; j++)
+       if (j < nsurfs)
        {
            // surfs[j][OVX01] = surfs[j][OVY10]; 
            // surfs[j][OVX02] = surfs[j][OVY11]/2.0;
@@ -449,17 +583,47 @@ public class RT13 implements B4constants
            surfs[j][OVX21] = surfs[j][OVY30]*3.0; 
            surfs[j][OVX22] = surfs[j][OVY31]*3.0/2.0;
            surfs[j][OVX31] = surfs[j][OVY40]*4.0;
-        }
+       }
     }
 
 
   
     public int iBuildRays(boolean bAll)
+    // Runs the table rays using Globals.nTraceThreads workers; see below.
+    {
+        return iBuildRays(bAll, Globals.nTraceThreads);
+    }
+
+
+    public int iBuildRays(boolean bAll, int nthreads)
+    // Runs the table rays from scratch; see iBuildRaysFrom().
+    {
+        return iBuildRaysFrom(1, bAll, nthreads); 
+    }
+
+
+    public int iBuildRaysFrom(int jfirst, boolean bAll)
+    {
+        return iBuildRaysFrom(jfirst, bAll, Globals.nTraceThreads); 
+    }
+
+
+    public int iBuildRaysFrom(int jfirst, boolean bAll, int nthreads)
+    // Incremental retrace, for when nothing upstream of surface jfirst
+    // has changed since this RT13's previous table trace: no raystart,
+    // no wavelength, no surface j<jfirst.  Surfaces jfirst... may have
+    // changed; call setEulers(j) for each one changed.  Each ray then
+    // resumes at jfirst from its stored rows 0...jfirst-1 and the loop
+    // state cached there by its previous trace, see bCanResume(). 
+    // Rays that died upstream of jfirst are already final and are kept.
+    // Results are bit-identical to a full iBuildRays().
+    // With jfirst<=1, or recording only some surfaces, it is a full trace.
+    //
     // This runs all table rays or just the previously good table rays. 
     // NOTA BENE this is nsurfs not ngroups!  Because it uses bRunOneRay.
-    // Builds dRays[] by calling bRunray() for each ray start.
+    // Fills store[] by calling bRunray() for each ray start.
     //  (bRunray() uses iInitRaySeq() to set up each ray, even random rays.)
-    // Builds dWFE[] from aggregate dRays[].
+    // Builds dWFE[] from aggregate store[].
     // If bAll=true, it tries all rays and writes isRayOK[].
     // If bAll=false, it assumes isRayOK[] is correct and runs only known good rays.
     // This is a laborsaver, used in Auto.  Check for freshly failed rays!
@@ -468,16 +632,25 @@ public class RT13 implements B4constants
     // Be sure RT13.gwave=0 except for MPlotPanel external wavelength command. 
     // RT13.gwave is a key control parm for RT13.getRafraction(). 
     //
+    // With nthreads>1 the table is split into ray ranges run on a shared
+    // ForkJoinPool.  Each table ray is its own guide ray and touches only
+    // its own store[] rows, isRayOK[k], status[k]... so the workers never collide.
+    // ngood, iFailSurf, iFailCode and kGuideRay are then merged in ray order,
+    // giving results bit-identical to the serial nthreads=1 path.
+    //
     // M.Lampton STELLAR SOFTWARE (C) 2007
     {
-        int gnrays = Globals.giFlags[RNRAYS];
-        int gnsurfs = Globals.giFlags[ONSURFS];
+        int gnrays = nrays();
+        int gnsurfs = nsurfs();
         // System.out.println("Starting RT13.iBuildRays()");
 
-        for (int k=0; k<=gnrays; k++)
-           for (int j=1; j<gnsurfs; j++)
-            for (int iatt=0; iatt<RNATTRIBS; iatt++)
-              dRays[k][j][iatt] = -0.0; 
+        vReserve(gnrays, gnsurfs);   // each ray overwrites only its own rows
+        jfirst = Math.min(jfirst, gnsurfs); 
+        if ((nthreads > 1) && (gnrays >= 2*RayRange.MINRAYS))
+            TracePool.get(nthreads).invoke(new RayRange(this, bAll, jfirst, 1, gnrays));
+        else
+            for (int k=1; k<=gnrays; k++)
+                runTableRay(k, bAll, jfirst, work);
 
         ngood = 0; 
         iFailSurf = 0;
@@ -485,13 +658,15 @@ public class RT13 implements B4constants
         for (int k=1; k<=gnrays; k++)
         {
             kGuideRay = k; // ABSOLUTELY CRUCIAL TO USE THIS FOR REFRACTIONS
-            if (bAll || isRayOK[k])
+            if (bRan[k])
             {
-                boolean bOK = bRunOneRay(k);
-                if (bOK)
+                if (bGood[k])
                   ngood++; 
-                if (bAll)
-                  isRayOK[k] = bOK;
+                if (failSurf[k] > 0)
+                {
+                    iFailSurf = failSurf[k];
+                    iFailCode = failCode[k];
+                }
             }
         }
         // doWFEtask(ngood, gnrays, gnsurfs); // temporary elimination
@@ -499,6 +674,86 @@ public class RT13 implements B4constants
     } //---end of iBuildRays()------
 
 
+    public void copyTraceFrom(RT13 src)
+    // Adopts the latest table trace of another RT13 of the same table sizes,
+    // e.g. a base context traced once, so that this one may continue with
+    // iBuildRaysFrom() without first tracing its unchanged prefix itself.
+    {
+        int nr = nrays(); 
+        int ns = nsurfs(); 
+        vReserve(nr, ns); 
+        if ((src.reservedNr != nr) || (src.reservedNs != ns) || (src.nslots != nslots))
+            throw new IllegalArgumentException("RT13.copyTraceFrom() table sizes differ"); 
+        System.arraycopy(src.store, 0, store, 0, (nr+1) * nslots * RNATTRIBS); 
+        System.arraycopy(src.isRayOK, 0, isRayOK, 0, nr+1); 
+        System.arraycopy(src.bExtend, 0, bExtend, 0, nr+1); 
+        System.arraycopy(src.status, 0, status, 0, nr+1); 
+        System.arraycopy(src.howfarOK, 0, howfarOK, 0, nr+1); 
+        System.arraycopy(src.howfarLoop, 0, howfarLoop, 0, nr+1); 
+        System.arraycopy(src.failSurf, 0, failSurf, 0, nr+1); 
+        System.arraycopy(src.failCode, 0, failCode, 0, nr+1); 
+        System.arraycopy(src.bRan, 0, bRan, 0, nr+1); 
+        System.arraycopy(src.bGood, 0, bGood, 0, nr+1); 
+        if ((bCached != null) && (src.bCached != null))
+        {
+            System.arraycopy(src.cCodex, 0, cCodex, 0, cCodex.length); 
+            System.arraycopy(src.cTop, 0, cTop, 0, cTop.length); 
+            System.arraycopy(src.cHowfar, 0, cHowfar, 0, cHowfar.length); 
+            System.arraycopy(src.bCached, 0, bCached, 0, nr+1); 
+        }
+        else if (bCached != null)
+            Arrays.fill(bCached, false); 
+        ngood = src.ngood; 
+        iFailSurf = src.iFailSurf; 
+        iFailCode = src.iFailCode; 
+    }
+
+
+    void runTableRay(int k, boolean bAll, int jfirst, double seq[][])
+    // One table ray of iBuildRaysFrom(); called serially or by a RayRange worker.
+    // Writes only the per-ray slots k of the output arrays.
+    // seq[][] is the caller's working ray sequence, see newWork().
+    {
+        bRan[k] = bAll || isRayOK[k];
+        if (bRan[k])
+        {
+            boolean bOK;
+            if (bCanResume(k, jfirst))
+              bOK = (failSurf[k] > 0) && (failSurf[k] < jfirst) ? bGood[k] : bResumeOneRay(k, jfirst, seq);
+            else
+              bOK = bTraceOneRay(k, seq);
+            if (bAll)
+              isRayOK[k] = bOK;
+        }
+        else
+        {
+            int base = k * nslots * RNATTRIBS;
+            Arrays.fill(store, base, base + nslots * RNATTRIBS, -0.0);
+            if (bCached != null)
+              bCached[k] = false; 
+        }
+    }
+
+    private boolean bCanResume(int k, int jfirst)
+    // Can ray k skip its surfaces 1...jfirst-1?  Only if its previous trace
+    // recorded every row and its loop state, and any vExtendLabs() row
+    // lies downstream of jfirst-1 where the retrace will redo it.
+    {
+        if ((jfirst <= 1) || (bCached == null) || !bCached[k])
+          return false; 
+        if (bExtend[k] && (howfarOK[k]+1 < jfirst))
+          return false; 
+        return true; 
+    }
+
+    double[][] newWork()
+    // A working ray sequence: surface zero, every target surface,
+    // and one spare surface for vExtendLabs().
+    {
+        return new double[reservedNs+2][RNATTRIBS];
+    }
+
+
    
     
 
@@ -506,7 +761,7 @@ public class RT13 implements B4constants
     // Runs a single ray. If k==0, random ray; else table ray.
     // Returns TRUE if raystatus == RROK, else FALSE.
     // M.Lampton STELLAR SOFTWARE (c) 2012, 2018 
-    // Working directly in dRays[kray][j][iatt] not rayseq[j][iatt]
+    // Works in a rayseq[j][iatt] then keeps the recorded surfaces in store[].
     // Ray action pattern is from RT158.py; every good intercept propagates.
     // Must undo this propagation for bimodal failures for DIA,dia,SPI,ORD,TIR...
     // To undo, don't reverse with distance "d" but instead copy previous {XYZ}
@@ -530,24 +785,65 @@ public class RT13 implements B4constants
         {
            kGuideRay = iCreateOneRandomRayStart();  // kGuideRay is for getRefraction(), never zero.
         }
-        
-        int nsurfs = Globals.giFlags[ONSURFS];
+        vReserve(nrays(), nsurfs()); 
+        boolean bOK = bTraceOneRay(k, work); 
+        if (failSurf[k] > 0)
+        {
+            iFailSurf = failSurf[k];
+            iFailCode = failCode[k];
+        }
+        return bOK; 
+    }
+
+
+    private boolean bTraceOneRay(int k, double seq[][])
+    // The body of bRunOneRay(k).  Touches no shared fields except the
+    // per-ray slots k, so that iBuildRays() workers may call it concurrently.
+    // Random ray zero must already have its raystart and kGuideRay.
+    // Traces in seq[][], cleared here, then copies it into store[].
+    {
+        for (int j=1; j<seq.length; j++)
+            Arrays.fill(seq[j], -0.0); 
+        for (int iattrib=RX; iattrib<=RPATH; iattrib++)    // copy all seven starts into lab surface zero
+            seq[0][iattrib] = raystarts[k][iattrib];  // What about wavel? Separate wavel list.
+            
+        fixupLabUVW(seq[0]); 
+        howfarOK[k] = 0;             // progress indicator
+        return bTraceLoop(k, 1, 0, 0, seq);   // no RROK's hits yet
+    }
+
+    private boolean bResumeOneRay(int k, int jfirst, double seq[][])
+    // As bTraceOneRay(k) but picks up at surface jfirst: rows 0...jfirst-1
+    // come back from store[], and the loop state from the trace cache.
+    {
+        int base = k * nslots * RNATTRIBS;
+        for (int j=0; j<seq.length; j++)
+            if (j < jfirst)
+                System.arraycopy(store, base + slot[j]*RNATTRIBS, seq[j], 0, RNATTRIBS);
+            else
+                Arrays.fill(seq[j], -0.0); 
+        int c = k*cstride + jfirst-1; 
+        howfarOK[k] = cHowfar[c]; 
+        return bTraceLoop(k, jfirst, cCodex[c], cTop[c], seq); 
+    }
+
+    private boolean bTraceLoop(int k, int jfirst, int prevx, int jTopHit, double seq[][])
+    // The surface loop of bTraceOneRay(), from surface jfirst onward.
+    // prevx, jTopHit and howfarOK[k] are as the loop left them at jfirst-1.
+    {
+        int nsurfs = nsurfs();
         int code = RROK;             // status of this ray, 4 kinds
         int codex = 0;               // status of this ray, 16 kinds
-        int prevx = 0;               // previous status, 16 kinds.
-        howfarOK[k] = 0;             // progress indicator
-        howfarLoop[k] = 0;           // progress indicator
+                                     // prevx: previous status, 16 kinds.
+        howfarLoop[k] = jfirst-1;    // progress indicator
         bExtend[k] = false;          // request for graphic extension; otherwise call vxtolabs()
+        failSurf[k] = 0;             // no failure yet
+        failCode[k] = 0;
         boolean kill = false;        // request to kill this ray
         boolean skip = false;        // request to skip this surface
-
-        for (int iattrib=RX; iattrib<=RPATH; iattrib++)    // copy all seven starts into lab surface zero
-            dRays[k][0][iattrib] = raystarts[k][iattrib];  // What about wavel? Separate wavel list.
-            
-        fixupLabUVW(k); 
-        int jTopHit = 0;              // no RROK's hits yet
+        boolean bCache = (bCached != null); 
                 
-        for (int j=1; j<=nsurfs; j++) // j = target surface loop
+        for (int j=jfirst; j<=nsurfs; j++) // j = target surface loop
         {
             if (DEBUG)
                System.out.println("\n============RT13.bRunOneRay() starting k, j = " + k + "  " + j);
@@ -555,13 +851,13 @@ public class RT13 implements B4constants
             bExtend[k] = false; 
             kill = false; 
             skip = false; 
-            labtovx(k, jTopHit, j);    // jTopHit is previous j with RROK
+            labtovx(seq, k, jTopHit, j);    // jTopHit is previous j with RROK
                              
-            code = intercept(k,j);     // propagates if RROK; else RRMIS, RRBAK. line 1250
+            code = intercept(seq, k, j);     // propagates if RROK; else RRMIS, RRBAK. line 1250
             if (code==RROK)
-                code = validate(k,j);  // RROK else RRDIA, RRdia, RRSPI; line 1600
+                code = validate(seq, j);  // RROK else RRDIA, RRdia, RRSPI; line 1600
             if (code==RROK)
-                code = redirect(k,j);  // RROK else RRORD, RRTIR, RRTER, RRUNK; line 1850
+                code = redirect(seq, k, j);  // RROK else RRORD, RRTIR, RRTER, RRUNK; line 1850
             if (DEBUG)
                System.out.println("RT13.bRunOneRay() finds trace code = "+sResults[code]); 
             
@@ -616,8 +912,8 @@ public class RT13 implements B4constants
                 case BLBRF: {                                                 // count=4
                              skip = false; 
                              bExtend[k]=false; 
-                             vxtolab(k,j);
-                             clobberUVW(k,j); 
+                             vxtolab(seq, k, j);
+                             clobberUVW(seq, j); 
                              kill = true;  
                              break;}                                          // propagated failed rays
                 
@@ -626,7 +922,7 @@ public class RT13 implements B4constants
                 case BLFOK: {howfarOK[k]=j;                                   // count=7
                              skip = false; 
                              bExtend[k]=false;
-                             vxtolab(k,j); 
+                             vxtolab(seq, k, j); 
                              kill = false; 
                              break;}                                          // good rays
                 
@@ -634,7 +930,7 @@ public class RT13 implements B4constants
                 case UNIPO:                                                   // count=9
                 case UNIPI: {skip = false;                                    // count=10
                              bExtend[k]=true; 
-                             clobberUVW(k,j); 
+                             clobberUVW(seq, j); 
                              kill=true; 
                              break;}                                          //  failed; cleaned up
                                 
@@ -652,9 +948,9 @@ public class RT13 implements B4constants
                 case BLFPI: {skip = true; bExtend[k]=true; break;}            // count=20; wait and see  
                 
                 case BLBOK: if (prevx==BLFOK)                                 // count=21
-                               {howfarOK[k]=j; vxtolab(k,j); break;}          // good ray
+                               {howfarOK[k]=j; vxtolab(seq, k, j); break;}          // good ray
                             else
-                               {vxtolab(k,j);                                 // bad ray
+                               {vxtolab(seq, k, j);                                 // bad ray
                                 kill=true; 
                                 codex=BLBXO;
                                 code=RRBXO;
@@ -686,7 +982,7 @@ public class RT13 implements B4constants
                               
                 case BTOK:                                                   // count=25: kill
                            {howfarOK[k]=j; 
-                            vxtolab(k,j); 
+                            vxtolab(seq, k, j); 
                             skip=false; 
                             bExtend[k]=false; 
                             kill=true; 
@@ -697,21 +993,32 @@ public class RT13 implements B4constants
 
             prevx = codex;          
             howfarLoop[k] = j;        
+            if (bCache)                   // loop state for bResumeOneRay()
+            {
+                int c = k*cstride + j; 
+                cCodex[c] = codex; 
+                cTop[c] = jTopHit; 
+                cHowfar[c] = howfarOK[k]; 
+            }
             if (kill)
             {
-                iFailSurf = j;
-                iFailCode = codex; 
+                failSurf[k] = j;
+                failCode[k] = codex; 
                 break; 
             }
             if (skip)
-                clobberAll(k,j); 
+                clobberAll(seq, j); 
         }
         if (bExtend[k])
-            vExtendLabs(k); // this overwrites the final vxtolab()
+            vExtendLabs(seq, k); // this overwrites the final vxtolab()
+        vKeep(k, seq); 
+        if (bCache)
+            bCached[k] = true; 
         if (DEBUG)    
            System.out.println("bRunOneRay() is exitting loop with code, codex = "+sResults[code]+"  "+sCodex[codex]+"\n");
         boolean bFullDistance = (howfarOK[k] == nsurfs);
         status[k] = code;          // update the status flag 
+        bGood[k] = bFullDistance; 
         return bFullDistance;      // (code==RROK)? final bypasses are not OK since howfar<Nsurfs. 
 
     } //--------end of bRunOneRay()-----------------------
@@ -724,6 +1031,47 @@ public class RT13 implements B4constants
         return bRunOneRay(0);   // includes iCreateOneRandomRayStart()
     }
 
+    public void setRandomSeed(long seed)
+    // Restarts this RT13's random ray stream from a seed, so that a
+    // sequence of bRunRandomRay() calls can be regenerated exactly,
+    // and seeds the scatter of the table rays, see random().
+    {
+        rng = new SplittableRandom(seed); 
+        scatterSeed = seed; 
+    }
+
+    void setRandom(SplittableRandom r)
+    // Hands this RT13 its own split of a larger stream, see RT13MonteCarlo.
+    {
+        rng = r; 
+    }
+
+    long getScatterSeed()
+    {
+        return scatterSeed; 
+    }
+
+    private RandomGenerator random(int kray, int jsurf)
+    // Random ray zero draws from this RT13's own stream, which only one
+    // thread uses.  Table rays may run on several iBuildRays() workers
+    // at once, so each table ray draws at each scatter surface from its
+    // own stream, derived from scatterSeed, kray and jsurf alone.  A table
+    // trace then scatters identically whatever the thread count, and an
+    // iBuildRaysFrom() retrace resumes exactly as a full trace would.
+    {
+        if (kray == 0)
+          return rng; 
+        return new SplittableRandom(mix64(scatterSeed + mix64((long) kray * (MAXSURFS+1) + jsurf))); 
+    }
+
+    private static long mix64(long z)
+    // Stafford's variant 13 64-bit finalizer: spreads nearby keys apart.
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L; 
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL; 
+        return z ^ (z >>> 31); 
+    }
+
 
 
 
@@ -732,17 +1080,87 @@ public class RT13 implements B4constants
     /*-------------------------private zone----------------------*/
     /*-----------------------------------------------------------*/
 
+    private final RT13Snapshot fixed;  // null for the live Globals.RT13
     private int kGuideRay      = 0;
-    private boolean bExtend[]  = new boolean[MAXRAYS+1];
-    private int status[]       = new int[MAXRAYS+1];
-    private int howfarOK[]     = new int[MAXRAYS+1];
-    private int howfarLoop[]   = new int[MAXRAYS+1];
+    private SplittableRandom rng = new SplittableRandom();   // random rays; see setRandomSeed()
+    private long scatterSeed = rng.nextLong();               // table ray scatter; see random()
+    private boolean bExtend[];
+    private int status[];
+    private int howfarOK[];
+    private int howfarLoop[];
+    private int failSurf[];          // per-ray iFailSurf, merged by iBuildRays()
+    private int failCode[];          // per-ray iFailCode, merged by iBuildRays()
+    private boolean bRan[];          // was this ray run by the latest iBuildRays()?
+    private boolean bGood[];         // latest result of bTraceOneRay()
     
-    private double dRays[][][] = new double[MAXRAYS+1][MAXSURFS+1][RNATTRIBS];
+    /*--------------ray store, sized by vReserve()-------------*/
+
+    private double store[];          // flat: ray k, slot s, attrib i at (k*nslots+s)*RNATTRIBS+i
+    private int slot[];              // store slot of each surface 0...nsurfs+1, or -1
+    private int nslots = 0;
+    private boolean bRecord[];       // surfaces to record; null records all
+    private int reservedNr = -1;     // table size that store[] and slot[] fit
+    private int reservedNs = -1;
+    private double work[][];         // rayseq of serial traces, see newWork()
+
+    /*--trace cache for iBuildRaysFrom(), when recording all surfaces--*/
+
+    private int cstride = 0;         // ray k, surface j at k*cstride+j
+    private int cCodex[];            // loop codex after surface j: the next prevx
+    private int cTop[];              // jTopHit after surface j
+    private int cHowfar[];           // howfarOK after surface j
+    private boolean bCached[];       // has ray k a complete trace cache?
+
+
+    private void vReserve(int nr, int ns)
+    // Fits slot[], store[] and work[][] to nr rays of ns surfaces.
+    // Grows store[] only when the table has outgrown it.  Clears just
+    // the region in use; after that each traced ray overwrites its own rows.
+    {
+        if ((nr == reservedNr) && (ns == reservedNs))
+          return; 
+        slot = new int[ns+2];
+        nslots = 0;
+        for (int j=0; j<=ns+1; j++)
+          slot[j] = ((bRecord == null) || ((j < bRecord.length) && bRecord[j])) ? nslots++ : -1;
+        int needed = (nr+1) * nslots * RNATTRIBS;
+        if ((store == null) || (store.length < needed))
+          store = new double[needed];
+        Arrays.fill(store, 0, needed, -0.0);
+        reservedNr = nr;
+        reservedNs = ns;
+        work = newWork();
+        cstride = ns+1; 
+        if (bRecord == null)
+        {
+            cCodex  = new int[(nr+1)*cstride];
+            cTop    = new int[(nr+1)*cstride];
+            cHowfar = new int[(nr+1)*cstride];
+            bCached = new boolean[nr+1];
+        }
+        else
+        {
+            cCodex = cTop = cHowfar = null; 
+            bCached = null; 
+        }
+    }
+
+    private void vKeep(int k, double seq[][])
+    // Copies the recorded surfaces of a finished ray into store[].
+    {
+        int base = k * nslots * RNATTRIBS;
+        for (int j=0; j<seq.length; j++)
+          if (slot[j] >= 0)
+            System.arraycopy(seq[j], 0, store, base + slot[j]*RNATTRIBS, RNATTRIBS);
+    }
 
-    private boolean   bUserOptionPositive = true;
-    private int       iUserOptionMethod = 0;
-    private double    dIsoRadius = 0.0;
+    private double dStored(int kray, int j, int iatt)
+    // One stored ray datum; -0.0 for surfaces not recorded or not yet traced.
+    {
+        if ((store == null) || (kray < 0) || (kray > reservedNr) || (j < 0) || (j >= slot.length) || (slot[j] < 0))
+          return -0.0; 
+        return store[(kray*nslots + slot[j])*RNATTRIBS + iatt]; 
+    }
     
     /*--------------for WFE table and random-----------------*/
 
@@ -968,37 +1386,29 @@ public class RT13 implements B4constants
         
         //---Set up user options for this ray trace; used below-------
 
-        bUserOptionPositive = "T".equals(Globals.reg.getuo(UO_DEF, 3));
-        for (int i=0; i<4; i++)
-          if ("T".equals(Globals.reg.getuo(UO_DEF, 5+i)))
-            iUserOptionMethod = i; 
-        dIsoRadius = U.suckDouble(Globals.reg.getuo(UO_DEF,9));
-        int nrays = Globals.giFlags[RNRAYS];
+        RandomRayOptions rro = (fixed != null) ? fixed.getOptions() : new RandomRayOptions();
+        boolean bUserOptionPositive = rro.bUserOptionPositive;
+        int iUserOptionMethod = rro.iUserOptionMethod;
+        double dIsoRadius = rro.dIsoRadius;
+        int nrays = nrays();
 
         //----Clear out entire ray zero from previous run------
-        for (int j=0; j<=MAXSURFS; j++)
-            for (int i=RX; i<RNSTARTS; i++)
-                raystarts[0][i] = -0.0;
+        for (int i=RX; i<RNSTARTS; i++)
+            raystarts[0][i] = -0.0;
 
         //-----set up for distributions--------------
 
-        boolean bXYZcontinuous = "T".equals(Globals.reg.getuo(UO_RAND,3));
-        boolean bUVWcontinuous = "T".equals(Globals.reg.getuo(UO_RAND,5));
-        boolean bUniform  = "T".equals(Globals.reg.getuo(UO_RAND, 7));
-        boolean bCosine   = "T".equals(Globals.reg.getuo(UO_RAND, 8));
-        boolean bBell     = "T".equals(Globals.reg.getuo(UO_RAND, 9));
-        boolean bGauss    = "T".equals(Globals.reg.getuo(UO_RAND, 10));
-        boolean bLorentz  = "T".equals(Globals.reg.getuo(UO_RAND, 11));
-        double  dConcen   = U.suckDouble(Globals.reg.getuo(UO_RAND, 12));
-        dConcen = Math.max(1, dConcen); 
-        int which = bCosine ? 1 : bBell ? 2 : bGauss ? 3: bLorentz ? 4 : 0;  
+        boolean bXYZcontinuous = rro.bXYZcontinuous;
+        boolean bUVWcontinuous = rro.bUVWcontinuous;
+        int which = rro.which;
+        double  dConcen = rro.dConcen;
         
         // Choose a random table kray for color, wavel, order.
-        int krand = (int) (nrays * Math.random() + 1.0); 
+        int krand = 1 + rng.nextInt(nrays); 
 
         //----Construct the random ray values XYZUVWP here-------------
      
-        int krandxyz = (int) (nrays * Math.random() + 1.0);  
+        int krandxyz = 1 + rng.nextInt(nrays);  
         for (int i=RX; i<=RZ; i++)
         {   
             boolean bAbsent = U.isNegZero(raystarts[krand][i]); 
@@ -1009,13 +1419,13 @@ public class RT13 implements B4constants
             else
             {
                 if (bXYZcontinuous)        // continuous distribution
-                   raystarts[0][i] = smins[i] + getRand(which, dConcen)*spans[i]; 
+                   raystarts[0][i] = smins[i] + getRand(rng, which, dConcen)*spans[i]; 
                 else                       // discrete distribution
                    raystarts[0][i] = raystarts[krandxyz][i]; 
             }
         }  
 
-        int kranduvw = (int) (nrays * Math.random() + 1.0);           
+        int kranduvw = 1 + rng.nextInt(nrays);           
         for (int i=RU; i<=RW; i++)
         {   
             boolean bAbsent = U.isNegZero(raystarts[krand][i]); 
@@ -1026,7 +1436,7 @@ public class RT13 implements B4constants
             else
             {
                 if (bUVWcontinuous)
-                    raystarts[0][i] = smins[i] + getRand(which, dConcen)*spans[i]; 
+                    raystarts[0][i] = smins[i] + getRand(rng, which, dConcen)*spans[i]; 
                 else
                     raystarts[0][i] = raystarts[kranduvw][i]; 
             }
@@ -1046,8 +1456,8 @@ public class RT13 implements B4constants
              break;
           case 1:  // isotropic U0 
              {
-                 double s = span * Math.random();
-                 double p = U.TWOPI * Math.random(); 
+                 double s = span * rng.nextDouble();
+                 double p = U.TWOPI * rng.nextDouble(); 
                  double q = bUserOptionPositive ? 1-s : s-1; 
                  double r = Math.sqrt(1.0 - q*q); 
                  raystarts[0][RU] = q; 
@@ -1057,8 +1467,8 @@ public class RT13 implements B4constants
              break; 
           case 2:  // isotropic V0 
              {
-                 double s = span * Math.random();
-                 double p = U.TWOPI * Math.random(); 
+                 double s = span * rng.nextDouble();
+                 double p = U.TWOPI * rng.nextDouble(); 
                  double q = bUserOptionPositive ? 1-s : s-1; 
                  double r = Math.sqrt(1.0 - q*q); 
                  raystarts[0][RV] = q; 
@@ -1068,8 +1478,8 @@ public class RT13 implements B4constants
              break; 
           case 3: // isotropic W0
              {
-                 double s = span * Math.random();
-                 double p = U.TWOPI * Math.random(); 
+                 double s = span * rng.nextDouble();
+                 double p = U.TWOPI * rng.nextDouble(); 
                  double q = bUserOptionPositive ? 1-s : s-1; 
                  double r = Math.sqrt(1.0 - q*q); 
                  raystarts[0][RW] = q; 
@@ -1078,7 +1488,7 @@ public class RT13 implements B4constants
              }
              break; 
         }
-        fixupLabUVW(0); 
+        fixupLabUVW(raystarts[0]); 
         // System.out.printf("RT13.iCreateRandomRay() using smins[RU]  = %8.4f \n", smins[RU]);
         // System.out.printf("RT13.iCreateRandomRay() using spans[RU]  = %8.4f \n", spans[RU]);
         // System.out.printf("RT13.iCreateRandomRay() has generated U0 = %8.4f \n", raystarts[0][RU]);
@@ -1089,11 +1499,11 @@ public class RT13 implements B4constants
 
 
 
-    static private double getRand(int which, double dConcen)
+    static private double getRand(RandomGenerator rng, int which, double dConcen)
     // returns 0<x<1 with various distribution densities.
     // dConcen = halfspan/width50; if =1, uniform.  
     {
-        double uni = Math.random(); 
+        double uni = rng.nextDouble(); 
         dConcen = Math.max(1, dConcen);  
         if (dConcen<1.01)
           which = 0;   // adopt uniform
@@ -1105,12 +1515,8 @@ public class RT13 implements B4constants
 
            case 2:  return bell(uni);                      // bell
 
-           case 3:  double sigma=0.5/(1.349*(dConcen-1));  // Gaussian
-                    double x=0.5;                     
-                    boolean bOut=true; 
-                    while (bOut)
-                      {x = 0.5+sigma*U.grand(); bOut=(x>=1.)||(x<=0.); }
-                    return x; 
+           case 3:  double a = 1.349*(dConcen-1);          // Gaussian, sigma = 0.5/a
+                    return 0.5 + (0.5/a)*truncGauss(rng, a); 
 
            case 4:  double b = 4*dConcen - 4;              // Lorentzian
                     return 0.5+(1/b)*Math.tan((2*uni-1)*Math.atan(b/2)); 
@@ -1119,6 +1525,27 @@ public class RT13 implements B4constants
         }
     }
 
+    static private double truncGauss(RandomGenerator rng, double a)
+    // A standard normal deviate truncated to -a<z<a, without long loops:
+    // narrow windows propose uniformly and accept by the Gaussian weight,
+    // wide ones propose Gaussians and reject the tails.
+    // Either way at least 60% of the proposals are accepted.
+    {
+        if (a < 1.0)
+          while (true)
+          {
+              double z = a*(2*rng.nextDouble() - 1); 
+              if ((Math.abs(z) < a) && (rng.nextDouble() < Math.exp(-0.5*z*z)))
+                return z; 
+          }
+        while (true)
+        {
+            double z = rng.nextGaussian(); 
+            if (Math.abs(z) < a)
+              return z; 
+        }
+    }
+
     static private double bell(double p)
     // Bisection solver, 0=gBell(x)-p; 0<p<1, 0<x<1.
     {
@@ -1186,18 +1613,18 @@ public class RT13 implements B4constants
     }
 
 
-    private void vPropagate(int kray, int jsurf, double d)
+    private void vPropagate(double seq[][], int kray, int jsurf, double d)
     // Propagates a ray for a distance d in vertex coordinate system.
     // Void because this cannot fail. 
     // Refractive index dI is needed only for RPATH. 
     {
         double dIndex = getRefraction(jsurf, kray); 
-        dRays[kray][jsurf][RTXL] += dRays[kray][jsurf][RTUL] * d; 
-        dRays[kray][jsurf][RTYL] += dRays[kray][jsurf][RTVL] * d; 
-        dRays[kray][jsurf][RTZL] += dRays[kray][jsurf][RTWL] * d; 
-        dRays[kray][jsurf][RPATH] += dIndex * d;
+        seq[jsurf][RTXL] += seq[jsurf][RTUL] * d; 
+        seq[jsurf][RTYL] += seq[jsurf][RTVL] * d; 
+        seq[jsurf][RTZL] += seq[jsurf][RTWL] * d; 
+        seq[jsurf][RPATH] += dIndex * d;
         if (surfs[jsurf][OTYPE] == OTDISTORT)
-          dRays[kray][jsurf][RPATH] -= dRays[kray][jsurf][RTZL]; 
+          seq[jsurf][RPATH] -= seq[jsurf][RTZL]; 
     }
 
 
@@ -1215,13 +1642,13 @@ public class RT13 implements B4constants
     /*---------optical methods: interceptors & rootfinders--------*/
     /*---------optical methods: interceptors & rootfinders--------*/
     
-    private int intercept(int kray, int jsurf)
+    private int intercept(double seq[][], int kray, int jsurf)
     // calls dIntercept, propagates if OK: returns RR code: RROK, RRMIS, RRBAK, RRBRA
     {
         int code = RROK; 
-        double d = dIntercept(dRays[kray][jsurf], surfs[jsurf]);
+        double d = dIntercept(seq[jsurf], surfs[jsurf]);
         if (d >= 0.0)
-            vPropagate(kray, jsurf, d);
+            vPropagate(seq, kray, jsurf, d);
         else
             code = (int) Math.round(-d); // RRMIS=1, RRBAK=2, RRBRA=3
         // System.out.println("intercept is returning " + sResults[code]); 
@@ -1229,7 +1656,7 @@ public class RT13 implements B4constants
     }
         
 
-    static private double dIntercept(double ray[], double surf[])
+    private double dIntercept(double ray[], double surf[])
     // Mathematical surface intercept test does not test Diameters. 
     // Returns  d>0 if an intercept can be identified.. 
     // RAY length = ZERO is VALID for plane surfaces;  (exactly zero? slightly negative?)
@@ -1489,7 +1916,7 @@ public class RT13 implements B4constants
         return dBest;  
     }
 
-    static private double dNumSolve(double ray[], double surf[])
+    private double dNumSolve(double ray[], double surf[])
     // Returns propagation length if OK, else -1.0.
     // Relies upon Z.dGetZsurf() for the surface model. 
     // How to manage HINT for best efficiency?
@@ -1505,7 +1932,7 @@ public class RT13 implements B4constants
         return -RRBAK;  // bracket fail is usually due to backward ray 
     }
 
-    private static boolean bBracket(double d[], double r[], double s[])
+    private boolean bBracket(double d[], double r[], double s[])
     {
         int MAXIT1 = 10;       // allowed initial iterations for d[0]
         int MAXIT2 = 200;      // allowed fine iterations for d[1]
@@ -1547,12 +1974,12 @@ public class RT13 implements B4constants
     } 
 
 
-    static private double getHint(double ray[])
+    private double getHint(double ray[])
     {
         double d2 = ray[RTXL]*ray[RTXL] 
                   + ray[RTYL]*ray[RTYL] 
                   + ray[RTZL]*ray[RTZL]; 
-        return 0.2* DMF.getOsize() + 0.8*Math.sqrt(d2);
+        return 0.2* osize() + 0.8*Math.sqrt(d2);
     }
 
 
@@ -1668,9 +2095,9 @@ public class RT13 implements B4constants
     /*---A207 eliminating special code for iris-------*/
 
 
-    private int validate(int kray, int jsurf)
+    private int validate(double seq[][], int jsurf)
     {
-        int code = iDiams(dRays[kray][jsurf], surfs[jsurf]);
+        int code = iDiams(seq[jsurf], surfs[jsurf]);
         // System.out.println("Validate is returning " + sResults[code]);
         return code; 
     }
@@ -1679,16 +2106,23 @@ public class RT13 implements B4constants
     // Returns RROK if ok, else a positive failure code RRDIA, RRiri, etc.
     // M.Lampton STELLAR SOFTWARE (C) 1989, 2003, 2013
     {
-        boolean bIRect = ((OFIRECT==surf[OFORM]) || (OFBRECT==surf[OFORM]));
-        boolean bORect = ((OFORECT==surf[OFORM]) || (OFBRECT==surf[OFORM]));
-        
         if (OTIRISARRAY == surf[OTYPE])
           return iIrisArray(ray, surf); 
+        return iDiams(ray[RTXL], ray[RTYL], surf); 
+    }
+
+
+    static int iDiams(double xl, double yl, double surf[])
+    // The body of iDiams() for a local intercept {xl, yl}; not for iris arrays.
+    // Package-private for RT13Batch, which keeps its rays in columns.
+    {
+        boolean bIRect = ((OFIRECT==surf[OFORM]) || (OFBRECT==surf[OFORM]));
+        boolean bORect = ((OFORECT==surf[OFORM]) || (OFBRECT==surf[OFORM]));
 
         //---do the inner edge first-------
         
-        double x = ray[RTXL] - surf[OFFIX];  // eccentric frame
-        double y = ray[RTYL] - surf[OFFIY];  // eccentric frame
+        double x = xl - surf[OFFIX];  // eccentric frame
+        double y = yl - surf[OFFIY];  // eccentric frame
         double diay = surf[OIDIAY]; 
         double diax = surf[OIDIAX]; 
 
@@ -1706,8 +2140,8 @@ public class RT13 implements B4constants
 
         //-----do the outer edge--------
         
-        x = ray[RTXL] - surf[OFFOX];  // eccentric frame
-        y = ray[RTYL] - surf[OFFOY];  // eccentric frame
+        x = xl - surf[OFFOX];  // eccentric frame
+        y = yl - surf[OFFOY];  // eccentric frame
         diay = surf[OODIAY]; 
         diax = surf[OODIAX]; 
         if (U.isNegZero(diax))
@@ -1812,19 +2246,20 @@ public class RT13 implements B4constants
     /*-------------------------redirectors----------------------*/
     /*-------------------------redirectors----------------------*/
     
-    private int redirect(int kray, int jsurf)
+    private int redirect(double seq[][], int kray, int jsurf)
     // attempts to redirect a ray segment; returns RROK or error code
     {
         // System.out.println("RT13.redirect() is given kray, jsurf = "+kray+"  "+jsurf); 
-        int code = iRedirect(dRays[kray], surfs[jsurf], jsurf);
+        int code = iRedirect(seq, surfs[jsurf], jsurf, kray);
         // System.out.println("RT13.redirect is returning " + sResults[code]);
         return code;
     }
 
 
-    private int iRedirect(double rayseq[][], double surf[], int j)
+    private int iRedirect(double rayseq[][], double surf[], int j, int k)
     // M.Lampton STELLAR SOFTWARE (C) 2013
     //
+    // "k" is the ray being traced; its guide ray supplies wavel & order.
     // Modifies the local-frame u,v,w to redirect this ray. 
     // Receives jsurf needed for getRefraction() towards next surface.
     // Works entirely in the local frame. 
@@ -1839,7 +2274,7 @@ public class RT13 implements B4constants
         {
              case OTBLFRONT:      // successful refraction at bimodal lens
              case OTBLBACK:
-                    return iTG(rayseq[j], surf, j); 
+                    return iTG(rayseq[j], surf, j, k); 
              case OTBMIRROR:
                     return iMirror(rayseq[j], surf);
              case OTDISTORT:
@@ -1852,16 +2287,16 @@ public class RT13 implements B4constants
              case OTMIRROR:
              case OTMIRRARRAY:
                     if (bGroovy) 
-                      return iRgrating(rayseq[j], surf);
+                      return iRgrating(rayseq[j], surf, k);
                     else
                       return iMirror(rayseq[j], surf); 
              case OTLENS:
              case OTLENSARRAY:
-                    return iTG(rayseq[j], surf, j); 
+                    return iTG(rayseq[j], surf, j, k); 
              case OTGSCATTER:
-                    return iGScatter(rayseq[j], surf);   // A195
+                    return iGScatter(rayseq[j], surf, random(k, j));   // A195
              case OTUSCATTER:
-                    return iUScatter(rayseq[j], surf);   // A195
+                    return iUScatter(rayseq[j], surf, random(k, j));   // A195
              case OTCBIN:      // CoordBreak input surface
                     return iCBIN(rayseq, surf, j);  // copy previous local uvw
              case OTCBOUT:     // CoordBreak output surface 
@@ -1944,7 +2379,7 @@ public class RT13 implements B4constants
     }
     
 
-    private int iSnell(double ray[], double surf[], int jsurf)
+    private int iSnell(double ray[], double surf[], int jsurf, int k)
     // Caution: ray[13] is solved in local frame. 
     // M.Lampton STELLAR SOFTWARE (C) 1989, 2003 
     // Method: S' = mu * Salongsurface + gamma * Normaltosurface,
@@ -1954,7 +2389,7 @@ public class RT13 implements B4constants
     {
         double numer, denom, mu, ax, ay, az, bx, by, bz, b2, gamma, dotin;
 
-        int kray = getGuideRay(); 
+        int kray = getGuideRay(k); 
         System.out.println("iSnell called getGuideRay() and has got " + kray);
         numer = getRefraction(jsurf, kray); 
         denom = getRefraction(jsurf+1, kray); 
@@ -2039,7 +2474,7 @@ public class RT13 implements B4constants
         G[1] = gy;                 
     }
 
-    private int iTG(double ray[], double surf[], int jsurf)
+    private int iTG(double ray[], double surf[], int jsurf, int k)
     // Plane Transmission grating solver: refraction and diffraction combined.
     // Must have numerical wavelength not literal if using diffraction. 
     //
@@ -2058,7 +2493,7 @@ public class RT13 implements B4constants
     //
     // Refractive indices can be positive or negative.
     {   
-        int kray = getGuideRay(); 
+        int kray = getGuideRay(k); 
         double numer = getRefraction(jsurf, kray); 
         double denom = getRefraction(jsurf+1, kray); 
 
@@ -2131,7 +2566,7 @@ public class RT13 implements B4constants
 
 
 
-    static private int iGScatter(double ray[], double surf[])  
+    static private int iGScatter(double ray[], double surf[], RandomGenerator rng)  
     // A196: scatter is with respect to local normal not incoming ray direction
     {
         double[] Norm = new double[RNATTRIBS];
@@ -2140,8 +2575,8 @@ public class RT13 implements B4constants
         // ray[RTUL] += radians * U.grand();               // add to previous ray direction
         // ray[RTVL] += radians * U.grand();               // add to previous ray direction
         // ray[RTWL] += radians * U.grand();               // add to previous ray direction
-        ray[RTUL] = Norm[RTUL] + radians * U.grand();      // deviate from local normal
-        ray[RTVL] = Norm[RTVL] + radians * U.grand();      // deviate from local normal
+        ray[RTUL] = Norm[RTUL] + radians * rng.nextGaussian();  // deviate from local normal
+        ray[RTVL] = Norm[RTVL] + radians * rng.nextGaussian();  // deviate from local normal
         ray[RTWL] = 1.;
         double sum = U.sqr(ray[RTUL]) + U.sqr(ray[RTVL]) + U.sqr(ray[RTWL]); 
         sum = Math.sqrt(sum); 
@@ -2151,15 +2586,15 @@ public class RT13 implements B4constants
         return RROK; 
     }
     
-    static private int iUScatter(double ray[], double surf[])  // A195 uniform scatter
+    static private int iUScatter(double ray[], double surf[], RandomGenerator rng)  // A195 uniform scatter
     // A196: scatter is with respect to local normal not vertex normal
     {
         double[] Norm = new double[RNATTRIBS];
         vGetPerp(ray, surf, Norm); 
-        double azimuth = 2*Math.PI * Math.random(); 
+        double azimuth = 2*Math.PI * rng.nextDouble(); 
         double maxdeg = Math.max(0., Math.min(89.99, surf[OSCATTER]));
         double maxradians = (Math.PI/180.)* maxdeg;
-        double radius = Math.sqrt(Math.random())*maxradians; 
+        double radius = Math.sqrt(rng.nextDouble())*maxradians; 
         ray[RTUL] = Norm[RTUL] + radius*Math.cos(azimuth); 
         ray[RTVL] = Norm[RTVL] + radius*Math.sin(azimuth); 
         ray[RTWL] = 1.;
@@ -2171,13 +2606,13 @@ public class RT13 implements B4constants
         return RROK; 
     }
 
-    private int iRgrating(double ray[], double surf[])
+    private int iRgrating(double ray[], double surf[], int k)
     {
-        return iGrating(ray, surf, true); 
+        return iGrating(ray, surf, true, k); 
     }
 
 
-    private int iGrating(double ray[], double surf[], boolean bRefl)
+    private int iGrating(double ray[], double surf[], boolean bRefl, int k)
     // Vacuum diffraction grating, transmission or reflection. 
     //   Output: revised ray[] directions in local vertex frame.
     //   Method: Spencer & Murty eqns 49 & 50.
@@ -2221,7 +2656,7 @@ public class RT13 implements B4constants
 
         // Get the ray wavelength from this raystart. 
 
-        int kray = getGuideRay(); 
+        int kray = getGuideRay(k); 
         double wavel = raystarts[kray][RSWAVEL]; 
         if (Double.isNaN(wavel))
           return RRUNK; 
@@ -2338,52 +2773,52 @@ public class RT13 implements B4constants
 
 
     
-    private void labtovx(int k, int jprev, int j)
+    private void labtovx(double seq[][], int k, int jprev, int j)
     // Coordinate frame changer from lab jprev to vertex frame j.
     // Matrix OE converts local to lab coordinates; so use its transpose here.
     // Also carries RPATH forward from rprev[] to rthis[] ??
     // M.Lampton STELLAR SOFTWARE (C) 1989, 2003
     {
         double x, y, z, dx, dy, dz, u, v, w;
-        boolean rayok = isNormalizedLab(dRays[k][jprev]);
+        boolean rayok = isNormalizedLab(seq[jprev]);
         if (!rayok)
         {
             System.out.println("labtovx() starting with BAAD LAB NORMALIZATION; k, jprev, j= "+k+"  "+jprev+"  "+j);
-            System.out.println("....norm error = "+getNormErrorLab(dRays[k][jprev])); 
+            System.out.println("....norm error = "+getNormErrorLab(seq[jprev])); 
         }
         
-        x  = dRays[k][jprev][RX];
-        y  = dRays[k][jprev][RY];
-        z  = dRays[k][jprev][RZ];    
-        u  = dRays[k][jprev][RU];
-        v  = dRays[k][jprev][RV];
-        w  = dRays[k][jprev][RW];            
+        x  = seq[jprev][RX];
+        y  = seq[jprev][RY];
+        z  = seq[jprev][RZ];    
+        u  = seq[jprev][RU];
+        v  = seq[jprev][RV];
+        w  = seq[jprev][RW];            
         // System.out.printf("labtovx input  x,y,z,u,v,w = %8.4f %8.4f %8.4f %8.4f %8.4f %8.4f \n", x,y,z,u,v,w);             
         
-        dx = dRays[k][jprev][RX] - surfs[j][OX];
-        dy = dRays[k][jprev][RY] - surfs[j][OY];
-        dz = dRays[k][jprev][RZ] - surfs[j][OZ];
+        dx = seq[jprev][RX] - surfs[j][OX];
+        dy = seq[jprev][RY] - surfs[j][OY];
+        dz = seq[jprev][RZ] - surfs[j][OZ];
    
-        dRays[k][j][RTXL] = surfs[j][OE11]*dx + surfs[j][OE21]*dy + surfs[j][OE31]*dz;
-        dRays[k][j][RTYL] = surfs[j][OE12]*dx + surfs[j][OE22]*dy + surfs[j][OE32]*dz;
-        dRays[k][j][RTZL] = surfs[j][OE13]*dx + surfs[j][OE23]*dy + surfs[j][OE33]*dz;
+        seq[j][RTXL] = surfs[j][OE11]*dx + surfs[j][OE21]*dy + surfs[j][OE31]*dz;
+        seq[j][RTYL] = surfs[j][OE12]*dx + surfs[j][OE22]*dy + surfs[j][OE32]*dz;
+        seq[j][RTZL] = surfs[j][OE13]*dx + surfs[j][OE23]*dy + surfs[j][OE33]*dz;
         
-        dRays[k][j][RTUL] = surfs[j][OE11]*u + surfs[j][OE21]*v + surfs[j][OE31]*w;
-        dRays[k][j][RTVL] = surfs[j][OE12]*u + surfs[j][OE22]*v + surfs[j][OE32]*w;
-        dRays[k][j][RTWL] = surfs[j][OE13]*u + surfs[j][OE23]*v + surfs[j][OE33]*w;
-        dRays[k][j][RPATH] = dRays[k][jprev][RPATH]; 
+        seq[j][RTUL] = surfs[j][OE11]*u + surfs[j][OE21]*v + surfs[j][OE31]*w;
+        seq[j][RTVL] = surfs[j][OE12]*u + surfs[j][OE22]*v + surfs[j][OE32]*w;
+        seq[j][RTWL] = surfs[j][OE13]*u + surfs[j][OE23]*v + surfs[j][OE33]*w;
+        seq[j][RPATH] = seq[jprev][RPATH]; 
         
-        x  = dRays[k][j][RTXL];
-        y  = dRays[k][j][RTYL];
-        z  = dRays[k][j][RTZL];    
-        u  = dRays[k][j][RTUL];
-        v  = dRays[k][j][RTVL];
-        w  = dRays[k][j][RTWL];          
+        x  = seq[j][RTXL];
+        y  = seq[j][RTYL];
+        z  = seq[j][RTZL];    
+        u  = seq[j][RTUL];
+        v  = seq[j][RTVL];
+        w  = seq[j][RTWL];          
         // System.out.printf("labtovx output x,y,z,u,v,w = %8.4f %8.4f %8.4f %8.4f %8.4f %8.4f \n", x,y,z,u,v,w);        
     }
 
 
-    private void vxtolab(int k, int j)
+    private void vxtolab(double seq[][], int k, int j)
     // Coordinate frame changer, ray="k", single surface "j".
     // Here the OE matrix is used directly, local to lab conversion. 
     // Converts a vertex-frame ray descriptor to lab frame.
@@ -2391,76 +2826,76 @@ public class RT13 implements B4constants
     {
         double x, y, z, u, v, w;
         
-        boolean rayok = isNormalizedVx(dRays[k][j]);
+        boolean rayok = isNormalizedVx(seq[j]);
         if (!rayok)
         {
             System.out.println("vxtolab() starting with BAAD LAB NORMALIZATION; k, j= "+k+"  "+j);
-            System.out.println("....norm error = "+getNormErrorVx(dRays[k][j])); 
+            System.out.println("....norm error = "+getNormErrorVx(seq[j])); 
         }
         // System.out.println("vxtolab() being called; surf[OZ] = "+surf[OZ]); 
         
-        x  = dRays[k][j][RTXL];
-        y  = dRays[k][j][RTYL];
-        z  = dRays[k][j][RTZL];    
-        u  = dRays[k][j][RTUL];
-        v  = dRays[k][j][RTVL];
-        w  = dRays[k][j][RTWL];          
+        x  = seq[j][RTXL];
+        y  = seq[j][RTYL];
+        z  = seq[j][RTZL];    
+        u  = seq[j][RTUL];
+        v  = seq[j][RTVL];
+        w  = seq[j][RTWL];          
         // System.out.printf("vxtolab input  x,y,z,u,v,w = %8.4f %8.4f %8.4f %8.4f %8.4f %8.4f \n", x,y,z,u,v,w);   
 
-        dRays[k][j][RU] = surfs[j][OE11]*u + surfs[j][OE12]*v + surfs[j][OE13]*w;
-        dRays[k][j][RV] = surfs[j][OE21]*u + surfs[j][OE22]*v + surfs[j][OE23]*w;
-        dRays[k][j][RW] = surfs[j][OE31]*u + surfs[j][OE32]*v + surfs[j][OE33]*w;
+        seq[j][RU] = surfs[j][OE11]*u + surfs[j][OE12]*v + surfs[j][OE13]*w;
+        seq[j][RV] = surfs[j][OE21]*u + surfs[j][OE22]*v + surfs[j][OE23]*w;
+        seq[j][RW] = surfs[j][OE31]*u + surfs[j][OE32]*v + surfs[j][OE33]*w;
 
-        dRays[k][j][RX] = surfs[j][OE11]*x + surfs[j][OE12]*y + surfs[j][OE13]*z;
-        dRays[k][j][RY] = surfs[j][OE21]*x + surfs[j][OE22]*y + surfs[j][OE23]*z;
-        dRays[k][j][RZ] = surfs[j][OE31]*x + surfs[j][OE32]*y + surfs[j][OE33]*z;
+        seq[j][RX] = surfs[j][OE11]*x + surfs[j][OE12]*y + surfs[j][OE13]*z;
+        seq[j][RY] = surfs[j][OE21]*x + surfs[j][OE22]*y + surfs[j][OE23]*z;
+        seq[j][RZ] = surfs[j][OE31]*x + surfs[j][OE32]*y + surfs[j][OE33]*z;
         
-        x = dRays[k][j][RX] += surfs[j][OX];
-        y = dRays[k][j][RY] += surfs[j][OY];
-        z = dRays[k][j][RZ] += surfs[j][OZ];
-        u = dRays[k][j][RU];
-        v = dRays[k][j][RV]; 
-        w = dRays[k][j][RW];
+        x = seq[j][RX] += surfs[j][OX];
+        y = seq[j][RY] += surfs[j][OY];
+        z = seq[j][RZ] += surfs[j][OZ];
+        u = seq[j][RU];
+        v = seq[j][RV]; 
+        w = seq[j][RW];
         // System.out.printf("vxtolab output x,y,z,u,v,w = %8.4f %8.4f %8.4f %8.4f %8.4f %8.4f \n", x,y,z,u,v,w);  
-        rayok = isNormalizedLab(dRays[k][j]);
+        rayok = isNormalizedLab(seq[j]);
         if (!rayok)
         {
             System.out.println("vxtolab() exitting with BAAD LAB NORMALIZATION; k, j = "+k+"  "+j);
-            System.out.println("....norm error = "+getNormErrorLab(dRays[k][j]));     
+            System.out.println("....norm error = "+getNormErrorLab(seq[j]));     
         }    
     }
 
     
-    private void clobberUVW(int k, int j)
+    private void clobberUVW(double seq[][], int j)
     // used only to zero out failed redirections to blank InOut and graphic data points.
     // Assumes that InOut, Plot2D and Plot3D skip minus zero data!
     {
-        dRays[k][j][RTUL] = -0.0; 
-        dRays[k][j][RTVL] = -0.0;
-        dRays[k][j][RTWL] = +1.0; 
-        dRays[k][j][RU]   = -0.0;
-        dRays[k][j][RV]   = -0.0;
-        dRays[k][j][RW]   = +1.0;
+        seq[j][RTUL] = -0.0; 
+        seq[j][RTVL] = -0.0;
+        seq[j][RTWL] = +1.0; 
+        seq[j][RU]   = -0.0;
+        seq[j][RV]   = -0.0;
+        seq[j][RW]   = +1.0;
     }
 
-    private void clobberAll(int k, int j)
+    private void clobberAll(double seq[][], int j)
     // clears out a skipped ray surface combo.
     {
-        dRays[k][j][RTXL] = -0.0; 
-        dRays[k][j][RTYL] = -0.0;
-        dRays[k][j][RTZL] = -0.0; 
-        dRays[k][j][RX]   = -0.0;
-        dRays[k][j][RY]   = -0.0;
-        dRays[k][j][RZ]   = -0.0;
-        dRays[k][j][RTUL] = -0.0; 
-        dRays[k][j][RTVL] = -0.0;
-        dRays[k][j][RTWL] = -0.0; 
-        dRays[k][j][RU]   = -0.0;
-        dRays[k][j][RV]   = -0.0;
-        dRays[k][j][RW]   = -0.0;
+        seq[j][RTXL] = -0.0; 
+        seq[j][RTYL] = -0.0;
+        seq[j][RTZL] = -0.0; 
+        seq[j][RX]   = -0.0;
+        seq[j][RY]   = -0.0;
+        seq[j][RZ]   = -0.0;
+        seq[j][RTUL] = -0.0; 
+        seq[j][RTVL] = -0.0;
+        seq[j][RTWL] = -0.0; 
+        seq[j][RU]   = -0.0;
+        seq[j][RV]   = -0.0;
+        seq[j][RW]   = -0.0;
     }
     
-    private void vExtendLabs(int kray)
+    private void vExtendLabs(double seq[][], int kray)
     // Extends lab coords of a failed ray for layout dotted indicator.
     // Extends from howfarOK[k] to howfarOK[k]+1.
     // Just like vPropagate() but used only for failed rays. 
@@ -2469,36 +2904,42 @@ public class RT13 implements B4constants
     // Apply this only AFTER each ray's loop terminates with bExtend[]=true.
     {
         int j = howfarOK[kray];
-        String fracStr = Globals.reg.getuo(UO_LAYOUT, 39); // factory default: B4constants line 870
-        double frac = 0.01* Double.parseDouble(fracStr);  
-        double size = DMF.getOsize();
+        double frac;
+        if (fixed != null)
+            frac = 0.01 * fixed.getExtendFrac();
+        else
+        {
+            String fracStr = Globals.reg.getuo(UO_LAYOUT, 39); // factory default: B4constants line 870
+            frac = 0.01* Double.parseDouble(fracStr);  
+        }
+        double size = osize();
         double dist = frac * size;
         if (DEBUG)
         {  
             System.out.println("RT13.vExtendLabs() is extending LAB coords starting at howfarOK = "+j); 
             System.out.printf("RT13.vExtendLabs() has frac, size, dist = %9.3f %9.3f %9.3f \n", frac, size, dist); 
         }
-        dRays[kray][j+1][RX] = dRays[kray][j][RX] + dRays[kray][j][RU] * dist; 
-        dRays[kray][j+1][RY] = dRays[kray][j][RY] + dRays[kray][j][RV] * dist; 
-        dRays[kray][j+1][RZ] = dRays[kray][j][RZ] + dRays[kray][j][RW] * dist; 
+        seq[j+1][RX] = seq[j][RX] + seq[j][RU] * dist; 
+        seq[j+1][RY] = seq[j][RY] + seq[j][RV] * dist; 
+        seq[j+1][RZ] = seq[j][RZ] + seq[j][RW] * dist; 
     }
 
 
-    private void fixupLabUVW(int k)
+    private void fixupLabUVW(double ray[])
+    // Completes the lab direction cosines of a ray start.
     {
-        int j = 0; 
-        double sign = dRays[k][j][RW] < 0 ? -1.0 : +1.0;
-        double sos = U.sqr(dRays[k][j][RU]) + U.sqr(dRays[k][j][RV]);
+        double sign = ray[RW] < 0 ? -1.0 : +1.0;
+        double sos = U.sqr(ray[RU]) + U.sqr(ray[RV]);
         if (sos > 1.0)
         {
             double r = Math.sqrt(sos);
-            dRays[k][j][RU] /= r;
-            dRays[k][j][RV] /= r;
-            dRays[k][j][RW] = 0.0; 
+            ray[RU] /= r;
+            ray[RV] /= r;
+            ray[RW] = 0.0; 
         }
         else     
-            dRays[k][j][RW] = sign*Math.sqrt(1 - sos);
-        boolean rayok = isNormalizedLab(dRays[k][j]);
+            ray[RW] = sign*Math.sqrt(1 - sos);
+        boolean rayok = isNormalizedLab(ray);
         if (!rayok)
             System.out.println("fixupLabUVW() exitting, failed lab normalization.");            
     } 
@@ -2656,6 +3097,49 @@ public class RT13 implements B4constants
 
 
 
+/** class RayRange
+  *  Fork-join task for RT13.iBuildRaysFrom(jfirst, bAll, nthreads).
+  *  Halves its span of table rays until at most MINRAYS remain,
+  *  then runs them in order through RT13.runTableRay().
+  */
+@SuppressWarnings("serial")
+class RayRange extends java.util.concurrent.RecursiveAction
+{
+    static final int MINRAYS = 16;   // smallest span worth a task
+
+    private final RT13 rt;
+    private final boolean bAll;
+    private final int jfirst;
+    private final int kfirst, klast;
+
+    RayRange(RT13 rt, boolean bAll, int jfirst, int kfirst, int klast)
+    {
+        this.rt = rt;
+        this.bAll = bAll;
+        this.jfirst = jfirst;
+        this.kfirst = kfirst;
+        this.klast = klast;
+    }
+
+    @Override
+    protected void compute()
+    {
+        if (klast - kfirst < MINRAYS)
+        {
+            double seq[][] = rt.newWork();   // this leaf's own rayseq
+            for (int k=kfirst; k<=klast; k++)
+              rt.runTableRay(k, bAll, jfirst, seq);
+            return;
+        }
+        int kmid = (kfirst + klast) / 2;
+        invokeAll(new RayRange(rt, bAll, jfirst, kfirst, kmid),
+                  new RayRange(rt, bAll, jfirst, kmid+1, klast));
+    }
+}
+
+
+
+
 
 /** private class MinFit
   * Fits linear function a+bx+cy to collected data xyf[][]
@@ -0,0 +1,559 @@
+package com.stellarsoftware.beam.core;
+
+/** RT13Batch.java: a structure-of-arrays ray tracer for whole batches.
+  *
+  * RT13 traces one ray at a time through a rayseq[j][RNATTRIBS].
+  * An RT13Batch instead holds its rays in columns, one double[] per
+  * attribute, and advances the whole batch one surface at a time:
+  * each stage, labtovx, intercept, propagate, diameters, redirect,
+  * vxtolab, is a tight loop over contiguous arrays, live rays only.
+  * Nothing is allocated while tracing and nothing is kept per surface,
+  * so a batch may hold far more rays than MAXRAYS.
+  *
+  * The optics are read from an RT13 at construction; use a trace context
+  * from RT13Snapshot.newContext() when working off the EDT.  Each ray names
+  * a guide ray, a table ray supplying its wavelength, as in RT13.
+  * The arithmetic is RT13's, so good rays agree with bRunOneRay().
+  *
+  * Supported: unimodal lens, mirror, retro, iris and distorter surfaces
+  * with plano, conic and cylinder profiles; no arrays, groovy mirrors
+  * or diffractive lenses.  isSupported() reports whether this optic
+  * qualifies; setRay() refuses a guide ray that would diffract.
+  *
+  * Typical use:
+  *
+  *    RT13Batch batch = new RT13Batch(snap.newContext(), 5000);
+  *    if (batch.isSupported())
+  *    {
+  *        for (int i=0; i<5000; i++)
+  *          batch.setRay(i, x0, y0, z0, u0, v0, w0, kguide);
+  *        int ngood = batch.trace();
+  *        ...batch.x[i], batch.y[i]...
+  *    }
+  *
+  */
+public final class RT13Batch implements B4constants
+{
+    //----------results, lab frame at the final surface or failure----------
+
+    public final double x[], y[], z[];
+    public final double u[], v[], w[];
+    public final double path[];
+
+    private final RT13 rt;
+    private final int nsurfs;
+    private final int capacity;
+    private final boolean bSupported;
+    private final double surfs[][];       // the rt.surfs rows, not copied
+    private final double index[][];       // [guide][j]: getRefraction(j, guide), lazily
+    private final boolean bDiffracts[];   // [guide]
+
+    private int n = 0;                    // rays in this batch
+    private final double start[][];       // [RX..RPATH][i]: ray starts, kept for retracing
+    private final int guide[];
+    private final int status[];
+    private final int howfarOK[];
+    private final boolean bLive[];
+
+    //-----------vertex frame columns, reused at each surface---------
+
+    private final double xl[], yl[], zl[];
+    private final double ul[], vl[], wl[];
+    private final double dist[];
+
+    private final double abc[] = new double[3];   // dQuadSolve() scratch
+    private final double roots[] = new double[2];
+    private final double norm[] = new double[3];  // Z.vGetNormal() scratch
+
+
+    public RT13Batch(RT13 rt, int capacity)
+    {
+        this.rt = rt;
+        this.capacity = Math.max(0, capacity);
+        nsurfs = rt.nsurfs();
+        surfs = rt.surfs;
+        int nguides = rt.raystarts.length;
+        index = new double[nguides][];
+        bDiffracts = new boolean[nguides];
+
+        boolean bOK = nsurfs > 0;
+        for (int j=1; j<=nsurfs; j++)
+          bOK &= isSupported(surfs[j]);
+        bSupported = bOK;
+
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        u = new double[capacity];
+        v = new double[capacity];
+        w = new double[capacity];
+        path = new double[capacity];
+        start = new double[RPATH+1][capacity];
+        xl = new double[capacity];
+        yl = new double[capacity];
+        zl = new double[capacity];
+        ul = new double[capacity];
+        vl = new double[capacity];
+        wl = new double[capacity];
+        dist = new double[capacity];
+        guide = new int[capacity];
+        status = new int[capacity];
+        howfarOK = new int[capacity];
+        bLive = new boolean[capacity];
+    }
+
+
+    public boolean isSupported()
+    {
+        return bSupported;
+    }
+
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    public int getSize()
+    {
+        return n;
+    }
+
+
+    public void clear()
+    {
+        n = 0;
+    }
+
+
+    public boolean setRay(int i, double x0, double y0, double z0,
+                          double u0, double v0, double w0, int kguide)
+    // Ray start i of this batch, as raystarts[][] would hold it:
+    // w0 gives only the sign of w, as in RT13.fixupLabUVW().
+    // False if i or kguide is out of range, or kguide would diffract.
+    {
+        if ((i<0) || (i>=capacity) || (kguide<1) || (kguide>=index.length))
+          return false;
+        if (index[kguide] == null)
+          vSetupGuide(kguide);
+        if (bDiffracts[kguide])
+          return false;
+
+        double sign = w0 < 0 ? -1.0 : +1.0;
+        double sos = U.sqr(u0) + U.sqr(v0);
+        if (sos > 1.0)
+        {
+            double r = Math.sqrt(sos);
+            u0 /= r;
+            v0 /= r;
+            w0 = 0.0;
+        }
+        else
+          w0 = sign*Math.sqrt(1 - sos);
+
+        start[RX][i] = x0;
+        start[RY][i] = y0;
+        start[RZ][i] = z0;
+        start[RU][i] = u0;
+        start[RV][i] = v0;
+        start[RW][i] = w0;
+        start[RPATH][i] = 0.0;
+        guide[i] = kguide;
+        n = Math.max(n, i+1);
+        return true;
+    }
+
+
+    public int loadTableRays()
+    // Fills this batch with table rays 1...nrays as rays 0...nrays-1.
+    // Returns how many were loaded; stops at the first that cannot be.
+    {
+        int nrays = Math.min(capacity, rt.raystarts.length-1);
+        n = 0;
+        for (int k=1; k<=nrays; k++)
+        {
+            double r[] = rt.raystarts[k];
+            if (!setRay(k-1, r[RX], r[RY], r[RZ], r[RU], r[RV], r[RW], k))
+              break;
+            start[RPATH][k-1] = r[RPATH];
+        }
+        return n;
+    }
+
+
+    public int trace()
+    // Traces rays 0...getSize()-1 and returns how many reached the final surface.
+    // Returns 0 if this optic is not supported.  The ray starts are kept,
+    // so a batch may be retraced, e.g. after its RT13's surfs[][] change;
+    // surface types must stay as they were at construction.
+    {
+        if (!bSupported)
+          return 0;
+        for (int k=1; k<index.length; k++)
+          if (index[k] != null)
+            vSetupGuide(k);
+        System.arraycopy(start[RX], 0, x, 0, n);
+        System.arraycopy(start[RY], 0, y, 0, n);
+        System.arraycopy(start[RZ], 0, z, 0, n);
+        System.arraycopy(start[RU], 0, u, 0, n);
+        System.arraycopy(start[RV], 0, v, 0, n);
+        System.arraycopy(start[RW], 0, w, 0, n);
+        System.arraycopy(start[RPATH], 0, path, 0, n);
+        for (int i=0; i<n; i++)
+        {
+            bLive[i] = true;
+            status[i] = RROK;
+            howfarOK[i] = 0;
+        }
+        for (int j=1; j<=nsurfs; j++)
+        {
+            double surf[] = surfs[j];
+            vLabToVx(surf);
+            vIntercept(surf);
+            vPropagate(surf, j);
+            vDiams(surf);
+            vRedirect(surf, j);
+            vVxToLab(surf, j);
+        }
+        int ngood = 0;
+        for (int i=0; i<n; i++)
+          if (bLive[i])
+            ngood++;
+        return ngood;
+    }
+
+
+    public int getStatus(int i)
+    // RROK, or the RR code of the surface where ray i failed.
+    {
+        return status[i];
+    }
+
+
+    public int getHowfarOK(int i)
+    // The last surface ray i completed, 0...nsurfs, as RT13.getHowfarOK().
+    {
+        return howfarOK[i];
+    }
+
+
+    public boolean isGood(int i)
+    {
+        return bLive[i] && (howfarOK[i] == nsurfs);
+    }
+
+
+
+    /*-------------------private zone: one stage per loop-------------------*/
+
+    static private boolean isSupported(double surf[])
+    {
+        switch ((int) surf[OTYPE])
+        {
+            case OTLENS:
+            case OTRETRO:
+            case OTIRIS:
+            case OTDISTORT:  break;
+            case OTMIRROR:   if (surf[OGROOVY] != 0.0)
+                               return false;
+                             break;
+            default:         return false;
+        }
+        switch ((int) surf[OPROFILE])
+        {
+            case OSPLANO:
+            case OSCONIC:
+            case OSCONICLT:
+            case OSCONICGT:
+            case OSXCYL:
+            case OSXCYLLT:
+            case OSXCYLGT:
+            case OSYCYL:
+            case OSYCYLLT:
+            case OSYCYLGT:  return true;
+            default:        return false;
+        }
+    }
+
+
+    private void vSetupGuide(int k)
+    // Refractive indices along the path for guide ray k, and iTG()'s
+    // diffraction test: lenses diffract when order*wavel is nonzero.
+    {
+        if (index[k] == null)
+          index[k] = new double[nsurfs+2];
+        for (int j=1; j<=nsurfs+1; j++)
+          index[k][j] = rt.getRefraction(j, k);
+        bDiffracts[k] = false;
+
+        double rayorder = rt.raystarts[k][RSORDER];
+        double wavel = rt.raystarts[k][RSWAVEL];
+        for (int j=1; j<=nsurfs; j++)
+          if ((int) surfs[j][OTYPE] == OTLENS)
+          {
+              double order = surfs[j][OORDER];
+              if (U.isNotNegZero(rayorder))
+                order = rayorder;
+              if ((order != 0) && !(wavel*order == 0.0))
+                bDiffracts[k] = true;
+          }
+    }
+
+
+    private void kill(int i, int code)
+    {
+        bLive[i] = false;
+        status[i] = code;
+    }
+
+
+    private void vLabToVx(double surf[])
+    // RT13.labtovx(): the transpose of OE converts lab to vertex frame.
+    {
+        double e11 = surf[OE11], e12 = surf[OE12], e13 = surf[OE13];
+        double e21 = surf[OE21], e22 = surf[OE22], e23 = surf[OE23];
+        double e31 = surf[OE31], e32 = surf[OE32], e33 = surf[OE33];
+        double ox = surf[OX], oy = surf[OY], oz = surf[OZ];
+        for (int i=0; i<n; i++)
+        {
+            if (!bLive[i])
+              continue;
+            double dx = x[i] - ox;
+            double dy = y[i] - oy;
+            double dz = z[i] - oz;
+            xl[i] = e11*dx + e21*dy + e31*dz;
+            yl[i] = e12*dx + e22*dy + e32*dz;
+            zl[i] = e13*dx + e23*dy + e33*dz;
+            ul[i] = e11*u[i] + e21*v[i] + e31*w[i];
+            vl[i] = e12*u[i] + e22*v[i] + e32*w[i];
+            wl[i] = e13*u[i] + e23*v[i] + e33*w[i];
+        }
+    }
+
+
+    private void vIntercept(double surf[])
+    // RT13.dIntercept() restricted to dPlaneSolve() and dQuadSolve().
+    {
+        if ((int) surf[OPROFILE] == OSPLANO)
+        {
+            for (int i=0; i<n; i++)
+            {
+                if (!bLive[i])
+                  continue;
+                double d;
+                if (Math.abs(wl[i]) < TOL)
+                  d = -RRMIS;
+                else
+                {
+                    d = -zl[i] / wl[i];
+                    if (d < -TOL)
+                      d = -RRBAK;
+                    else if (d < TOL)
+                      d = 0.0;
+                }
+                dist[i] = d;
+            }
+        }
+        else
+          for (int i=0; i<n; i++)
+            if (bLive[i])
+              dist[i] = dQuadSolve(i, surf);
+
+        for (int i=0; i<n; i++)
+        {
+            if (!bLive[i])
+              continue;
+            if (Math.abs(dist[i]) < TOL)
+              dist[i] = 0.0;
+            if (dist[i] < 0.0)
+              kill(i, (int) Math.round(-dist[i]));
+        }
+    }
+
+
+    private double dQuadSolve(int i, double surf[])
+    // RT13.dQuadSolve() for ray i of this batch, without array offsets.
+    {
+        double c;
+        double s = surf[OASPHER] + 1.0;
+        double xi = xl[i], yi = yl[i], zi = zl[i];
+        double ui = ul[i], vi = vl[i], wi = wl[i];
+        int opro = (int) surf[OPROFILE];
+        switch(opro)
+        {
+           case OSXCYL:
+           case OSXCYLLT:
+           case OSXCYLGT:  c = surf[OCURVX]; break;
+           default:        c = surf[OCURVE]; break;
+        }
+        switch(opro)
+        {
+           case OSCONIC:
+           case OSCONICLT:
+           case OSCONICGT:
+                abc[0] = c*(ui*ui+vi*vi+s*wi*wi);
+                abc[1] = 2*c*(xi*ui+yi*vi+s*zi*wi)-2*wi;
+                abc[2] = c*(xi*xi+yi*yi+s*zi*zi)-2*zi;
+                break;
+           case OSXCYL:
+           case OSXCYLLT:
+           case OSXCYLGT:
+                abc[0] = c*(ui*ui+wi*wi);
+                abc[1] = 2*c*(xi*ui+zi*wi)-2*wi;
+                abc[2] = c*(xi*xi+zi*zi)-2*zi;
+                break;
+           default:                               // y cylinders
+                abc[0] = c*(vi*vi+s*wi*wi);
+                abc[1] = 2*c*(yi*vi+s*zi*wi)-2*wi;
+                abc[2] = c*(yi*yi+s*zi*zi)-2*zi;
+                break;
+        }
+
+        int nroots = RT13.iGetPosRoots(abc, roots);
+        double d0 = roots[0], d1 = roots[1];
+        double cz0 = c*(zi+wi*d0);
+        double cz1 = c*(zi+wi*d1);
+        boolean E0 = s*cz0 < 1.0;
+        boolean E1 = s*cz1 < 1.0;
+        switch (nroots)
+        {
+            case -1: return -RRMIS;
+            case 0:  return -RRBAK;
+            case 1:  return E0 ? d0 : -RRMIS;
+            case 2:  if (E0 && !E1)
+                       return d0;
+                     if (!E0 && E1)
+                       return d1;
+                     if (!E0 && !E1)
+                       return -RRMIS;
+                     int D0 = RT13.iDiams(xi + ui*d0, yi + vi*d0, surf);
+                     int D1 = RT13.iDiams(xi + ui*d1, yi + vi*d1, surf);
+                     if ((D0==RROK) && (D1!=RROK))
+                       return d0;
+                     if ((D0!=RROK) && (D1==RROK))
+                       return d1;
+                     if ((D0!=RROK) && (D1!=RROK))
+                       return -D0;
+                     switch(opro)
+                     {
+                        case OSCONICGT:
+                        case OSXCYLGT:
+                        case OSYCYLGT: return Math.max(d0, d1);
+                        case OSCONICLT:
+                        case OSXCYLLT:
+                        case OSYCYLLT: return (cz0<cz1) ? d0 : d1;
+                        default:       return Math.min(d0, d1);
+                     }
+        }
+        return -RRMIS;
+    }
+
+
+    private void vPropagate(double surf[], int j)
+    // RT13.vPropagate(): the index approaching j comes from the guide ray.
+    {
+        boolean bDistort = surf[OTYPE] == OTDISTORT;
+        for (int i=0; i<n; i++)
+        {
+            if (!bLive[i])
+              continue;
+            double d = dist[i];
+            xl[i] += ul[i] * d;
+            yl[i] += vl[i] * d;
+            zl[i] += wl[i] * d;
+            path[i] += index[guide[i]][j] * d;
+            if (bDistort)
+              path[i] -= zl[i];
+        }
+    }
+
+
+    private void vDiams(double surf[])
+    {
+        for (int i=0; i<n; i++)
+        {
+            if (!bLive[i])
+              continue;
+            int code = RT13.iDiams(xl[i], yl[i], surf);
+            if (code != RROK)
+              kill(i, code);
+        }
+    }
+
+
+    private void vRedirect(double surf[], int j)
+    // RT13.iRedirect() for the supported surface types.
+    {
+        int type = (int) surf[OTYPE];
+        if ((type == OTIRIS) || (type == OTDISTORT))
+          return;
+        for (int i=0; i<n; i++)
+        {
+            if (!bLive[i])
+              continue;
+            if (type == OTRETRO)
+            {
+                ul[i] *= -1.0;
+                vl[i] *= -1.0;
+                wl[i] *= -1.0;
+                continue;
+            }
+            Z.vGetNormal(xl[i], yl[i], surf, norm);
+            double nx = norm[0], ny = norm[1], nz = norm[2];
+            double dotin = ul[i]*nx + vl[i]*ny + wl[i]*nz;
+            if (type == OTMIRROR)                   // iMirror()
+            {
+                ul[i] -= 2.0 * dotin * nx;
+                vl[i] -= 2.0 * dotin * ny;
+                wl[i] -= 2.0 * dotin * nz;
+                continue;
+            }
+            double numer = index[guide[i]][j];      // iTG() without diffraction
+            double denom = index[guide[i]][j+1];
+            if (Double.isNaN(numer) || (numer==0.0))
+              numer = 1.0;
+            if (Double.isNaN(denom) || (denom==0.0))
+              denom = 1.0;
+            double mu = numer/denom;
+            double tx = mu*(ul[i] - dotin*nx);
+            double ty = mu*(vl[i] - dotin*ny);
+            double tz = mu*(wl[i] - dotin*nz);
+            double rlength = Math.sqrt(tx*tx + ty*ty + tz*tz);
+            double r2 = rlength*rlength;
+            if (r2 > 1.0)
+            {
+                kill(i, RRTIR);
+                continue;
+            }
+            double gamma = Math.sqrt(1 - r2);
+            if (dotin < 0.0)
+              gamma = -gamma;
+            ul[i] = tx + gamma * nx;
+            vl[i] = ty + gamma * ny;
+            wl[i] = tz + gamma * nz;
+        }
+    }
+
+
+    private void vVxToLab(double surf[], int j)
+    // RT13.vxtolab(): OE converts vertex to lab frame.
+    {
+        double e11 = surf[OE11], e12 = surf[OE12], e13 = surf[OE13];
+        double e21 = surf[OE21], e22 = surf[OE22], e23 = surf[OE23];
+        double e31 = surf[OE31], e32 = surf[OE32], e33 = surf[OE33];
+        double ox = surf[OX], oy = surf[OY], oz = surf[OZ];
+        for (int i=0; i<n; i++)
+        {
+            if (!bLive[i])
+              continue;
+            u[i] = e11*ul[i] + e12*vl[i] + e13*wl[i];
+            v[i] = e21*ul[i] + e22*vl[i] + e23*wl[i];
+            w[i] = e31*ul[i] + e32*vl[i] + e33*wl[i];
+            x[i] = e11*xl[i] + e12*yl[i] + e13*zl[i] + ox;
+            y[i] = e21*xl[i] + e22*yl[i] + e23*zl[i] + oy;
+            z[i] = e31*xl[i] + e32*yl[i] + e33*zl[i] + oz;
+            howfarOK[i] = j;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.stellarsoftware.beam.core;
+
+import java.util.SplittableRandom;
+
+/** RT13MonteCarlo.java: streams random rays into aggregate statistics.
+  *
+  * The Random dialog traces one random ray per doRandomRay() call on the
+  * live RT13, and the ray table itself is capped at MAXRAYS.  For stray
+  * light and energy studies needing millions of rays, this class instead
+  * splits a run into batches of BATCH random rays on the TracePool.
+  * Each batch traces on its own RT13 context, recording only the surfaces
+  * its RayStats reads, and keeps nothing per ray: the batch statistics are
+  * merged in batch order into one RayStats for the caller.
+  *
+  * Random ray starts are drawn exactly as by RT13.bRunRandomRay(), using
+  * the random ray options frozen into the snapshot.  Each batch draws from
+  * its own SplittableRandom, seeded in batch order from one master stream,
+  * and batches merge in a fixed tree order: a seeded run gives the same
+  * RayStats whatever the thread count.  Successive runs continue the
+  * master stream.
+  *
+  * Typical use, e.g. a million-ray spot histogram at the final surface:
+  *
+  *    RT13MonteCarlo mc = new RT13MonteCarlo(Globals.RT13.snapshot());
+  *    RayStats rs = new RayStats(nsurfs, RX, -1.0, 1.0, 200);
+  *    rs = mc.run(1000000, rs, Globals.nTraceThreads);
+  *    ...rs.getGood(), rs.getMeanH(), rs.getBin(i)...
+  */
+public final class RT13MonteCarlo implements B4constants
+{
+    static final int BATCH = 4096;   // random rays per task
+
+    private final RT13Snapshot snap;
+    private final SplittableRandom master;
+
+
+    public RT13MonteCarlo(RT13Snapshot snap)
+    // Seeded by the Random options seed if one is given, else unpredictably.
+    {
+        this(snap, snap.isRandomSeeded() ? new SplittableRandom(snap.getRandomSeed()) : new SplittableRandom());
+    }
+
+    public RT13MonteCarlo(RT13Snapshot snap, long seed)
+    {
+        this(snap, new SplittableRandom(seed));
+    }
+
+    private RT13MonteCarlo(RT13Snapshot snap, SplittableRandom master)
+    {
+        this.snap = snap;
+        this.master = master;
+    }
+
+    public RayStats run(long ntries, RayStats empty, int nthreads)
+    // Traces ntries random rays on up to nthreads workers.
+    // Returns a new RayStats shaped like "empty"; "empty" is untouched.
+    // Returns it empty if the snapshot has no table rays to guide from.
+    // Not for concurrent callers: runs share the master stream.
+    {
+        if ((ntries < 1) || (snap.getNrays() < 1) || (snap.getNsurfs() < 1))
+          return empty.newEmpty();
+        int nbatches = (int) ((ntries + BATCH - 1) / BATCH);
+        long seeds[] = new long[nbatches];
+        for (int b=0; b<nbatches; b++)
+          seeds[b] = master.nextLong();
+        boolean bFork = (nthreads > 1) && (nbatches > 1);
+        Batches task = new Batches(this, empty, ntries, seeds, bFork, 0, nbatches-1);
+        return bFork ? TracePool.get(nthreads).invoke(task) : task.compute();
+    }
+
+    RayStats runBatch(RayStats empty, long ntries, long seed)
+    // One batch: a private context, ntries random rays, one RayStats.
+    {
+        RayStats rs = empty.newEmpty();
+        RT13 rt = snap.newContext();
+        rt.setRandom(new SplittableRandom(seed));
+        rt.setRecordedSurfaces(rs.getSurfs());
+        for (long i=0; i<ntries; i++)
+          if (rt.bRunRandomRay())
+            rs.addRay(rt, 0);
+        rs.addTries(ntries);
+        return rs;
+    }
+}
+
+
+/** class Batches
+  *  Fork-join task for RT13MonteCarlo.run().
+  *  Halves its span of batches until one remains, then runs it;
+  *  results are merged left into right up the same tree whether
+  *  or not the halves are forked, so scheduling never matters.
+  */
+@SuppressWarnings("serial")
+class Batches extends java.util.concurrent.RecursiveTask<RayStats>
+{
+    private final RT13MonteCarlo mc;
+    private final RayStats empty;
+    private final long ntries;
+    private final long seeds[];
+    private final boolean bFork;
+    private final int bfirst, blast;
+
+    Batches(RT13MonteCarlo mc, RayStats empty, long ntries, long seeds[], boolean bFork, int bfirst, int blast)
+    {
+        this.mc = mc;
+        this.empty = empty;
+        this.ntries = ntries;
+        this.seeds = seeds;
+        this.bFork = bFork;
+        this.bfirst = bfirst;
+        this.blast = blast;
+    }
+
+    @Override
+    protected RayStats compute()
+    {
+        if (bfirst == blast)
+        {
+            long start = (long) bfirst * RT13MonteCarlo.BATCH;
+            return mc.runBatch(empty, Math.min(RT13MonteCarlo.BATCH, ntries - start), seeds[bfirst]);
+        }
+        int bmid = (bfirst + blast) / 2;
+        Batches left = new Batches(mc, empty, ntries, seeds, bFork, bfirst, bmid);
+        Batches right = new Batches(mc, empty, ntries, seeds, bFork, bmid+1, blast);
+        if (bFork)
+          right.fork();
+        RayStats rs = left.compute();
+        rs.merge(bFork ? right.join() : right.compute());
+        return rs;
+    }
+}
@@ -0,0 +1,148 @@
+package com.stellarsoftware.beam.core;
+
+import com.stellarsoftware.beam.ui.DMF;
+
+/** This file contains public class RT13Snapshot.
+  *
+  * An RT13Snapshot is a frozen copy of everything RT13 reads while tracing:
+  *   the optics table surfs[][] including its Euler matrices,
+  *   the ray table raystarts[][] with smins[], spans[], smaxs[],
+  *   the media LUT media[][] and the glass & wavelength LUTs gO2M[], gR2W[],
+  *   gwave, nsurfs, nrays, the OEJIF size metric Osize, the table scatter seed,
+  *   and the user options consulted by random rays and vExtendLabs().
+  * Nothing here is ever modified after construction, so one snapshot
+  * may be shared freely among any number of threads.
+  *
+  * To trace, each thread asks for its own context via newContext().
+  * A context is an ordinary RT13 whose arrays are sized to this snapshot
+  * and which never consults Globals.giFlags[], Globals.reg or DMF.
+  * A context may be perturbed (surfs[][], raystarts[][]) and retraced
+  * without disturbing Globals.RT13 or any other context.
+  *
+  * Typical use, e.g. one perturbed prescription per worker thread:
+  *
+  *    RT13Snapshot snap = Globals.RT13.snapshot();   // on the EDT
+  *    ...
+  *    RT13 rt = snap.newContext();                   // on each worker
+  *    rt.surfs[j][OZ] += dz;
+  *    rt.setEulers();
+  *    int ngood = rt.iBuildRays(true);
+  *
+  */
+public final class RT13Snapshot implements B4constants
+{
+    private final int nsurfs;
+    private final int nrays;
+    private final int gwave;
+    private final double dOsize;
+    private final double dExtendFrac;      // UO_LAYOUT 39, percent of Osize
+    private final RandomRayOptions rro;
+    private final long scatterSeed;        // contexts scatter table rays as rt does
+
+    private final double surfs[][];        // [nsurfs+1][ONPARMS]
+    private final double raystarts[][];    // [nrays+1][RNSTARTS]
+    private final double spans[];
+    private final double smins[];
+    private final double smaxs[];
+    private final double media[][];
+    private final int    gO2M[];           // [nsurfs+1]
+    private final int    gR2W[];           // [nrays+1]
+
+
+    public RT13Snapshot(RT13 rt)
+    // Captures the current state of a live RT13, normally Globals.RT13,
+    // together with the Globals and registry items that RT13 depends upon.
+    // Call this from the thread that owns the tables, i.e. the EDT.
+    {
+        nsurfs = Math.max(0, Math.min(MAXSURFS, Globals.giFlags[ONSURFS]));
+        nrays = Math.max(0, Math.min(MAXRAYS, Globals.giFlags[RNRAYS]));
+        gwave = rt.gwave;
+        dOsize = DMF.getOsize();
+        dExtendFrac = (Globals.reg != null) ? U.suckDouble(Globals.reg.getuo(UO_LAYOUT, 39)) : 0.0;
+        rro = new RandomRayOptions();
+        scatterSeed = rt.getScatterSeed();
+
+        surfs = copyOf(rt.surfs, nsurfs+1);
+        raystarts = copyOf(rt.raystarts, nrays+1);
+        spans = rt.spans.clone();
+        smins = rt.smins.clone();
+        smaxs = rt.smaxs.clone();
+        media = copyOf(rt.media, rt.media.length);
+        gO2M = java.util.Arrays.copyOf(rt.gO2M, nsurfs+1);
+        gR2W = java.util.Arrays.copyOf(rt.gR2W, nrays+1);
+    }
+
+
+    public RT13 newContext()
+    // Returns a fresh private trace context for the calling thread.
+    {
+        return new RT13(this);
+    }
+
+    public int getNsurfs()
+    {
+        return nsurfs;
+    }
+
+    public int getNrays()
+    {
+        return nrays;
+    }
+
+    public double getOsize()
+    {
+        return dOsize;
+    }
+
+    public boolean isRandomSeeded()
+    // True if the user options fix a random ray seed, see getRandomSeed().
+    {
+        return rro.bSeeded;
+    }
+
+    public long getRandomSeed()
+    {
+        return rro.seed;
+    }
+
+    public double dGetSurfParm(int iatt, int jsurf)
+    {
+         if ((iatt < 0) || (iatt >= ONPARMS) || (jsurf < 1) || (jsurf > nsurfs))
+           return -0.0;
+         return surfs[jsurf][iatt];
+    }
+
+    public double dGetRaystart(int kray, int iatt)
+    {
+         if ((iatt < 0) || (iatt >= RNSTARTS) || (kray < 0) || (kray > nrays))
+           return -0.0;
+         return raystarts[kray][iatt];
+    }
+
+
+    /*-------package-private accessors used by RT13(RT13Snapshot)------*/
+    /*------callers receive the frozen arrays and must copy them-------*/
+
+    int getGwave()                { return gwave; }
+    double getExtendFrac()        { return dExtendFrac; }
+    RandomRayOptions getOptions() { return rro; }
+    long getScatterSeed()         { return scatterSeed; }
+    double[][] surfs()            { return surfs; }
+    double[][] raystarts()        { return raystarts; }
+    double[] spans()              { return spans; }
+    double[] smins()              { return smins; }
+    double[] smaxs()              { return smaxs; }
+    double[][] media()            { return media; }
+    int[] gO2M()                  { return gO2M; }
+    int[] gR2W()                  { return gR2W; }
+
+
+    static double[][] copyOf(double src[][], int nrows)
+    // Deep copy of the first nrows rows of src[][].
+    {
+        double dst[][] = new double[nrows][];
+        for (int i=0; i<nrows; i++)
+          dst[i] = src[i].clone();
+        return dst;
+    }
+}
@@ -0,0 +1,407 @@
+package com.stellarsoftware.beam.core;
+
+/** RT13Tangent.java: analytic derivatives of one RT13 ray trace.
+  *
+  * Forward-mode differentiation of the RT13 surface loop:
+  * labtovx(), dIntercept() with vPropagate(), vSetAngle(), iRedirect()
+  * and vxtolab(), together with Z.dGetZsurf() and Z.vGetNormal().
+  * After an ordinary trace, bTrace(kray) sweeps that ray's recorded
+  * path once more, carrying along the tangents of every ray attribute
+  * with respect to nvar variables: surface parameters and ray starts,
+  * each a linear combination of table entries as AutoAdjust's slaves are.
+  *
+  * Values are never recomputed here: they are read back from RT13.dGetRay(),
+  * so this class costs one sweep per ray however many variables there are,
+  * and it agrees with the trace it differentiates.
+  *
+  * The intercept needs no differentiated root solver.  With the distance
+  * d fixed, G = z - zsurf(x,y) at the propagated point has tangent Gdot,
+  * and dG/dd = (N.U)/Nz, so the implicit function theorem gives
+  * ddot = -Gdot/(dG/dd) whichever solver RT13 used to find d.
+  *
+  * Supported: lens, mirror, retro, iris and distorter surfaces with plano,
+  * conic, cylinder, toric, polyrev, biconic and Gaussian profiles; no
+  * groovy mirrors and no diffractive lenses; rt must record all surfaces,
+  * see RT13.setRecordedSurfaces().  Anything else makes
+  * isSupported() or bTrace() return false, and callers fall back to
+  * finite differences.
+  *
+  * Typical use, after rt.iBuildRays():
+  *
+  *    RT13Tangent tan = new RT13Tangent(rt, 2);
+  *    tan.addSurfVar(0, 3, OCURVE, 1.0);
+  *    tan.addSurfVar(1, 5, OZ, 1.0);
+  *    if (tan.isSupported() && tan.bTrace(kray))
+  *       dxdc = tan.dGetDeriv(nsurfs, RX, 0);
+  *
+  * Not thread-safe, but any number of instances may share one RT13
+  * once its trace is complete.
+  */
+public class RT13Tangent implements B4constants
+{
+    private final RT13 rt;
+    private final int nvar;
+    private final int nsurfs;
+    private final int nrays;
+    private final double sdot[][][];     // [nsurfs+1][ONPARMS][nvar]; null rows
+    private final double rdot[][][];     // [nrays+1][RNSTARTS][nvar]; null rows
+    private double deriv[][][];          // [nsurfs+1][RTWFE][nvar]; latest bTrace()
+    private int kLast = -1;              // ray of the latest successful bTrace()
+
+
+    public RT13Tangent(RT13 rt, int nvar)
+    // rt is the live RT13 or a trace context; nvar variables, none yet set.
+    {
+        this.rt = rt;
+        this.nvar = Math.max(0, nvar);
+        nsurfs = rt.nsurfs();
+        nrays = rt.raystarts.length - 1;
+        sdot = new double[nsurfs+1][][];
+        rdot = new double[nrays+1][][];
+    }
+
+
+    public void addSurfVar(int ivar, int jsurf, int attr, double coef)
+    // Variable ivar moves surfs[jsurf][attr] by coef per unit.
+    // OSHAPE is carried as OASPHER, as in AutoAdjuster.
+    {
+        if ((ivar<0) || (ivar>=nvar) || (jsurf<1) || (jsurf>nsurfs))
+          return;
+        if (attr == OSHAPE)
+          attr = OASPHER;
+        if ((attr<0) || (attr>=ONPARMS))
+          return;
+        if (sdot[jsurf] == null)
+          sdot[jsurf] = new double[ONPARMS][];
+        if (sdot[jsurf][attr] == null)
+          sdot[jsurf][attr] = new double[nvar];
+        sdot[jsurf][attr][ivar] += coef;
+        kLast = -1;
+    }
+
+
+    public void addRayVar(int ivar, int kray, int attr, double coef)
+    // Variable ivar moves raystarts[kray][attr] by coef per unit.
+    {
+        if ((ivar<0) || (ivar>=nvar) || (kray<1) || (kray>nrays))
+          return;
+        if ((attr<0) || (attr>=RNSTARTS))
+          return;
+        if (rdot[kray] == null)
+          rdot[kray] = new double[RNSTARTS][];
+        if (rdot[kray][attr] == null)
+          rdot[kray][attr] = new double[nvar];
+        rdot[kray][attr][ivar] += coef;
+        kLast = -1;
+    }
+
+
+    public boolean isSupported()
+    // True if every surface and every variable can be differentiated here.
+    // The sweep reads every surface of the recorded trace back from rt.
+    {
+        if (!rt.isRecordingAll())
+          return false;
+        for (int j=1; j<=nsurfs; j++)
+        {
+            double surf[] = rt.surfs[j];
+            switch ((int) surf[OTYPE])
+            {
+                case OTLENS:
+                case OTRETRO:
+                case OTIRIS:
+                case OTDISTORT:  break;
+                case OTMIRROR:   if (surf[OGROOVY] != 0.0)
+                                   return false;
+                                 break;
+                default:         return false;
+            }
+            if (!Z.isTangentProfile(surf))
+              return false;
+        }
+        for (int k=1; k<=nrays; k++)
+          if (rdot[k] != null)
+            for (int attr=RPATH+1; attr<RNSTARTS; attr++)
+              if (rdot[k][attr] != null)
+                return false;        // wavelengths and orders are not smooth
+        return true;
+    }
+
+
+    public boolean bTrace(int kray)
+    // Sweeps table ray kray, which must have reached the final surface
+    // in rt's latest trace.  False if it did not, or if a surface,
+    // variable or diffraction here is unsupported, or at a grazing intercept.
+    {
+        kLast = -1;
+        if ((kray<1) || (kray>nrays) || (rt.getHowfarOK(kray) != nsurfs))
+          return false;
+        if (!isSupported() || isDiffractive(kray))
+          return false;
+
+        deriv = new double[nsurfs+1][RTWFE][];
+        double seed[][] = rdot[kray];
+
+        //-----ray start: seeds, then fixupLabUVW()--------
+
+        Dual pos[] = new Dual[3];
+        for (int i=0; i<3; i++)
+          pos[i] = start(seed, RX+i, rt.dGetRay(kray, 0, RX+i));
+        Dual u = start(seed, RU, rt.raystarts[kray][RU]);
+        Dual v = start(seed, RV, rt.raystarts[kray][RV]);
+        Dual w;
+        double sign = rt.raystarts[kray][RW] < 0 ? -1.0 : +1.0;
+        Dual sos = u.sqr().plus(v.sqr());
+        if (sos.v > 1.0)
+        {
+            Dual r = sos.sqrt();
+            u = u.over(r);
+            v = v.over(r);
+            w = new Dual(0.0, nvar);
+        }
+        else
+          w = sos.rminus(1.0).sqrt().times(sign);
+        Dual dir[] = {u, v, w};
+        Dual path = start(seed, RPATH, rt.dGetRay(kray, 0, RPATH));
+        for (int i=0; i<3; i++)
+        {
+            deriv[0][RX+i] = pos[i].d;
+            deriv[0][RU+i] = dir[i].d;
+        }
+        deriv[0][RPATH] = path.d;
+
+        //------surface loop, all hits since every surface is unimodal-----
+
+        for (int j=1; j<=nsurfs; j++)
+        {
+            double surf[] = rt.surfs[j];
+            double sd[][] = sdot[j];
+            int type = (int) surf[OTYPE];
+            Dual E[][] = getEulers(surf, sd);
+            Dual O[] = new Dual[3];
+            for (int i=0; i<3; i++)
+              O[i] = Dual.par(surf, sd, OX+i, nvar);
+
+            //-----labtovx()------
+
+            Dual X[] = new Dual[3];
+            Dual U[] = new Dual[3];
+            for (int i=0; i<3; i++)
+            {
+                X[i] = new Dual(0.0, nvar);
+                U[i] = new Dual(0.0, nvar);
+                for (int m=0; m<3; m++)
+                {
+                    X[i] = X[i].plus(E[m][i].times(pos[m].minus(O[m])));
+                    U[i] = U[i].plus(E[m][i].times(dir[m]));
+                }
+            }
+
+            //-----dIntercept() & vPropagate(), implicitly-----
+
+            double Prec[] = new double[3];
+            double Nrec[] = new double[3];
+            double d = 0.0;
+            double dGdd = 0.0;
+            for (int i=0; i<3; i++)
+            {
+                Prec[i] = rt.dGetRay(kray, j, RTXL+i);
+                Nrec[i] = rt.dGetRay(kray, j, RTNORMX+i);
+                d += (Prec[i] - X[i].v) * U[i].v;
+                dGdd += Nrec[i] * U[i].v;
+            }
+            if (Math.abs(Nrec[2]) < TOL)
+              return false;
+            dGdd /= Nrec[2];
+            if (Math.abs(dGdd) < TOL)
+              return false;          // grazing: d is not differentiable
+
+            Dual px = X[0].plus(U[0].times(d));
+            Dual py = X[1].plus(U[1].times(d));
+            Dual pz = X[2].plus(U[2].times(d));
+            Dual G = pz.minus(Z.dGetZsurfTangent(px, py, surf, sd));
+            Dual dd = new Dual(d, G.times(-1.0/dGdd).d);
+
+            Dual P[] = new Dual[3];
+            for (int i=0; i<3; i++)
+              P[i] = X[i].plus(U[i].times(dd)).withValue(Prec[i]);
+
+            path = path.plus(getRefraction(j, kray).times(dd));
+            if (type == OTDISTORT)
+              path = path.minus(P[2]);
+
+            //-----vSetAngle()-----
+
+            Dual N[] = Z.vGetNormalTangent(P[0], P[1], surf, sd);
+            Dual cosine = Dual.dot(U, N);
+            double s = Math.sqrt(Math.max(0.0, 1.0 - cosine.v*cosine.v));
+            double angle[] = new double[nvar];
+            if (s > 0.0)
+              for (int i=0; i<nvar; i++)
+                angle[i] = -Math.toDegrees(cosine.d[i]/s) * (cosine.v < 0.0 ? -1.0 : 1.0);
+
+            //-----iRedirect()-----
+
+            Dual out[] = new Dual[3];
+            switch (type)
+            {
+                case OTRETRO:   for (int i=0; i<3; i++)
+                                  out[i] = U[i].negate();
+                                break;
+                case OTMIRROR:  for (int i=0; i<3; i++)
+                                  out[i] = U[i].minus(N[i].times(cosine).times(2.0));
+                                break;
+                case OTLENS:    Dual mu = getRefraction(j, kray).over(getRefraction(j+1, kray));
+                                Dual T[] = new Dual[3];
+                                for (int i=0; i<3; i++)
+                                  T[i] = U[i].minus(N[i].times(cosine)).times(mu);
+                                Dual gamma = Dual.dot(T, T).rminus(1.0).sqrt();
+                                if (cosine.v < 0.0)
+                                  gamma = gamma.negate();
+                                for (int i=0; i<3; i++)
+                                  out[i] = T[i].plus(gamma.times(N[i]));
+                                break;
+                default:        for (int i=0; i<3; i++)      // iris, distorter
+                                  out[i] = U[i];
+                                break;
+            }
+            for (int i=0; i<3; i++)
+              out[i] = out[i].withValue(rt.dGetRay(kray, j, RTUL+i));
+
+            //-----vxtolab()-----
+
+            for (int i=0; i<3; i++)
+            {
+                Dual p = O[i];
+                Dual q = new Dual(0.0, nvar);
+                for (int m=0; m<3; m++)
+                {
+                    p = p.plus(E[i][m].times(P[m]));
+                    q = q.plus(E[i][m].times(out[m]));
+                }
+                pos[i] = p.withValue(rt.dGetRay(kray, j, RX+i));
+                dir[i] = q.withValue(rt.dGetRay(kray, j, RU+i));
+            }
+
+            for (int i=0; i<3; i++)
+            {
+                deriv[j][RX+i] = pos[i].d;
+                deriv[j][RU+i] = dir[i].d;
+                deriv[j][RTXL+i] = P[i].d;
+                deriv[j][RTUL+i] = out[i].d;
+                deriv[j][RTNORMX+i] = N[i].d;
+            }
+            deriv[j][RPATH] = path.d;
+            deriv[j][RTANGLE] = angle;
+        }
+        kLast = kray;
+        return true;
+    }
+
+
+    public double dGetDeriv(int jsurf, int attr, int ivar)
+    // d dGetRay(kray, jsurf, attr) / d var[ivar] from the latest bTrace().
+    // Zero if there is none, e.g. for RTWFE.
+    {
+        if ((kLast<0) || (jsurf<0) || (jsurf>nsurfs) || (ivar<0) || (ivar>=nvar))
+          return 0.0;
+        if ((attr<RX) || (attr>=RTWFE) || (deriv[jsurf][attr] == null))
+          return 0.0;
+        return deriv[jsurf][attr][ivar];
+    }
+
+
+    public double[][] getDerivs(int jsurf)
+    // All derivatives at jsurf from the latest bTrace(): [RTWFE][nvar].
+    {
+        double d[][] = new double[RTWFE][nvar];
+        if ((kLast<0) || (jsurf<0) || (jsurf>nsurfs))
+          return d;
+        for (int attr=RX; attr<RTWFE; attr++)
+          if (deriv[jsurf][attr] != null)
+            System.arraycopy(deriv[jsurf][attr], 0, d[attr], 0, nvar);
+        return d;
+    }
+
+
+
+    /*-------------------private zone-------------------------*/
+
+    private Dual start(double seed[][], int attr, double value)
+    {
+        if ((seed == null) || (seed[attr] == null))
+          return new Dual(value, nvar);
+        return new Dual(value, seed[attr].clone());
+    }
+
+
+    private boolean isDiffractive(int kray)
+    // The test of iTG(): lenses diffract when order*wavel is nonzero.
+    {
+        double rayorder = rt.raystarts[kray][RSORDER];
+        double wavel = rt.raystarts[kray][RSWAVEL];
+        for (int j=1; j<=nsurfs; j++)
+          if ((int) rt.surfs[j][OTYPE] == OTLENS)
+          {
+              double order = rt.surfs[j][OORDER];
+              if (U.isNotNegZero(rayorder))
+                order = rayorder;
+              if ((order != 0) && !(wavel*order == 0.0))
+                return true;
+          }
+        return false;
+    }
+
+
+    private Dual getRefraction(int jsurf, int kray)
+    // RT13.getRefraction() with the tangent of OREFRACT where that is used;
+    // indices from the media table are constants.
+    {
+        double n = rt.getRefraction(jsurf, kray);
+        if (Double.isNaN(n) || (n == 0.0))
+          return new Dual(1.0, nvar);
+        int j = Math.min(jsurf, nsurfs);
+        if (j < 1)
+          return new Dual(n, nvar);
+        double refr = rt.surfs[j][OREFRACT];
+        if (Double.isNaN(refr) || (refr == 0.0) || (sdot[j] == null))
+          return new Dual(n, nvar);
+        return Dual.par(rt.surfs[j], sdot[j], OREFRACT, nvar);
+    }
+
+
+    private Dual[][] getEulers(double surf[], double sd[][])
+    // RT13.setEulers() for one surface: recorded values, with tangents
+    // only if its tilt, pitch or roll is a variable.
+    {
+        Dual E[][] = new Dual[3][3];
+        boolean bAngles = (sd != null)
+          && ((sd[OTILT] != null) || (sd[OPITCH] != null) || (sd[OROLL] != null));
+        if (!bAngles)
+        {
+            for (int i=0; i<3; i++)
+              for (int m=0; m<3; m++)
+                E[i][m] = new Dual(surf[OE11 + 3*i + m], nvar);
+            return E;
+        }
+        Dual ct = Dual.par(surf, sd, OTILT, nvar).cosd();
+        Dual st = Dual.par(surf, sd, OTILT, nvar).sind();
+        Dual cp = Dual.par(surf, sd, OPITCH, nvar).cosd();
+        Dual sp = Dual.par(surf, sd, OPITCH, nvar).sind();
+        Dual cr = Dual.par(surf, sd, OROLL, nvar).cosd();
+        Dual sr = Dual.par(surf, sd, OROLL, nvar).sind();
+        E[0][0] = cr.times(cp);
+        E[0][1] = sr.times(cp).negate();
+        E[0][2] = sp;
+        E[1][0] = cr.times(sp).times(st).plus(sr.times(ct));
+        E[1][1] = cr.times(ct).minus(sr.times(sp).times(st));
+        E[1][2] = cp.times(st).negate();
+        E[2][0] = sr.times(st).minus(cr.times(sp).times(ct));
+        E[2][1] = sr.times(sp).times(ct).plus(cr.times(st));
+        E[2][2] = cp.times(ct);
+        for (int i=0; i<3; i++)
+          for (int m=0; m<3; m++)
+            E[i][m] = E[i][m].withValue(surf[OE11 + 3*i + m]);
+        return E;
+    }
+}
@@ -0,0 +1,69 @@
+package com.stellarsoftware.beam.core;
+
+/** RandomRayOptions.java: a frozen copy of the UO_DEF and UO_RAND user options
+  * that RT13.iCreateOneRandomRayStart() consults for every random ray.
+  * The live RT13 builds one per random ray, exactly as before;
+  * a snapshot builds one, once, and its contexts share it.
+  */
+final class RandomRayOptions implements B4constants
+{
+    final boolean bUserOptionPositive;
+    final int     iUserOptionMethod;
+    final double  dIsoRadius;
+    final boolean bXYZcontinuous;
+    final boolean bUVWcontinuous;
+    final int     which;             // 0=uniform, 1=cosine, 2=bell, 3=Gauss, 4=Lorentz
+    final double  dConcen;
+    final boolean bSeeded;           // UO_RAND 13 holds a seed
+    final long    seed;
+
+    RandomRayOptions()
+    {
+        Registry reg = Globals.reg;
+        if (reg == null)            // headless without registry: uniform volume rays
+        {
+            bUserOptionPositive = true;
+            iUserOptionMethod = 0;
+            dIsoRadius = 0.0;
+            bXYZcontinuous = true;
+            bUVWcontinuous = true;
+            which = 0;
+            dConcen = 1.0;
+            bSeeded = false;
+            seed = 0L;
+            return;
+        }
+        bUserOptionPositive = "T".equals(reg.getuo(UO_DEF, 3));
+        int method = 0;
+        for (int i=0; i<4; i++)
+          if ("T".equals(reg.getuo(UO_DEF, 5+i)))
+            method = i;
+        iUserOptionMethod = method;
+        dIsoRadius = U.suckDouble(reg.getuo(UO_DEF,9));
+
+        bXYZcontinuous = "T".equals(reg.getuo(UO_RAND,3));
+        bUVWcontinuous = "T".equals(reg.getuo(UO_RAND,5));
+        boolean bCosine   = "T".equals(reg.getuo(UO_RAND, 8));
+        boolean bBell     = "T".equals(reg.getuo(UO_RAND, 9));
+        boolean bGauss    = "T".equals(reg.getuo(UO_RAND, 10));
+        boolean bLorentz  = "T".equals(reg.getuo(UO_RAND, 11));
+        which = bCosine ? 1 : bBell ? 2 : bGauss ? 3: bLorentz ? 4 : 0;
+        dConcen = Math.max(1, U.suckDouble(reg.getuo(UO_RAND, 12)));
+        Long s = parseSeed(reg.getuo(UO_RAND, 13));
+        bSeeded = (s != null);
+        seed = bSeeded ? s : 0L;
+    }
+
+    static Long parseSeed(String s)
+    // The random ray seed option, or null when blank or unreadable.
+    {
+        try
+        {
+            return Long.valueOf(s.trim());
+        }
+        catch (NumberFormatException nfe)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.stellarsoftware.beam.core;
+
+/** RayStats.java: streaming statistics of random ray results.
+  *
+  * Accumulates one ray attribute "h", optionally a second attribute "v",
+  * each read at its own surface, without keeping any per-ray history:
+  *   tries and good rays,
+  *   centroid, variances and the h,v covariance,
+  *   a 1D histogram of h, or a 2D histogram of h,v.
+  * Moments use Welford's running update, and two RayStats of the same
+  * shape merge exactly (Chan et al.) so that parallel workers may each
+  * fill their own and combine them afterwards, see RT13MonteCarlo.
+  *
+  * Binning follows DrawH1D: bin = floor(nbins*(h-lo)/(hi-lo)), and rays
+  * falling outside [lo, hi) still count in the moments but in no bin.
+  * A 2D histogram requires both h and v to land inside their spans.
+  *
+  * Not thread safe: one RayStats per thread, then merge().
+  */
+public final class RayStats implements B4constants
+{
+    private final int hsurf, hattr, vsurf, vattr;     // vattr<0 for 1D
+    private final double hlo, hhi, vlo, vhi;
+    private final int nh, nv;
+    private final long bins[];                        // [ih*nv + iv], nv=1 for 1D
+
+    private long ntries = 0;
+    private long ngood = 0;
+    private double hmean = 0.0, vmean = 0.0;
+    private double hm2 = 0.0, vm2 = 0.0, cm2 = 0.0;  // sums of squared deviations
+
+
+    public RayStats(int hsurf, int hattr, double hlo, double hhi, int nh)
+    // One attribute and a 1D histogram of nh bins spanning [hlo, hhi).
+    {
+        this(hsurf, hattr, hlo, hhi, nh, hsurf, -1, 0.0, 1.0, 1);
+    }
+
+    public RayStats(int hsurf, int hattr, double hlo, double hhi, int nh,
+                    int vsurf, int vattr, double vlo, double vhi, int nv)
+    // Two attributes and a 2D histogram of nh x nv bins.
+    {
+        this.hsurf = hsurf;
+        this.hattr = hattr;
+        this.vsurf = vsurf;
+        this.vattr = vattr;
+        this.hlo = hlo;
+        this.hhi = hhi;
+        this.vlo = vlo;
+        this.vhi = vhi;
+        this.nh = Math.max(1, nh);
+        this.nv = (vattr < 0) ? 1 : Math.max(1, nv);
+        bins = new long[this.nh * this.nv];
+    }
+
+    public RayStats newEmpty()
+    // A fresh, empty RayStats of the same shape, e.g. for one worker.
+    {
+        return new RayStats(hsurf, hattr, hlo, hhi, nh, vsurf, vattr, vlo, vhi, nv);
+    }
+
+    public int[] getSurfs()
+    // The surfaces this RayStats reads, for RT13.setRecordedSurfaces().
+    {
+        return (vattr < 0) ? new int[] {hsurf} : new int[] {hsurf, vsurf};
+    }
+
+
+    /*-----------------------accumulation------------------------*/
+
+    public void addTries(long n)
+    // Counts n rays started, good or not.
+    {
+        ntries += n;
+    }
+
+    public void addRay(RT13 rt, int kray)
+    // Adds one good ray already traced by rt, e.g. random ray zero.
+    {
+        double h = rt.dGetRay(kray, hsurf, hattr);
+        double v = (vattr < 0) ? 0.0 : rt.dGetRay(kray, vsurf, vattr);
+        add(h, v);
+    }
+
+    public void add(double h, double v)
+    // Adds one good ray's values; v is ignored for a 1D RayStats.
+    {
+        ngood++;
+        double dh = h - hmean;
+        double dv = v - vmean;
+        hmean += dh / ngood;
+        vmean += dv / ngood;
+        hm2 += dh * (h - hmean);
+        vm2 += dv * (v - vmean);
+        cm2 += dh * (v - vmean);
+
+        int ih = (int) Math.floor(nh*(h-hlo)/(hhi-hlo));
+        if ((ih < 0) || (ih >= nh))
+          return;
+        int iv = 0;
+        if (vattr >= 0)
+        {
+            iv = (int) Math.floor(nv*(v-vlo)/(vhi-vlo));
+            if ((iv < 0) || (iv >= nv))
+              return;
+        }
+        bins[ih*nv + iv]++;
+    }
+
+    public void merge(RayStats other)
+    // Folds another RayStats of the same shape into this one.
+    {
+        if ((other.nh != nh) || (other.nv != nv) || (other.vattr < 0) != (vattr < 0))
+          throw new IllegalArgumentException("RayStats.merge() shapes differ");
+        ntries += other.ntries;
+        if (other.ngood == 0)
+          return;
+        long n = ngood + other.ngood;
+        double dh = other.hmean - hmean;
+        double dv = other.vmean - vmean;
+        double f = (double) ngood * other.ngood / n;
+        hm2 += other.hm2 + dh*dh*f;
+        vm2 += other.vm2 + dv*dv*f;
+        cm2 += other.cm2 + dh*dv*f;
+        hmean += dh * other.ngood / n;
+        vmean += dv * other.ngood / n;
+        ngood = n;
+        for (int i=0; i<bins.length; i++)
+          bins[i] += other.bins[i];
+    }
+
+
+    /*-------------------------results---------------------------*/
+
+    public long getTries()      { return ntries; }
+    public long getGood()       { return ngood; }
+    public int getNbinsH()      { return nh; }
+    public int getNbinsV()      { return nv; }
+    public double getMeanH()    { return hmean; }
+    public double getMeanV()    { return vmean; }
+
+    public double getVarH()
+    // Population variance of h; zero until two good rays.
+    {
+        return (ngood > 1) ? hm2/ngood : 0.0;
+    }
+
+    public double getVarV()
+    {
+        return (ngood > 1) ? vm2/ngood : 0.0;
+    }
+
+    public double getCovHV()
+    {
+        return (ngood > 1) ? cm2/ngood : 0.0;
+    }
+
+    public long getBin(int ih)
+    // 1D histogram count; for a 2D RayStats, summed over v.
+    {
+        if ((ih < 0) || (ih >= nh))
+          return 0;
+        long sum = 0;
+        for (int iv=0; iv<nv; iv++)
+          sum += bins[ih*nv + iv];
+        return sum;
+    }
+
+    public long getBin(int ih, int iv)
+    {
+        if ((ih < 0) || (ih >= nh) || (iv < 0) || (iv >= nv))
+          return 0;
+        return bins[ih*nv + iv];
+    }
+}
@@ -0,0 +1,33 @@
+package com.stellarsoftware.beam.core;
+
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+  * class TracePool hands out shared ForkJoinPools for parallel ray work,
+  * one pool per requested thread count, created on first use and kept.
+  * Worker threads are daemons so an idle pool never blocks exit.
+  *
+  * Used by RT13.iBuildRays(bAll, nthreads) and by anything else that
+  * fans traces out over RT13 contexts.  A task running inside a pool may
+  * safely invoke further tasks on the same pool: fork-join work stealing
+  * keeps nested parallelism from deadlocking.
+  */
+final class TracePool
+{
+    private static final HashMap<Integer, ForkJoinPool> pools = new HashMap<>();
+
+    private TracePool() {}
+
+    static synchronized ForkJoinPool get(int nthreads)
+    {
+        int n = Math.max(1, Math.min(nthreads, 256));
+        ForkJoinPool pool = pools.get(n);
+        if (pool == null)
+        {
+            pool = new ForkJoinPool(n);
+            pools.put(n, pool);
+        }
+        return pool;
+    }
+}
@@ -9,6 +9,7 @@ package com.stellarsoftware.beam.core;
   *    FARSIDE ELLIPSOIDS ARE FORBIDDEN
   *
   * Also supplies all gradients via vGetZnorm().
+  * Part Three supplies tangents of both, via class Dual, for RT13Tangent.
   * 
   * Includes Zernike(0....35) 0=piston. 
   * These require defined Diameter to operate.
@@ -743,6 +744,308 @@ public class Z implements B4constants
 
 
 
+    /*-------------------Part Three: Tangents----------------------*/
+    /*---forward-mode twins of Part One and Part Two for RT13Tangent---*/
+    /*---sdot[attr][] holds the tangent of surf[attr], or null row---*/
+
+
+    static boolean isTangentProfile(double surf[])
+    // Profiles whose tangents are furnished below.
+    // Zernikes and arrays (sawtooth) are not: callers fall back to differences.
+    {
+        int t = (int) surf[OTYPE];
+        if ((t==OTLENSARRAY) || (t==OTMIRRARRAY) || (t==OTIRISARRAY))
+          return false;
+        switch ((int) surf[OPROFILE])
+        {
+           case OSPLANO:
+           case OSCONIC:
+           case OSCONICLT:
+           case OSCONICGT:
+           case OSXCYL:
+           case OSXCYLLT:
+           case OSXCYLGT:
+           case OSYCYL:
+           case OSYCYLLT:
+           case OSYCYLGT:
+           case OSTORIC:
+           case OSPOLYREV:
+           case OSBICONIC:
+           case OSGAUSS:   return true;
+           default:        return false;
+        }
+    }
+
+
+    static Dual dGetZsurfTangent(Dual x, Dual y, double surf[], double sdot[][])
+    // dGetZsurf() carrying derivatives of x, y and the surface parameters.
+    // Assumes isTangentProfile(surf).
+    {
+        int n = x.d.length;
+        switch ((int) surf[OPROFILE])
+        {
+           case OSCONIC:
+           case OSCONICLT:
+           case OSCONICGT: return zConicT(x, y, surf, sdot, n);
+           case OSXCYL:
+           case OSXCYLLT:
+           case OSXCYLGT:  return zXcylT(x, surf, sdot, n);
+           case OSYCYL:
+           case OSYCYLLT:
+           case OSYCYLGT:  return zYcylT(y, surf, sdot, n);
+           case OSTORIC:   return zToricT(x, y, surf, sdot, n);
+           case OSPOLYREV: return zConicT(x, y, surf, sdot, n).plus(zPoly2DT(x, y, surf, sdot, n));
+           case OSBICONIC: return zBiconicT(x, y, surf, sdot, n);
+           case OSGAUSS:   return zGaussT(x, y, surf, sdot, n);
+           default:        return new Dual(0.0, n);
+        }
+    }
+
+
+    static Dual[] vGetNormalTangent(Dual x, Dual y, double surf[], double sdot[][])
+    // vGetNormal() carrying derivatives; returns the unit normal {nx, ny, nz}.
+    // Assumes isTangentProfile(surf).
+    {
+        int n = x.d.length;
+        Dual g[];
+        switch ((int) surf[OPROFILE])
+        {
+           case OSCONIC:
+           case OSCONICLT:
+           case OSCONICGT: g = gradConicT(x, y, surf, sdot, n); break;
+           case OSXCYL:
+           case OSXCYLLT:
+           case OSXCYLGT:  g = gradXcylT(x, surf, sdot, n); break;
+           case OSYCYL:
+           case OSYCYLLT:
+           case OSYCYLGT:  g = gradYcylT(y, surf, sdot, n); break;
+           case OSTORIC:   g = gradToricT(x, y, surf, sdot, n); break;
+           case OSPOLYREV: g = gradConicT(x, y, surf, sdot, n);
+                           Dual p[] = gradPolyRevT(x, y, surf, sdot, n);
+                           g[0] = g[0].plus(p[0]);
+                           g[1] = g[1].plus(p[1]);
+                           break;
+           case OSBICONIC: g = gradBiconicT(x, y, surf, sdot, n); break;
+           case OSGAUSS:   g = gradGaussT(x, y, surf, sdot, n); break;
+           default:        g = new Dual[] {new Dual(0.0, n), new Dual(0.0, n)}; break;
+        }
+        Dual r = g[0].sqr().plus(g[1].sqr()).plus(1.0).sqrt();
+        return new Dual[] {g[0].negate().over(r), g[1].negate().over(r), r.rover(1.0)};
+    }
+
+
+    static private Dual zConicT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual r2 = x.sqr().plus(y.sqr());
+        Dual s = Dual.par(surf, sdot, OASPHER, n).plus(1.0);
+        Dual c = Dual.par(surf, sdot, OCURVE, n);
+        Dual arg = s.times(c).times(c).times(r2).rminus(1.0);
+        if (arg.v <= 0.0)
+          return s.times(c).rover(1.0);   // flange
+        return c.times(r2).over(arg.sqrt().plus(1.0));
+    }
+
+
+    static private Dual zXcylT(Dual x, double surf[], double sdot[][], int n)
+    {
+        Dual cx = Dual.par(surf, sdot, OCURVX, n);
+        Dual argx = cx.times(cx).times(x).times(x).rminus(1.0);
+        if (argx.v <= 0.0)
+          return cx.rover(1.0);           // flange
+        return cx.times(x).times(x).over(argx.sqrt().plus(1.0));
+    }
+
+
+    static private Dual zYcylT(Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual cy = Dual.par(surf, sdot, OCURVE, n);
+        Dual sy = Dual.par(surf, sdot, OASPHER, n).plus(1.0);
+        Dual argy = sy.times(cy).times(cy).times(y).times(y).rminus(1.0);
+        if (argy.v <= 0.0)
+          return sy.times(cy).rover(1.0); // flange
+        return cy.times(y).times(y).over(argy.sqrt().plus(1.0));
+    }
+
+
+    static private Dual zToricT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual sy = Dual.par(surf, sdot, OASPHER, n).plus(1.0);
+        Dual cx = Dual.par(surf, sdot, OCURVX, n);
+        Dual cy = Dual.par(surf, sdot, OCURVE, n);
+        Dual arg1 = sy.times(cy).times(cy).times(y).times(y).rminus(1.0);
+        if (arg1.v <= 0.0)
+          return new Dual(0.0, n);
+        Dual fy = cy.times(y).times(y).over(arg1.sqrt().plus(1.0));
+        Dual sum = new Dual(0.0, n);
+        for (int i=14; i>=1; i--)
+          sum = sum.plus(Dual.par(surf, sdot, i+OA1-1, n)).times(y);
+        fy = fy.plus(sum);
+        Dual ratio = cx.times(fy).rminus(1.0);
+        if (ratio.v <= 0.0)
+          return new Dual(0.0, n);
+        Dual arg2 = ratio.sqr().minus(cx.times(cx).times(x).times(x));
+        if (arg2.v <= 0.0)
+          return new Dual(0.0, n);
+        return fy.plus(cx.times(x).times(x).over(ratio.plus(arg2.sqrt())));
+    }
+
+
+    static private Dual zBiconicT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual s = Dual.par(surf, sdot, OASPHX, n).plus(1.0);
+        Dual t = Dual.par(surf, sdot, OASPHY, n).plus(1.0);
+        Dual cx = Dual.par(surf, sdot, OCURVX, n);
+        Dual cy = Dual.par(surf, sdot, OCURVY, n);
+        Dual arg = s.times(cx).times(cx).times(x).times(x)
+                   .plus(t.times(cy).times(cy).times(y).times(y)).rminus(1.0);
+        if (arg.v < 0.0)
+          return new Dual(-0.0, n);
+        return cx.times(x).times(x).plus(cy.times(y).times(y)).over(arg.sqrt().plus(1.0));
+    }
+
+
+    static private Dual zPoly2DT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual r = x.sqr().plus(y.sqr()).sqrt();
+        Dual sum = new Dual(0.0, n);
+        for (int i=14; i>=1; i--)
+          sum = sum.plus(Dual.par(surf, sdot, i+OA1-1, n)).times(r);
+        return sum;
+    }
+
+
+    static private Dual zGaussT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        if (surf[ORGAUSS] <= 0.0)
+          return new Dual(-0.0, n);
+        Dual r2 = x.sqr().plus(y.sqr());
+        Dual s2 = Dual.par(surf, sdot, ORGAUSS, n).sqr();
+        return Dual.par(surf, sdot, OHGAUSS, n).times(r2.over(s2).times(-0.5).exp());
+    }
+
+
+    static private Dual[] gradConicT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual r2 = x.sqr().plus(y.sqr());
+        Dual s = Dual.par(surf, sdot, OASPHER, n).plus(1.0);
+        Dual c = Dual.par(surf, sdot, OCURVE, n);
+        Dual arg = s.times(c).times(c).times(r2).rminus(1.0);
+        if (arg.v <= 0.0)  // flange
+          return new Dual[] {new Dual(0.0, n), new Dual(0.0, n)};
+        Dual coef = c.over(arg.sqrt());
+        return new Dual[] {x.times(coef), y.times(coef)};
+    }
+
+
+    static private Dual[] gradBiconicT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual s = Dual.par(surf, sdot, OASPHX, n).plus(1.0);
+        Dual t = Dual.par(surf, sdot, OASPHY, n).plus(1.0);
+        Dual cx = Dual.par(surf, sdot, OCURVX, n);
+        Dual cy = Dual.par(surf, sdot, OCURVY, n);
+        Dual arg = s.times(cx).times(cx).times(x).times(x)
+                   .plus(t.times(cy).times(cy).times(y).times(y)).rminus(1.0);
+        if (arg.v <= 0.0)
+          return new Dual[] {new Dual(0.0, n), new Dual(0.0, n)};
+        Dual root = arg.sqrt();
+        Dual opr = root.plus(1.0);
+        Dual factor = cx.times(x).times(x).plus(cy.times(y).times(y)).over(root.times(opr).times(opr));
+        Dual gx = cx.times(cx).times(s).times(x).times(factor).plus(cx.times(x).times(2.0).over(opr));
+        Dual gy = cy.times(cy).times(t).times(y).times(factor).plus(cy.times(y).times(2.0).over(opr));
+        return new Dual[] {gx, gy};
+    }
+
+
+    static private Dual[] gradXcylT(Dual x, double surf[], double sdot[][], int n)
+    {
+        Dual cx = Dual.par(surf, sdot, OCURVX, n);
+        Dual arg = cx.times(cx).times(x).times(x).rminus(1.0);
+        if (arg.v <= 0.0)
+          return new Dual[] {new Dual(0.0, n), new Dual(0.0, n)};
+        return new Dual[] {x.times(cx.over(arg.sqrt())), new Dual(0.0, n)};
+    }
+
+
+    static private Dual[] gradYcylT(Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual cy = Dual.par(surf, sdot, OCURVE, n);
+        Dual sy = Dual.par(surf, sdot, OASPHER, n).plus(1.0);
+        Dual arg = sy.times(cy).times(cy).times(y).times(y).rminus(1.0);
+        if (arg.v <= 0.0)
+          return new Dual[] {new Dual(0.0, n), new Dual(0.0, n)};
+        return new Dual[] {new Dual(0.0, n), y.times(cy.over(arg.sqrt()))};
+    }
+
+
+    static private Dual[] gradPolyRevT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual r2 = x.sqr().plus(y.sqr());
+        if (r2.v <= 0.0)
+          return new Dual[] {new Dual(0.0, n), new Dual(0.0, n)};
+        Dual r = r2.sqrt();
+        Dual sum = new Dual(0.0, n);
+        for (int i=14; i>=1; i--)
+          sum = sum.plus(Dual.par(surf, sdot, i+OA1-1, n).times(i)).times(r);
+        Dual dfdr = sum.over(r);
+        return new Dual[] {x.times(dfdr).over(r), y.times(dfdr).over(r)};
+    }
+
+
+    static private Dual[] gradToricT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        Dual zero[] = {new Dual(0.0, n), new Dual(0.0, n)};
+        Dual sy = Dual.par(surf, sdot, OASPHER, n).plus(1.0);
+        Dual cx = Dual.par(surf, sdot, OCURVX, n);
+        Dual cy = Dual.par(surf, sdot, OCURVE, n);
+
+        Dual arg1 = sy.times(cy).times(cy).times(y).times(y).rminus(1.0);
+        if (arg1.v <= 0.0)
+          return zero;
+        arg1 = arg1.sqrt();
+        Dual conicValue = cy.times(y).times(y).over(arg1.plus(1.0));
+        Dual conicDeriv = cy.times(y).over(arg1);
+
+        Dual polyValue = new Dual(0.0, n);
+        for (int i=14; i>=1; i--)
+          polyValue = polyValue.plus(Dual.par(surf, sdot, i+OA1-1, n)).times(y);
+
+        Dual polyDeriv;
+        if (Math.abs(y.v) > 0.0)
+        {
+            Dual sum = new Dual(0.0, n);
+            for (int i=14; i>=1; i--)
+              sum = sum.plus(Dual.par(surf, sdot, i+OA1-1, n).times(i)).times(y);
+            polyDeriv = sum.over(y);
+        }
+        else
+          polyDeriv = Dual.par(surf, sdot, OA1, n);
+
+        Dual fy = conicValue.plus(polyValue);
+        Dual dfdy = conicDeriv.plus(polyDeriv);
+
+        Dual ratio = cx.times(fy).rminus(1.0);
+        if (ratio.v <= 0.0)
+          return zero;
+        Dual arg2 = ratio.sqr().minus(cx.times(cx).times(x).times(x));
+        if (arg2.v <= 0.0)
+          return zero;
+        arg2 = arg2.sqrt();
+        return new Dual[] {cx.times(x).over(arg2), ratio.times(dfdy).over(arg2)};
+    }
+
+
+    static private Dual[] gradGaussT(Dual x, Dual y, double surf[], double sdot[][], int n)
+    {
+        if (surf[ORGAUSS] <= 0.0)
+          return new Dual[] {new Dual(0.0, n), new Dual(0.0, n)};
+        Dual r2 = x.sqr().plus(y.sqr());
+        Dual s2 = Dual.par(surf, sdot, ORGAUSS, n).sqr();
+        Dual z = Dual.par(surf, sdot, OHGAUSS, n).times(r2.over(s2).times(-0.5).exp());
+        return new Dual[] {x.negate().times(z).over(s2), y.negate().times(z).over(s2)};
+    }
+
+
+
 //-----------------math utilities--------------------------------
 
 
@@ -2,6 +2,7 @@ package com.stellarsoftware.beam.core.render;
 
 import com.stellarsoftware.beam.core.B4constants;
 import com.stellarsoftware.beam.core.Globals;
+import com.stellarsoftware.beam.core.RayStats;
 import com.stellarsoftware.beam.core.U;
 import com.stellarsoftware.beam.core.XYZO;
 
@@ -140,6 +141,21 @@ public abstract class DrawBase implements B4constants
     public abstract void    doTechList(boolean bArtStatus);
     abstract void    doRotate(int i, int j);
     public abstract boolean doRandomRay();
+
+    public RayStats newRandomBurst()
+    // Histogram panels override this to return an empty RayStats shaped
+    // like their bins, which Random fills through RT13MonteCarlo off the
+    // event thread, keeping no per-ray artwork.
+    // Returns null if this panel needs each random ray drawn by doRandomRay().
+    {
+        return null;
+    }
+
+    public void addRandomBurst(RayStats rs)
+    // Adds a burst traced into newRandomBurst()'s RayStats to the bins.
+    // On the event thread.
+    {
+    }
 //    abstract void    doCursor(int i, int j);
 //    abstract double  getStereo();
 //    abstract void    doSaveData();
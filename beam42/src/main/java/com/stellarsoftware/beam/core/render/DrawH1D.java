@@ -2,6 +2,7 @@ package com.stellarsoftware.beam.core.render;
 
 import com.stellarsoftware.beam.core.Globals;
 import com.stellarsoftware.beam.core.RAYDataModel;
+import com.stellarsoftware.beam.core.RayStats;
 import com.stellarsoftware.beam.core.U;
 
 import static com.stellarsoftware.beam.core.Globals.RT13;
@@ -135,6 +136,25 @@ public class DrawH1D extends DrawBase
         return false;
     }
 
+    @Override
+    public RayStats newRandomBurst() // replaces DrawBase method
+    {
+        return new RayStats(hsurf, hattr, hmin, hmax, nbins);
+    }
+
+    @Override
+    public void addRandomBurst(RayStats rs)
+    // Adds a burst of random rays into histo[].
+    // Skipped if the bins were re-parsed while it was traced.
+    {
+        if ((nbins < 2) || (rs.getNbinsH() != nbins))
+            return;
+        for (int i=0; i<nbins; i++)
+            histo[i] += (int) rs.getBin(i);
+        sum += rs.getMeanH() * rs.getGood();
+        count += (int) rs.getGood();
+    }
+
     protected void doPlainSaveData()  // stupider version of the above
     {
     }
@@ -2,6 +2,7 @@ package com.stellarsoftware.beam.core.render;
 
 import com.stellarsoftware.beam.core.Globals;
 import com.stellarsoftware.beam.core.RAYDataModel;
+import com.stellarsoftware.beam.core.RayStats;
 import com.stellarsoftware.beam.core.U;
 
 import static com.stellarsoftware.beam.core.Globals.RT13;
@@ -124,6 +125,28 @@ public class DrawH2D extends DrawBase
         return false;
     }
 
+    @Override
+    public RayStats newRandomBurst() // replaces DrawBase method
+    {
+        return new RayStats(hsurf, hattr, hmin, hmax, nhbins,
+                            vsurf, vattr, vmin, vmax, nvbins);
+    }
+
+    @Override
+    public void addRandomBurst(RayStats rs)
+    // Adds a burst of random rays into histo[][].
+    // Skipped if the bins were re-parsed while it was traced.
+    {
+        if ((histo == null) || (nhbins < 2) || (nvbins < 2))
+            return;
+        if ((rs.getNbinsH() != nhbins) || (rs.getNbinsV() != nvbins))
+            return;
+        for (int i=0; i<nhbins; i++)
+            for (int j=0; j<nvbins; j++)
+                histo[i][j] += (int) rs.getBin(i, j);
+        fitUnitHeight();
+    }
+
 
     //-----------private methods---------------
 
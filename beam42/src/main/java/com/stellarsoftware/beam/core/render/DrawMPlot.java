@@ -193,6 +193,7 @@ public class DrawMPlot extends DrawBase
         bPleaseParseUO = false;
 
         doStash();  // line 556 below
+        jStepFirst = getFirstSteppedSurf();
 
         for (int ix=0; ix<nHsteps; ix++)
             for (int iy=0; iy<nVsteps; iy++)
@@ -536,6 +537,23 @@ public class DrawMPlot extends DrawBase
     //-------output methods start here----------------
 
 
+    private int jStepFirst = 0;       // first surface stepped; 0 if steps raystarts or wavels
+
+    private int getFirstSteppedSurf()
+    // Boxes stepping only optics differ only downstream of this surface.
+    {
+        int jfirst = 0;
+        for (int s=0; s<3; s++)
+            for (int j : new int[] {ijH[1][s], ijV[1][s]})
+            {
+                if (j == 0)
+                    return 0;
+                if ((j > 0) && ((jfirst == 0) || (j < jfirst)))
+                    jfirst = j;
+            }
+        return jfirst;
+    }
+
     private double stashR[][] = null; // copy of RT13.raystarts[][]
     private double stashS[][] = null; // copy of RT13.surfs[][]
 
@@ -588,7 +606,14 @@ public class DrawMPlot extends DrawBase
             if (ijV[1][s] > 0)         // surf=1,2,3... hence optical
                 RT13.surfs[ijV[1][s]][ijV[0][s]] = dFragV[s][iy];
         }
-        RT13.setEulers();  // meat ax
+        if (jStepFirst > 0)
+            for (int s=0; s<3; s++)    // just the stepped surfaces
+            {
+                RT13.setEulers(ijH[1][s]);
+                RT13.setEulers(ijV[1][s]);
+            }
+        else
+            RT13.setEulers();  // meat ax
     }
 
     private void calcOneBox(int ix, int iy)
@@ -607,8 +632,12 @@ public class DrawMPlot extends DrawBase
         setTempParms(ix, iy);
 
         //----trace these table rays--------
+        //----after the first box, only optics downstream of jStepFirst have changed----
 
-        ngood[ix][iy] = RT13.iBuildRays(true);   // handles UVW normalization
+        if ((jStepFirst > 1) && ((ix > 0) || (iy > 0)))
+            ngood[ix][iy] = RT13.iBuildRaysFrom(jStepFirst, true);
+        else
+            ngood[ix][iy] = RT13.iBuildRays(true);   // handles UVW normalization
 
         //---now zero and gather the local results----
 
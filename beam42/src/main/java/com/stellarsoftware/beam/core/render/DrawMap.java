@@ -3,6 +3,7 @@ package com.stellarsoftware.beam.core.render;
 import com.stellarsoftware.beam.core.Globals;
 import com.stellarsoftware.beam.core.OPTDataModel;
 import com.stellarsoftware.beam.core.RAYDataModel;
+import com.stellarsoftware.beam.core.RT13Snapshot;
 import com.stellarsoftware.beam.core.U;
 
 import static com.stellarsoftware.beam.core.Globals.RT13;
@@ -57,12 +58,20 @@ import java.util.*;        // ArrayList
  *    doBunchRays()
  *    // called as TimerTask doTick().
  *    {
- *       save & modify parms;
+ *       step parms in the private trace context;
  *       run rays;
- *       calc result and add to list;
- *       restore parms.
+ *       calc result and add to list.
  *    }
  *
+ *  The optics and rays are snapshotted once, by prepareBunches(),
+ *  so the sweep never modifies Globals.RT13 and edits made during
+ *  a run do not leak into it.  One trace context is made there too;
+ *  each cell overwrites the stepped parms from the snapshot, and a
+ *  trace overwrites everything else a previous cell left in it.
+ *  When the map steps only optics, the unstepped rays are traced once
+ *  and each cell retraces from its first stepped surface onward,
+ *  see RT13.iBuildRaysFrom().
+ *
  *    doTechList()  ----<<<---called by GPanel.drawPage().
  *    {
  *       if (bPleaseParseUO)
@@ -149,14 +158,15 @@ public class DrawMap extends DrawBase // implements Runnable
     private double dHmapCenter, dVmapCenter;
     private double maxdatum=0, mindatum=0;
 
-    //---optics and ray saves------------
+    //---frozen optics and rays, and the context the bunches are traced in---
+
+    private RT13Snapshot mapSnap = null;
+    private com.stellarsoftware.beam.core.RT13 mapRT = null;
+
+    //---when the map steps only optics: the unstepped trace, and the first stepped surface---
 
-    private double hRaysave[] = new double[MAXRAYS];
-    private double hOptsave;
-    private double vRaysave[] = new double[MAXRAYS];
-    private double vOptsave;
-    private double hRaysaveP[] = new double[MAXRAYS];
-    private double vRaysaveP[] = new double[MAXRAYS];
+    private com.stellarsoftware.beam.core.RT13 mapBase = null;
+    private int mapFirst = 0;
 
     //---nominal typeface but doArt() can modify these---------
 
@@ -434,53 +444,50 @@ public class DrawMap extends DrawBase // implements Runnable
         double dV1 = (-0.5*(nV-1) + iv) * dVstep;  // param value
         double dV2 = (-0.5*(nV-1) + iv) * dVpar;   // parallax
 
-        //------save original values of stepped parms--------
-        //------no parallax for optics, only for rays--------
-
-        if (asH[1] == 0)       // if stepping raystarts: save.
-            for (int k=1; k<=nrays; k++)
-                hRaysave[k] = RT13.raystarts[k][asH[0]];
-        if (asHp[1] == 0)
-            for (int k=1; k<=nrays; k++)
-                hRaysaveP[k] = RT13.raystarts[k][asHp[0]];
-
-        if (asH[1] > 0)        // if stepping optics; save.
-            hOptsave = RT13.surfs[asH[1]][asH[0]];
-
-        if (asV[1] == 0)       // if stepping raystarts; save.
-            for (int k=1; k<=nrays; k++)
-                vRaysave[k] = RT13.raystarts[k][asV[0]];
-        if (asVp[1] == 0)
-            for (int k=1; k<=nrays; k++)
-                vRaysaveP[k] = RT13.raystarts[k][asVp[0]];
-
-        if (asV[1] > 0)        // if stepping optics; save.
-            vOptsave = RT13.surfs[asV[1]][asV[0]];
-
-        //----------------step the parameters-----------------------
+        //------step the parameters in the private context-------
+        //------no parallax for optics, only for rays----------
         //--but respect the optional user-specified center values---
 
         if (asH[1] == 0)       // modify rays
             for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asH[0]] = hRaysave[k] + dH1;
+                mapRT.raystarts[k][asH[0]] = mapSnap.dGetRaystart(k, asH[0]) + dH1;
         if (asHp[1] == 0)
             for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asHp[0]] = hRaysaveP[k] + dH2;
+                mapRT.raystarts[k][asHp[0]] = mapSnap.dGetRaystart(k, asHp[0]) + dH2;
 
-        if (asH[1] > 0)        // else modify optics
-            RT13.surfs[asH[1]][asH[0]] = hOptsave + dH1;
+        if ((asH[1] > 0) && (asH[1] <= mapSnap.getNsurfs()))  // else modify optics
+            mapRT.surfs[asH[1]][asH[0]] = mapSnap.dGetSurfParm(asH[0], asH[1]) + dH1;
 
         if (asV[1] == 0)       // modify rays
             for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asV[0]] = vRaysave[k] + dV1;
+                mapRT.raystarts[k][asV[0]] = mapSnap.dGetRaystart(k, asV[0]) + dV1;
         if (asVp[1] == 0)
             for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asVp[0]] = vRaysaveP[k] + dV2;
+                mapRT.raystarts[k][asVp[0]] = mapSnap.dGetRaystart(k, asVp[0]) + dV2;
 
-        if (asV[1] > 0)        // else modify optics
-            RT13.surfs[asV[1]][asV[0]] = vOptsave + dV1;
+        if ((asV[1] > 0) && (asV[1] <= mapSnap.getNsurfs()))  // else modify optics
+            mapRT.surfs[asV[1]][asV[0]] = mapSnap.dGetSurfParm(asV[0], asV[1]) + dV1;
 
-        RT13.setEulers();       // meat ax approach
+        //---stepping only optics, every cell shares the trace upstream of mapFirst---
+
+        int ngood;
+        if (mapFirst > 1)
+        {
+            if (mapBase == null)
+            {
+                mapBase = mapSnap.newContext();
+                mapBase.iBuildRays(true);
+            }
+            mapRT.copyTraceFrom(mapBase);
+            mapRT.setEulers(asH[1]);
+            mapRT.setEulers(asV[1]);
+            ngood = mapRT.iBuildRaysFrom(mapFirst, true);
+        }
+        else
+        {
+            mapRT.setEulers();       // meat ax approach
+            ngood = mapRT.iBuildRays(true);  // builds all rays
+        }
 
         //---trace the rays and gather the datum for this box--------
         //---Note: REJIF line 88 sets each ray WFE group index=0
@@ -490,7 +497,6 @@ public class DrawMap extends DrawBase // implements Runnable
         //   RT13.iWFEgroup[kray] = 0;   // all rays are in WFEgroup zero
 
         double d = -0.0;
-        int ngood = RT13.iBuildRays(true);  // builds all rays
         if (ngood < minGood)
             d = BADCELL;
         else
@@ -518,29 +524,6 @@ public class DrawMap extends DrawBase // implements Runnable
             }
         }
         dList.add(d); ////// this is it!
-
-        //----finally, undo the parameter step-------
-
-        if (asH[1] == 0)        // restore rays
-            for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asH[0]] = hRaysave[k];
-        if (asHp[1] == 0)
-            for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asHp[0]] = hRaysaveP[k]; //????
-        if (asH[1] > 0)         // else restore optics
-            RT13.surfs[asH[1]][asH[0]] = hOptsave;
-
-        if (asV[1] == 0)        // restore rays
-            for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asV[0]] = vRaysave[k]; //????
-        if (asVp[1] == 0)
-            for (int k=1; k<=nrays; k++)
-                RT13.raystarts[k][asVp[0]] = vRaysaveP[k];
-
-        if (asV[1] > 0)         // else restore optics
-            RT13.surfs[asV[1]][asV[0]] = vOptsave;
-
-        RT13.setEulers();       // meat ax approach
     }
 
 
@@ -551,9 +534,9 @@ public class DrawMap extends DrawBase // implements Runnable
         double sum=0;
         int ngood=0;
         for (int k=1; k<=nrays; k++)
-            if (RROK == RT13.getStatus(k))
+            if (RROK == mapRT.getStatus(k))
             {
-                sum += RT13.dGetRayFinal(k,iatt);
+                sum += mapRT.dGetRayFinal(k,iatt);
                 ngood++;
             }
         if (ngood > 0)
@@ -567,9 +550,9 @@ public class DrawMap extends DrawBase // implements Runnable
         double sum=0.0, sum2=0.0;
         int n=0;
         for (int k=1; k<=nrays; k++)
-            if (RROK == RT13.getStatus(k))
+            if (RROK == mapRT.getStatus(k))
             {
-                double wfe = RT13.dGetRay(k, 0, RTWFE);
+                double wfe = mapRT.dGetRay(k, 0, RTWFE);
                 sum += wfe;
                 sum2 += wfe*wfe;
                 n++;
@@ -586,9 +569,9 @@ public class DrawMap extends DrawBase // implements Runnable
         double peak=0, valley=0;
         int n=0;
         for (int k=1; k<=nrays; k++)
-            if (RROK == RT13.getStatus(k))
+            if (RROK == mapRT.getStatus(k))
             {
-                double wfe = RT13.dGetRay(k, 0, RTWFE); // group zero
+                double wfe = mapRT.dGetRay(k, 0, RTWFE); // group zero
                 if (n == 0)
                     peak = valley = wfe;
                 else if (wfe > peak)
@@ -619,10 +602,10 @@ public class DrawMap extends DrawBase // implements Runnable
             return BADCELL;
         int n = 0;
         for (int k=1; k<=nrays; k++)
-            if (RROK == RT13.getStatus(k))
+            if (RROK == mapRT.getStatus(k))
             {
-                double x = RT13.dGetRay(k, xsurf, RTXL); // ignore goals
-                double y = RT13.dGetRay(k, ysurf, RTYL); // ignore goals
+                double x = mapRT.dGetRay(k, xsurf, RTXL); // ignore goals
+                double y = mapRT.dGetRay(k, ysurf, RTYL); // ignore goals
                 xsum += x;
                 ysum += y;
                 xsum2 += x*x;
@@ -926,9 +909,25 @@ public class DrawMap extends DrawBase // implements Runnable
     private int iBunch=0;
     public boolean bRunning = true;
 
+    private int getFirstSteppedSurf()
+    // First surface stepped by the map, or 0 if it steps any ray starts.
+    {
+        if ((asH[1] == 0) || (asHp[1] == 0) || (asV[1] == 0) || (asVp[1] == 0))
+            return 0;
+        int jfirst = 0;
+        for (int j : new int[] {asH[1], asV[1]})
+            if ((j > 0) && (j <= mapSnap.getNsurfs()) && ((jfirst == 0) || (j < jfirst)))
+                jfirst = j;
+        return jfirst;
+    }
+
     public void prepareBunches()
     {
         nrays = Globals.giFlags[RNRAYS];
+        mapSnap = RT13.snapshot();
+        mapRT = mapSnap.newContext();
+        mapBase = null;
+        mapFirst = getFirstSteppedSurf();
         goodcount = 0;
         iBunch = 0;
         bPleaseParseUO = false;
@@ -185,6 +185,7 @@ public class DMF extends JFrame implements B4constants
         sInitialDir = System.getProperty("user.dir");  
         sCurrentDir = sInitialDir;        
         Globals.reg = new Registry(sInitialDir);  // create and load registry
+        Globals.setTraceThreads(U.suckInt(Globals.reg.getuo(UO_AUTO, 9))); 
         sUserHome = System.getProperty("user.home"); 
         
         //---fix up an absentee project path----
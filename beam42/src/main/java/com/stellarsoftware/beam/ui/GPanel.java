@@ -153,6 +153,14 @@ abstract class GPanel extends JPanel implements B4constants, Printable
         return drawBase.doRandomRay();
     }
 
+    public RayStats newRandomBurst() {
+        return drawBase.newRandomBurst();
+    }
+
+    public void addRandomBurst(RayStats rs) {
+        drawBase.addRandomBurst(rs);
+    }
+
     void requestNewArtwork()
     // Allows each AutoAdjust() iteration to request fresh Layout artwork. 
     // Don't re-parse UO or sizes when this is called.
@@ -471,6 +471,7 @@ class Options extends JMenu implements B4constants
         LabelDataBox step  = new LabelDataBox(UO_AUTO, 0, NCHARS); 
         LabelDataBox maxit = new LabelDataBox(UO_AUTO, 1, NCHARS); 
         LabelDataBox tol   = new LabelDataBox(UO_AUTO, 2, NCHARS); 
+        LabelDataBox nthr  = new LabelDataBox(UO_AUTO, 9, NCHARS); 
         // LabelDataBox wx    = new LabelDataBox(UO_AUTO, 3, NCHARS); 
         // LabelDataBox wy    = new LabelDataBox(UO_AUTO, 4, NCHARS); 
         // LabelDataBox wz    = new LabelDataBox(UO_AUTO, 5, NCHARS); 
@@ -479,7 +480,7 @@ class Options extends JMenu implements B4constants
         // LabelDataBox ww    = new LabelDataBox(UO_AUTO, 8, NCHARS);         
 
         int result = JOptionPane.showOptionDialog(frame,
-           new Object[] {step, maxit, tol},  // wx, wy, wz, wu, wv, ww}, 
+           new Object[] {step, maxit, tol, nthr},  // wx, wy, wz, wu, wv, ww}, 
            "AutoAdjust Options", 
            JOptionPane.OK_CANCEL_OPTION, 
            JOptionPane.PLAIN_MESSAGE,
@@ -490,6 +491,8 @@ class Options extends JMenu implements B4constants
             Globals.reg.putuo(UO_AUTO, 0, step.getText());
             Globals.reg.putuo(UO_AUTO, 1, maxit.getText());
             Globals.reg.putuo(UO_AUTO, 2, tol.getText());
+            Globals.reg.putuo(UO_AUTO, 9, nthr.getText());
+            Globals.setTraceThreads(U.suckInt(nthr.getText())); 
             // DMF.reg.putuo(UO_AUTO, 3, wx.getText()); 
             // DMF.reg.putuo(UO_AUTO, 4, wy.getText()); 
             // DMF.reg.putuo(UO_AUTO, 5, wz.getText()); 
@@ -828,6 +831,7 @@ class Options extends JMenu implements B4constants
         LabelDataBox refresh = new LabelDataBox(UO_RAND, 0, NCHARS); 
         LabelDataBox tries = new LabelDataBox(UO_RAND, 1, NCHARS); 
         LabelDataBox succ = new LabelDataBox(UO_RAND, 2, NCHARS); 
+        LabelDataBox seed = new LabelDataBox(UO_RAND, 13, NCHARS); 
         
         // create three bordered boxes containing radio buttons, etc.
         BorVertRadioBox xyz = new BorVertRadioBox("X0 Y0 Z0", UO_RAND, 3, 2);         // two buttons
@@ -835,7 +839,7 @@ class Options extends JMenu implements B4constants
         BorVertRadioField brf = new BorVertRadioField("Distribution", UO_RAND,7,5);
 
         int result = JOptionPane.showOptionDialog(frame,
-           new Object[] {refresh, tries, succ, xyz, uvw, brf}, 
+           new Object[] {refresh, tries, succ, seed, xyz, uvw, brf}, 
            "Random Ray Options", 
            JOptionPane.OK_CANCEL_OPTION, 
            JOptionPane.PLAIN_MESSAGE,
@@ -844,7 +848,7 @@ class Options extends JMenu implements B4constants
         if (result == JOptionPane.OK_OPTION)
         {
             String s = refresh.getText(); 
-            Globals.reg.putuo(UO_RAND, 0, sNumber(s, MAXBUNCH));
+            Globals.reg.putuo(UO_RAND, 0, sNumber(s, MAXMCBUNCH));  // Random clamps per-ray panels to MAXBUNCH
             s = tries.getText(); 
             Globals.reg.putuo(UO_RAND, 1, sNumber(s, 999999999));
             s = succ.getText(); 
@@ -856,6 +860,10 @@ class Options extends JMenu implements B4constants
             for (int i=0; i<5; i++)   // five buttons
               Globals.reg.putuo(UO_RAND, 7+i, brf.isSelected(i) ? "T" : "F");
             Globals.reg.putuo(UO_RAND, 12, brf.getText());
+            s = seed.getText().trim(); 
+            try {Long.parseLong(s);}
+            catch (NumberFormatException nfe) {s = "";}   // blank: unseeded
+            Globals.reg.putuo(UO_RAND, 13, s);
         }
     }
     
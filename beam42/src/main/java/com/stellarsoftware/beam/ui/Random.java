@@ -2,11 +2,14 @@ package com.stellarsoftware.beam.ui;
 
 import com.stellarsoftware.beam.core.B4constants;
 import com.stellarsoftware.beam.core.Globals;
+import com.stellarsoftware.beam.core.RT13MonteCarlo;
+import com.stellarsoftware.beam.core.RayStats;
 import com.stellarsoftware.beam.core.U;
 
 import java.awt.*;           // Action
 import java.awt.event.*;     // Event
 import javax.swing.*;
+import java.util.SplittableRandom;
 
 /** Random.java
   *
@@ -36,6 +39,16 @@ import javax.swing.*;
   *  and then uses RT13.dGetRay(0, hsurf, hattr) to gather each point. 
   *  Only the kickoff management and scorekeeping is done here. 
   *
+  *  Histogram panels instead take whole bunches, as large as MAXMCBUNCH,
+  *  shaped by targetPanel.newRandomBurst().  Each bunch streams through
+  *  RT13MonteCarlo on all trace threads in a SwingWorker, one at a time,
+  *  so the dialog and its Stop button stay live; when done its RayStats
+  *  goes to targetPanel.addRandomBurst() back on the event thread.
+  *
+  *  A seed in the Random options makes a run repeatable: it restarts the
+  *  random ray stream of RT13, and seeds the bursts in turn, whatever
+  *  the number of trace threads.  A blank seed gives a fresh run each time.
+  *
   *
   *  @author: M.Lampton (c) 2003 STELLAR SOFTWARE all rights reserved.
   */
@@ -46,11 +59,13 @@ class Random implements B4constants
     private JLabel jlTop, jlMid, jlBot; 
     private JButton jbDone; 
     private JDialog jd = null; 
-    private int goodcount = 0, totalcount=0; 
-    private int maxtries, maxgood, nBunch; 
+    private long goodcount = 0, totalcount=0; 
+    private int maxtries, maxgood, nBunch, nMCBunch; 
     private int nsurfs, nrays, nfields; 
     private boolean bRunning = true; 
     private int iEdits = 0;         // shuts down if editors change.
+    private SplittableRandom burstSeeds;  // one seed per burst
+    private SwingWorker<RayStats, Void> burst = null;  // burst being traced
 
     public Random() // constructor
     {
@@ -69,11 +84,24 @@ class Random implements B4constants
         nrays = Globals.giFlags[RNRAYS];
         nfields = Globals.giFlags[RNFIELDS];
         nBunch = U.suckInt(Globals.reg.getuo(UO_RAND, 0));
+        nMCBunch = Math.max(1, Math.min(MAXMCBUNCH, nBunch)); 
         nBunch = Math.max(1, Math.min(MAXBUNCH, nBunch)); 
         maxtries = U.suckInt(Globals.reg.getuo(UO_RAND, 1));
         maxtries = Math.max(1, maxtries); 
         maxgood = U.suckInt(Globals.reg.getuo(UO_RAND, 2));
         maxgood = Math.max(1, maxgood); 
+        String sSeed = Globals.reg.getuo(UO_RAND, 13).trim(); 
+        burstSeeds = new SplittableRandom(); 
+        if (sSeed.length() > 0)
+        {
+            try
+            {
+                long seed = Long.parseLong(sSeed); 
+                Globals.RT13.setRandomSeed(seed); 
+                burstSeeds = new SplittableRandom(seed); 
+            }
+            catch (NumberFormatException nfe) {}
+        }
         GJIF gFront = DMF.getFrontGJIF(); // null SNH.
         targetPanel = gFront.getGPanel(); // null SNH.
     }
@@ -133,7 +161,14 @@ class Random implements B4constants
         {
             if (bRunning)
             {
-                for (int i=0; i<nBunch; i++)
+                RayStats empty = targetPanel.newRandomBurst();
+                if (empty != null)  // panel takes bursts
+                {
+                    if (burst == null)
+                      startBurst(empty);
+                    return;
+                }
+                for (int i=0; i<nBunch; i++)  // panel draws each ray
                 {
                     if (targetPanel.doRandomRay())
                       goodcount++;  
@@ -144,20 +179,9 @@ class Random implements B4constants
                         break; 
                     }
                 }
-                String s = "Ray Starts = " + Integer.toString(totalcount); 
-                jlTop.setText(s); 
-                String g = "Ray Finishes = " + Integer.toString(goodcount); 
-                jlMid.setText(g);
-                String r = " "; 
-                if (totalcount > 0)
-                {
-                    double percent = (goodcount*100.0)/totalcount; 
-                    r = "Percent = " + U.fwd(percent, 5, 1); 
-                }
-                jlBot.setText(r);  
-                targetPanel.redo();  // myBatchList -> g2Tech, and blit.
+                showCounts(); 
             }
-            else
+            else if (burst == null)
             {
                 myTimer.stop(); 
                 jbDone.setText("Done"); 
@@ -166,6 +190,64 @@ class Random implements B4constants
     };
 
 
+    private void startBurst(final RayStats empty)
+    // Traces one burst off the event thread.  The snapshot, seed and
+    // thread count are taken here, on the event thread.
+    {
+        final int nburst = (int) Math.min(nMCBunch, maxtries - totalcount);
+        final int nthreads = Globals.nTraceThreads; 
+        final RT13MonteCarlo mc = new RT13MonteCarlo(Globals.RT13.snapshot(), burstSeeds.nextLong());
+        burst = new SwingWorker<RayStats, Void>()
+        {
+            protected RayStats doInBackground()
+            {
+                return mc.run(nburst, empty, nthreads);
+            }
+
+            protected void done()
+            {
+                burst = null; 
+                if (jd == null)  // dialog was closed
+                  return; 
+                RayStats rs; 
+                try
+                {
+                    rs = get(); 
+                }
+                catch (Exception e)
+                {
+                    bRunning = false; 
+                    return; 
+                }
+                targetPanel.addRandomBurst(rs); 
+                goodcount += rs.getGood(); 
+                totalcount += nburst; 
+                if ((totalcount>=maxtries) || (goodcount>=maxgood) || (Globals.nEdits!=iEdits))
+                  bRunning = false; 
+                showCounts(); 
+            }
+        };
+        burst.execute(); 
+    }
+
+
+    private void showCounts()
+    {
+        String s = "Ray Starts = " + Long.toString(totalcount); 
+        jlTop.setText(s); 
+        String g = "Ray Finishes = " + Long.toString(goodcount); 
+        jlMid.setText(g);
+        String r = " "; 
+        if (totalcount > 0)
+        {
+            double percent = (goodcount*100.0)/totalcount; 
+            r = "Percent = " + U.fwd(percent, 5, 1); 
+        }
+        jlBot.setText(r);  
+        targetPanel.redo();  // myBatchList -> g2Tech, and blit.
+    }
+
+
     private void shutdown()
     {
         myTimer.stop(); 
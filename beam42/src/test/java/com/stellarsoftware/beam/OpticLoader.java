@@ -0,0 +1,32 @@
+package com.stellarsoftware.beam;
+
+import com.stellarsoftware.beam.core.*;
+import org.junit.jupiter.api.Assertions;
+
+import java.io.File;
+
+/**
+ * Loads an example optic and its ray table into Globals.RT13 for the tests.
+ */
+class OpticLoader {
+
+    final RT13 rt13;
+    final OPTDataModel optDataModel;
+    final RAYDataModel rayDataModel;
+
+    OpticLoader(String name) {
+        Globals.init();
+        Globals.reg = new Registry(null);  // create and load registry
+        rt13 = Globals.RT13;
+        optDataModel = new OPTDataModel(rt13);
+        Assertions.assertTrue(optDataModel.bLoadFile(new File("../Examples/BeamFour/" + name + ".OPT")));
+        rayDataModel = new RAYDataModel(rt13);
+        Assertions.assertTrue(rayDataModel.bLoadFile(new File("../Examples/BeamFour/" + name + ".RAY")));
+        B4DataParser b4DataParser = new B4DataParser(optDataModel, rayDataModel, null, rt13);
+        b4DataParser.parse(true);
+    }
+
+    static RT13 load(String name) {
+        return new OpticLoader(name).rt13;
+    }
+}
@@ -3,11 +3,16 @@ package com.stellarsoftware.beam;
 import com.stellarsoftware.beam.core.*;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class TestAudoAdj {
 
+    private static String lastRayTable;
+
     @Test
     public void testAuto1() {
         Globals.init();
@@ -27,4 +32,68 @@ public class TestAudoAdj {
         System.out.println(rayDataModel.getTableString());
     }
 
+    private static OPTDataModel runAuto(String name, int nthreads) {
+        return runAuto(name, nthreads, -1);
+    }
+
+    private static OPTDataModel runAuto(String name, int nthreads, int headless) {
+        return runAuto(name, nthreads, headless, false);
+    }
+
+    private static OPTDataModel runAuto(String name, int nthreads, int headless, boolean analytic) {
+        OpticLoader optic = new OpticLoader(name);
+        OPTDataModel optDataModel = optic.optDataModel;
+        RAYDataModel rayDataModel = optic.rayDataModel;
+        Globals.nTraceThreads = nthreads;
+        AutoAdjuster autoAdjuster = new AutoAdjuster(optDataModel, rayDataModel, null, null, optic.rt13);
+        if (headless >= 0)
+            autoAdjuster.setHeadless(headless);
+        autoAdjuster.setAnalyticJacobian(analytic);
+        autoAdjuster.run();
+        Globals.nTraceThreads = 1;
+        Globals.bAutoBusy = false;
+        lastRayTable = rayDataModel.getTableString();
+        return optDataModel;
+    }
+
+    @Test
+    public void testParallelJacobian() {
+        // AUTO4: two curvatures; AUTO6: curvatures with slaves and ganged asphers
+        for (String name : new String[] {"AUTO4", "AUTO6"}) {
+            String serial = runAuto(name, 1).getTableString();
+            String parallel = runAuto(name, 4).getTableString();
+            Assertions.assertEquals(serial, parallel, name);
+        }
+    }
+
+    @Test
+    public void testHeadless() {
+        for (String name : new String[] {"AUTO4", "AUTO6"}) {
+            String opt = runAuto(name, 1).getTableString();
+            String ray = lastRayTable;
+            Assertions.assertEquals(opt, runAuto(name, 1, 0).getTableString(), name);
+            Assertions.assertEquals(ray, lastRayTable, name);
+            Assertions.assertEquals(opt, runAuto(name, 1, 3).getTableString(), name);
+            Assertions.assertEquals(ray, lastRayTable, name);
+        }
+    }
+
+    @Test
+    public void testAnalyticJacobian() {
+        // the same optimum whether the Jacobian is differenced or differentiated
+        for (String name : new String[] {"AUTO1", "AUTO4", "AUTO6"}) {
+            String numeric = runAuto(name, 1).getTableString();
+            Assertions.assertEquals(numeric, runAuto(name, 1, -1, true).getTableString(), name);
+            Assertions.assertEquals(numeric, runAuto(name, 1, 0, true).getTableString(), name);
+        }
+    }
+
+    @Test
+    public void testB4Auto(@TempDir Path dir) throws Exception {
+        Path out = dir.resolve("AUTO1.OPT");
+        Assertions.assertEquals(0, B4Auto.run(new String[] {
+                "../Examples/BeamFour/AUTO1.OPT", "../Examples/BeamFour/AUTO1.RAY", out.toString()}));
+        Assertions.assertTrue(Files.readString(out).contains("3.12613"));
+    }
+
 }
@@ -0,0 +1,72 @@
+package com.stellarsoftware.beam;
+
+import com.stellarsoftware.beam.core.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static com.stellarsoftware.beam.core.B4constants.*;
+
+public class TestRT13Batch {
+
+    private static void checkTableRays(String name) {
+        RT13 live = OpticLoader.load(name);
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13 rt = live.snapshot().newContext();
+        int ngood = rt.iBuildRays(true, 1);
+
+        RT13Batch batch = new RT13Batch(rt, nrays);
+        Assertions.assertTrue(batch.isSupported(), name);
+        Assertions.assertEquals(nrays, batch.loadTableRays());
+        Assertions.assertEquals(ngood, batch.trace(), name);
+        Assertions.assertEquals(ngood, batch.trace(), name);   // ray starts survive a trace
+        for (int k = 1; k <= nrays; k++) {
+            int i = k - 1;
+            Assertions.assertEquals(rt.getHowfarOK(k), batch.getHowfarOK(i), name + " ray " + k);
+            Assertions.assertEquals(rt.getStatus(k), batch.getStatus(i), name + " ray " + k);
+            if (!batch.isGood(i))
+                continue;
+            double got[] = {batch.x[i], batch.y[i], batch.z[i], batch.u[i], batch.v[i], batch.w[i], batch.path[i]};
+            for (int a = RX; a <= RPATH; a++)
+                Assertions.assertEquals(rt.dGetRay(k, nsurfs, a), got[a], 1e-12, name + " ray " + k + " attrib " + a);
+        }
+    }
+
+    @Test
+    public void testMatchesRT13() {
+        checkTableRays("TMA72");     // tilted conic mirrors, irises, inner diameters
+        checkTableRays("FisheyeB");  // spherical lenses
+        checkTableRays("AUTO4");
+    }
+
+    @Test
+    public void testBeyondMaxrays() {
+        RT13 live = OpticLoader.load("TMA72");
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13 rt = live.snapshot().newContext();
+        rt.iBuildRays(true, 1);
+        int n = MAXRAYS + 1000;
+        RT13Batch batch = new RT13Batch(rt, n);
+        for (int i = 0; i < n; i++) {
+            int k = 1 + i % Globals.giFlags[RNRAYS];
+            double r[] = rt.raystarts[k];
+            Assertions.assertTrue(batch.setRay(i, r[RX], r[RY], r[RZ], r[RU], r[RV], r[RW], k));
+        }
+        batch.trace();
+        for (int i = 0; i < n; i++) {
+            int k = 1 + i % Globals.giFlags[RNRAYS];
+            Assertions.assertEquals(rt.getHowfarOK(k) == nsurfs, batch.isGood(i));
+            if (batch.isGood(i))
+                Assertions.assertEquals(rt.dGetRay(k, nsurfs, RX), batch.x[i], 1e-12);
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        RT13 live = OpticLoader.load("Shack");   // lens array
+        RT13Batch batch = new RT13Batch(live, 10);
+        Assertions.assertFalse(batch.isSupported());
+        batch.loadTableRays();
+        Assertions.assertEquals(0, batch.trace());
+    }
+}
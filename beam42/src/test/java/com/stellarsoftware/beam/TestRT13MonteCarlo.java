@@ -0,0 +1,141 @@
+package com.stellarsoftware.beam;
+
+import com.stellarsoftware.beam.core.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static com.stellarsoftware.beam.core.B4constants.*;
+
+public class TestRT13MonteCarlo {
+
+    @Test
+    public void testMergeMatchesSerial() {
+        RayStats all = new RayStats(1, RX, -1.0, 1.0, 20, 1, RY, -1.0, 1.0, 10);
+        RayStats a = all.newEmpty();
+        RayStats b = all.newEmpty();
+        java.util.Random r = new java.util.Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double h = r.nextGaussian() * 0.3 + 0.1;
+            double v = 0.5 * h + r.nextGaussian() * 0.2;
+            all.add(h, v);
+            if (i < 3000)
+                a.add(h, v);
+            else
+                b.add(h, v);
+        }
+        a.merge(b);
+        Assertions.assertEquals(all.getGood(), a.getGood());
+        Assertions.assertEquals(all.getMeanH(), a.getMeanH(), 1e-12);
+        Assertions.assertEquals(all.getMeanV(), a.getMeanV(), 1e-12);
+        Assertions.assertEquals(all.getVarH(), a.getVarH(), 1e-12);
+        Assertions.assertEquals(all.getVarV(), a.getVarV(), 1e-12);
+        Assertions.assertEquals(all.getCovHV(), a.getCovHV(), 1e-12);
+        Assertions.assertEquals(0.09, all.getVarH(), 0.01);
+        for (int i = 0; i < 20; i++)
+            for (int j = 0; j < 10; j++)
+                Assertions.assertEquals(all.getBin(i, j), a.getBin(i, j));
+    }
+
+    @Test
+    public void testStreamingRandomRays() {
+        RT13 live = OpticLoader.load("TMA72");
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13MonteCarlo mc = new RT13MonteCarlo(live.snapshot());
+        RayStats empty = new RayStats(nsurfs, RX, -2.0, 2.0, 64);
+
+        long ntries = 50000;   // many more than MAXRAYS
+        RayStats par = mc.run(ntries, empty, 4);
+        RayStats ser = mc.run(ntries, empty, 1);
+        Assertions.assertEquals(0, empty.getTries());
+        for (RayStats rs : new RayStats[] {par, ser}) {
+            Assertions.assertEquals(ntries, rs.getTries());
+            Assertions.assertTrue(rs.getGood() > ntries / 2);
+            long binned = 0;
+            for (int i = 0; i < rs.getNbinsH(); i++)
+                binned += rs.getBin(i);
+            Assertions.assertTrue(binned <= rs.getGood());
+            Assertions.assertTrue(binned > 0);
+        }
+        // independent random samples of the same spot
+        Assertions.assertEquals((double) ser.getGood() / ntries, (double) par.getGood() / ntries, 0.02);
+        double sigma = Math.sqrt(ser.getVarH() / ser.getGood());
+        Assertions.assertEquals(ser.getMeanH(), par.getMeanH(), 10 * sigma + 1e-12);
+    }
+
+    @Test
+    public void testSeededRunsRepeat() {
+        RT13 live = OpticLoader.load("TMA72");
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13Snapshot snap = live.snapshot();
+        RayStats empty = new RayStats(1, RX, -100.0, 100.0, 32, nsurfs, RY, -2.0, 2.0, 32);
+
+        long ntries = 20000;
+        RayStats one = new RT13MonteCarlo(snap, 1234L).run(ntries, empty, 1);
+        RayStats four = new RT13MonteCarlo(snap, 1234L).run(ntries, empty, 4);
+        RayStats other = new RT13MonteCarlo(snap, 4321L).run(ntries, empty, 4);
+        Assertions.assertEquals(one.getGood(), four.getGood());
+        Assertions.assertEquals(Double.doubleToRawLongBits(one.getMeanH()), Double.doubleToRawLongBits(four.getMeanH()));
+        Assertions.assertEquals(Double.doubleToRawLongBits(one.getCovHV()), Double.doubleToRawLongBits(four.getCovHV()));
+        for (int i = 0; i < 32; i++)
+            for (int j = 0; j < 32; j++)
+                Assertions.assertEquals(one.getBin(i, j), four.getBin(i, j));
+        Assertions.assertNotEquals(one.getMeanH(), other.getMeanH());
+
+        // the live random ray stream restarts from its seed too
+        double first[] = new double[50];
+        live.setRandomSeed(99L);
+        for (int i = 0; i < first.length; i++)
+            first[i] = live.bRunRandomRay() ? live.dGetRay(0, 1, RX) : Double.NaN;
+        live.setRandomSeed(99L);
+        for (int i = 0; i < first.length; i++) {
+            double x = live.bRunRandomRay() ? live.dGetRay(0, 1, RX) : Double.NaN;
+            Assertions.assertEquals(Double.doubleToRawLongBits(first[i]), Double.doubleToRawLongBits(x), "ray " + i);
+        }
+    }
+
+    private static double[] finals(RT13 rt, int nrays, int nsurfs) {
+        double uv[] = new double[2 * nrays];
+        for (int k = 1; k <= nrays; k++) {
+            uv[2*k-2] = rt.isRayOK[k] ? rt.dGetRay(k, nsurfs, RU) : Double.NaN;
+            uv[2*k-1] = rt.isRayOK[k] ? rt.dGetRay(k, nsurfs, RV) : Double.NaN;
+        }
+        return uv;
+    }
+
+    @Test
+    public void testSeededScatterRepeats() {
+        RT13 live = OpticLoader.load("TMA72");
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        live.surfs[nsurfs][OTYPE] = OTGSCATTER;   // the detector scatters
+        live.surfs[nsurfs][OSCATTER] = 0.5;
+
+        live.setRandomSeed(1234L);
+        Assertions.assertTrue(live.iBuildRays(true, 1) > nrays / 2);
+        double first[] = finals(live, nrays, nsurfs);
+        live.iBuildRays(true, 1);
+        Assertions.assertArrayEquals(first, finals(live, nrays, nsurfs));
+
+        // contexts scatter as the live RT13 does, at any thread count
+        RT13Snapshot snap = live.snapshot();
+        for (int nthreads : new int[] {1, 4}) {
+            RT13 rt = snap.newContext();
+            rt.iBuildRays(true, nthreads);
+            double xy[] = finals(rt, nrays, nsurfs);
+            for (int i = 0; i < xy.length; i++)
+                Assertions.assertEquals(Double.doubleToRawLongBits(first[i]), Double.doubleToRawLongBits(xy[i]), "value " + i);
+        }
+
+        // the scatter is real, and another seed gives another trace
+        live.surfs[nsurfs][OTYPE] = OTMIRROR;
+        live.iBuildRays(true, 1);
+        Assertions.assertFalse(java.util.Arrays.equals(first, finals(live, nrays, nsurfs)));
+        live.surfs[nsurfs][OTYPE] = OTGSCATTER;
+        live.setRandomSeed(4321L);
+        live.iBuildRays(true, 1);
+        Assertions.assertFalse(java.util.Arrays.equals(first, finals(live, nrays, nsurfs)));
+        live.setRandomSeed(1234L);
+        live.iBuildRays(true, 4);
+        Assertions.assertArrayEquals(first, finals(live, nrays, nsurfs));
+    }
+}
@@ -0,0 +1,92 @@
+package com.stellarsoftware.beam;
+
+import com.stellarsoftware.beam.core.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static com.stellarsoftware.beam.core.B4constants.*;
+
+public class TestRT13Tangent {
+
+    private static RT13 nudged(RT13Snapshot snap, boolean bSurf, int where, int attr, double delta) {
+        RT13 rt = snap.newContext();
+        if (bSurf) {
+            rt.surfs[where][attr] += delta;
+            rt.setEulers();
+        } else
+            rt.raystarts[where][attr] += delta;
+        rt.iBuildRays(true, 1);
+        return rt;
+    }
+
+    /**
+     * Compares the analytic derivatives of the final ray attributes
+     * against central differences, one variable at a time.
+     */
+    private static void checkVars(String name, int vars[][], double deltas[]) {
+        RT13 live = OpticLoader.load(name);
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        live.iBuildRays(true, 1);
+        RT13Snapshot snap = live.snapshot();
+        RT13 rt = snap.newContext();
+        rt.iBuildRays(true, 1);
+
+        int attribs[] = {RX, RY, RZ, RU, RV, RW, RPATH, RTXL, RTYL, RTANGLE};
+        int nchecked = 0;
+        for (int v = 0; v < vars.length; v++) {
+            boolean bSurf = vars[v][0] == 0;
+            int where = vars[v][1];
+            int attr = vars[v][2];
+            RT13Tangent tan = new RT13Tangent(rt, 1);
+            if (bSurf)
+                tan.addSurfVar(0, where, attr, 1.0);
+            else
+                tan.addRayVar(0, where, attr, 1.0);
+            Assertions.assertTrue(tan.isSupported(), name);
+
+            RT13 plus = nudged(snap, bSurf, where, attr, deltas[v]);
+            RT13 minus = nudged(snap, bSurf, where, attr, -deltas[v]);
+            for (int k = 1; k <= nrays; k++) {
+                if ((rt.getHowfarOK(k) != nsurfs) || (plus.getHowfarOK(k) != nsurfs) || (minus.getHowfarOK(k) != nsurfs))
+                    continue;
+                Assertions.assertTrue(tan.bTrace(k), name + " ray " + k);
+                for (int a : attribs) {
+                    double fd = (plus.dGetRay(k, nsurfs, a) - minus.dGetRay(k, nsurfs, a)) / (2 * deltas[v]);
+                    double an = tan.dGetDeriv(nsurfs, a, 0);
+                    Assertions.assertEquals(fd, an, 1e-5 * (1.0 + Math.abs(fd)),
+                            name + " var " + v + " ray " + k + " attrib " + a);
+                }
+                nchecked++;
+            }
+        }
+        Assertions.assertTrue(nchecked > 0);
+    }
+
+    @Test
+    public void testMirrorsAgainstDifferences() {
+        int vars[][] = {
+            {0, 1, OZ}, {0, 1, OCURVE}, {0, 1, OASPHER}, {0, 2, OCURVE},
+            {0, 4, OPITCH}, {0, 4, OTILT}, {0, 5, OX}, {0, 5, OASPHER},
+            {1, 3, RX}, {1, 3, RU}, {1, 3, RV}
+        };
+        double deltas[] = {1e-6, 1e-6, 1e-6, 1e-6, 1e-5, 1e-5, 1e-6, 1e-6, 1e-6, 1e-7, 1e-7};
+        checkVars("TMA72", vars, deltas);
+    }
+
+    @Test
+    public void testLensesAgainstDifferences() {
+        int vars[][] = {{0, 1, OCURVE}, {0, 2, OCURVE}, {0, 2, OZ}, {0, 1, OREFRACT}, {1, 1, RX}};
+        double deltas[] = {1e-6, 1e-6, 1e-6, 1e-6, 1e-6};
+        checkVars("AUTO4", vars, deltas);
+    }
+
+    @Test
+    public void testUnsupported() {
+        RT13 live = OpticLoader.load("Shack");  // lens array
+        live.iBuildRays(true, 1);
+        RT13Tangent tan = new RT13Tangent(live, 1);
+        Assertions.assertFalse(tan.isSupported());
+        Assertions.assertFalse(tan.bTrace(1));
+    }
+}
@@ -0,0 +1,186 @@
+package com.stellarsoftware.beam;
+
+import com.stellarsoftware.beam.core.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.stellarsoftware.beam.core.B4constants.*;
+
+public class TestTraceContext {
+
+    private static void assertSameTrace(RT13 expected, RT13 actual, int nrays, int nsurfs) {
+        for (int k = 1; k <= nrays; k++) {
+            Assertions.assertEquals(expected.isRayOK[k], actual.isRayOK[k], "ray " + k);
+            Assertions.assertEquals(expected.getStatus(k), actual.getStatus(k), "ray " + k);
+            Assertions.assertEquals(expected.getHowfarOK(k), actual.getHowfarOK(k), "ray " + k);
+            for (int j = 0; j <= nsurfs; j++)
+                for (int i = RX; i < RTWFE; i++)
+                    Assertions.assertEquals(Double.doubleToRawLongBits(expected.dGetRay(k, j, i)),
+                            Double.doubleToRawLongBits(actual.dGetRay(k, j, i)), "ray " + k + " surf " + j + " attrib " + i);
+        }
+    }
+
+    @Test
+    public void testContextMatchesLive() {
+        RT13 live = OpticLoader.load("FisheyeB");
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        int ngood = live.iBuildRays(true);
+        Assertions.assertTrue(ngood > 0);
+
+        RT13Snapshot snap = live.snapshot();
+        RT13 rt = snap.newContext();
+        Assertions.assertTrue(rt.isContext());
+        Assertions.assertEquals(ngood, rt.iBuildRays(true));
+        assertSameTrace(live, rt, nrays, nsurfs);
+    }
+
+    @Test
+    public void testConcurrentContexts() throws Exception {
+        RT13 live = OpticLoader.load("FisheyeB");
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        live.iBuildRays(true);
+        RT13Snapshot snap = live.snapshot();
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<RT13>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final double dz = (i % 2 == 0) ? 0.0 : 0.5;
+                futures.add(pool.submit(() -> {
+                    RT13 rt = snap.newContext();
+                    rt.surfs[nsurfs][OZ] += dz;   // perturb the image surface
+                    rt.setEulers();
+                    rt.iBuildRays(true);
+                    return rt;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                RT13 rt = futures.get(i).get();
+                if (i % 2 == 0)
+                    assertSameTrace(live, rt, nrays, nsurfs);
+                else
+                    Assertions.assertNotEquals(live.dGetRay(1, nsurfs, RX), rt.dGetRay(1, nsurfs, RX));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        // the live instance was never touched
+        Assertions.assertEquals(snap.dGetSurfParm(OZ, nsurfs), live.surfs[nsurfs][OZ]);
+    }
+
+    @Test
+    public void testReusedContext() {
+        // one context stepped cell after cell, as a map does, traces as fresh ones
+        RT13 live = OpticLoader.load("TMA72");
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13Snapshot snap = live.snapshot();
+        RT13 reused = snap.newContext();
+        for (double step : new double[]{0.0, 0.5, 50.0, -0.5, 0.0}) {
+            RT13 fresh = snap.newContext();
+            for (RT13 rt : new RT13[]{fresh, reused}) {
+                rt.surfs[2][OTILT] = snap.dGetSurfParm(OTILT, 2) + step;
+                for (int k = 1; k <= nrays; k++)
+                    rt.raystarts[k][RX] = snap.dGetRaystart(k, RX) + 0.01 * step;
+                rt.setEulers();
+            }
+            Assertions.assertEquals(fresh.iBuildRays(true), reused.iBuildRays(true), "step " + step);
+            assertSameTrace(fresh, reused, nrays, nsurfs);
+        }
+    }
+
+    @Test
+    public void testParallelBuildMatchesSerial() {
+        RT13 live = OpticLoader.load("TMA72");
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        int ngood = live.iBuildRays(true, 1);
+        int failSurf = live.getFailSurf();
+        int failCode = live.getFailCode();
+
+        RT13 rt = live.snapshot().newContext();
+        Assertions.assertEquals(ngood, rt.iBuildRays(true, 4));
+        Assertions.assertEquals(failSurf, rt.getFailSurf());
+        Assertions.assertEquals(failCode, rt.getFailCode());
+        assertSameTrace(live, rt, nrays, nsurfs);
+
+        // known-good rays only, as AutoAdjust does
+        Assertions.assertEquals(live.iBuildRays(false, 1), rt.iBuildRays(false, 3));
+        assertSameTrace(live, rt, nrays, nsurfs);
+    }
+
+    @Test
+    public void testRecordedSurfaces() {
+        RT13 live = OpticLoader.load("TMA72");
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13 all = live.snapshot().newContext();
+        int ngood = all.iBuildRays(true, 1);
+
+        RT13 rt = live.snapshot().newContext();
+        Assertions.assertTrue(rt.isRecordingAll());
+        rt.setRecordedSurfaces(nsurfs);   // final surface only, as for a spot diagram
+        Assertions.assertFalse(rt.isRecordingAll());
+        Assertions.assertEquals(ngood, rt.iBuildRays(true, 4));
+        for (int k = 1; k <= nrays; k++) {
+            Assertions.assertEquals(all.getHowfarOK(k), rt.getHowfarOK(k), "ray " + k);
+            for (int i = RX; i < RTWFE; i++) {
+                Assertions.assertEquals(Double.doubleToRawLongBits(all.dGetRay(k, nsurfs, i)),
+                        Double.doubleToRawLongBits(rt.dGetRay(k, nsurfs, i)), "ray " + k + " attrib " + i);
+                Assertions.assertEquals(Double.doubleToRawLongBits(-0.0),
+                        Double.doubleToRawLongBits(rt.dGetRay(k, 1, i)), "ray " + k + " attrib " + i);
+            }
+            Assertions.assertEquals(all.dGetRayFinal(k, RX), rt.dGetRayFinal(k, RX));
+        }
+
+        rt.setRecordedSurfaces();   // back to every surface
+        Assertions.assertEquals(ngood, rt.iBuildRays(true, 1));
+        assertSameTrace(all, rt, nrays, nsurfs);
+    }
+
+    private static void checkRetraceFrom(String name) {
+        RT13 live = OpticLoader.load(name);
+        int nrays = Globals.giFlags[RNRAYS];
+        int nsurfs = Globals.giFlags[ONSURFS];
+        RT13Snapshot snap = live.snapshot();
+        RT13 base = snap.newContext();
+        base.iBuildRays(true, 1);
+        for (int j = 1; j <= nsurfs; j++) {
+            // tilt one surface and move it a little, as an AutoAdjust column does
+            RT13 full = snap.newContext();
+            RT13 part = snap.newContext();
+            for (RT13 rt : new RT13[]{full, part}) {
+                rt.surfs[j][OTILT] += 0.05;
+                rt.surfs[j][OZ] += 0.01;
+            }
+            full.setEulers();
+            part.setEulers(j);
+            int ngood = full.iBuildRays(true, 1);
+            part.copyTraceFrom(base);
+            Assertions.assertEquals(ngood, part.iBuildRaysFrom(j, true, 4), name + " surf " + j);
+            Assertions.assertEquals(full.getFailSurf(), part.getFailSurf(), name + " surf " + j);
+            assertSameTrace(full, part, nrays, nsurfs);
+
+            // and again, known-good rays only, retracing its own previous trace
+            part.surfs[j][OZ] -= 0.01;
+            full.surfs[j][OZ] -= 0.01;
+            Assertions.assertEquals(full.iBuildRays(false, 1), part.iBuildRaysFrom(j, false, 1), name + " surf " + j);
+            assertSameTrace(full, part, nrays, nsurfs);
+        }
+    }
+
+    @Test
+    public void testRetraceFrom() {
+        checkRetraceFrom("TMA72");     // irises kill rays upstream and downstream
+        checkRetraceFrom("FisheyeB");
+        checkRetraceFrom("AUTO4");
+    }
+}
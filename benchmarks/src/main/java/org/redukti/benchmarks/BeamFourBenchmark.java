@@ -0,0 +1,128 @@
+package org.redukti.benchmarks;
+
+import com.stellarsoftware.beam.core.AutoAdjuster;
+import com.stellarsoftware.beam.core.Globals;
+import com.stellarsoftware.beam.core.RT13;
+import com.stellarsoftware.beam.core.RT13Batch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.stellarsoftware.beam.core.B4constants.*;
+
+/**
+ * BEAM FOUR: RT13.iBuildRays() over the ray table of an example optic,
+ * RT13.bRunOneRay() against RT13Batch.trace() over a batch of rays
+ * cycled from that table, and a headless AutoAdjuster run on the AUTO
+ * examples.  The optics run from 5 surfaces (FisheyeB) to 20 (DISK).
+ */
+public class BeamFourBenchmark {
+
+    @State(Scope.Thread)
+    public static class Trace {
+        @Param({"FisheyeB", "TMA72", "AUTO4", "CASS", "DISK"})
+        public String optic;
+
+        RT13 rt;
+
+        @Setup
+        public void setup() {
+            rt = new Lenses.BeamFour(optic).rt13.snapshot().newContext();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public int iBuildRays(Trace state) {
+        return state.rt.iBuildRays(true, 1);
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+        static final int NBATCH = 5000;
+
+        @Param({"FisheyeB", "TMA72", "CASS", "DISK"})
+        public String optic;
+
+        RT13 rt;
+        RT13Batch batch;
+        int nrays;
+
+        @Setup
+        public void setup() {
+            rt = new Lenses.BeamFour(optic).rt13.snapshot().newContext();
+            nrays = Globals.giFlags[RNRAYS];
+            rt.iBuildRays(true, 1);
+            batch = new RT13Batch(rt, NBATCH);
+            if (!batch.isSupported())
+                throw new IllegalArgumentException("RT13Batch does not support " + optic);
+            for (int i = 0; i < NBATCH; i++) {
+                int k = 1 + i % nrays;
+                double r[] = rt.raystarts[k];
+                batch.setRay(i, r[RX], r[RY], r[RZ], r[RU], r[RV], r[RW], k);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    @OperationsPerInvocation(Batch.NBATCH)
+    public int runOneRay(Batch state) {
+        int good = 0;
+        for (int i = 0; i < Batch.NBATCH; i++)
+            if (state.rt.bRunOneRay(1 + i % state.nrays))
+                good++;
+        return good;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    @OperationsPerInvocation(Batch.NBATCH)
+    public int batchTrace(Batch state) {
+        return state.batch.trace();
+    }
+
+    @State(Scope.Thread)
+    public static class Adjust {
+        @Param({"AUTO4", "AUTO6"})
+        public String optic;
+
+        AutoAdjuster adjuster;
+
+        // the adjuster edits the tables, so each run starts from the files
+        @Setup(Level.Invocation)
+        public void setup() {
+            Lenses.BeamFour b4 = new Lenses.BeamFour(optic);
+            adjuster = new AutoAdjuster(b4.opt, b4.ray, null, null, b4.rt13);
+            adjuster.setHeadless(0);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            Globals.bAutoBusy = false;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    @Fork(1)
+    public AutoAdjuster autoAdjust(Adjust state) {
+        state.adjuster.run();
+        return state.adjuster;
+    }
+}
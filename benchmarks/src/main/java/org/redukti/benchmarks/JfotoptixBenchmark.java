@@ -0,0 +1,123 @@
+package org.redukti.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.redukti.jfotoptix.analysis.AnalysisSpot;
+import org.redukti.jfotoptix.fastparax.YNUBatchTracer;
+import org.redukti.jfotoptix.fastparax.YNUTracer;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter.LensSpecifications;
+import org.redukti.jfotoptix.medium.GlassMap;
+import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+import org.redukti.jfotoptix.patterns.Distribution;
+import org.redukti.jfotoptix.patterns.Pattern;
+import org.redukti.jfotoptix.tracing.RayTraceParameters;
+import org.redukti.jfotoptix.tracing.RayTraceResults;
+import org.redukti.jfotoptix.tracing.SequentialRayTracer;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JFotoptix: a SequentialRayTracer trace, an AnalysisSpot and a YNUTracer
+ * paraxial solve, for example lenses at full field; and paraxial solves
+ * of random catalogue glass combinations, one per YNUTracer call against
+ * a YNUBatchTracer over the whole batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JfotoptixBenchmark {
+
+    @Param({"nikkor-58mm-z-f0.95/nikkor-z-58mmf0.95_ex1.txt",
+            "nikkor-50mm-z-f1.2/Nikkor-Z-50mm-f1.2.txt",
+            "Zeiss-55mm-Otus-f1.4/Otus55.txt"})
+    public String lens;
+
+    @Param({"20"})
+    public int density;
+
+    OpticalSystem system;
+    RayTraceParameters parameters;
+    YNUTracer ynu;
+
+    static final int BATCH = 1024;
+
+    String[] names;
+    double[][] candidates;
+    double[] values;
+    YNUBatchTracer ynuBatch;
+    double[][] lanes;
+
+    @Setup
+    public void setup() throws Exception {
+        LensSpecifications specs = Lenses.specs(lens);
+        system = Lenses.system(specs, 1.0);
+        parameters = new RayTraceParameters(system);
+        parameters.set_default_distribution(new Distribution(Pattern.HexaPolarDist, density, 0.999));
+        names = system.glassNames();
+        double[] nd = system.glassIndices();
+        ynu = new YNUTracer(system, names);
+        ynu.setGlasses(names, nd);
+
+        // random glass combinations, air left alone
+        List<GlassMap> catalogue = GlassMap.glasses.values().stream()
+                .filter(g -> "Hikari".equals(g.get_manufacturer()))
+                .sorted(Comparator.comparing(GlassMap::get_name))
+                .toList();
+        Random random = new Random(1);
+        candidates = new double[names.length][BATCH];
+        for (int g = 0; g < names.length; g++)
+            for (int k = 0; k < BATCH; k++)
+                candidates[g][k] = names[g].equals("air") ? nd[g] : catalogue.get(random.nextInt(catalogue.size())).nd;
+        values = nd.clone();
+        ynuBatch = new YNUBatchTracer(new YNUTracer(system, names), BATCH);
+        lanes = new double[names.length][];
+        for (int g = 0; g < names.length; g++)
+            lanes[g] = ynuBatch.glassLanes(names[g]);
+    }
+
+    @Benchmark
+    public RayTraceResults trace() {
+        return new SequentialRayTracer().trace(system, parameters);
+    }
+
+    @Benchmark
+    public double spot() {
+        return new AnalysisSpot(system, density).process_analysis().get_rms_radius();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public ParaxialFirstOrderInfo ynu() {
+        return ynu.compute();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public double ynuCandidates() {
+        double sink = 0.0;
+        for (int k = 0; k < BATCH; k++) {
+            for (int g = 0; g < names.length; g++)
+                values[g] = candidates[g][k];
+            ynu.setGlasses(names, values);
+            sink += ynu.compute().effective_focal_length;
+        }
+        return sink;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BATCH)
+    public double[] ynuBatch() {
+        for (int g = 0; g < names.length; g++)
+            System.arraycopy(candidates[g], 0, lanes[g], 0, BATCH);
+        ynuBatch.compute(BATCH);
+        return ynuBatch.effective_focal_length;
+    }
+}
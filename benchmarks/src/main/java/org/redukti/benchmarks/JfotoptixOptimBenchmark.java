@@ -0,0 +1,97 @@
+package org.redukti.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.redukti.jfotoptix.math.LMLSolver;
+import org.redukti.jfotoptix.optim.*;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+import org.redukti.jfotoptix.spec.Prescription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JFotoptix optimiser: one MeritFunction Jacobian, and a complete
+ * Levenberg-Marquardt run as Optim.run() does it, varying the radii
+ * of an example lens against spot size and focal length goals.
+ */
+@State(Scope.Thread)
+@Fork(1)
+public class JfotoptixOptimBenchmark {
+
+    @Param({"canon-50mm-f0.95/JP1964-010178_Example01.txt",
+            "nikkor-50mm-f1.8/US004514051_ExampleML02P.txt"})
+    public String lens;
+
+    @Param({"1"})
+    public int threads;
+
+    Prescription prescription;
+    MeritFunction merit;
+
+    static Var[] radii(Prescription p) {
+        List<Var> vars = new ArrayList<>();
+        for (int i = 0; i < p.surfaces.length; i++) {
+            if (!p.surfaces[i].isStop && p.surfaces[i].radius != 0.0)
+                vars.add(new VarRadius(p, i));
+        }
+        return vars.toArray(new Var[0]);
+    }
+
+    static Goal[] goals(Analysis analysis) {
+        Prescription p = analysis.prescription;
+        return new Goal[]{
+                new GoalSpotRMS(analysis, 1, 0.0, 5.0),
+                new GoalSpotRMS(analysis, 2, 0.0, 2.0),
+                new GoalParax(analysis, ParaxialFirstOrderInfo.Effective_focal_length, p.focalLength, 1.0),
+                new GoalParax(analysis, ParaxialFirstOrderInfo.Fno, p.fno, 1.0)
+        };
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        prescription = Lenses.prescription(Lenses.specs(lens));
+        Analysis analysis = new Analysis(prescription).field2(1.0);
+        analysis.nthreads = threads;
+        merit = new MeritFunction(analysis, radii(prescription), goals(analysis)).threads(threads);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public boolean jacobian() {
+        return merit.buildJacobian();
+    }
+
+    @State(Scope.Thread)
+    public static class Run {
+        Prescription prescription;
+
+        // the optimiser changes the prescription, so each run starts from a copy
+        @Setup(Level.Invocation)
+        public void setup(JfotoptixOptimBenchmark benchmark) {
+            prescription = benchmark.prescription.copy();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public Prescription optimise(Run run) {
+        Prescription p = run.prescription;
+        Analysis analysis = new Analysis(p).field2(1.0);
+        analysis.nthreads = threads;
+        LMLSolver solver = new MeritFunction(analysis, radii(p), goals(analysis)).threads(threads).getSolver();
+        int istatus = 0;
+        while (istatus != LMLSolver.BADITER &&
+                istatus != LMLSolver.LEVELITER &&
+                istatus != LMLSolver.MAXITER) {
+            istatus = solver.iLMiter();
+        }
+        return p;
+    }
+}
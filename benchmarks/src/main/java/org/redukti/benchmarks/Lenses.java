@@ -0,0 +1,167 @@
+package org.redukti.benchmarks;
+
+import com.stellarsoftware.beam.core.B4DataParser;
+import com.stellarsoftware.beam.core.Globals;
+import com.stellarsoftware.beam.core.OPTDataModel;
+import com.stellarsoftware.beam.core.RAYDataModel;
+import com.stellarsoftware.beam.core.RT13;
+import com.stellarsoftware.beam.core.Registry;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter.AsphericalData;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter.LensSpecifications;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter.LensSurface;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter.SurfaceType;
+import org.redukti.jfotoptix.importers.OpticalBenchDataImporter.Variable;
+import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.spec.Prescription;
+import org.redukti.jfotoptix.tools.LensTool;
+import org.redukti.rayoptics.elem.profiles.EvenPolynomial;
+import org.redukti.rayoptics.optical.OpticalModel;
+import org.redukti.rayoptics.seq.SequentialModel;
+import org.redukti.rayoptics.seq.SurfaceData;
+import org.redukti.rayoptics.specs.*;
+import org.redukti.rayoptics.util.Pair;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Loads the example lenses bundled under Examples for the benchmarks.
+ * <p>
+ * The Examples directory is taken from the examples.dir system property,
+ * else found in or above the working directory. OpticalBench lens files
+ * are named relative to Examples/jfotoptix and drive the JFotoptix and
+ * RayOptics benchmarks alike; BEAM FOUR tables are named without the
+ * .OPT / .RAY extension relative to Examples/BeamFour.
+ */
+final class Lenses {
+
+    private Lenses() {
+    }
+
+    static File examples() {
+        String dir = System.getProperty("examples.dir");
+        if (dir != null)
+            return new File(dir);
+        File f = new File("Examples");
+        return f.isDirectory() ? f : new File("../Examples");
+    }
+
+    /** BEAM FOUR optic and ray tables, parsed into the global RT13 */
+    static final class BeamFour {
+        final OPTDataModel opt;
+        final RAYDataModel ray;
+        final RT13 rt13;
+
+        BeamFour(String name) {
+            Globals.init();
+            Globals.reg = new Registry(null);
+            rt13 = Globals.RT13;
+            opt = new OPTDataModel(rt13);
+            ray = new RAYDataModel(rt13);
+            File dir = new File(examples(), "BeamFour");
+            if (!opt.bLoadFile(new File(dir, name + ".OPT")) || !ray.bLoadFile(new File(dir, name + ".RAY")))
+                throw new IllegalArgumentException("Cannot load BEAM FOUR tables " + name);
+            new B4DataParser(opt, ray, null, rt13).parse(true);
+        }
+    }
+
+    static LensSpecifications specs(String lens) throws Exception {
+        LensSpecifications specs = new LensSpecifications();
+        if (!specs.parse_file(new File(new File(examples(), "jfotoptix"), lens).getPath()))
+            throw new IllegalArgumentException("Cannot parse lens " + lens);
+        return specs;
+    }
+
+    /**
+     * The lens with catalogue glasses, as LensTool builds it, and a source
+     * at the given fraction of the half angle of view in the d, C and F lines
+     */
+    static OpticalSystem system(LensSpecifications specs, double field) {
+        return LensTool.createSystem(specs, 0, true, field != 0.0, field, false);
+    }
+
+    /** Thickness of surface i, with that of a following field stop, which is dropped */
+    private static double thickness(List<LensSurface> surfaces, int i) {
+        double thickness = surfaces.get(i).get_thickness(0);
+        if (i + 1 < surfaces.size() && surfaces.get(i + 1).get_surface_type() == SurfaceType.field_stop)
+            thickness += surfaces.get(i + 1).get_thickness(0);
+        return thickness;
+    }
+
+    private static double stop_diameter(LensSpecifications specs, LensSurface s) {
+        Variable aperture = specs.find_variable("Aperture Diameter");
+        return aperture != null ? aperture.get_value_as_double(0) : s.get_diameter();
+    }
+
+    static Prescription prescription(LensSpecifications specs) {
+        Prescription p = new Prescription(specs.find_variable("Focal Length").get_value_as_double(0),
+                OpticalBenchDataImporter.get_f_number(specs, 0),
+                specs.find_variable("Angle of View").get_value_as_double(0),
+                specs.find_variable("Image Height").get_value_as_double(0),
+                false);
+        List<LensSurface> surfaces = specs.get_surfaces();
+        for (int i = 0; i < surfaces.size(); i++) {
+            LensSurface s = surfaces.get(i);
+            if (s.get_surface_type() == SurfaceType.field_stop)
+                continue;
+            double thickness = thickness(surfaces, i);
+            if (s.get_surface_type() == SurfaceType.aperture_stop) {
+                p.stop(thickness, stop_diameter(specs, s));
+                continue;
+            }
+            if (s.get_refractive_index() != 0.0)
+                p.surf(s.get_radius(), thickness, s.get_diameter(), s.get_refractive_index(), s.get_abbe_vd());
+            else
+                p.surf(s.get_radius(), thickness, s.get_diameter());
+            AsphericalData a = s.get_aspherical_data();
+            if (a != null)
+                p.asph(a.data(1), new double[]{a.data(2), a.data(3), a.data(4), a.data(5),
+                        a.data(6), a.data(7), a.data(8), a.data(9), a.data(10)});
+        }
+        return p.build();
+    }
+
+    /** The lens as a RayOptics model, laid out as RayOpticsExporter writes it */
+    static OpticalModel rayOptics(LensSpecifications specs) {
+        OpticalModel opm = new OpticalModel();
+        SequentialModel sm = opm.seq_model;
+        OpticalSpecs osp = opm.optical_spec;
+        osp.pupil = new PupilSpec(osp, new Pair<>(ImageKey.Image, ValueKey.Fnum),
+                OpticalBenchDataImporter.get_f_number(specs, 0));
+        osp.field_of_view = new FieldSpec(osp, new Pair<>(ImageKey.Object, ValueKey.Angle),
+                new double[]{0., OpticalBenchDataImporter.get_angle_of_view(specs, 0)});
+        osp.spectral_region = new WvlSpec(new WvlWt[]{new WvlWt(486.1327, 0.5),
+                new WvlWt(587.5618, 1.0),
+                new WvlWt(656.2725, 0.5)}, 1);
+        opm.system_spec.title = specs.get_descriptive_data().get_title();
+        opm.system_spec.dimensions = "MM";
+        opm.radius_mode = true;
+        sm.gaps.get(0).thi = 1e10;
+        List<LensSurface> surfaces = specs.get_surfaces();
+        for (int i = 0; i < surfaces.size(); i++) {
+            LensSurface s = surfaces.get(i);
+            if (s.get_surface_type() == SurfaceType.field_stop)
+                continue;
+            SurfaceData sd = new SurfaceData(s.get_radius(), thickness(surfaces, i));
+            if (s.get_surface_type() == SurfaceType.aperture_stop) {
+                sm.add_surface(sd.max_aperture(stop_diameter(specs, s) / 2.0));
+                sm.set_stop();
+                continue;
+            }
+            if (s.get_refractive_index() != 0.0)
+                sd.rindex(s.get_refractive_index(), s.get_abbe_vd());
+            sm.add_surface(sd.max_aperture(s.get_diameter() / 2.0));
+            AsphericalData a = s.get_aspherical_data();
+            if (a != null)
+                sm.ifcs.get(sm.cur_surface).profile = new EvenPolynomial()
+                        .r(s.get_radius())
+                        .cc(a.data(1))
+                        .coefs(new double[]{0.0, a.data(2), a.data(3), a.data(4), a.data(5),
+                                a.data(6), a.data(7), a.data(8)});
+        }
+        sm.do_apertures = false;
+        opm.update_model();
+        return opm;
+    }
+}
@@ -0,0 +1,87 @@
+package org.redukti.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.optical.OpticalModel;
+import org.redukti.rayoptics.parax.firstorder.FirstOrderData;
+import org.redukti.rayoptics.raytr.RayPkg;
+import org.redukti.rayoptics.raytr.RaySeg;
+import org.redukti.rayoptics.raytr.RayTrace;
+import org.redukti.rayoptics.raytr.RayTraceOptions;
+import org.redukti.rayoptics.raytr.Trace;
+import org.redukti.rayoptics.seq.SeqPathComponent;
+import org.redukti.rayoptics.seq.SequentialModel;
+import org.redukti.rayoptics.specs.Field;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RayOptics: RayTrace.trace_raw() of a ray through half the pupil at
+ * full field, and chief ray aiming by the secant solver, from the aim
+ * cache and by the Levenberg-Marquardt solver, for example lenses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RayOpticsBenchmark {
+
+    @Param({"nikkor-58mm-z-f0.95/nikkor-z-58mmf0.95_ex1.txt",
+            "nikkor-50mm-z-f1.2/Nikkor-Z-50mm-f1.2.txt",
+            "Zeiss-55mm-Otus-f1.4/Otus55.txt"})
+    public String lens;
+
+    OpticalModel opm;
+    Field field;
+    double wvl;
+    List<SeqPathComponent> path;
+    RayTraceOptions options;
+    Vector3 pt0;
+    Vector3 dir0;
+    double dist;
+
+    @Setup
+    public void setup() throws Exception {
+        opm = Lenses.rayOptics(Lenses.specs(lens));
+        SequentialModel sm = opm.seq_model;
+        Field[] fields = opm.optical_spec.field_of_view.fields;
+        field = fields[fields.length - 1];
+        wvl = sm.central_wavelength();
+        path = sm.path(wvl, null, null, 1);
+        options = new RayTraceOptions();
+        options.first_surf = 1;
+        options.last_surf = sm.get_num_surfaces() - 2;
+        RaySeg start = Trace.trace_base(opm, new double[]{0., 0.5}, field, wvl).ray.get(0);
+        pt0 = start.p;
+        dir0 = start.d;
+        FirstOrderData fod = opm.optical_spec.parax_data.fod;
+        dist = fod.obj_dist + fod.enp_dist;
+    }
+
+    @Benchmark
+    public RayPkg traceRaw() {
+        return RayTrace.trace_raw(path, pt0, dir0, wvl, options);
+    }
+
+    @Benchmark
+    public double[] aimChiefRay() {
+        // solve from scratch rather than hit the aim cache
+        opm.seq_model.aim_cache.clear();
+        return Trace.aim_chief_ray(opm, field, wvl);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double[] aimChiefRayCached() {
+        return Trace.aim_chief_ray(opm, field, wvl);
+    }
+
+    @Benchmark
+    public double[] aimChiefRayLM() {
+        return Trace.get_2d_mike_lampton_lavenberg_marquardt_solution(opm.seq_model, opm.seq_model.stop_surface,
+                opm.optical_spec.obj_coords(field), dist, wvl, new double[]{0., 0.});
+    }
+}
@@ -31,19 +31,27 @@ import org.redukti.jfotoptix.math.MathUtils;
 import org.redukti.jfotoptix.math.Vector2;
 import org.redukti.jfotoptix.math.Vector2Pair;
 import org.redukti.jfotoptix.math.Vector3;
-import org.redukti.jfotoptix.model.OpticalSystem;
-import org.redukti.jfotoptix.model.Surface;
+import org.redukti.jfotoptix.math.Vector3Pair;
+import org.redukti.jfotoptix.model.*;
+import org.redukti.jfotoptix.patterns.Distribution;
+import org.redukti.jfotoptix.patterns.Pattern;
 import org.redukti.jfotoptix.plotting.PlotAxes;
 import org.redukti.jfotoptix.plotting.PlotRenderer;
 import org.redukti.jfotoptix.rendering.Renderer;
 import org.redukti.jfotoptix.rendering.RendererViewport;
-import org.redukti.jfotoptix.tracing.TracedRay;
+import org.redukti.jfotoptix.tracing.*;
+import org.redukti.jfotoptix.util.WorkerPool;
+
+import java.util.List;
 
 /**
  Spot diagram analysis
 
  This class is designed to plot spot diagram and perform
  related analysis.
+
+ process_analyses() and process_fields() analyse several
+ fields at once, e.g. for the optimizer, on concurrent workers.
  */
 public class AnalysisSpot extends AnalysisPointImage {
 
@@ -152,4 +160,309 @@ public class AnalysisSpot extends AnalysisPointImage {
         // Convert to mm (diff is um but squared?)
         return "Spot Result: RMS Radius " + _rms_radius * 1000.0 + " max radius " + _max_radius * 1000.0;
     }
+
+    /**
+     * Runs process_analysis() of several spot analyses on up to nthreads
+     * workers. Each analysis must be on its own optical system, as tracing
+     * fills the system's transform cache.
+     */
+    public static void process_analyses(List<AnalysisSpot> spots, int nthreads) {
+        WorkerPool.for_each(nthreads, spots.size(), i -> spots.get(i).process_analysis());
+    }
+
+    /**
+     * Spot analysis of several fields over their point sources' spectral lines.
+     * @see #process_fields(List, double[], int, int)
+     */
+    public static FieldSpot[] process_fields(List<OpticalSystem> fields, int radial_density, int nthreads) {
+        return process_fields(fields, null, radial_density, nthreads);
+    }
+
+    /**
+     * Spot analysis of several fields, each being its own optical system
+     * as made by Prescription.buildSystem() for a field, over the given
+     * spectral lines or, if wavelengths is null, those of each point source.
+     * <p>
+     * Rays are generated as for an AnalysisSpot of the same radial density,
+     * then every field and spectral line is traced as a separate task on up
+     * to nthreads workers, with a PrimitiveRayTracer. A field whose curves
+     * or shapes a TracePlan does not support is traced instead, as one task,
+     * by the RayTracer of an AnalysisSpot. Results are reduced in ray
+     * generation order, so they do not depend on the thread count, and
+     * the overall spot of a field over all its source's lines equals that of
+     * AnalysisSpot.process_analysis(). The systems must not be traced
+     * elsewhere meanwhile.
+     */
+    public static FieldSpot[] process_fields(List<OpticalSystem> fields, double[] wavelengths,
+                                             int radial_density, int nthreads) {
+        int nfields = fields.size();
+        FieldRays[] rays = new FieldRays[nfields];
+        WorkerPool.for_each(nthreads, nfields,
+                f -> rays[f] = new FieldRays(fields.get(f), wavelengths, radial_density));
+
+        // one task per field and spectral line, or per field for the RayTracer
+        int[] first = new int[nfields + 1];
+        for (int f = 0; f < nfields; f++)
+            first[f + 1] = first[f] + rays[f].num_tasks();
+        WorkerPool.for_each(nthreads, first[nfields], t -> {
+            int f = 0;
+            while (t >= first[f + 1])
+                f++;
+            rays[f].run_task(t - first[f]);
+        });
+
+        FieldSpot[] spots = new FieldSpot[nfields];
+        for (int f = 0; f < nfields; f++)
+            spots[f] = rays[f].reduce();
+        return spots;
+    }
+
+    /**
+     * Rays of one field for process_fields(): one PrimitiveRayTracer per
+     * spectral line, or an AnalysisSpot if a TracePlan cannot be built
+     */
+    private static final class FieldRays {
+        final double[] wavelengths;
+        PrimitiveRayTracer[] tracers;
+        int[] line;         // per generated ray: its spectral line, -1 if not analysed
+        int[] slot;         // and its position in that line's tracer
+        AnalysisSpot analysis;  // instead of the tracers
+
+        FieldRays(OpticalSystem system, double[] wavelengths, int radial_density) {
+            RayTraceParameters params = new RayTraceParameters(system);
+            params.set_default_distribution(
+                    new Distribution(Pattern.HexaPolarDist, radial_density, 0.999));
+            params.get_default_distribution().set_uniform_pattern();
+            PointSource source = (PointSource) params.get_sequence().stream()
+                    .filter(e -> e instanceof PointSource).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("No point source in system"));
+            if (wavelengths == null) {
+                List<SpectralLine> spectrum = source.spectrum();
+                wavelengths = new double[spectrum.size()];
+                for (int w = 0; w < wavelengths.length; w++)
+                    wavelengths[w] = spectrum.get(w).get_wavelen();
+            }
+            this.wavelengths = wavelengths;
+            TracePlan plan;
+            try {
+                plan = new TracePlan(params, source, wavelengths);
+            } catch (UnsupportedOperationException e) {
+                analysis = new AnalysisSpot(system, radial_density);
+                return;
+            }
+            if (!(plan.get_element(plan.get_num_elements() - 1) instanceof Image))
+                throw new IllegalArgumentException("No image in system");
+
+            List<TracedRay> generated = new RayGenerator().generate_rays_simple(
+                    new RayTraceResults(params), params, source, List.of(plan.get_element(0)));
+            int nw = wavelengths.length;
+            int[] counts = new int[nw];
+            line = new int[generated.size()];
+            slot = new int[generated.size()];
+            for (int r = 0; r < line.length; r++) {
+                int w = plan.wavelength_index(generated.get(r).get_wavelen());
+                line[r] = w;
+                if (w >= 0)
+                    slot[r] = counts[w]++;
+            }
+            tracers = new PrimitiveRayTracer[nw];
+            for (int w = 0; w < nw; w++) {
+                tracers[w] = new PrimitiveRayTracer(plan, counts[w]);
+                tracers[w].set_count(counts[w]);
+            }
+            for (int r = 0; r < line.length; r++) {
+                if (line[r] < 0)
+                    continue;
+                Vector3Pair v = generated.get(r).get_ray();
+                tracers[line[r]].set_ray(slot[r], v.origin().x(), v.origin().y(), v.origin().z(),
+                        v.direction().x(), v.direction().y(), v.direction().z(), line[r]);
+            }
+        }
+
+        int num_tasks() {
+            return analysis != null ? 1 : tracers.length;
+        }
+
+        void run_task(int t) {
+            if (analysis != null)
+                analysis.trace();
+            else
+                tracers[t].trace();
+        }
+
+        /** Same sums, in the same order, as process_analysis() */
+        FieldSpot reduce() {
+            // the image intercepts of the analysed lines, in generation order
+            int n = 0;
+            int[] lines;
+            double[] x, y, z;
+            if (analysis != null) {
+                int size = analysis._intercepts.size();
+                lines = new int[size];
+                x = new double[size];
+                y = new double[size];
+                z = new double[size];
+                for (TracedRay ray : analysis._intercepts) {
+                    int w = index_of(wavelengths, ray.get_wavelen());
+                    if (w < 0)
+                        continue;
+                    Vector3 p = ray.get_intercept_point();
+                    lines[n] = w;
+                    x[n] = p.x();
+                    y[n] = p.y();
+                    z[n] = p.z();
+                    n++;
+                }
+            } else {
+                lines = new int[line.length];
+                x = new double[line.length];
+                y = new double[line.length];
+                z = new double[line.length];
+                for (int r = 0; r < line.length; r++) {
+                    int w = line[r];
+                    if (w < 0 || !tracers[w].is_ok(slot[r]))
+                        continue;
+                    PrimitiveRayTracer t = tracers[w];
+                    int i = slot[r];
+                    lines[n] = w;
+                    x[n] = t.get_x(i);
+                    y[n] = t.get_y(i);
+                    z[n] = t.get_z(i);
+                    n++;
+                }
+            }
+
+            int nw = wavelengths.length;
+            FieldSpot spot = new FieldSpot(wavelengths);
+            double cx = 0, cy = 0, cz = 0;
+            double[] lx = new double[nw], ly = new double[nw], lz = new double[nw];
+            for (int i = 0; i < n; i++) {
+                int w = lines[i];
+                cx += x[i];
+                cy += y[i];
+                cz += z[i];
+                lx[w] += x[i];
+                ly[w] += y[i];
+                lz[w] += z[i];
+                spot._count++;
+                spot._line_count[w]++;
+            }
+            if (spot._count == 0)
+                throw new IllegalArgumentException("no ray intercepts found on the surface");
+            spot._centroid = new Vector3(cx / spot._count, cy / spot._count, cz / spot._count);
+            for (int w = 0; w < nw; w++) {
+                int c = spot._line_count[w];
+                if (c > 0)
+                    spot._line_centroid[w] = new Vector3(lx[w] / c, ly[w] / c, lz[w] / c);
+            }
+
+            double mean = 0, max = 0;
+            double[] lmean = new double[nw];
+            for (int i = 0; i < n; i++) {
+                int w = lines[i];
+                double dist = distance(x[i], y[i], z[i], spot._centroid);
+                if (max < dist)
+                    max = dist;
+                mean += MathUtils.square(dist);
+                dist = distance(x[i], y[i], z[i], spot._line_centroid[w]);
+                lmean[w] += MathUtils.square(dist);
+            }
+            spot._max_radius = max;
+            spot._rms_radius = Math.sqrt(mean / spot._count);
+            for (int w = 0; w < nw; w++)
+                spot._line_rms_radius[w] = Math.sqrt(lmean[w] / spot._line_count[w]);
+            return spot;
+        }
+
+        private static int index_of(double[] wavelengths, double wavelen) {
+            for (int w = 0; w < wavelengths.length; w++) {
+                if (wavelengths[w] == wavelen)
+                    return w;
+            }
+            return -1;
+        }
+
+        private static double distance(double x, double y, double z, Vector3 c) {
+            double dx = x - c.x(), dy = y - c.y(), dz = z - c.z();
+            return Math.sqrt(0.0 + dx * dx + dy * dy + dz * dz);
+        }
+    }
+
+    /**
+     * Spot of one field from process_fields(), overall and per spectral line.
+     * Points are in image coordinates; radii and lateral colour are scaled
+     * by 1000 as get_rms_radius() does.
+     */
+    public static class FieldSpot {
+        final double[] _wavelengths;
+        int _count;
+        Vector3 _centroid;
+        double _rms_radius;
+        double _max_radius;
+        final int[] _line_count;
+        final Vector3[] _line_centroid;     // null for a line with no rays on the image
+        final double[] _line_rms_radius;
+
+        FieldSpot(double[] wavelengths) {
+            _wavelengths = wavelengths;
+            _line_count = new int[wavelengths.length];
+            _line_centroid = new Vector3[wavelengths.length];
+            _line_rms_radius = new double[wavelengths.length];
+        }
+
+        public double[] get_wavelengths() {
+            return _wavelengths.clone();
+        }
+
+        /** number of rays reaching the image */
+        public int get_count() {
+            return _count;
+        }
+
+        public Vector3 get_centroid() {
+            return _centroid;
+        }
+
+        public double get_rms_radius() {
+            return _rms_radius * 1000.0;
+        }
+
+        public double get_max_radius() {
+            return _max_radius * 1000.0;
+        }
+
+        public int get_count(int line) {
+            return _line_count[line];
+        }
+
+        public Vector3 get_centroid(int line) {
+            return _line_centroid[line];
+        }
+
+        /** rms radius of one spectral line about its own centroid, NaN if it has no rays */
+        public double get_rms_radius(int line) {
+            return _line_rms_radius[line] * 1000.0;
+        }
+
+        /**
+         * Lateral colour: height of the line's centroid on the image
+         * relative to that of the first line, along y where Prescription
+         * sets its fields. NaN if either line has no rays.
+         */
+        public double get_lateral_colour(int line) {
+            if (_line_centroid[line] == null || _line_centroid[0] == null)
+                return Double.NaN;
+            return (_line_centroid[line].y() - _line_centroid[0].y()) * 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Field Spot Result: RMS Radius ").append(get_rms_radius())
+                    .append(" max radius ").append(get_max_radius());
+            for (int w = 1; w < _wavelengths.length; w++)
+                sb.append(" lateral colour ").append(_wavelengths[w]).append(" ").append(get_lateral_colour(w));
+            return sb.toString();
+        }
+    }
 }
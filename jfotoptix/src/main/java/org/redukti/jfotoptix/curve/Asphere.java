@@ -68,6 +68,10 @@ public class Asphere extends ConicBase {
         this._feder_algo = feder_algo;
     }
 
+    public boolean is_feder_algo() {
+        return _feder_algo;
+    }
+
     public double get_c() {
         return _c;
     }
@@ -44,4 +44,10 @@ public abstract class ConicBase extends RotationalRoc {
     {
         return _sh - 1.0;
     }
+
+    /** Schwarzschild constant + 1, exactly as the curve equations use it */
+    public double get_sh ()
+    {
+        return _sh;
+    }
 }
@@ -35,4 +35,8 @@ public abstract class RotationalRoc extends Rotational {
     public double get_curvature() {
         return 1.0/_roc;
     }
+
+    public double get_roc() {
+        return _roc;
+    }
 }
@@ -2,7 +2,7 @@ package org.redukti.jfotoptix.examples;
 
 import org.redukti.jfotoptix.analysis.AnalysisSpot;
 import org.redukti.jfotoptix.curve.Flat;
-import org.redukti.jfotoptix.fastparax.YNUTracer;
+import org.redukti.jfotoptix.fastparax.GlassSearch;
 import org.redukti.jfotoptix.light.SpectralLine;
 import org.redukti.jfotoptix.math.Matrix3;
 import org.redukti.jfotoptix.math.Vector3;
@@ -17,11 +17,11 @@ import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
 import org.redukti.jfotoptix.shape.Rectangle;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
-// Takes too long to run for more than about 22 glasses (that takes 2 hrs as well)
+// Searches glass substitutions, see GlassSearch
 public class NoctNikkor58YNU {
 
     static final class GlassType {
@@ -274,115 +274,47 @@ public class NoctNikkor58YNU {
                 };
     }
 
-    static GlassType[] getGlassTypes() {
-        var glasses = GlassMap.glasses.values().stream()
-                .filter(e ->e.get_manufacturer().equals("Hikari"))
+    static List<GlassMap> getGlassTypes() {
+        return GlassMap.glasses.values().stream()
+                .filter(e -> "Hikari".equals(e.get_manufacturer()))
                 .filter(e -> e.get_name().startsWith("E-"))
                 .filter(e->e.get_refractive_index(SpectralLine.d) >= 1.647 && e.get_refractive_index(SpectralLine.d) < 1.91)
-                .map(e->new GlassType(e.get_name(), e.nd, e.vd))
-                .collect(Collectors.toList())
-                .toArray(new GlassType[0]);
-        return glasses;
-    }
-
-    static final class ProcessSystems implements Runnable {
-
-        int start;
-        int end;
-        GlassType[] glassTypes;
-        AtomicLong count;
-
-        public ProcessSystems(int start, int end, GlassType[] glassTypes, AtomicLong count) {
-            this.start = start;
-            this.end = end;
-            this.glassTypes = glassTypes;
-            this.count = count;
-        }
-
-        public void run() {
-            var system = buildSystem(false,false).build();
-            var glassNames = system.glassNames();
-            var tracer = new YNUTracer(system, glassNames);
-            var glasses = system.glassIndices();
-            for (int a = start; a < end; a++) {
-                glasses[1] = glassTypes[a].nd;
-                for (int b = 0; b < glassTypes.length; b++) {
-                    glasses[2] = glassTypes[b].nd;
-                    for (int c = 0; c < glassTypes.length; c++) {
-                        glasses[3] = glassTypes[c].nd;
-                        for (int d = 0; d < glassTypes.length; d++) {
-                            glasses[4] = glassTypes[d].nd;
-                            for (int e = 0; e < glassTypes.length; e++) {
-                                glasses[5] = glassTypes[e].nd;
-                                for (int f = 0; f < glassTypes.length; f++) {
-                                    glasses[6] = glassTypes[f].nd;
-                                    for (int g = 0; g < glassTypes.length; g++) {
-                                        glasses[7] = glassTypes[g].nd;
-                                        count.incrementAndGet();
-                                        try {
-
-                                            //var parax = ParaxialFirstOrderInfo.compute(system);
-                                            // Expected H' ppk = 37.5 from front-surface, 20.2 from last surface
-                                            // Expected H pp1 = 51.8
-                                            // expected H - H1 = 14.3
-                                            tracer.setGlasses(glassNames, glasses);
-                                            var parax = tracer.compute();
-
-                                            if (parax.effective_focal_length > 57.99 && parax.effective_focal_length < 58.01
-                                                    && parax.back_focal_length > 37.77 && parax.back_focal_length < 37.79
-                                                    && parax.pp1 > 51.75 && parax.pp1 < 51.85 // 51.8 from first surface
-                                                    && parax.ppk > 20.15 && parax.ppk < 20.25) {  // 20.2 from last surface
-
-                                                var sb = new StringBuilder();
-                                                sb.append(parax.effective_focal_length).append("\t")
-                                                        .append(parax.back_focal_length).append("\t")
-                                                        .append(parax.fno).append("\t")
-                                                        .append(parax.ppk).append("\t")
-                                                        .append(parax.pp1).append("\t");
-                                                for (int i = 0; i < glasses.length; i++)
-                                                    sb.append(glasses[i]).append("\t");
-                                                System.out.println(sb);
-                                            }
-                                        } catch (Exception ex) {
-                                            ex.printStackTrace();
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
+                .sorted(Comparator.comparing(GlassMap::get_name))
+                .collect(Collectors.toList());
     }
 
     public static void main(String[] args) throws Exception {
         var glassTypes = getGlassTypes();
-        System.out.println("Trying " + glassTypes.length + " glass types");
-
-        AtomicLong count = new AtomicLong();
-        int numThreads = 12; //  glassTypes.length;
-        Thread[] threads = new Thread[numThreads];
-        int perThreadGlassCount = (int) Math.round((double) glassTypes.length / (double) numThreads);
-        int start = 0;
-        for (int g = 0; g < numThreads; g++) {
-            int end = start + perThreadGlassCount;
-            if (start >= glassTypes.length) {
-                break;
-            }
-            if (end >= glassTypes.length) {
-                end = glassTypes.length;
-            }
-            System.out.println("Allocating " + start + " to " + end);
-            threads[g] = new Thread(new ProcessSystems(start, end, glassTypes, count));
-            start += perThreadGlassCount;
-            threads[g].start();
-        }
-
-        for (Thread thread : threads) {
-            if (thread != null)
-                thread.join();
+        System.out.println("Trying " + glassTypes.size() + " glass types");
+
+        var system = buildSystem(false,false).build();
+        var search = new GlassSearch(system, new String[]{"G1", "G2", "G3", "G4", "G5", "G6", "G7"}, glassTypes);
+        // Keep within reach of the Petzval and colour correction of the design
+        double petzval = search.getPetzvalSum();
+        double colour = search.getColourSum();
+        search.petzval(petzval - 0.1*Math.abs(petzval), petzval + 0.1*Math.abs(petzval))
+                .colour(colour - 2e-4, colour + 2e-4)
+                // Expected H' ppk = 37.5 from front-surface, 20.2 from last surface
+                // Expected H pp1 = 51.8
+                // expected H - H1 = 14.3
+                .target(ParaxialFirstOrderInfo.Effective_focal_length, 58.0, 0.01)
+                .target(ParaxialFirstOrderInfo.Back_focal_length, 37.78, 0.01)
+                .target(ParaxialFirstOrderInfo.Pp1, 51.8, 0.05)    // 51.8 from first surface
+                .target(ParaxialFirstOrderInfo.Ppk, 20.2, 0.05)    // 20.2 from last surface
+                .topK(100);
+        // Same layout as read by NoctNikkor58Select: first order values, then indices air, G1 .. G7
+        for (var result : search.run()) {
+            var sb = new StringBuilder();
+            sb.append(result.pfo[ParaxialFirstOrderInfo.Effective_focal_length]).append("\t")
+                    .append(result.pfo[ParaxialFirstOrderInfo.Back_focal_length]).append("\t")
+                    .append(result.pfo[ParaxialFirstOrderInfo.Fno]).append("\t")
+                    .append(result.pfo[ParaxialFirstOrderInfo.Ppk]).append("\t")
+                    .append(result.pfo[ParaxialFirstOrderInfo.Pp1]).append("\t")
+                    .append(1.0).append("\t");
+            for (var glass : result.glasses)
+                sb.append(glass.nd).append("\t");
+            System.out.println(sb);
         }
-        System.out.println("Processed " + count + " systems");
+        System.out.println("Processed " + search.getEvaluated() + " systems, pruned " + search.getPruned() + " partial assignments");
     }
 }
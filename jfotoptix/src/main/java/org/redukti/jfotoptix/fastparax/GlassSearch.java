@@ -0,0 +1,468 @@
+package org.redukti.jfotoptix.fastparax;
+
+import org.redukti.jfotoptix.light.SpectralLine;
+import org.redukti.jfotoptix.medium.GlassMap;
+import org.redukti.jfotoptix.medium.Medium;
+import org.redukti.jfotoptix.model.Element;
+import org.redukti.jfotoptix.model.OpticalSurface;
+import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+import org.redukti.jfotoptix.util.WorkerPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches assignments of catalogue glasses to the glass slots of a
+ * system - the glasses named in it, e.g. G1 .. G7 - for those whose first
+ * order properties, computed by the YNUTracer, are within the target
+ * windows. Each accepted assignment is scored by the sum of squares of its
+ * deviations from the targets in units of their tolerance, and the best
+ * K assignments are kept.
+ * <p>
+ * Glasses are assigned one slot at a time, depth first, and two sums that
+ * are separable by glass are kept along the way:
+ * <ul>
+ * <li>the Petzval sum, sum of c (1/n - 1/n') over the surfaces</li>
+ * <li>the axial colour sum, sum of h^2 c (dn' - dn) over the surfaces,
+ * where dn = (nd - 1) / vd is the dispersion of a glass and h is the
+ * marginal ray height relative to the first surface in the system as
+ * given; for thin lenses this is the achromatism sum of h^2 phi / V</li>
+ * </ul>
+ * If a window is set for either, a partial assignment whose sum cannot
+ * end in the window whatever glasses the remaining slots get is pruned
+ * with all its completions. Pruning is exact for both sums as defined:
+ * the results are those of a full search filtered by the windows.
+ * <p>
+ * The Petzval sum of an assignment is exact, as it depends only on
+ * curvatures and indices. The colour sum is a thin-lens heuristic: the
+ * real marginal ray heights change with the glasses, so it estimates the
+ * axial colour of an assignment only roughly, and its window should be
+ * set generously.
+ * <p>
+ * Subtrees are searched in parallel on a fork-join pool, each with its
+ * own tracer; the results do not depend on the number of threads.
+ */
+public class GlassSearch {
+
+    /**
+     * An accepted glass assignment
+     */
+    public static final class Result {
+        /** Glass per slot */
+        public final GlassMap[] glasses;
+        public final double score;
+        public final double petzval;
+        public final double colour;
+        /** First order values as ParaxialFirstOrderInfo.asArray() */
+        public final double[] pfo;
+        final int[] choice;
+
+        Result(GlassMap[] glasses, int[] choice, double score, double petzval, double colour, double[] pfo) {
+            this.glasses = glasses;
+            this.choice = choice;
+            this.score = score;
+            this.petzval = petzval;
+            this.colour = colour;
+            this.pfo = pfo;
+        }
+
+        @Override
+        public String toString() {
+            var sb = new StringBuilder();
+            sb.append(score).append("\t")
+                    .append(pfo[ParaxialFirstOrderInfo.Effective_focal_length]).append("\t")
+                    .append(pfo[ParaxialFirstOrderInfo.Back_focal_length]).append("\t")
+                    .append(petzval).append("\t")
+                    .append(colour);
+            for (GlassMap g : glasses)
+                sb.append("\t").append(g.get_name());
+            return sb.toString();
+        }
+    }
+
+    /** Best first; ties in candidate order so results are reproducible */
+    static final Comparator<Result> ORDER = (a, b) -> {
+        int c = Double.compare(a.score, b.score);
+        for (int i = 0; c == 0 && i < a.choice.length; i++)
+            c = Integer.compare(a.choice[i], b.choice[i]);
+        return c;
+    };
+
+    static final class Target {
+        final int id;
+        final double value;
+        final double tolerance;
+
+        Target(int id, double value, double tolerance) {
+            this.id = id;
+            this.value = value;
+            this.tolerance = tolerance;
+        }
+    }
+
+    private final YNUTracer template;
+    private final String[] slots;
+    private final int[] slotMedium;
+    private final GlassMap[][] candidates;
+    private final double[] petzvalWeight;  // per medium
+    private final double[] colourWeight;   // per medium
+    private final double[] dispersion;     // per medium, as given
+    private final List<Target> targets = new ArrayList<>();
+    private double petzvalMin = Double.NEGATIVE_INFINITY;
+    private double petzvalMax = Double.POSITIVE_INFINITY;
+    private double colourMin = Double.NEGATIVE_INFINITY;
+    private double colourMax = Double.POSITIVE_INFINITY;
+    private int topK = 10;
+    private int nthreads = Runtime.getRuntime().availableProcessors();
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+
+    public GlassSearch(OpticalSystem system, String[] slots, List<GlassMap> catalogue) {
+        String[] names = system.glassNames();
+        this.template = new YNUTracer(system, names);
+        template.setGlasses(names, system.glassIndices());
+        this.slots = slots.clone();
+        this.slotMedium = new int[slots.length];
+        this.candidates = new GlassMap[slots.length][];
+        for (int s = 0; s < slots.length; s++) {
+            slotMedium[s] = -1;
+            for (int m = 0; m < names.length; m++) {
+                if (names[m].equals(slots[s]))
+                    slotMedium[s] = m;
+            }
+            if (slotMedium[s] < 0)
+                throw new IllegalArgumentException("Glass " + slots[s] + " not found in system");
+            candidates[s] = catalogue.toArray(new GlassMap[0]);
+        }
+
+        // Both sums are linear in a function of each medium: accumulate
+        // the surface terms per medium, with heights from the system as given
+        int nmedia = names.length;
+        petzvalWeight = new double[nmedia];
+        colourWeight = new double[nmedia];
+        dispersion = new double[nmedia];
+        template.compute();
+        double h1 = template.ax_ray.heights[template.first_surface_position];
+        for (int i = 0; i < template.elements.length; i++) {
+            Element e = template.elements[i];
+            if (!(e instanceof OpticalSurface surface))
+                continue;
+            int left = template.left_medium[i];
+            int right = template.right_medium[i];
+            double c = template.curvatures[i];
+            double h = template.ax_ray.heights[i] / h1;
+            petzvalWeight[left] += c;
+            petzvalWeight[right] -= c;
+            colourWeight[right] += h * h * c;
+            colourWeight[left] -= h * h * c;
+            dispersion[left] = dispersion(surface.get_material(0));
+            dispersion[right] = dispersion(surface.get_material(1));
+        }
+    }
+
+    /**
+     * Restricts the candidates for one slot, e.g. to crowns
+     */
+    public GlassSearch candidates(String slot, List<GlassMap> glasses) {
+        for (int s = 0; s < slots.length; s++) {
+            if (slots[s].equals(slot)) {
+                candidates[s] = glasses.toArray(new GlassMap[0]);
+                return this;
+            }
+        }
+        throw new IllegalArgumentException("Unknown glass slot " + slot);
+    }
+
+    /**
+     * Accepts only assignments with the given first order value, see
+     * ParaxialFirstOrderInfo, within tolerance of the target
+     */
+    public GlassSearch target(int paraxId, double value, double tolerance) {
+        if (!(tolerance > 0.0))
+            throw new IllegalArgumentException("Tolerance must be positive");
+        targets.add(new Target(paraxId, value, tolerance));
+        return this;
+    }
+
+    public GlassSearch petzval(double min, double max) {
+        petzvalMin = min;
+        petzvalMax = max;
+        return this;
+    }
+
+    public GlassSearch colour(double min, double max) {
+        colourMin = min;
+        colourMax = max;
+        return this;
+    }
+
+    public GlassSearch topK(int k) {
+        topK = Math.max(1, k);
+        return this;
+    }
+
+    public GlassSearch threads(int n) {
+        nthreads = Math.max(1, n);
+        return this;
+    }
+
+    /** Petzval sum of the system as given */
+    public double getPetzvalSum() {
+        double p = 0.0;
+        for (int m = 0; m < petzvalWeight.length; m++)
+            p += petzvalWeight[m] / template.glass_nd[m];
+        return p;
+    }
+
+    /** Axial colour sum of the system as given, see the class notes */
+    public double getColourSum() {
+        double a = 0.0;
+        for (int m = 0; m < colourWeight.length; m++)
+            a += colourWeight[m] * dispersion[m];
+        return a;
+    }
+
+    /** Number of complete assignments traced by the last run */
+    public long getEvaluated() {
+        return evaluated.sum();
+    }
+
+    /** Number of partial assignments pruned by the last run */
+    public long getPruned() {
+        return pruned.sum();
+    }
+
+    /**
+     * Runs the search, returns up to topK accepted assignments, best first
+     */
+    public List<Result> run() {
+        evaluated.reset();
+        pruned.reset();
+        Plan plan = new Plan();
+        if (!plan.feasible(0, plan.petzval0, plan.colour0))
+            return new ArrayList<>();
+        // split into enough subtrees to keep the workers busy
+        int split = 0;
+        long tasks = 1;
+        while (nthreads > 1 && split < slots.length && tasks < 16L * nthreads)
+            tasks *= candidates[split++].length;
+        Subtree root = new Subtree(plan, new int[0], plan.petzval0, plan.colour0, split);
+        TopK best = split == 0 ? root.compute()
+                : ForkJoinTask.inForkJoinPool() ? root.invoke() : WorkerPool.get(nthreads).invoke(root);
+        return best.sorted();
+    }
+
+    private static double dispersion(Medium m) {
+        if (m instanceof GlassMap g)
+            return g.vd != 0.0 ? (g.nd - 1.0) / g.vd : 0.0;
+        return m.get_refractive_index(SpectralLine.F) - m.get_refractive_index(SpectralLine.C);
+    }
+
+    /**
+     * Per slot and candidate the terms of both sums, and per depth the
+     * bounds of the sums over the remaining slots
+     */
+    final class Plan {
+        final int nslots = slots.length;
+        final double[][] nd = new double[nslots][];
+        final double[][] petzvalTerm = new double[nslots][];
+        final double[][] colourTerm = new double[nslots][];
+        final double[] petzvalLow = new double[nslots + 1];
+        final double[] petzvalHigh = new double[nslots + 1];
+        final double[] colourLow = new double[nslots + 1];
+        final double[] colourHigh = new double[nslots + 1];
+        final Target[] targets = GlassSearch.this.targets.toArray(new Target[0]);
+        final double petzval0;
+        final double colour0;
+
+        Plan() {
+            double p = 0.0, a = 0.0;
+            boolean[] isSlot = new boolean[petzvalWeight.length];
+            for (int s = 0; s < nslots; s++)
+                isSlot[slotMedium[s]] = true;
+            for (int m = 0; m < petzvalWeight.length; m++) {
+                if (!isSlot[m]) {
+                    p += petzvalWeight[m] / template.glass_nd[m];
+                    a += colourWeight[m] * dispersion[m];
+                }
+            }
+            petzval0 = p;
+            colour0 = a;
+            for (int s = nslots - 1; s >= 0; s--) {
+                int m = slotMedium[s];
+                int n = candidates[s].length;
+                nd[s] = new double[n];
+                petzvalTerm[s] = new double[n];
+                colourTerm[s] = new double[n];
+                double plo = Double.POSITIVE_INFINITY, phi = Double.NEGATIVE_INFINITY;
+                double clo = Double.POSITIVE_INFINITY, chi = Double.NEGATIVE_INFINITY;
+                for (int c = 0; c < n; c++) {
+                    GlassMap g = candidates[s][c];
+                    nd[s][c] = g.nd;
+                    petzvalTerm[s][c] = petzvalWeight[m] / g.nd;
+                    colourTerm[s][c] = colourWeight[m] * dispersion(g);
+                    plo = Math.min(plo, petzvalTerm[s][c]);
+                    phi = Math.max(phi, petzvalTerm[s][c]);
+                    clo = Math.min(clo, colourTerm[s][c]);
+                    chi = Math.max(chi, colourTerm[s][c]);
+                }
+                petzvalLow[s] = petzvalLow[s + 1] + plo;
+                petzvalHigh[s] = petzvalHigh[s + 1] + phi;
+                colourLow[s] = colourLow[s + 1] + clo;
+                colourHigh[s] = colourHigh[s + 1] + chi;
+            }
+        }
+
+        /** Can sums p and a reach their windows once slots depth .. n-1 are assigned */
+        boolean feasible(int depth, double p, double a) {
+            return p + petzvalLow[depth] <= petzvalMax && p + petzvalHigh[depth] >= petzvalMin
+                    && a + colourLow[depth] <= colourMax && a + colourHigh[depth] >= colourMin;
+        }
+    }
+
+    /**
+     * Bounded heap of the best results seen
+     */
+    final class TopK {
+        final PriorityQueue<Result> heap = new PriorityQueue<>(ORDER.reversed());
+
+        boolean wants(double score) {
+            return heap.size() < topK || score <= heap.peek().score;
+        }
+
+        void offer(Result r) {
+            heap.add(r);
+            if (heap.size() > topK)
+                heap.poll();
+        }
+
+        void merge(TopK other) {
+            for (Result r : other.heap)
+                offer(r);
+        }
+
+        List<Result> sorted() {
+            List<Result> list = new ArrayList<>(heap);
+            list.sort(ORDER);
+            return list;
+        }
+    }
+
+    /**
+     * The completions of a partial assignment: forks a subtree per
+     * feasible glass of the next slot until the split depth, then
+     * searches sequentially with its own tracer.
+     */
+    @SuppressWarnings("serial")
+    final class Subtree extends RecursiveTask<TopK> {
+        final Plan plan;
+        final int[] prefix;
+        final double petzval;
+        final double colour;
+        final int split;
+
+        Subtree(Plan plan, int[] prefix, double petzval, double colour, int split) {
+            this.plan = plan;
+            this.prefix = prefix;
+            this.petzval = petzval;
+            this.colour = colour;
+            this.split = split;
+        }
+
+        @Override
+        protected TopK compute() {
+            int s = prefix.length;
+            if (s < split) {
+                List<Subtree> children = new ArrayList<>();
+                long cut = 0;
+                for (int c = 0; c < plan.nd[s].length; c++) {
+                    double p = petzval + plan.petzvalTerm[s][c];
+                    double a = colour + plan.colourTerm[s][c];
+                    if (!plan.feasible(s + 1, p, a)) {
+                        cut++;
+                        continue;
+                    }
+                    int[] next = Arrays.copyOf(prefix, s + 1);
+                    next[s] = c;
+                    children.add(new Subtree(plan, next, p, a, split));
+                }
+                pruned.add(cut);
+                ForkJoinTask.invokeAll(children);
+                TopK best = new TopK();
+                for (Subtree child : children)
+                    best.merge(child.join());
+                return best;
+            }
+            Searcher searcher = new Searcher(plan, prefix);
+            searcher.search(s, petzval, colour);
+            evaluated.add(searcher.nevaluated);
+            pruned.add(searcher.npruned);
+            return searcher.best;
+        }
+    }
+
+    /**
+     * Sequential depth first search below a fixed prefix
+     */
+    final class Searcher {
+        final Plan plan;
+        final YNUTracer tracer = new YNUTracer(template);
+        final int[] choice;
+        final TopK best = new TopK();
+        long nevaluated;
+        long npruned;
+
+        Searcher(Plan plan, int[] prefix) {
+            this.plan = plan;
+            this.choice = new int[plan.nslots];
+            for (int s = 0; s < prefix.length; s++) {
+                choice[s] = prefix[s];
+                tracer.glass_nd[slotMedium[s]] = plan.nd[s][prefix[s]];
+            }
+        }
+
+        void search(int s, double p, double a) {
+            if (s == plan.nslots) {
+                evaluate(p, a);
+                return;
+            }
+            double[] nd = plan.nd[s];
+            for (int c = 0; c < nd.length; c++) {
+                double ps = p + plan.petzvalTerm[s][c];
+                double as = a + plan.colourTerm[s][c];
+                if (!plan.feasible(s + 1, ps, as)) {
+                    npruned++;
+                    continue;
+                }
+                choice[s] = c;
+                tracer.glass_nd[slotMedium[s]] = nd[c];
+                search(s + 1, ps, as);
+            }
+        }
+
+        void evaluate(double p, double a) {
+            nevaluated++;
+            ParaxialFirstOrderInfo pfo = tracer.compute();
+            double score = 0.0;
+            for (Target t : plan.targets) {
+                double d = (pfo.get(t.id) - t.value) / t.tolerance;
+                if (!(Math.abs(d) <= 1.0))
+                    return;
+                score += d * d;
+            }
+            if (!best.wants(score))
+                return;
+            GlassMap[] glasses = new GlassMap[plan.nslots];
+            for (int s = 0; s < plan.nslots; s++)
+                glasses[s] = candidates[s][choice[s]];
+            best.offer(new Result(glasses, choice.clone(), score, p, a, pfo.asArray()));
+        }
+    }
+}
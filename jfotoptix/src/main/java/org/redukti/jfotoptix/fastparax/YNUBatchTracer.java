@@ -0,0 +1,354 @@
+package org.redukti.jfotoptix.fastparax;
+
+import org.redukti.jfotoptix.model.OpticalSurface;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+
+import java.util.Arrays;
+
+import static org.redukti.jfotoptix.fastparax.YNUTracer.DISTANCE;
+
+/**
+ * The YNUTracer over a batch of variants of one system at once. Each
+ * variant, a lane, may have its own glass indices and surface curvatures;
+ * thicknesses are shared. Inputs, rays and results are held structure of
+ * arrays: one array over the lanes per glass, per surface and per result,
+ * and every loop runs over the lanes innermost, so that the JIT can
+ * vectorise it. The arithmetic is that of YNUTracer, lane by lane, and
+ * gives the same results bit for bit.
+ * <p>
+ * Fill the lanes from glassLanes() and curvatureLanes(), call compute(n)
+ * and read the results of the first n lanes from the public arrays, named
+ * as the fields of ParaxialFirstOrderInfo. Nothing is allocated by
+ * compute(). Not thread safe, use one per thread.
+ */
+public class YNUBatchTracer {
+
+    public static class Rays {
+        /** [position][lane], positions as in the tracer's element sequence */
+        public final double[][] heights;
+        public final double[][] slopes;
+        public final double[][] angles;    // angle of incidence
+
+        Rays(int numElements, int capacity) {
+            heights = new double[numElements][capacity];
+            slopes = new double[numElements][capacity];
+            angles = new double[numElements][capacity];
+        }
+    }
+
+    private final YNUTracer tracer;
+    private final int capacity;
+    private final double[][] glass_nd;       // [medium][lane]
+    private final double[][] curvatures;     // [position][lane]
+
+    private final Rays p_ray;
+    private final Rays q_ray;
+    private final Rays ax_ray;
+    private final Rays pr_ray;
+    // per lane scratch
+    private final double[] y;
+    private final double[] u;
+    private final double[] aoi;
+    private final double[] y0;
+    private final double[] yu_slp;
+    private final double[] ybar0;
+    private final double[] yu_bar_slp;
+
+    public final double[] effective_focal_length;
+    public final double[] back_focal_length;
+    public final double[] optical_invariant;
+    public final double[] object_distance;
+    public final double[] image_distance;
+    public final double[] power;
+    public final double[] pp1;
+    public final double[] ppk;
+    public final double[] ffl;
+    public final double[] fno;
+    public final double[] enp_dist;
+    public final double[] enp_radius;
+    public final double[] exp_dist;
+    public final double[] exp_radius;
+    public final double[] m;
+    public final double[] red;
+    public final double[] n_obj;
+    public final double[] n_img;
+    public final double[] img_ht;
+    public final double[] obj_ang;
+    public final double[] obj_na;
+    public final double[] img_na;
+
+    /**
+     * A batch of up to capacity variants of the tracer's system, every
+     * lane starting with the tracer's glass indices and curvatures
+     */
+    public YNUBatchTracer(YNUTracer tracer, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Batch capacity must be at least 1");
+        this.tracer = new YNUTracer(tracer);
+        this.capacity = capacity;
+        int numElements = tracer.elements.length;
+        glass_nd = new double[tracer.glass_nd.length][capacity];
+        for (int g = 0; g < glass_nd.length; g++)
+            Arrays.fill(glass_nd[g], tracer.glass_nd[g]);
+        curvatures = new double[numElements][capacity];
+        for (int i = 0; i < numElements; i++)
+            Arrays.fill(curvatures[i], tracer.curvatures[i]);
+        p_ray = new Rays(numElements, capacity);
+        q_ray = new Rays(numElements, capacity);
+        ax_ray = new Rays(numElements, capacity);
+        pr_ray = new Rays(numElements, capacity);
+        y = new double[capacity];
+        u = new double[capacity];
+        aoi = new double[capacity];
+        y0 = new double[capacity];
+        yu_slp = new double[capacity];
+        ybar0 = new double[capacity];
+        yu_bar_slp = new double[capacity];
+        effective_focal_length = new double[capacity];
+        back_focal_length = new double[capacity];
+        optical_invariant = new double[capacity];
+        object_distance = new double[capacity];
+        image_distance = new double[capacity];
+        power = new double[capacity];
+        pp1 = new double[capacity];
+        ppk = new double[capacity];
+        ffl = new double[capacity];
+        fno = new double[capacity];
+        enp_dist = new double[capacity];
+        enp_radius = new double[capacity];
+        exp_dist = new double[capacity];
+        exp_radius = new double[capacity];
+        m = new double[capacity];
+        red = new double[capacity];
+        n_obj = new double[capacity];
+        n_img = new double[capacity];
+        img_ht = new double[capacity];
+        obj_ang = new double[capacity];
+        obj_na = new double[capacity];
+        img_na = new double[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** The per lane refractive index of a glass registered with the tracer */
+    public double[] glassLanes(String name) {
+        for (int g = 0; g < tracer.glass_names.length; g++) {
+            if (tracer.glass_names[g].equals(name))
+                return glass_nd[g];
+        }
+        throw new RuntimeException("Glass " + name + " not registered");
+    }
+
+    /** The per lane curvature of a surface, by element id */
+    public double[] curvatureLanes(int surfaceId) {
+        return curvatures[position(surfaceId)];
+    }
+
+    /** Position of a surface in the rays, by element id */
+    public int position(int surfaceId) {
+        int i = surfaceId < tracer.surface_id_positions.length ? tracer.surface_id_positions[surfaceId] : 0;
+        if (tracer.elements[i].id() != surfaceId)
+            throw new IllegalArgumentException("No surface with id " + surfaceId);
+        return i;
+    }
+
+    public Rays getAxialRay() {
+        return ax_ray;
+    }
+
+    public Rays getChiefRay() {
+        return pr_ray;
+    }
+
+    /** One result, see ParaxialFirstOrderInfo.get() */
+    public double get(int id, int lane) {
+        switch (id) {
+            case ParaxialFirstOrderInfo.Effective_focal_length: return effective_focal_length[lane];
+            case ParaxialFirstOrderInfo.Back_focal_length: return back_focal_length[lane];
+            case ParaxialFirstOrderInfo.Optical_invariant: return optical_invariant[lane];
+            case ParaxialFirstOrderInfo.Object_distance: return object_distance[lane];
+            case ParaxialFirstOrderInfo.Image_distance: return image_distance[lane];
+            case ParaxialFirstOrderInfo.Power: return power[lane];
+            case ParaxialFirstOrderInfo.Pp1: return pp1[lane];
+            case ParaxialFirstOrderInfo.Ppk: return ppk[lane];
+            case ParaxialFirstOrderInfo.Ffl: return ffl[lane];
+            case ParaxialFirstOrderInfo.Fno: return fno[lane];
+            case ParaxialFirstOrderInfo.Enp_dist: return enp_dist[lane];
+            case ParaxialFirstOrderInfo.Enp_radius: return enp_radius[lane];
+            case ParaxialFirstOrderInfo.Exp_dist: return exp_dist[lane];
+            case ParaxialFirstOrderInfo.Exp_radius: return exp_radius[lane];
+            case ParaxialFirstOrderInfo.M: return m[lane];
+            case ParaxialFirstOrderInfo.Red: return red[lane];
+            case ParaxialFirstOrderInfo.N_obj: return n_obj[lane];
+            case ParaxialFirstOrderInfo.N_img: return n_img[lane];
+            case ParaxialFirstOrderInfo.Img_ht: return img_ht[lane];
+            case ParaxialFirstOrderInfo.Obj_ang: return obj_ang[lane];
+            case ParaxialFirstOrderInfo.Obj_na: return obj_na[lane];
+            case ParaxialFirstOrderInfo.Img_na: return img_na[lane];
+            default: throw new IllegalArgumentException("Unknown first order value " + id);
+        }
+    }
+
+    /**
+     * Traces lanes 0 .. n-1 with initial heights y0 (at the first surface,
+     * or object_distance before it) and slopes u0, see YNUTracer.trace()
+     */
+    private void trace(double[] y0, double[] u0, double object_distance, Rays rays, int n) {
+        final double[] y = this.y, u = this.u, aoi = this.aoi;
+        for (int k = 0; k < n; k++) {
+            y[k] = object_distance != 0.0 ? y0[k] + object_distance*u0[k] : y0[k];
+            u[k] = u0[k];
+            aoi[k] = 0.0;
+        }
+        for (int i = 0; i < tracer.elements.length; i++) {
+            if (!(tracer.elements[i] instanceof OpticalSurface))
+                continue;
+            final double t1 = tracer.thickness[i];
+            final double[] C1 = curvatures[i];
+            final double[] n1 = glass_nd[tracer.left_medium[i]];
+            final double[] n1_ = glass_nd[tracer.right_medium[i]];
+            final double[] heights = rays.heights[i];
+            final double[] slopes = rays.slopes[i];
+            final double[] angles = rays.angles[i];
+            for (int k = 0; k < n; k++) {
+                double y1 = y[k];
+                double n1_u1_ = -y1 * C1[k] * (n1_[k]-n1[k]) + n1[k]*u[k];
+                y[k] = y1 + t1 * (n1_u1_)/n1_[k];
+                double u1 = n1_u1_/n1_[k];
+                u[k] = u1;
+                aoi[k] = u1 + y1 * C1[k];
+                heights[k] = y1;
+                slopes[k] = u1;
+                angles[k] = aoi[k];
+            }
+        }
+        int image = tracer.image_position;
+        System.arraycopy(y, 0, rays.heights[image], 0, n);
+        System.arraycopy(u, 0, rays.slopes[image], 0, n);
+        System.arraycopy(aoi, 0, rays.angles[image], 0, n);
+    }
+
+    /** Computes the first order results of lanes 0 .. n-1, see YNUTracer.compute() */
+    public void compute(int n) {
+        if (n < 0 || n > capacity)
+            throw new IllegalArgumentException("Batch size " + n + " not in 0 .. " + capacity);
+        if (tracer.image_position < 0)
+            throw new RuntimeException("Image plane is required");
+        if (tracer.stop_position < 0)
+            throw new RuntimeException("An aperture stop is required");
+        final int first = tracer.first_surface_position;
+        final int last = tracer.last_surface_position;
+        final int stop = tracer.stop_position;
+        final int image = tracer.image_position;
+        final double[] nd_0 = glass_nd[tracer.left_medium[0]];
+        final double[] nd_k = glass_nd[tracer.right_medium[last]];
+
+        // Trace a ray parallel to axis at height 1.0 from infinity
+        Arrays.fill(y0, 0, n, 1.0);
+        Arrays.fill(yu_slp, 0, n, 0.0);
+        trace(y0, yu_slp, -DISTANCE, p_ray, n);
+        // Trace a ray that has unit angle from infinity
+        Arrays.fill(y0, 0, n, DISTANCE);
+        Arrays.fill(yu_slp, 0, n, 1.0);
+        trace(y0, yu_slp, -DISTANCE, q_ray, n);
+
+        // f/# at the image
+        final double slpk = -1.0 / (2.0 * tracer.f_number);
+        double max_fld = tracer.max_fld;
+        if (max_fld == 0.0)
+            max_fld = 1.0;
+        final double slpbar0 = Math.tan(Math.toRadians(max_fld));
+        final double image_dist = tracer.thickness[last];
+        final double[] p_h_first = p_ray.heights[first], p_h_last = p_ray.heights[last], p_s_last = p_ray.slopes[last];
+        final double[] q_h_last = q_ray.heights[last], q_s_last = q_ray.slopes[last];
+        final double[] p_h_stop = p_ray.heights[stop], q_h_stop = q_ray.heights[stop];
+        for (int k = 0; k < n; k++) {
+            double u_k = p_s_last[k];
+            effective_focal_length[k] = -p_h_first[k]/u_k;
+            back_focal_length[k] = -p_h_last[k]/u_k;
+
+            double n_k = 1.0 * nd_k[k];
+            double ck1 = n_k * p_s_last[k];
+            double dk1 = n_k * q_s_last[k];
+            double as1 = p_h_stop[k];
+            double bs1 = q_h_stop[k];
+
+            // find entrance pupil location w.r.t. first surface
+            double ybar1 = -bs1;
+            double ubar1 = as1;
+            double n_0 = nd_0[k];
+            double enp = -ybar1/(n_0*ubar1);
+            // calculate reduction ratio for given object distance
+            double r = dk1 + DISTANCE*ck1;
+            double obj2enp_dist = DISTANCE + enp;
+            double slp0 = slpk / r;
+            yu_slp[k] = slp0;
+            yu_bar_slp[k] = slpbar0;
+            // Get height at first surface from object height
+            y0[k] = 0.0 + DISTANCE * slp0;
+            ybar0[k] = -slpbar0 * obj2enp_dist + DISTANCE * slpbar0;
+        }
+        // We have the starting coordinates, now trace the rays
+        trace(y0, yu_slp, 0.0, ax_ray, n);
+        trace(ybar0, yu_bar_slp, 0.0, pr_ray, n);
+
+        final double[] ax_h_first = ax_ray.heights[first], ax_s_last = ax_ray.slopes[last], ax_s_image = ax_ray.slopes[image];
+        final double[] pr_h_first = pr_ray.heights[first], pr_s_last = pr_ray.slopes[last];
+        final double ang = Math.toDegrees(Math.atan(slpbar0));
+        final double[] pr_h_image = pr_ray.heights[image], pr_s_image = pr_ray.slopes[image];
+        for (int k = 0; k < n; k++) {
+            double n_0 = nd_0[k];
+            double n_k = 1.0 * nd_k[k];
+            double ak1 = p_h_last[k];
+            double ck1 = n_k * p_s_last[k];
+            double dk1 = n_k * q_s_last[k];
+            double oi = n_0 * (ax_h_first[k] * slpbar0 - pr_h_first[k] * yu_slp[k]);
+            optical_invariant[k] = oi;
+            object_distance[k] = DISTANCE;
+            image_distance[k] = image_dist;
+            if (ck1 == 0.0) {
+                power[k] = 0.0;
+                effective_focal_length[k] = 0.0;
+                pp1[k] = 0.0;
+                ppk[k] = 0.0;
+            }
+            else {
+                power[k] = -ck1;
+                effective_focal_length[k] = -1.0 / ck1;
+                pp1[k] = (dk1 - 1.0) * (n_0 / ck1);
+                ppk[k] = (p_h_last[k] - 1.0) * (n_k / ck1);
+                ffl[k] = pp1[k] - effective_focal_length[k];
+                back_focal_length[k] = effective_focal_length[k] - ppk[k];
+                fno[k] = -1.0 / (2.0 * n_k * ax_s_last[k]);
+            }
+            m[k] = ak1 + ck1*image_dist/n_k;
+            red[k] = dk1 + ck1*DISTANCE;
+            n_obj[k] = n_0;
+            n_img[k] = n_k;
+            img_ht[k] = -oi/(n_k*ax_s_last[k]);
+            obj_ang[k] = ang;
+            if (slpbar0 != 0) {
+                double nu_pr0 = n_0 * slpbar0;
+                enp_dist[k] = -pr_h_first[k] / nu_pr0;
+                enp_radius[k] = Math.abs(oi / nu_pr0);
+            }
+            else {
+                enp_dist[k] = -DISTANCE;
+                enp_radius[k] = DISTANCE;
+            }
+            if (pr_s_last[k] != 0) {
+                exp_dist[k] = -(pr_h_image[k] / pr_s_image[k] - image_dist);
+                exp_radius[k] = Math.abs(oi / (n_k * pr_s_image[k]));
+            }
+            else {
+                exp_dist[k] = -DISTANCE;
+                exp_radius[k] = DISTANCE;
+            }
+            // object and image space numerical apertures
+            obj_na[k] = n_0*Math.sin(Math.atan(1.0*yu_slp[k]));
+            img_na[k] = n_k*Math.sin(Math.atan(1.0*ax_s_image[k]));
+        }
+    }
+}
@@ -13,8 +13,8 @@ import java.util.*;
  */
 public class YNUTracer {
 
-    private final double f_number;
-    private final double max_fld;
+    final double f_number;
+    final double max_fld;
     int first_surface_position;
     int last_surface_position;
     int stop_position;
@@ -105,6 +105,33 @@ public class YNUTracer {
         pr_ray = new Rays(numElements);
     }
 
+    /**
+     * A tracer for the same system with its own glass indices and ray
+     * buffers, starting with the glass indices of the given tracer;
+     * tracers are not thread safe, use one per thread.
+     */
+    public YNUTracer(YNUTracer other) {
+        this.f_number = other.f_number;
+        this.max_fld = other.max_fld;
+        this.first_surface_position = other.first_surface_position;
+        this.last_surface_position = other.last_surface_position;
+        this.stop_position = other.stop_position;
+        this.image_position = other.image_position;
+        this.surface_id_positions = other.surface_id_positions;
+        this.elements = other.elements;
+        this.curvatures = other.curvatures;
+        this.thickness = other.thickness;
+        this.left_medium = other.left_medium;
+        this.right_medium = other.right_medium;
+        this.glass_names = other.glass_names;
+        this.glass_nd = other.glass_nd.clone();
+        int numElements = elements.length;
+        p_ray = new Rays(numElements);
+        q_ray = new Rays(numElements);
+        ax_ray = new Rays(numElements);
+        pr_ray = new Rays(numElements);
+    }
+
     public void setGlasses(String[] names, double[] nd) {
         for (int i = 0; i < names.length; i++) {
             String name = names[i];
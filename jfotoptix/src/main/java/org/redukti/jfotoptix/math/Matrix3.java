@@ -92,6 +92,11 @@ public class Matrix3 {
         return to_rotation_matrix(q);
     }
 
+    /** Element at row, col */
+    public final double get(int row, int col) {
+        return _values[idx(row, col)];
+    }
+
     /** Matrix times vector */
     public final Vector3 times(Vector3 v) {
         double[] r = new double[3];
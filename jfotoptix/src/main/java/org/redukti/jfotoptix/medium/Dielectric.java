@@ -152,20 +152,30 @@ public abstract class Dielectric extends Solid {
         _temp_e0 = e0;
         _temp_e1 = e1;
         _temp_wl_tk = wl_tk;
+        _last_wavelen = 0;
     }
 
     public void set_temperature_dndt(double dndt) {
         _temp_model = thermal_model_e.ThermalDnDt;
         _temp_d0 = dndt;
+        _last_wavelen = 0;
     }
 
     public void disable_temperature_coeff() {
         _temp_model = thermal_model_e.ThermalNone;
+        _last_wavelen = 0;
     }
 
     public void set_measurement_medium(Medium medium) {
         assert (medium != this);
         _measurement_medium = medium;
+        _last_wavelen = 0;
+    }
+
+    @Override
+    public void set_temperature(double temp) {
+        super.set_temperature(temp);
+        _last_wavelen = 0;  // cached index is for the old temperature
     }
 
     public void set_wavelen_range(double low, double high) {
@@ -37,7 +37,7 @@ public abstract class Element {
 
     protected final int _id;
     protected final Vector3Pair _position;
-    protected final Transform3 _transform;
+    protected Transform3 _transform;
     protected OpticalSystem _system;
 
     public Element(int id, Vector3Pair p, Transform3 transform) {
@@ -26,6 +26,7 @@ Original GNU Optical License and Authors are as follows:
 
 package org.redukti.jfotoptix.model;
 
+import org.redukti.jfotoptix.curve.Curve;
 import org.redukti.jfotoptix.light.SpectralLine;
 import org.redukti.jfotoptix.math.Transform3;
 import org.redukti.jfotoptix.math.Vector3;
@@ -97,6 +98,56 @@ public class OpticalSystem implements Container {
 //        return transform3Cache.getGlobal2LocalTransform(e.id());
 //    }
 
+    /**
+     * Replaces the curve of a surface in place.
+     * Not to be called while the system is being traced.
+     */
+    public void update_curve(Surface s, Curve curve) {
+        s.set_curve(curve);
+    }
+
+    public void update_thickness(Surface s, double thickness) {
+        s.set_thickness(thickness);
+    }
+
+    /**
+     * Moves an element within its parent in place, as
+     * Element.Builder.localPosition() followed by build() would.
+     * The global transforms of the element and of any elements
+     * it contains are recomputed, and cached transforms involving
+     * them are dropped; all other transforms are kept.
+     * Not to be called while the system is being traced.
+     */
+    public void update_local_position(Element e, Vector3 v) {
+        e._transform = new Transform3(v, e._transform.rotation_matrix, e._transform.use_rotation_matrix);
+        update_global_transforms(e);
+    }
+
+    private void update_global_transforms(Element e) {
+        // compose with the parents' local transforms, as compute_global_transforms()
+        Transform3 t = e._transform;
+        for (Element p = find_parent(this, e); p != null; p = find_parent(this, p))
+            t = Transform3.compose(p._transform, t);
+        _transform3Cache.update_local_2_global_transform(e.id(), t);
+        if (e instanceof Container) {
+            for (Element c : ((Container) e).elements())
+                update_global_transforms(c);
+        }
+    }
+
+    private static Element find_parent(Container c, Element e) {
+        for (Element child : c.elements()) {
+            if (child == e)
+                return c instanceof Element ? (Element) c : null;
+            if (child instanceof Container) {
+                Element p = find_parent((Container) child, e);
+                if (p != null)
+                    return p;
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns a flat sequence of elements, ordered by z
      */
@@ -250,6 +301,7 @@ public class OpticalSystem implements Container {
             for (Element.Builder e: elements) {
                 e.compute_global_transforms(transform3Cache);
             }
+            transform3Cache.resolve_all();
             return transform3Cache;
         }
 
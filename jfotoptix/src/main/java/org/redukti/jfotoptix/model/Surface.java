@@ -38,7 +38,7 @@ import java.util.function.Consumer;
 public class Surface extends Element {
 
     protected final Shape _shape;
-    protected final Curve _curve;
+    protected Curve _curve;
     protected double _thickness;
 
     public Surface(int id, Vector3Pair p, Transform3 transform, Curve curve, Shape shape, double thickness) {
@@ -57,6 +57,14 @@ public class Surface extends Element {
     }
     public double get_thickness() { return _thickness; }
 
+    void set_curve(Curve curve) {
+        this._curve = curve;
+    }
+
+    void set_thickness(double thickness) {
+        this._thickness = thickness;
+    }
+
     public Renderer.Style get_style() {
         return Renderer.Style.StyleSurface;
     }
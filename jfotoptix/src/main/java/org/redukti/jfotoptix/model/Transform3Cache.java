@@ -28,22 +28,43 @@ package org.redukti.jfotoptix.model;
 
 import org.redukti.jfotoptix.math.Transform3;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
-
+import java.util.Arrays;
+
+/**
+ * Transforms between the coordinate systems of elements, held in a
+ * dense table indexed [from][to] by element id; id 0 stands for the
+ * global coordinate system.
+ * <p>
+ * resolve_all() fills in the transforms between every pair of elements,
+ * after which lookups are array loads and the cache is never written
+ * while the system is traced, so concurrent readers are safe.
+ * Transform3 is immutable.
+ */
 public class Transform3Cache {
 
-    protected Map<ElementPair, Transform3> _cache = new HashMap<>();
+    protected Transform3[][] _table = new Transform3[0][];
 
     public Transform3 get(int from, int to) {
-        ElementPair pair = new ElementPair(from, to);
-        return _cache.get(pair);
+        Transform3[][] table = _table;
+        if (from >= table.length || to >= table.length)
+            return null;
+        return table[from][to];
     }
 
     private void put(int from, int to, Transform3 transform) {
-        ElementPair pair = new ElementPair(from, to);
-        _cache.put(pair, transform);
+        ensure_capacity(Math.max(from, to) + 1);
+        _table[from][to] = transform;
+    }
+
+    private void ensure_capacity(int n) {
+        int old_size = _table.length;
+        if (n <= old_size)
+            return;
+        int size = Math.max(n, 2 * old_size);
+        Transform3[][] table = new Transform3[size][];
+        for (int i = 0; i < size; i++)
+            table[i] = i < old_size ? Arrays.copyOf(_table[i], size) : new Transform3[size];
+        _table = table;
     }
 
     public void put_local_2_global_transform(int id, Transform3 t) {
@@ -62,39 +83,52 @@ public class Transform3Cache {
         return get(0, id);
     }
 
-    public Transform3 transform_cache_update(int from, int to) {
-        assert (from != to);
-        Transform3 e = get(from, to);
-        if (e == null) {
-            Transform3 t1 = local_2_global_transform(from);
-            Transform3 t2 = local_2_global_transform(to);
-            e = Transform3.compose(t1, t2.inverse());
-            put(from, to, e);
+    /**
+     * Computes the transforms between all pairs of elements that
+     * have a global transform.
+     */
+    public void resolve_all() {
+        for (int from = 1; from < _table.length; from++) {
+            if (local_2_global_transform(from) == null)
+                continue;
+            for (int to = 1; to < _table.length; to++) {
+                if (to != from && local_2_global_transform(to) != null)
+                    resolve(from, to);
+            }
         }
-        return e;
     }
 
-    static final class ElementPair {
-        final int from;
-        final int to;
-
-        public ElementPair(int from, int to) {
-            this.from = from;
-            this.to = to;
-        }
+    private Transform3 resolve(int from, int to) {
+        Transform3 t1 = local_2_global_transform(from);
+        Transform3 t2 = local_2_global_transform(to);
+        Transform3 e = Transform3.compose(t1, t2.inverse());
+        put(from, to, e);
+        return e;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            ElementPair that = (ElementPair) o;
-            return from == that.from && to == that.to;
+    /**
+     * Replaces the transforms of an element that has moved, and
+     * recomputes the cached transforms between it and other elements.
+     */
+    public void update_local_2_global_transform(int id, Transform3 t) {
+        put_local_2_global_transform(id, t);
+        put_global_2_local_transform(id, t.inverse());
+        for (int other = 1; other < _table.length; other++) {
+            if (other == id)
+                continue;
+            if (_table[id][other] != null)
+                resolve(id, other);
+            if (_table[other][id] != null)
+                resolve(other, id);
         }
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(from, to);
-        }
+    public Transform3 transform_cache_update(int from, int to) {
+        assert (from != to);
+        Transform3 e = get(from, to);
+        if (e == null)
+            e = resolve(from, to);
+        return e;
     }
 
 }
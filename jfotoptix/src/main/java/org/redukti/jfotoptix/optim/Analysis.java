@@ -7,6 +7,9 @@ import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
 import org.redukti.jfotoptix.spec.Prescription;
 import org.redukti.jfotoptix.tracing.RayTraceResults;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Analysis {
 
     public Prescription prescription;
@@ -37,10 +40,37 @@ public class Analysis {
     public boolean enableField2 = false;
     public double field3 = 1.0;
     public boolean enableField3 = false;
+    /**
+     * Spot analyses of the fields run concurrently on up to this many threads
+     */
+    public int nthreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * The systems are built on the first compute() and then updated
+     * in place from the prescription, see Prescription.updateSystem();
+     * if false they are rebuilt on every compute()
+     */
+    public boolean reuseSystems = true;
+    private double sys1AoV;  // prescription.varAoV sys1 was built with
+    private double sys2Field;   // field2 sys2 was built with
+    private double sys3Field;   // field3 sys3 was built with
 
     public Analysis(Prescription prescription) {
         this.prescription = prescription;
     }
+    /**
+     * A new analysis of the given prescription with the same settings
+     * as this one; no results are copied
+     */
+    public Analysis copy(Prescription prescription) {
+        Analysis a = new Analysis(prescription);
+        a.field2 = field2;
+        a.enableField2 = enableField2;
+        a.field3 = field3;
+        a.enableField3 = enableField3;
+        a.nthreads = nthreads;
+        a.reuseSystems = reuseSystems;
+        return a;
+    }
     public Analysis field2(double value) {
         if (value > 0.0 && value <= 1.0) {
             field2 = value;
@@ -59,20 +89,37 @@ public class Analysis {
             throw new IllegalArgumentException();
         return this;
     }
+    public Analysis threads(int n) {
+        nthreads = Math.max(1, n);
+        return this;
+    }
     public void compute() {
-        sys1 = prescription.buildSystem(true,0.0).build();
-        sys1Spot = new AnalysisSpot(sys1,10).process_analysis();
+        List<AnalysisSpot> spots = new ArrayList<>();
+        // sys1's point source follows the variable angle of view
+        sys1 = getSystem(prescription.varAoV == sys1AoV ? sys1 : null, 0.0);
+        sys1AoV = prescription.varAoV;
+        spots.add(sys1Spot = new AnalysisSpot(sys1,10));
+        // sys2 and sys3 have their point sources at field2 and field3
         if (enableField2) {
-            sys2 = prescription.buildSystem(true,field2).build();
-            sys2Spot = new AnalysisSpot(sys2,10).process_analysis();
+            sys2 = getSystem(field2 == sys2Field ? sys2 : null, field2);
+            sys2Field = field2;
+            spots.add(sys2Spot = new AnalysisSpot(sys2,10));
         }
         if (enableField3) {
-            sys3 = prescription.buildSystem(true,field3).build();
-            sys3Spot = new AnalysisSpot(sys3,10).process_analysis();
+            sys3 = getSystem(field3 == sys3Field ? sys3 : null, field3);
+            sys3Field = field3;
+            spots.add(sys3Spot = new AnalysisSpot(sys3,10));
         }
+        AnalysisSpot.process_analyses(spots, nthreads);
         pfo = ParaxialFirstOrderInfo.compute(sys1).asArray();
         if (prescription.distribution.get_user_defined_points() != null) {
             singleRayTraceResults = new AnalysisRayFinder(sys1,prescription.distribution).compute();
         }
     }
+    private OpticalSystem getSystem(OpticalSystem sys, double field) {
+        if (sys == null || !reuseSystems)
+            return prescription.buildSystem(true,field).build();
+        prescription.updateSystem(sys);
+        return sys;
+    }
 }
@@ -9,5 +9,12 @@ public abstract class Goal {
         this.target = target;
         this.weight = weight;
     }
-    public abstract double value();
+    public double value() {
+        return value(analysis);
+    }
+    /**
+     * The value of this goal in the given analysis, which may be
+     * a copy of the one the goal was created for
+     */
+    public abstract double value(Analysis analysis);
 }
@@ -10,7 +10,7 @@ public class GoalParax extends Goal {
         this.paraxId = paraxId;
     }
     @Override
-    public double value() {
+    public double value(Analysis analysis) {
         return analysis.pfo[paraxId];
     }
     @Override
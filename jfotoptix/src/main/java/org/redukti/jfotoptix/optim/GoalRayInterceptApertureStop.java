@@ -15,7 +15,7 @@ public class GoalRayInterceptApertureStop extends Goal {
         this.targetPoint = targetPoint;
     }
     @Override
-    public double value() {
+    public double value(Analysis analysis) {
         var apertureStop = analysis
                     .sys1.get_sequence()
                     .stream()
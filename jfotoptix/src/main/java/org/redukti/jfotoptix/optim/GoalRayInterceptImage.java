@@ -15,7 +15,7 @@ public class GoalRayInterceptImage extends Goal {
         this.targetPoint = targetPoint;
     }
     @Override
-    public double value() {
+    public double value(Analysis analysis) {
         var image = (Image) analysis
                 .sys1
                 .get_sequence()
@@ -10,7 +10,7 @@ public class GoalSpotMaxRadius extends Goal {
     }
 
     @Override
-    public double value() {
+    public double value(Analysis analysis) {
         if (field == 1)
             return analysis.sys1Spot.get_max_radius();
         else if (field == 2)
@@ -3,6 +3,7 @@ package org.redukti.jfotoptix.optim;
 import org.redukti.jfotoptix.math.LMLFunction;
 import org.redukti.jfotoptix.math.LMLSolver;
 import org.redukti.jfotoptix.math.MathUtils;
+import org.redukti.jfotoptix.util.WorkerPool;
 
 import static org.redukti.jfotoptix.math.LMLSolver.BIGVAL;
 
@@ -15,6 +16,15 @@ public class MeritFunction implements LMLFunction {
         private Var[] vars;
         private Goal[] outs;
         private double tol = 1E-6;
+        /**
+         * Jacobian columns are evaluated concurrently on up to this many threads
+         */
+        private int nthreads = Runtime.getRuntime().availableProcessors();
+        /**
+         * Per Jacobian column, a copy of the analysis and its prescription,
+         * created on first use and kept so its systems are reused
+         */
+        private final Analysis[] workers;
 
         public MeritFunction(Analysis analysis, Var[] vars, Goal[] outs) {
             this.analysis = analysis;
@@ -22,13 +32,28 @@ public class MeritFunction implements LMLFunction {
             this.outs = outs;
             this.resid = new double[outs.length];
             this.point = new double[vars.length];
-            this.jac = new double[vars.length][vars.length];
+            this.jac = new double[outs.length][vars.length];
+            this.workers = new Analysis[vars.length];
+        }
+
+        public MeritFunction threads(int n) {
+            nthreads = Math.max(1, n);
+            return this;
         }
 
         @Override
         public double computeResiduals() {
-            for (int i = 0; i < point.length; i++) {
-                vars[i].shift(point[i]);
+            return computeResiduals(analysis, point, resid);
+        }
+
+        /**
+         * Sets the vars to p in the analysis' prescription, runs the analysis
+         * and stores the weighted goal residuals in r. Returns their RMS,
+         * or BIGVAL if the analysis failed.
+         */
+        private double computeResiduals(Analysis analysis, double[] p, double[] r) {
+            for (int i = 0; i < p.length; i++) {
+                vars[i].shift(analysis.prescription, p[i]);
             }
             try {
                 analysis.compute();
@@ -38,8 +63,8 @@ public class MeritFunction implements LMLFunction {
             }
             double sos = 0.0;
             for (int i = 0; i < outs.length; i++) {
-                resid[i] = (outs[i].target - outs[i]. value())*outs[i].weight;
-                sos += MathUtils.square(resid[i]);
+                r[i] = (outs[i].target - outs[i].value(analysis))*outs[i].weight;
+                sos += MathUtils.square(r[i]);
             }
             return Math.sqrt(sos / outs.length);
         }
@@ -54,55 +79,38 @@ public class MeritFunction implements LMLFunction {
             // If current parms[] is bad, returns false.
             // False should trigger an explanation.
             // Called by LMray.iLMiter().
+            // Columns are central differences computed concurrently, each on
+            // its own copy of the prescription and analysis, so the current
+            // point, prescription and resid[] are left as they were.
             {
                 final int nadj = vars.length;
-                final int ngoals = outs.length;
-                double delta[] = new double[nadj];
-                double d=0;
+                final boolean[] bad = new boolean[nadj];
+                WorkerPool.for_each(nthreads, nadj, j -> bad[j] = !buildColumn(j));
                 for (int j=0; j<nadj; j++)
-                {
-                    for (int k=0; k<nadj; k++)
-                        delta[k] = (k==j) ? vars[j].dDelta : 0.0;
-
-                    d = nudge(delta); // resid at pplus
-                    if (d== BIGVAL)
-                    {
-                        //badray = true;
+                    if (bad[j])
                         return false;
-                    }
-                    for (int i=0; i<ngoals; i++)
-                        jac[i][j] = getResidual(i);
-
-                    for (int k=0; k<nadj; k++)
-                        delta[k] = (k==j) ? -2.0*vars[j].dDelta : 0.0;
-
-                    d = nudge(delta); // resid at pminus
-                    if (d== BIGVAL)
-                    {
-                        //badray = true;
-                        return false;
-                    }
-
-                    for (int i=0; i<ngoals; i++)
-                        jac[i][j] -= getResidual(i);
-
-                    for (int i=0; i<ngoals; i++)
-                        jac[i][j] /= (2.0*vars[j].dDelta);
-
-                    for (int k=0; k<nadj; k++)
-                        delta[k] = (k==j) ? vars[j].dDelta : 0.0;
-
-                    d = nudge(delta);  // back to starting value.
-
-                    if (d== BIGVAL)
-                    {
-                        //badray = true;
-                        return false;
-                    }
-                }
                 return true;
             }
 
+        private boolean buildColumn(int j) {
+            final int ngoals = outs.length;
+            final double dDelta = vars[j].dDelta;
+            if (workers[j] == null)
+                workers[j] = analysis.copy(analysis.prescription.copy());
+            double[] p = point.clone();
+            double[] plus = new double[ngoals];
+            double[] minus = new double[ngoals];
+            p[j] = point[j] + dDelta;
+            if (computeResiduals(workers[j], p, plus) == BIGVAL)  // resid at pplus
+                return false;
+            p[j] = point[j] - dDelta;
+            if (computeResiduals(workers[j], p, minus) == BIGVAL) // resid at pminus
+                return false;
+            for (int i=0; i<ngoals; i++)
+                jac[i][j] = (plus[i] - minus[i]) / (2.0*dDelta);
+            return true;
+        }
+
         @Override
         public double getResidual(int i)
         // Returns one element of the array resid[].
@@ -11,5 +11,12 @@ public abstract class Var {
         this.originalValue = originalValue;
         this.dDelta = dDelta;
     }
-    public abstract void shift(double delta);
+    public void shift(double delta) {
+        shift(prescription, delta);
+    }
+    /**
+     * Sets this variable to originalValue + delta in the given prescription,
+     * which may be a copy of the one the variable was created for
+     */
+    public abstract void shift(Prescription prescription, double delta);
 }
@@ -8,7 +8,7 @@ public class VarAoV extends Var {
     }
 
     @Override
-    public void shift(double delta) {
+    public void shift(Prescription prescription, double delta) {
         System.out.println("Shifting AOV from " + originalValue + " to " + (originalValue+delta));
         prescription.varAoV = originalValue + delta;
     }
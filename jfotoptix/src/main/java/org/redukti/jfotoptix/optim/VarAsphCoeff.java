@@ -11,7 +11,7 @@ public class VarAsphCoeff extends Var {
         this.index = index;
     }
     @Override
-    public void shift(double delta) {
+    public void shift(Prescription prescription, double delta) {
         prescription.surfaces[surfaceId].coeffs[index] = originalValue + delta;
     }
     @Override
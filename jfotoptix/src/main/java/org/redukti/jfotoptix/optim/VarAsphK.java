@@ -9,7 +9,7 @@ public class VarAsphK extends Var {
         this.surfaceId = surfaceId;
     }
     @Override
-    public void shift(double delta) {
+    public void shift(Prescription prescription, double delta) {
         prescription.surfaces[surfaceId].k = originalValue + delta;
     }
     @Override
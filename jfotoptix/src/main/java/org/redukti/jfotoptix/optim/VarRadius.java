@@ -9,7 +9,7 @@ public class VarRadius extends Var {
         this.surfaceId = surfaceId;
     }
     @Override
-    public void shift(double delta) {
+    public void shift(Prescription prescription, double delta) {
         prescription.surfaces[surfaceId].radius = originalValue + delta;
     }
     @Override
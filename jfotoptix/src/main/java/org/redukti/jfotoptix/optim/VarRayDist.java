@@ -22,7 +22,7 @@ public class VarRayDist extends Var {
         prescription.distribution.set_user_defined_points(List.of(newPoint));
     }
     @Override
-    public void shift(double delta) {
+    public void shift(Prescription prescription, double delta) {
         var points = prescription.distribution.get_user_defined_points();
         if (points == null || points.size() == 0) {
             throw new RuntimeException("No user defined points");
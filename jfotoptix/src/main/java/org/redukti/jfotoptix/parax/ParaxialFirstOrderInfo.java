@@ -313,6 +313,37 @@ public class ParaxialFirstOrderInfo {
         return v;
     }
 
+    /**
+     * One value by its index in asArray(), without allocating
+     */
+    public double get(int id) {
+        switch (id) {
+            case Effective_focal_length: return effective_focal_length;
+            case Back_focal_length: return back_focal_length;
+            case Optical_invariant: return optical_invariant;
+            case Object_distance: return object_distance;
+            case Image_distance: return image_distance;
+            case Power: return power;
+            case Pp1: return pp1;
+            case Ppk: return ppk;
+            case Ffl: return ffl;
+            case Fno: return fno;
+            case Enp_dist: return enp_dist;
+            case Enp_radius: return enp_radius;
+            case Exp_dist: return exp_dist;
+            case Exp_radius: return exp_radius;
+            case M: return m;
+            case Red: return red;
+            case N_obj: return n_obj;
+            case N_img: return n_img;
+            case Img_ht: return img_ht;
+            case Obj_ang: return obj_ang;
+            case Obj_na: return obj_na;
+            case Img_na: return img_na;
+            default: throw new IllegalArgumentException("Unknown first order value " + id);
+        }
+    }
+
     static final class GlassType {
         final String name;
         final double nd;
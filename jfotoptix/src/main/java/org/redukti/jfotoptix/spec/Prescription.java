@@ -2,7 +2,9 @@ package org.redukti.jfotoptix.spec;
 
 import org.redukti.jfotoptix.analysis.AnalysisSpot;
 import org.redukti.jfotoptix.curve.Asphere;
+import org.redukti.jfotoptix.curve.Curve;
 import org.redukti.jfotoptix.curve.Flat;
+import org.redukti.jfotoptix.curve.Sphere;
 import org.redukti.jfotoptix.light.SpectralLine;
 import org.redukti.jfotoptix.math.Matrix3;
 import org.redukti.jfotoptix.math.Vector3;
@@ -10,10 +12,7 @@ import org.redukti.jfotoptix.math.Vector3Pair;
 import org.redukti.jfotoptix.medium.Abbe;
 import org.redukti.jfotoptix.medium.Air;
 import org.redukti.jfotoptix.medium.GlassMap;
-import org.redukti.jfotoptix.model.Image;
-import org.redukti.jfotoptix.model.Lens;
-import org.redukti.jfotoptix.model.OpticalSystem;
-import org.redukti.jfotoptix.model.PointSource;
+import org.redukti.jfotoptix.model.*;
 import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
 import org.redukti.jfotoptix.patterns.Distribution;
 import org.redukti.jfotoptix.patterns.Pattern;
@@ -98,6 +97,24 @@ public class Prescription {
         this.surfaces = surfaceList.toArray(new SurfaceType[surfaceList.size()]);
         return this;
     }
+
+    /**
+     * An independent copy of this prescription, e.g. for an optimizer
+     * worker to vary without disturbing the original; a built
+     * prescription is returned built.
+     */
+    public Prescription copy() {
+        Prescription p = new Prescription(focalLength, fno, angleOfViewDegrees, diameterImageCircle, d_line);
+        for (SurfaceType s : surfaceList)
+            p.surfaceList.add(s.copy());
+        if (surfaces != null)
+            p.build();
+        p.distribution = new Distribution(distribution.get_pattern(), distribution.get_radial_density(), distribution.get_scaling());
+        if (distribution.get_user_defined_points() != null)
+            p.distribution.set_user_defined_points(new ArrayList<>(distribution.get_user_defined_points()));
+        p.varAoV = varAoV;
+        return p;
+    }
     public OpticalSystem.Builder buildSystem(boolean addPointSource, double field) {
         OpticalSystem.Builder sys = new OpticalSystem.Builder();
         if (addPointSource) {
@@ -136,13 +153,48 @@ public class Prescription {
         sys.f_number(this.fno);
         return sys;
     }
+
+    /**
+     * Updates a system built by buildSystem() in place after surface radii,
+     * thicknesses or asphere terms have changed, e.g. by optimizer Vars:
+     * only curves that differ from the prescription are replaced, and only
+     * elements whose position differs are moved. Diameters, glasses and the
+     * point source are left alone; rebuild the system if those change.
+     */
+    public void updateSystem(OpticalSystem system) {
+        Lens lens = null;
+        Image image = null;
+        for (Element e : system.elements()) {
+            if (e instanceof Lens)
+                lens = (Lens) e;
+            else if (e instanceof Image)
+                image = (Image) e;
+        }
+        if (lens == null || image == null || lens.elements().size() != surfaces.length)
+            throw new IllegalArgumentException("System was not built from this prescription");
+        double pos = 0.0;  // summed as Lens.Builder does
+        for (int i = 0; i < surfaces.length; i++) {
+            var s = surfaces[i];
+            var surface = lens.getSurface(i);
+            if (surface.local_position().z() != pos)
+                system.update_local_position(surface, new Vector3(0, 0, pos));
+            if (surface.get_thickness() != s.thickness)
+                system.update_thickness(surface, s.thickness);
+            if (!s.isStop && !isSameCurve(surface.get_curve(), s))
+                system.update_curve(surface, getCurve(s));
+            pos += s.thickness;
+        }
+        if (image.local_position().z() != pos)
+            system.update_local_position(image, new Vector3(0, 0, pos));
+    }
+
     private static double add_surface(Lens.Builder lens, SurfaceType s) {
         double apertureRadius = s.diameter / 2.0;
         if (s.isStop) {
             lens.add_stop(apertureRadius, s.thickness, true);
             return s.thickness;
         }
-        if (s.k != 0 || (s.coeffs != null && s.coeffs.length > 0)) {
+        if (isAsphere(s)) {
             var curve = getAsphere(s);
             var shape = new Disk(apertureRadius);
             if (s.nd != 0.0) {
@@ -172,18 +224,44 @@ public class Prescription {
         return s.thickness;
     }
 
+    private static boolean isAsphere(SurfaceType s) {
+        return s.k != 0 || (s.coeffs != null && s.coeffs.length > 0);
+    }
+
+    private static double coeff(SurfaceType s, int i) {
+        return s.coeffs != null && s.coeffs.length > i ? s.coeffs[i] : 0.0;
+    }
+
     private static Asphere getAsphere(SurfaceType s) {
         double k = s.k + 1.0;
-        double a4 = s.coeffs.length > 0 ? s.coeffs[0] : 0.0;
-        double a6 = s.coeffs.length > 1 ? s.coeffs[1] : 0.0;
-        double a8 = s.coeffs.length > 2 ? s.coeffs[2] : 0.0;
-        double a10 = s.coeffs.length > 3 ? s.coeffs[3] : 0.0;
-        double a12 = s.coeffs.length > 4 ? s.coeffs[4] : 0.0;
-        double a14 = s.coeffs.length > 5 ? s.coeffs[5] : 0.0;
-        double a16 = s.coeffs.length > 6 ? s.coeffs[6] : 0.0;
-        double a18 = s.coeffs.length > 7 ? s.coeffs[7] : 0.0;
-        double a20 = s.coeffs.length > 8 ? s.coeffs[8] : 0.0;
-        return new Asphere(s.radius, k, a4, a6, a8, a10, a12, a14, a16, a18, a20);
+        return new Asphere(s.radius, k, coeff(s, 0), coeff(s, 1), coeff(s, 2), coeff(s, 3),
+                coeff(s, 4), coeff(s, 5), coeff(s, 6), coeff(s, 7), coeff(s, 8));
+    }
+
+    /**
+     * The curve as add_surface() and Lens.Builder make it
+     */
+    private static Curve getCurve(SurfaceType s) {
+        if (isAsphere(s))
+            return getAsphere(s);
+        return s.radius == 0. ? Flat.flat : new Sphere(s.radius);
+    }
+
+    private static boolean isSameCurve(Curve curve, SurfaceType s) {
+        if (isAsphere(s)) {
+            if (!(curve instanceof Asphere))
+                return false;
+            Asphere a = (Asphere) curve;
+            return a.get_roc() == s.radius && a.get_k() == s.k + 1.0
+                    && a.get_A4() == coeff(s, 0) && a.get_A6() == coeff(s, 1)
+                    && a.get_A8() == coeff(s, 2) && a.get_A10() == coeff(s, 3)
+                    && a.get_A12() == coeff(s, 4) && a.get_A14() == coeff(s, 5)
+                    && a.get_A16() == coeff(s, 6) && a.get_A18() == coeff(s, 7)
+                    && a.get_A20() == coeff(s, 8);
+        }
+        if (s.radius == 0.)
+            return curve instanceof Flat;
+        return curve instanceof Sphere && ((Sphere) curve).get_roc() == s.radius;
     }
 
     public StringBuilder toOptBenchStr(StringBuilder sb) {
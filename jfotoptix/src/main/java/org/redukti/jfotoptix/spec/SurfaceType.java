@@ -24,6 +24,13 @@ public class SurfaceType {
         this.glassName = glassName;
     }
 
+    public SurfaceType copy() {
+        SurfaceType s = new SurfaceType(id, isStop, radius, thickness, diameter, nd, vd, glassName);
+        s.k = k;
+        s.coeffs = coeffs != null ? coeffs.clone() : null;
+        return s;
+    }
+
     public StringBuilder toOptBenchStr(StringBuilder sb) {
         sb.append(id).append("\t");
         if (isStop)
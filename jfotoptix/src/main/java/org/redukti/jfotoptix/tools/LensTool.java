@@ -19,6 +19,7 @@ import org.redukti.jfotoptix.tracing.RayTraceResults;
 import org.redukti.jfotoptix.tracing.RayTracer;
 
 import java.nio.file.Path;
+import java.util.List;
 
 public class LensTool {
 
@@ -86,8 +87,11 @@ public class LensTool {
     }
 
     public static AnalysisSpot outputSpotAnalysis(OpticalSystem system, Path output_file, int spot_density) throws Exception {
+        return outputSpotAnalysis(new AnalysisSpot(system, spot_density), output_file);
+    }
+
+    public static AnalysisSpot outputSpotAnalysis(AnalysisSpot spot, Path output_file) throws Exception {
         RendererSvg renderer = new RendererSvg(300, 300, Rgb.rgb_black);
-        AnalysisSpot spot = new AnalysisSpot(system, spot_density);
         spot.draw_diagram(renderer, true);
         if (output_file != null) {
             Helper.createOutputFile(output_file, renderer.write(new StringBuilder()).toString());
@@ -126,10 +130,18 @@ public class LensTool {
             outputLayoutWithRays(system,Helper.getOutputPath(arguments.specfile,"layout.svg",arguments.outdir),arguments.trace_density,arguments.dumpSystem,arguments.include_lost_rays);
             outputLayoutWithRays(semiSkewedSystem,Helper.getOutputPath(arguments.specfile,"layout-semi-skew.svg",arguments.outdir),arguments.trace_density,arguments.dumpSystem,arguments.include_lost_rays);
             outputLayoutWithRays(skewedSystem,Helper.getOutputPath(arguments.specfile,"layout-skew.svg",arguments.outdir),arguments.trace_density,arguments.dumpSystem,arguments.include_lost_rays);
+            int nthreads = Runtime.getRuntime().availableProcessors();
+            List<AnalysisSpot> spots = List.of(new AnalysisSpot(system, arguments.spot_density),
+                    new AnalysisSpot(semiSkewedSystem, arguments.spot_density),
+                    new AnalysisSpot(skewedSystem, arguments.spot_density));
+            AnalysisSpot.process_analyses(spots, nthreads);
             StringBuilder spotReport = new StringBuilder();
-            spotReport.append(outputSpotAnalysis(system,Helper.getOutputPath(arguments.specfile,"spot.svg",arguments.outdir),arguments.spot_density)).append("\n");
-            spotReport.append(outputSpotAnalysis(semiSkewedSystem,Helper.getOutputPath(arguments.specfile,"spot-semi-skew.svg",arguments.outdir),arguments.spot_density)).append("\n");
-            spotReport.append(outputSpotAnalysis(skewedSystem,Helper.getOutputPath(arguments.specfile,"spot-skew.svg",arguments.outdir),arguments.spot_density)).append("\n");
+            spotReport.append(outputSpotAnalysis(spots.get(0),Helper.getOutputPath(arguments.specfile,"spot.svg",arguments.outdir))).append("\n");
+            spotReport.append(outputSpotAnalysis(spots.get(1),Helper.getOutputPath(arguments.specfile,"spot-semi-skew.svg",arguments.outdir))).append("\n");
+            spotReport.append(outputSpotAnalysis(spots.get(2),Helper.getOutputPath(arguments.specfile,"spot-skew.svg",arguments.outdir))).append("\n");
+            for (AnalysisSpot.FieldSpot spot : AnalysisSpot.process_fields(
+                    List.of(system, semiSkewedSystem, skewedSystem), arguments.spot_density, nthreads))
+                spotReport.append(spot).append("\n");
             Helper.createOutputFile(Helper.getOutputPath(arguments.specfile,"spot-report.txt",arguments.outdir), spotReport.toString());
             ZemaxExporter zemaxExporter = new ZemaxExporter();
             Helper.createOutputFile(Helper.getOutputPathChangeExt(arguments.specfile, ".zmx"), zemaxExporter.generate(specs, arguments.scenario, arguments.only_d_line));
@@ -0,0 +1,58 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.redukti.jfotoptix.model.OpticalSurface;
+
+import java.util.Arrays;
+
+/**
+ * Refractive index ratios across optical surfaces, resolved once per trace.
+ * <p>
+ * Entries are indexed by surface id, then by wavelength and direction of
+ * travel, and filled the first time a ray of that wavelength crosses the
+ * surface in that direction; every later ray reuses the stored ratio.
+ * A new table is created for each trace, so media or temperature changes
+ * made between traces are picked up. Not thread safe.
+ */
+final class IndexRatioTable {
+
+    private double[] wavelengths = new double[4];
+    private int num_wavelengths;
+    private double[][] ratios = new double[0][];  // [surface id][2*w + direction]
+
+    /**
+     * Ratio of the refractive index of the medium the ray leaves over
+     * the medium it enters, as computed by prev / next index.
+     */
+    double get(OpticalSurface surface, boolean right_to_left, double wavelen) {
+        int w = wavelength_index(wavelen);
+        int id = surface.id();
+        if (id >= ratios.length)
+            ratios = Arrays.copyOf(ratios, Math.max(id + 1, 2 * ratios.length));
+        double[] row = ratios[id];
+        if (row == null || row.length < 2 * num_wavelengths) {
+            int old = row == null ? 0 : row.length;
+            row = row == null ? new double[2 * wavelengths.length] : Arrays.copyOf(row, 2 * wavelengths.length);
+            Arrays.fill(row, old, row.length, Double.NaN);
+            ratios[id] = row;
+        }
+        int k = 2 * w + (right_to_left ? 1 : 0);
+        double ratio = row[k];
+        if (Double.isNaN(ratio)) {
+            ratio = surface.get_material(right_to_left ? 1 : 0).get_refractive_index(wavelen)
+                    / surface.get_material(right_to_left ? 0 : 1).get_refractive_index(wavelen);
+            row[k] = ratio;
+        }
+        return ratio;
+    }
+
+    private int wavelength_index(double wavelen) {
+        for (int w = 0; w < num_wavelengths; w++) {
+            if (wavelengths[w] == wavelen)
+                return w;
+        }
+        if (num_wavelengths == wavelengths.length)
+            wavelengths = Arrays.copyOf(wavelengths, 2 * wavelengths.length);
+        wavelengths[num_wavelengths] = wavelen;
+        return num_wavelengths++;
+    }
+}
@@ -0,0 +1,168 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.redukti.jfotoptix.math.Vector3;
+import org.redukti.jfotoptix.math.Vector3Pair;
+
+import java.util.Arrays;
+
+/**
+ * Ray intercepts on one surface, stored column by column in primitive
+ * arrays: the intercept point and incident direction in surface local
+ * coordinates, the ray intensity and the position of its wavelength in
+ * RayTraceResults.get_wavelengths().
+ * <p>
+ * A ray is marked lost when it reached the surface but did not leave it,
+ * i.e. it was blocked by a stop or absorbed. The reductions only take the
+ * rays that were not lost, which on an image are all of them.
+ */
+public class InterceptColumns {
+
+    int count;
+    int lost_count;
+    double[] x, y, z;
+    double[] dx, dy, dz;
+    double[] intensity;
+    int[] wavelength;
+    long[] lost;
+
+    InterceptColumns() {
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        dx = new double[capacity];
+        dy = new double[capacity];
+        dz = new double[capacity];
+        intensity = new double[capacity];
+        wavelength = new int[capacity];
+        lost = new long[(capacity + 63) >>> 6];
+    }
+
+    private void grow() {
+        int capacity = 2 * x.length;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        dz = Arrays.copyOf(dz, capacity);
+        intensity = Arrays.copyOf(intensity, capacity);
+        wavelength = Arrays.copyOf(wavelength, capacity);
+        lost = Arrays.copyOf(lost, (capacity + 63) >>> 6);
+    }
+
+    void add(Vector3 point, Vector3 direction, double ray_intensity, int wavelength_index, boolean is_lost) {
+        if (count == x.length)
+            grow();
+        int i = count++;
+        x[i] = point.x();
+        y[i] = point.y();
+        z[i] = point.z();
+        dx[i] = direction.x();
+        dy[i] = direction.y();
+        dz[i] = direction.z();
+        intensity[i] = ray_intensity;
+        wavelength[i] = wavelength_index;
+        if (is_lost) {
+            lost[i >>> 6] |= 1L << i;
+            lost_count++;
+        }
+    }
+
+    /** Number of rays that reached the surface, lost ones included */
+    public int get_count() {
+        return count;
+    }
+
+    public int get_lost_count() {
+        return lost_count;
+    }
+
+    public boolean is_lost(int i) {
+        return (lost[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public double get_x(int i) {
+        return x[i];
+    }
+
+    public double get_y(int i) {
+        return y[i];
+    }
+
+    public double get_z(int i) {
+        return z[i];
+    }
+
+    public Vector3 get_point(int i) {
+        return new Vector3(x[i], y[i], z[i]);
+    }
+
+    public Vector3 get_direction(int i) {
+        return new Vector3(dx[i], dy[i], dz[i]);
+    }
+
+    public double get_intensity(int i) {
+        return intensity[i];
+    }
+
+    public int get_wavelength_index(int i) {
+        return wavelength[i];
+    }
+
+    private void check_not_empty() {
+        if (count == lost_count)
+            throw new IllegalArgumentException("No ray intercepts found on the surface");
+    }
+
+    /** Mean intercept point */
+    public Vector3 get_centroid() {
+        check_not_empty();
+        double sx = 0, sy = 0, sz = 0;
+        for (int i = 0; i < count; i++) {
+            if (is_lost(i))
+                continue;
+            sx += x[i];
+            sy += y[i];
+            sz += z[i];
+        }
+        int n = count - lost_count;
+        return new Vector3(sx / n, sy / n, sz / n);
+    }
+
+    /** Root mean square distance of the intercepts from the centroid in the xy plane */
+    public double get_rms_radius() {
+        Vector3 c = get_centroid();
+        double cx = c.x(), cy = c.y();
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            if (is_lost(i))
+                continue;
+            double ex = x[i] - cx;
+            double ey = y[i] - cy;
+            sum += ex * ex + ey * ey;
+        }
+        return Math.sqrt(sum / (count - lost_count));
+    }
+
+    /** Bounding box of the intercepts, lowest corner first */
+    public Vector3Pair get_window() {
+        check_not_empty();
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY, z0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY, z1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            if (is_lost(i))
+                continue;
+            x0 = Math.min(x0, x[i]);
+            x1 = Math.max(x1, x[i]);
+            y0 = Math.min(y0, y[i]);
+            y1 = Math.max(y1, y[i]);
+            z0 = Math.min(z0, z[i]);
+            z1 = Math.max(z1, z[i]);
+        }
+        return new Vector3Pair(new Vector3(x0, y0, z0), new Vector3(x1, y1, z1));
+    }
+}
@@ -0,0 +1,531 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.redukti.jfotoptix.light.LightRay;
+import org.redukti.jfotoptix.math.Vector3Pair;
+
+import java.util.List;
+
+/**
+ * Sequential ray tracer working on a TracePlan with primitive arrays only.
+ * <p>
+ * Rays are loaded once into fixed size buffers and traced from the source
+ * up to the image without creating any objects, so a tracer can be reused
+ * for many batches of rays. The arithmetic is that of RayTracer in
+ * sequential mode, done in the same order, so that the image intercepts
+ * match those of SequentialRayTracer. Only the last intercept of each ray
+ * is kept, in the coordinates of the element where the ray ended.
+ * <p>
+ * Not thread safe: use one tracer per thread; the plan may be shared.
+ */
+public class PrimitiveRayTracer {
+
+    public static final int RAY_OK = 0;            // reached the image, or left the last surface
+    public static final int RAY_MISSED = 1;        // no intersection with a curve
+    public static final int RAY_CLIPPED = 2;       // outside a surface shape or a stop external radius
+    public static final int RAY_STOPPED = 3;       // blocked by a stop
+    public static final int RAY_ABSORBED = 4;      // entered an opaque medium
+    public static final int RAY_WRONG_MEDIUM = 5;  // arrived at a surface from an unexpected medium
+
+    final TracePlan plan;
+    final int capacity;
+    int count;
+
+    // ray starts, in the source coordinates
+    final double[] ox, oy, oz;
+    final double[] dx, dy, dz;
+    final int[] wavelen;        // wavelength index in the plan
+
+    // results
+    final int[] status;
+    final int[] last;           // last element intercepted, -1 for none
+    final double[] x, y, z;     // intercept on the last element, local coordinates
+
+    // intersection scratch
+    private double px, py, pz;
+    private double nx, ny, nz;
+
+    public PrimitiveRayTracer(TracePlan plan, int capacity) {
+        this.plan = plan;
+        this.capacity = capacity;
+        ox = new double[capacity];
+        oy = new double[capacity];
+        oz = new double[capacity];
+        dx = new double[capacity];
+        dy = new double[capacity];
+        dz = new double[capacity];
+        wavelen = new int[capacity];
+        status = new int[capacity];
+        last = new int[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+    }
+
+    public int get_capacity() {
+        return capacity;
+    }
+
+    public int get_count() {
+        return count;
+    }
+
+    public void set_count(int count) {
+        if (count < 0 || count > capacity)
+            throw new IllegalArgumentException("Ray count out of range: " + count);
+        this.count = count;
+    }
+
+    /**
+     * Sets ray i, given in the source coordinates, with the position
+     * of its wavelength in the plan. Does not change the ray count.
+     */
+    public void set_ray(int i, double ox, double oy, double oz,
+                        double dx, double dy, double dz, int wavelen) {
+        if (wavelen < 0 || wavelen >= plan.get_num_wavelengths())
+            throw new IllegalArgumentException("Wavelength index out of range: " + wavelen);
+        this.ox[i] = ox;
+        this.oy[i] = oy;
+        this.oz[i] = oz;
+        this.dx[i] = dx;
+        this.dy[i] = dy;
+        this.dz[i] = dz;
+        this.wavelen[i] = wavelen;
+    }
+
+    /**
+     * Loads rays, e.g. as made by RayGenerator for the plan's source,
+     * replacing any previous ones. The wavelengths must be in the plan.
+     */
+    public void set_rays(List<? extends LightRay> rays) {
+        if (rays.size() > capacity)
+            throw new IllegalArgumentException("Too many rays for tracer capacity " + capacity);
+        for (int i = 0; i < rays.size(); i++) {
+            LightRay r = rays.get(i);
+            int w = plan.wavelength_index(r.get_wavelen());
+            if (w < 0)
+                throw new IllegalArgumentException("Wavelength not in trace plan: " + r.get_wavelen());
+            Vector3Pair v = r.get_ray();
+            set_ray(i, v.origin().x(), v.origin().y(), v.origin().z(),
+                    v.direction().x(), v.direction().y(), v.direction().z(), w);
+        }
+        count = rays.size();
+    }
+
+    public int get_status(int i) {
+        return status[i];
+    }
+
+    public boolean is_ok(int i) {
+        return status[i] == RAY_OK;
+    }
+
+    public int get_last_element(int i) {
+        return last[i];
+    }
+
+    public double get_x(int i) {
+        return x[i];
+    }
+
+    public double get_y(int i) {
+        return y[i];
+    }
+
+    public double get_z(int i) {
+        return z[i];
+    }
+
+    /**
+     * Traces the loaded rays, returns the number with status RAY_OK.
+     * Ray starts are left intact so the rays may be traced again.
+     */
+    public int trace() {
+        int nok = 0;
+        for (int i = 0; i < count; i++) {
+            if (trace_ray(i))
+                nok++;
+        }
+        return nok;
+    }
+
+    private boolean trace_ray(int i) {
+        final TracePlan p = plan;
+        final int nw = p.get_num_wavelengths();
+        final int w = wavelen[i];
+        double rox = ox[i], roy = oy[i], roz = oz[i];
+        double rdx = dx[i], rdy = dy[i], rdz = dz[i];
+        int medium = p.source_medium;
+        last[i] = -1;
+
+        for (int e = 0; e < p.num_elements; e++) {
+            // ray in element coordinates, as Transform3.transform_line()
+            double lox, loy, loz, ldx, ldy, ldz;
+            int t = 3 * e;
+            if (p.use_rotation[e]) {
+                int r = 9 * e;
+                double[] m = p.rotation;
+                lox = (0.0 + m[r] * rox + m[r + 1] * roy + m[r + 2] * roz) + p.translation[t];
+                loy = (0.0 + m[r + 3] * rox + m[r + 4] * roy + m[r + 5] * roz) + p.translation[t + 1];
+                loz = (0.0 + m[r + 6] * rox + m[r + 7] * roy + m[r + 8] * roz) + p.translation[t + 2];
+                ldx = 0.0 + m[r] * rdx + m[r + 1] * rdy + m[r + 2] * rdz;
+                ldy = 0.0 + m[r + 3] * rdx + m[r + 4] * rdy + m[r + 5] * rdz;
+                ldz = 0.0 + m[r + 6] * rdx + m[r + 7] * rdy + m[r + 8] * rdz;
+            } else {
+                lox = rox + p.translation[t];
+                loy = roy + p.translation[t + 1];
+                loz = roz + p.translation[t + 2];
+                ldx = rdx;
+                ldy = rdy;
+                ldz = rdz;
+            }
+
+            if (!intersect(e, lox, loy, loz, ldx, ldy, ldz)) {
+                status[i] = RAY_MISSED;
+                return false;
+            }
+
+            if (p.kind[e] == TracePlan.STOP) {
+                if (Math.sqrt(0.0 + px * px + py * py) > p.external_radius[e]) {   // as RayTracer.intersect_with_stop()
+                    status[i] = RAY_CLIPPED;
+                    return false;
+                }
+                record(i, e);
+                if (!inside(e, px, py)) {
+                    status[i] = RAY_STOPPED;
+                    return false;
+                }
+                // the ray leaves the stop with its incident direction
+                rox = px;
+                roy = py;
+                roz = pz;
+                continue;
+            }
+
+            if (!p.unobstructed && !inside(e, px, py)) {
+                status[i] = RAY_CLIPPED;
+                return false;
+            }
+            if (!normal(e)) {
+                status[i] = RAY_MISSED;
+                return false;
+            }
+            if (ldz < 0) {
+                nx = -nx;
+                ny = -ny;
+                nz = -nz;
+            }
+            record(i, e);
+            if (p.kind[e] == TracePlan.IMAGE)
+                break;
+
+            // trace across the surface, as RayTracer.trace_across_surface()
+            boolean right_to_left = nz > 0;
+            int prev = right_to_left ? p.right_medium[e] : p.left_medium[e];
+            int next = right_to_left ? p.left_medium[e] : p.right_medium[e];
+            if (prev != medium) {
+                status[i] = RAY_WRONG_MEDIUM;
+                return false;
+            }
+            if (next < 0) {
+                status[i] = RAY_ABSORBED;
+                return false;
+            }
+            double mu = p.index[nw * prev + w] / p.index[nw * next + w];
+            double cosi = 0.0 + nx * ldx + ny * ldy + nz * ldz;
+            boolean reflect = mu * mu * (1.0 - cosi * cosi) > 1.0;
+            double tdx = 0, tdy = 0, tdz = 0;
+            if (!reflect) {
+                // Feder refraction, as RayTracer.compute_refraction()
+                double Nx = nx * -1.0, Ny = ny * -1.0, Nz = nz * -1.0;
+                double O2 = 0.0 + Nx * Nx + Ny * Ny + Nz * Nz;
+                double E1 = 0.0 + ldx * Nx + ldy * Ny + ldz * Nz;
+                double E1_ = Math.sqrt(O2 * (1.0 - mu * mu) + mu * mu * E1 * E1);
+                if (Double.isNaN(E1_)) {
+                    reflect = true;
+                } else {
+                    double g1 = (E1_ - mu * E1) / O2;
+                    tdx = ldx * mu + Nx * g1;
+                    tdy = ldy * mu + Ny * g1;
+                    tdz = ldz * mu + Nz * g1;
+                }
+            }
+            if (!reflect && !p.opaque[next]) {
+                rdx = tdx;
+                rdy = tdy;
+                rdz = tdz;
+                medium = next;
+            } else if (reflect || p.reflecting[next]) {
+                double c2 = 2.0 * cosi;
+                rdx = ldx - nx * c2;
+                rdy = ldy - ny * c2;
+                rdz = ldz - nz * c2;
+            } else {
+                status[i] = RAY_ABSORBED;
+                return false;
+            }
+            rox = px;
+            roy = py;
+            roz = pz;
+        }
+        status[i] = RAY_OK;
+        return true;
+    }
+
+    private void record(int i, int e) {
+        last[i] = e;
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+    }
+
+    private boolean inside(int e, double x, double y) {
+        final TracePlan p = plan;
+        switch (p.shape_kind[e]) {
+            case TracePlan.ROUND: {
+                double ys = y * p.shape_y[e];
+                return x * x + ys * ys <= p.shape_x[e] * p.shape_x[e];
+            }
+            case TracePlan.RECTANGLE:
+                return Math.abs(x) <= p.shape_x[e] && Math.abs(y) <= p.shape_y[e];
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Intersects the local ray with the curve of element e,
+     * leaving the point in px, py, pz.
+     */
+    private boolean intersect(int e, double ax, double ay, double az,
+                              double bx, double by, double bz) {
+        switch (plan.curve_kind[e]) {
+            case TracePlan.FLAT:
+                return intersect_flat(ax, ay, az, bx, by, bz);
+            case TracePlan.SPHERE:
+                return intersect_sphere(plan.roc[e], ax, ay, az, bx, by, bz);
+            case TracePlan.CONIC:
+                return intersect_conic(plan.roc[e], plan.sh[e], ax, ay, az, bx, by, bz);
+            default:
+                return intersect_asphere(TracePlan.NCOEFF * e, ax, ay, az, bx, by, bz);
+        }
+    }
+
+    private boolean intersect_flat(double ax, double ay, double az,
+                                   double bx, double by, double bz) {
+        if (bz == 0)
+            return false;
+        double a = -az / bz;
+        if (a < 0)
+            return false;
+        px = ax + bx * a;
+        py = ay + by * a;
+        pz = az + bz * a;
+        return true;
+    }
+
+    private boolean intersect_sphere(double roc, double ax, double ay, double az,
+                                     double bx, double by, double bz) {
+        double d = az - roc;
+        double ay_by = ay * by;
+        double ax_bx = ax * bx;
+        double s = +(roc * roc)
+                + 2.0 * (ax_bx + ay_by) * bz * d + 2.0 * ax_bx * ay_by
+                - (ay * bx) * (ay * bx) - (ax * by) * (ax * by)
+                - (bx * bx + by * by) * (d * d)
+                - (ax * ax + ay * ay) * (bz * bz);
+        if (s < 0)
+            return false;
+        s = Math.sqrt(s);
+        if (roc * bz > 0)
+            s = -s;
+        double t = (s - (bz * d + ax_bx + ay_by));
+        if (t <= 0)
+            return false;
+        px = ax + bx * t;
+        py = ay + by * t;
+        pz = az + bz * t;
+        return true;
+    }
+
+    private boolean intersect_conic(double roc, double sh, double ax, double ay, double az,
+                                    double bx, double by, double bz) {
+        double a = (sh * (bz * bz) + (by * by) + (bx * bx));
+        double b = ((sh * bz * az + by * ay + bx * ax) / roc - bz) * 2.0;
+        double c = (sh * (az * az) + (ay * ay) + (ax * ax)) / roc - 2.0 * az;
+        double t;
+        if (a == 0) {
+            t = -c / b;
+        } else {
+            double d = (b * b) - 4.0 * a * c / roc;
+            if (d < 0)
+                return false;
+            double s = Math.sqrt(d);
+            if (a * bz < 0)
+                s = -s;
+            if (sh < 0)
+                s = -s;
+            t = (2 * c) / (s - b);
+        }
+        if (t <= 0)
+            return false;
+        px = ax + bx * t;
+        py = ay + by * t;
+        pz = az + bz * t;
+        return true;
+    }
+
+    /**
+     * Feder's iteration, as Asphere.compute_intersection()
+     * with the vertex separation t = 0.
+     */
+    private boolean intersect_asphere(int k, double ax, double ay, double az,
+                                      double bx, double by, double bz) {
+        final double[] cf = plan.coeff;
+        final double c = cf[k], kappa = cf[k + 1];
+        final double t = 0;
+        double e = (t * az) - (0.0 + ax * bx + ay * by + az * bz);
+        double M_1x = az + e * bz - t;
+        double M_1_2 = (0.0 + ax * ax + ay * ay + az * az) - (e * e) + (t * t) - (2.0 * t * az);
+        double r_1_2 = 1. / (c * c);
+        if (M_1_2 > r_1_2)
+            M_1_2 = r_1_2;
+        double xi_1 = Math.sqrt((bz * bz) - c * (c * M_1_2 - 2.0 * M_1x));
+        if (Double.isNaN(xi_1))
+            return false;
+        double L = e + (c * M_1_2 - 2.0 * M_1x) / (bz + xi_1);
+        if (Double.isNaN(L))
+            return false;
+        double rx = ax + bx * L, ry = ay + by * L, rz = (az + bz * L) - t;
+        double Nz = 0.0;
+
+        final int TOLMAX = 10;
+        double tolerance = 1e-15;
+        int j = 0;
+        double delta;
+        do {
+            double s_2 = ry * ry + rx * rx;
+            double temp = Math.sqrt(1.0 - c * c * s_2 * kappa);
+            if (Double.isNaN(temp) || (1.0 + temp) == 0.0)
+                return false;
+            double x_bar_0 = (c * s_2) / (1.0 + temp) + deform_sagitta(k, s_2);
+            if (Double.isNaN(x_bar_0))
+                return false;
+            delta = Math.abs(rz - x_bar_0);
+            double z1 = temp;
+            temp = c + Nz * deform_dz_dxy(k, s_2);
+            double y1 = -ry * temp;
+            double x1 = -rx * temp;
+            Nz = z1;
+            double G_0 = Nz * (x_bar_0 - rz) / (0.0 + bx * x1 + by * y1 + bz * z1);
+            rx = rx + bx * G_0;
+            ry = ry + by * G_0;
+            rz = rz + bz * G_0;
+        }
+        while ((delta > tolerance) && (++j < TOLMAX));
+        if (j >= TOLMAX)
+            return false;
+        px = rx;
+        py = ry;
+        pz = rz;
+        return true;
+    }
+
+    private double deform_sagitta(int k, double s2) {
+        final double[] cf = plan.coeff;
+        double s4 = s2 * s2;
+        double s6 = s4 * s2;
+        double s8 = s6 * s2;
+        double s10 = s8 * s2;
+        double s12 = s10 * s2;
+        double s14 = s12 * s2;
+        double s16 = s14 * s2;
+        double s18 = s16 * s2;
+        double s20 = s18 * s2;
+        return cf[k + 2] * s4 + cf[k + 3] * s6 + cf[k + 4] * s8 + cf[k + 5] * s10
+                + cf[k + 6] * s12 + cf[k + 7] * s14 + cf[k + 8] * s16
+                + cf[k + 9] * s18 + cf[k + 10] * s20;
+    }
+
+    private double deform_dz_dxy(int k, double s2) {
+        final double[] cf = plan.coeff;
+        double s4 = s2 * s2;
+        double s6 = s4 * s2;
+        double s8 = s6 * s2;
+        double s10 = s8 * s2;
+        double s12 = s10 * s2;
+        double s14 = s12 * s2;
+        double s16 = s14 * s2;
+        double s18 = s16 * s2;
+        return 4 * cf[k + 2] * s2 + 6 * cf[k + 3] * s4 + 8 * cf[k + 4] * s6
+                + 10 * cf[k + 5] * s8 + 12 * cf[k + 6] * s10 + 14 * cf[k + 7] * s12
+                + 16 * cf[k + 8] * s14 + 18 * cf[k + 9] * s16 + 20 * cf[k + 10] * s18;
+    }
+
+    /**
+     * Curve normal at px, py, pz into nx, ny, nz,
+     * false where the curve has none.
+     */
+    private boolean normal(int e) {
+        switch (plan.curve_kind[e]) {
+            case TracePlan.FLAT:
+                nx = 0;
+                ny = 0;
+                nz = -1;
+                return true;
+            case TracePlan.SPHERE: {
+                double roc = plan.roc[e];
+                set_normalized(px, py, pz - roc);
+                if (roc < 0) {
+                    nx = -nx;
+                    ny = -ny;
+                    nz = -nz;
+                }
+                return true;
+            }
+            case TracePlan.CONIC: {
+                double r = Math.sqrt((px * px) + (py * py));
+                if (r == 0) {
+                    nx = 0;
+                    ny = 0;
+                    nz = -1;
+                    return true;
+                }
+                double roc = plan.roc[e], sh = plan.sh[e];
+                double s2 = sh * (r * r);
+                double s3 = Math.sqrt(1 - s2 / (roc * roc));
+                double s4 = 2.0 / (roc * (s3 + 1))
+                        + s2 / ((roc * roc) * roc * s3 * ((s3 + 1) * (s3 + 1)));
+                double d = r * s4;
+                set_normalized(px * d / r, py * d / r, -1.0);
+                return true;
+            }
+            default: {
+                int k = TracePlan.NCOEFF * e;
+                double c = plan.coeff[k], kappa = plan.coeff[k + 1];
+                double s_2 = py * py + px * px;
+                double temp = Math.sqrt(1.0 - c * c * s_2 * kappa);
+                if (temp == 0.0) {
+                    nx = 0.0 * -1.0;
+                    ny = 0.0 * -1.0;
+                    nz = 1.0 * -1.0;
+                    return true;
+                }
+                if (Double.isNaN(temp))
+                    return false;
+                double E = c / temp + deform_dz_dxy(k, s_2);
+                set_normalized(-px * E, -py * E, 1.0);
+                nx = nx * -1.0;
+                ny = ny * -1.0;
+                nz = nz * -1.0;
+                return true;
+            }
+        }
+    }
+
+    private void set_normalized(double x, double y, double z) {
+        double len = Math.sqrt(0.0 + x * x + y * y + z * z);
+        nx = x / len;
+        ny = y / len;
+        nz = z / len;
+    }
+}
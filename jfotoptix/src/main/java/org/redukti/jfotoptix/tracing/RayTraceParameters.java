@@ -31,10 +31,13 @@ import org.redukti.jfotoptix.patterns.Pattern;
 import org.redukti.jfotoptix.model.Element;
 import org.redukti.jfotoptix.model.OpticalSurface;
 import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.model.Surface;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class RayTraceParameters {
 
@@ -58,6 +61,7 @@ public class RayTraceParameters {
     PropagationMode _propagation_mode;
     boolean _unobstructed;
     double _lost_ray_length;
+    Set<Integer> _compact_surfaces; // ids of surfaces recorded in compact mode, null otherwise
 
     public RayTraceParameters(OpticalSystem system) {
         _sequential_mode = true;
@@ -98,6 +102,21 @@ public class RayTraceParameters {
         return sb;
     }
 
+    /**
+     * Switches the trace to compact results: intercepts are recorded only
+     * on the given surfaces, into InterceptColumns, and neither the lists
+     * of TracedRay per element nor the graph linking them are kept.
+     */
+    public void set_compact_results(Surface... surfaces) {
+        _compact_surfaces = new HashSet<>();
+        for (Surface s : surfaces)
+            _compact_surfaces.add(s.id());
+    }
+
+    public boolean get_compact_results() {
+        return _compact_surfaces != null;
+    }
+
     public List<Element> get_sequence() {
         return _sequence;
     }
@@ -34,6 +34,7 @@ import org.redukti.jfotoptix.model.RaySource;
 import org.redukti.jfotoptix.model.Surface;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,9 +52,46 @@ public class RayTraceResults {
     RayTraceParameters _parameters;
     List<RaySource> _sources = new ArrayList<>();
     List<TracedRay> _rays = new ArrayList<>();
+    final IndexRatioTable _index_ratios = new IndexRatioTable();
+    final boolean _compact;
+    Map<Integer, InterceptColumns> columnsByElement = new HashMap<>();
+    double[] _wavelengths = new double[4];
+    int _num_wavelengths;
 
     public RayTraceResults(RayTraceParameters parameters) {
         this._parameters = parameters;
+        this._compact = parameters.get_compact_results();
+    }
+
+    /**
+     * Intercepts recorded on a surface named in
+     * RayTraceParameters.set_compact_results().
+     */
+    public InterceptColumns get_intercept_columns(Element e) {
+        InterceptColumns columns = columnsByElement.get(e.id());
+        if (columns == null) {
+            if (!_compact || !_parameters._compact_surfaces.contains(e.id()))
+                throw new IllegalArgumentException("Intercepts not recorded in columns at element " + e);
+            columns = new InterceptColumns();
+            columnsByElement.put(e.id(), columns);
+        }
+        return columns;
+    }
+
+    /** Wavelengths of the rays recorded in InterceptColumns, by index */
+    public double[] get_wavelengths() {
+        return Arrays.copyOf(_wavelengths, _num_wavelengths);
+    }
+
+    int wavelength_index(double wavelen) {
+        for (int w = 0; w < _num_wavelengths; w++) {
+            if (_wavelengths[w] == wavelen)
+                return w;
+        }
+        if (_num_wavelengths == _wavelengths.length)
+            _wavelengths = Arrays.copyOf(_wavelengths, 2 * _wavelengths.length);
+        _wavelengths[_num_wavelengths] = wavelen;
+        return _num_wavelengths++;
     }
 
     public List<TracedRay> get_generated(Element e) {
@@ -128,6 +166,29 @@ public class RayTraceResults {
         er._intercepted.add(ray);
     }
 
+    /**
+     * Records the ray which reached surface s at the local point, lost if
+     * it went no further; in compact mode into the surface columns, if requested.
+     */
+    void add_intercepted(Surface s, TracedRay ray, Vector3Pair local, Vector3 point, boolean lost) {
+        if (!_compact) {
+            add_intercepted(s, ray);
+        } else if (_parameters._compact_surfaces.contains(s.id())) {
+            get_intercept_columns(s).add(point, local.direction(), ray.get_intensity(),
+                    wavelength_index(ray.get_wavelen()), lost);
+        }
+    }
+
+    void add_generated(Element e, List<TracedRay> rays) {
+        if (!_compact)
+            get_generated(e).addAll(rays);
+    }
+
+    void add_generated(TracedRay parent, TracedRay child) {
+        if (!_compact)
+            parent.add_generated(child);
+    }
+
     public void add_source(RaySource source) {
         _sources.add(source);
     }
@@ -138,7 +199,8 @@ public class RayTraceResults {
 
     public TracedRay newRay(Vector3 origin, Vector3 direction) {
         TracedRay ray = new TracedRay(origin, direction);
-        _rays.add(ray);
+        if (!_compact)
+            _rays.add(ray);
         return ray;
     }
 
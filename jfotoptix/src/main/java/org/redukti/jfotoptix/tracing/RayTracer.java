@@ -63,7 +63,7 @@ public class RayTracer {
             Element element = seq.get(i);
             RayTraceResults.RaysAtElement er = result.get_element_result(element);
 
-            generated = er._generated != null ? er._generated : tmp[swaped].rays;
+            generated = er._generated != null && !result._compact ? er._generated : tmp[swaped].rays;
             generated.clear();
 
             if (element instanceof PointSource) {
@@ -109,8 +109,9 @@ public class RayTracer {
                     intersect_with_stop(stop, params, local) :
                     intersect_with_surface(surface, params, local);
             if (pt != null) {
-                result.add_intercepted(surface, ray);
                 TracedRay cray = trace_ray(surface,  result, ray, local, pt);
+                result.add_intercepted(surface, ray, local, pt.origin(),
+                        cray == null && surface instanceof OpticalSurface);
                 if (cray != null)
                     rays.add(cray);
             }
@@ -145,8 +146,7 @@ public class RayTracer {
         }
 
         double wl = incident.get_wavelen();
-        double index = prev_mat.get_refractive_index(wl)
-                / next_mat.get_refractive_index(wl);
+        double index = result._index_ratios.get(surface, right_to_left, wl);
 
         // refracted ray direction
         Vector3 direction = refract(surface, local, intersect.normal(), index);
@@ -161,7 +161,7 @@ public class RayTracer {
             r.set_material(prev_mat);
 
             r.set_creator(surface);
-            incident.add_generated(r);
+            result.add_generated(incident, r);
 
             return r;
         }
@@ -176,7 +176,7 @@ public class RayTracer {
             r.set_material(next_mat);
 
             r.set_creator(surface);
-            incident.add_generated(r);
+            result.add_generated(incident, r);
             return r;
         }
 
@@ -191,7 +191,7 @@ public class RayTracer {
             r.set_intensity(incident.get_intensity());
             r.set_material(prev_mat);
             r.set_creator(surface);
-            incident.add_generated(r);
+            result.add_generated(incident, r);
             return r;
         }
         return null;
@@ -295,7 +295,7 @@ public class RayTracer {
             r.set_material(incident.get_material());
             r.set_creator(surface);
 
-            incident.add_generated(r);
+            result.add_generated(incident, r);
             return r;
         }
         return null;
@@ -317,9 +317,8 @@ public class RayTracer {
                     if (local.direction().z() < 0)
                         normal = normal.negate();
 
-                    result.add_intercepted(surface, ray);
-
                     TracedRay cray = trace_ray(surface, result, ray, local, new Vector3Pair(origin, normal));
+                    result.add_intercepted(surface, ray, local, origin, cray == null);
                     if (cray != null)
                         rays.add(cray);
                 }
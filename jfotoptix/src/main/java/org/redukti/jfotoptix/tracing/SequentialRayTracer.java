@@ -21,7 +21,7 @@ public class SequentialRayTracer extends RayTracer {
         seq = seq.stream().filter(e -> !(e instanceof RaySource)).collect(Collectors.toList());
         for (Element e: seq) {
             rays = process_rays(e, result, rays);
-            result.get_generated(e).addAll(rays); // Record rays generated
+            result.add_generated(e, rays); // Record rays generated
         }
         return result;
     }
@@ -49,7 +49,7 @@ public class SequentialRayTracer extends RayTracer {
         for (PointSource source: sources) {
             List<TracedRay> generated = rayGenerator.generate_rays_simple(result, parameters, source, elist);
             rays.addAll(generated);
-            result.get_generated(source).addAll(generated); // Track rays by the instance that generated them
+            result.add_generated(source, generated); // Track rays by the instance that generated them
         }
         return rays;
     }
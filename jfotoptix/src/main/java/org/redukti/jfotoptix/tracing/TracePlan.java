@@ -0,0 +1,229 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.redukti.jfotoptix.curve.*;
+import org.redukti.jfotoptix.math.Matrix3;
+import org.redukti.jfotoptix.math.Transform3;
+import org.redukti.jfotoptix.math.Vector2Pair;
+import org.redukti.jfotoptix.medium.Air;
+import org.redukti.jfotoptix.medium.Medium;
+import org.redukti.jfotoptix.model.*;
+import org.redukti.jfotoptix.shape.Infinite;
+import org.redukti.jfotoptix.shape.Rectangle;
+import org.redukti.jfotoptix.shape.Round;
+import org.redukti.jfotoptix.shape.Shape;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sequential optical system compiled into flat primitive arrays for
+ * the PrimitiveRayTracer: per element its kind, the transform from the
+ * previous element, curve and shape parameters, and the refractive
+ * indices of its media at each wavelength of interest.
+ * <p>
+ * The plan follows the sequence of RayTraceParameters from the given
+ * point source up to the first non optical surface, normally the image.
+ * It is a snapshot: rebuild it after the system or the wavelengths change.
+ */
+public class TracePlan {
+
+    static final int STOP = 0;
+    static final int OPTICAL = 1;
+    static final int IMAGE = 2;
+
+    static final int FLAT = 0;
+    static final int SPHERE = 1;
+    static final int CONIC = 2;
+    static final int ASPHERE = 3;
+
+    static final int INFINITE = 0;
+    static final int ROUND = 1;
+    static final int RECTANGLE = 2;
+
+    static final int NCOEFF = 11;     // c, k, A4 ... A20
+
+    final PointSource source;
+    final Element[] elements;
+    final int num_elements;
+    final double[] wavelengths;
+    final boolean unobstructed;
+
+    int[] kind;
+    boolean[] use_rotation;
+    double[] rotation;          // [9*i] row major, previous element to element i
+    double[] translation;       // [3*i]
+    int[] curve_kind;
+    double[] roc;
+    double[] sh;                // Schwarzschild constant + 1
+    double[] coeff;             // [NCOEFF*i] asphere c, k, A4 ... A20
+    int[] shape_kind;
+    double[] shape_x;           // round external x radius, or rectangle half width
+    double[] shape_y;           // round x/y ratio, or rectangle half height
+    double[] external_radius;   // stops only
+    int[] left_medium;          // medium ids, -1 for none
+    int[] right_medium;
+    int source_medium;
+
+    Medium[] media;
+    boolean[] opaque;
+    boolean[] reflecting;
+    double[] index;             // [nw*medium + w]
+
+    public TracePlan(RayTraceParameters parameters, PointSource source, double[] wavelengths) {
+        this.source = source;
+        this.wavelengths = wavelengths.clone();
+        this.unobstructed = parameters.get_unobstructed();
+        List<Element> seq = new ArrayList<>();
+        for (Element e : parameters.get_sequence()) {
+            if (e instanceof RaySource)
+                continue;
+            if (!(e instanceof Surface))
+                throw new UnsupportedOperationException("Element not supported by trace plan: " + e);
+            seq.add(e);
+            if (!(e instanceof OpticalSurface))
+                break;  // rays end at the image
+        }
+        this.elements = seq.toArray(new Element[0]);
+        this.num_elements = elements.length;
+        allocate();
+
+        Map<Medium, Integer> ids = new IdentityHashMap<>();
+        List<Medium> list = new ArrayList<>();
+        Medium smat = source.get_material();
+        source_medium = medium_id(smat != null ? smat : Air.air, ids, list);
+        Element prev = source;
+        for (int i = 0; i < num_elements; i++) {
+            Surface s = (Surface) elements[i];
+            kind[i] = s instanceof Stop ? STOP : s instanceof OpticalSurface ? OPTICAL : IMAGE;
+            set_transform(i, prev.get_transform_to(s));
+            set_curve(i, s.get_curve());
+            set_shape(i, s.get_shape());
+            left_medium[i] = right_medium[i] = -1;
+            if (s instanceof Stop stop) {
+                external_radius[i] = stop.get_external_radius();
+            } else if (s instanceof OpticalSurface os) {
+                left_medium[i] = medium_id(os.get_material(0), ids, list);
+                right_medium[i] = medium_id(os.get_material(1), ids, list);
+            }
+            prev = s;
+        }
+
+        int nw = this.wavelengths.length;
+        media = list.toArray(new Medium[0]);
+        opaque = new boolean[media.length];
+        reflecting = new boolean[media.length];
+        index = new double[media.length * nw];
+        for (int m = 0; m < media.length; m++) {
+            opaque[m] = media[m].is_opaque();
+            reflecting[m] = media[m].is_reflecting();
+            for (int w = 0; w < nw; w++)
+                index[nw * m + w] = media[m].get_refractive_index(this.wavelengths[w]);
+        }
+    }
+
+    public PointSource get_source() {
+        return source;
+    }
+
+    public int get_num_elements() {
+        return num_elements;
+    }
+
+    public Element get_element(int i) {
+        return elements[i];
+    }
+
+    public int get_num_wavelengths() {
+        return wavelengths.length;
+    }
+
+    /** Position of a wavelength in the plan, or -1 */
+    public int wavelength_index(double wavelen) {
+        for (int w = 0; w < wavelengths.length; w++) {
+            if (wavelengths[w] == wavelen)
+                return w;
+        }
+        return -1;
+    }
+
+    private void allocate() {
+        int n = num_elements;
+        kind = new int[n];
+        use_rotation = new boolean[n];
+        rotation = new double[9 * n];
+        translation = new double[3 * n];
+        curve_kind = new int[n];
+        roc = new double[n];
+        sh = new double[n];
+        coeff = new double[NCOEFF * n];
+        shape_kind = new int[n];
+        shape_x = new double[n];
+        shape_y = new double[n];
+        external_radius = new double[n];
+        left_medium = new int[n];
+        right_medium = new int[n];
+    }
+
+    private static int medium_id(Medium m, Map<Medium, Integer> ids, List<Medium> list) {
+        if (m == null)
+            return -1;
+        Integer id = ids.get(m);
+        if (id == null) {
+            id = list.size();
+            ids.put(m, id);
+            list.add(m);
+        }
+        return id;
+    }
+
+    private void set_transform(int i, Transform3 t) {
+        use_rotation[i] = t.use_rotation_matrix;
+        Matrix3 r = t.rotation_matrix;
+        for (int row = 0; row < 3; row++)
+            for (int col = 0; col < 3; col++)
+                rotation[9 * i + 3 * row + col] = r.get(row, col);
+        translation[3 * i] = t.translation.x();
+        translation[3 * i + 1] = t.translation.y();
+        translation[3 * i + 2] = t.translation.z();
+    }
+
+    private void set_curve(int i, Curve curve) {
+        if (curve instanceof Flat) {
+            curve_kind[i] = FLAT;
+        } else if (curve instanceof Sphere sphere) {
+            curve_kind[i] = SPHERE;
+            roc[i] = sphere.get_roc();
+        } else if (curve instanceof Conic conic) {
+            curve_kind[i] = CONIC;
+            roc[i] = conic.get_roc();
+            sh[i] = conic.get_sh();
+        } else if (curve instanceof Asphere asphere && asphere.is_feder_algo()) {
+            curve_kind[i] = ASPHERE;
+            double[] c = {asphere.get_c(), asphere.get_k(), asphere.get_A4(), asphere.get_A6(),
+                    asphere.get_A8(), asphere.get_A10(), asphere.get_A12(), asphere.get_A14(),
+                    asphere.get_A16(), asphere.get_A18(), asphere.get_A20()};
+            System.arraycopy(c, 0, coeff, NCOEFF * i, NCOEFF);
+        } else {
+            throw new UnsupportedOperationException("Curve not supported by trace plan: " + curve);
+        }
+    }
+
+    private void set_shape(int i, Shape shape) {
+        if (shape instanceof Infinite) {
+            shape_kind[i] = INFINITE;
+        } else if (shape instanceof Round round) {
+            shape_kind[i] = ROUND;
+            shape_x[i] = round.get_external_xradius();
+            shape_y[i] = round.get_xy_ratio();
+        } else if (shape instanceof Rectangle) {
+            Vector2Pair box = shape.get_bounding_box();
+            shape_kind[i] = RECTANGLE;
+            shape_x[i] = box.v1.x();
+            shape_y[i] = box.v1.y();
+        } else {
+            throw new UnsupportedOperationException("Shape not supported by trace plan: " + shape);
+        }
+    }
+}
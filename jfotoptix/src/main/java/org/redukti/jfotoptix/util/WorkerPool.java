@@ -0,0 +1,49 @@
+package org.redukti.jfotoptix.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Shared fork-join pools for concurrent analysis, one per thread count,
+ * created on first use and kept. Tasks already running in a pool may fan
+ * out further work: joins help with pending tasks rather than block.
+ */
+public final class WorkerPool {
+
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+    private WorkerPool() {
+    }
+
+    public static synchronized ForkJoinPool get(int nthreads) {
+        int n = Math.max(1, Math.min(nthreads, 256));
+        return pools.computeIfAbsent(n, ForkJoinPool::new);
+    }
+
+    /**
+     * Runs body for 0 .. n-1 on up to nthreads workers and waits for all.
+     * Runs in order on the calling thread if nthreads or n is 1.
+     * Exceptions thrown by body are rethrown to the caller.
+     */
+    public static void for_each(int nthreads, int n, IntConsumer body) {
+        if (nthreads <= 1 || n <= 1) {
+            for (int i = 0; i < n; i++)
+                body.accept(i);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final int k = i;
+            tasks.add(ForkJoinTask.adapt(() -> body.accept(k)));
+        }
+        if (ForkJoinTask.inForkJoinPool())
+            ForkJoinTask.invokeAll(tasks);
+        else
+            get(nthreads).submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+    }
+}
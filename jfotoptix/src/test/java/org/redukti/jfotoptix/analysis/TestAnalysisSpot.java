@@ -0,0 +1,122 @@
+package org.redukti.jfotoptix.analysis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.curve.Asphere;
+import org.redukti.jfotoptix.curve.Flat;
+import org.redukti.jfotoptix.light.SpectralLine;
+import org.redukti.jfotoptix.math.Vector3;
+import org.redukti.jfotoptix.math.Vector3Pair;
+import org.redukti.jfotoptix.medium.Abbe;
+import org.redukti.jfotoptix.model.Image;
+import org.redukti.jfotoptix.model.Lens;
+import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.model.PointSource;
+import org.redukti.jfotoptix.shape.Disk;
+import org.redukti.jfotoptix.shape.Rectangle;
+import org.redukti.jfotoptix.tracing.TestPrimitiveRayTracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestAnalysisSpot {
+
+    static OpticalSystem tessar(double degrees) {
+        double a = Math.toRadians(degrees);
+        return TestPrimitiveRayTracer.tessar(false, new Vector3(0, Math.sin(a), Math.cos(a)));
+    }
+
+    static final double[] FIELDS = {0.0, 1.5, 2.5};
+
+    static List<OpticalSystem> systems() {
+        List<OpticalSystem> systems = new ArrayList<>();
+        for (double f : FIELDS)
+            systems.add(tessar(f));
+        return systems;
+    }
+
+    @Test
+    public void testFieldsMatchAnalysisSpot() {
+        AnalysisSpot.FieldSpot[] fields = AnalysisSpot.process_fields(systems(), 10, 4);
+        Assertions.assertEquals(FIELDS.length, fields.length);
+        for (int f = 0; f < FIELDS.length; f++) {
+            AnalysisSpot spot = new AnalysisSpot(tessar(FIELDS[f]), 10).process_analysis();
+            Assertions.assertEquals(spot._intercepts.size(), fields[f].get_count());
+            Assertions.assertEquals(spot.get_rms_radius(), fields[f].get_rms_radius());
+            Assertions.assertEquals(spot.get_max_radius(), fields[f].get_max_radius());
+            Assertions.assertEquals(spot._centroid.x(), fields[f].get_centroid().x());
+            Assertions.assertEquals(spot._centroid.y(), fields[f].get_centroid().y());
+            int total = 0;
+            for (int w = 0; w < 3; w++)
+                total += fields[f].get_count(w);
+            Assertions.assertEquals(fields[f].get_count(), total);
+        }
+        // on axis the lines share a centroid, off axis they spread
+        Assertions.assertEquals(0.0, fields[0].get_lateral_colour(2), 1e-9);
+        Assertions.assertNotEquals(0.0, fields[2].get_lateral_colour(2));
+        Assertions.assertEquals(0.0, fields[2].get_lateral_colour(0));
+    }
+
+    @Test
+    public void testThreadCountDoesNotMatter() {
+        AnalysisSpot.FieldSpot[] serial = AnalysisSpot.process_fields(systems(), 10, 1);
+        AnalysisSpot.FieldSpot[] parallel = AnalysisSpot.process_fields(systems(), 10, 8);
+        for (int f = 0; f < FIELDS.length; f++) {
+            Assertions.assertEquals(serial[f].get_rms_radius(), parallel[f].get_rms_radius());
+            for (int w = 0; w < 3; w++) {
+                Assertions.assertEquals(serial[f].get_rms_radius(w), parallel[f].get_rms_radius(w));
+                Assertions.assertEquals(serial[f].get_lateral_colour(w), parallel[f].get_lateral_colour(w));
+            }
+        }
+    }
+
+    @Test
+    public void testSingleLine() {
+        AnalysisSpot.FieldSpot[] fields = AnalysisSpot.process_fields(systems(), new double[]{SpectralLine.d}, 10, 4);
+        AnalysisSpot.FieldSpot[] all = AnalysisSpot.process_fields(systems(), 10, 4);
+        for (int f = 0; f < FIELDS.length; f++) {
+            Assertions.assertEquals(all[f].get_count(0), fields[f].get_count());
+            Assertions.assertEquals(all[f].get_rms_radius(0), fields[f].get_rms_radius());
+        }
+    }
+
+    @Test
+    public void testFieldSpotOfUnsupportedCurve() {
+        // a TracePlan does not support this asphere, so process_fields() uses the RayTracer
+        OpticalSystem.Builder systemBuilder = new OpticalSystem.Builder();
+        systemBuilder.add(new Lens.Builder()
+                .position(Vector3Pair.position_000_001)
+                .add_surface(new Asphere(30, 1.0, 1e-6, 0, 0, 0, 0, 0, 0, 0, 0, false),
+                        new Disk(10), 5, new Abbe(Abbe.AbbeFormula.AbbeVd, 1.5168, 64.17, 0.0))
+                .add_surface(0, 10, 50));
+        systemBuilder.add(new Image.Builder()
+                .position(new Vector3Pair(new Vector3(0, 0, 55), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(new Rectangle(10)));
+        systemBuilder.add(new PointSource.Builder(PointSource.SourceInfinityMode.SourceAtInfinity, Vector3.vector3_001)
+                .add_spectral_line(SpectralLine.d)
+                .add_spectral_line(SpectralLine.F));
+        OpticalSystem system = systemBuilder.build();
+        AnalysisSpot.FieldSpot[] fields = AnalysisSpot.process_fields(List.of(system, tessar(FIELDS[1])), 10, 4);
+        AnalysisSpot analysis = new AnalysisSpot(system, 10).process_analysis();
+        AnalysisSpot.FieldSpot spot = fields[0];
+        Assertions.assertEquals(analysis.get_rms_radius(), spot.get_rms_radius(), 1e-12);
+        Assertions.assertEquals(analysis.get_max_radius(), spot.get_max_radius(), 1e-12);
+        Assertions.assertEquals(spot.get_count(), spot.get_count(0) + spot.get_count(1));
+        Assertions.assertTrue(spot.get_rms_radius(1) > 0.0);
+        AnalysisSpot tessar = new AnalysisSpot(tessar(FIELDS[1]), 10).process_analysis();
+        Assertions.assertEquals(tessar.get_rms_radius(), fields[1].get_rms_radius(), 1e-12);
+    }
+
+    @Test
+    public void testProcessAnalyses() {
+        List<AnalysisSpot> spots = new ArrayList<>();
+        for (OpticalSystem sys : systems())
+            spots.add(new AnalysisSpot(sys, 10));
+        AnalysisSpot.process_analyses(spots, 4);
+        for (int f = 0; f < FIELDS.length; f++) {
+            AnalysisSpot spot = new AnalysisSpot(tessar(FIELDS[f]), 10).process_analysis();
+            Assertions.assertEquals(spot.get_rms_radius(), spots.get(f).get_rms_radius());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.redukti.jfotoptix.fastparax;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.curve.Flat;
+import org.redukti.jfotoptix.math.Vector3;
+import org.redukti.jfotoptix.math.Vector3Pair;
+import org.redukti.jfotoptix.medium.GlassMap;
+import org.redukti.jfotoptix.model.*;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+import org.redukti.jfotoptix.shape.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class TestGlassSearch {
+
+    static final String[] SLOTS = {"G1", "G2", "G3"};
+
+    /* US1987878 - Modern Optical Design p 219 fig 8.12 */
+    static OpticalSystem triplet() {
+        OpticalSystem.Builder systemBuilder = new OpticalSystem.Builder();
+        Lens.Builder lensBuilder = new Lens.Builder()
+                .position(Vector3Pair.position_000_001)
+                .add_surface(26.16, 11.7, 4.916, new GlassMap("Any", "G1", 1.678, 0, 0, 55.2, 0.0))
+                .add_surface(1201.7, 11.7, 3.988)
+                .add_surface(-83.46, 10.2, 1.038, new GlassMap("Any", "G2", 1.648, 0, 0, 33.8, 0.0))
+                .add_surface(25.67, 10.2, 4.0)
+                .add_stop(9.2, 6.925, true)
+                .add_surface(302.61, 10.3, 2.567, new GlassMap("Any", "G3", 1.651, 0, 0, 55.9, 0.0))
+                .add_surface(-54.79, 10.3, 81.433);
+        systemBuilder.add(lensBuilder);
+        systemBuilder.add(new Image.Builder()
+                .position(new Vector3Pair(new Vector3(0, 0, 4.916 + 3.988 + 1.038 + 4.0 + 6.925 + 2.567 + 81.433), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(new Rectangle(46.33)));
+        systemBuilder.angle_of_view(25.17 * 2);
+        systemBuilder.f_number(4.5);
+        return systemBuilder.build();
+    }
+
+    static List<GlassMap> catalogue() {
+        List<GlassMap> glasses = new ArrayList<>(GlassMap.glasses.values().stream()
+                .filter(g -> "Hikari".equals(g.get_manufacturer()))
+                .filter(g -> g.nd >= 1.6 && g.nd < 1.7)
+                .toList());
+        glasses.sort(Comparator.comparing(GlassMap::get_name));
+        return glasses;
+    }
+
+    /** Every assignment, scored and filtered without pruning */
+    static List<double[]> bruteForce(OpticalSystem system, List<GlassMap> glasses, double efl, double bfl, double tol,
+                                     double pmin, double pmax, double cmin, double cmax) {
+        String[] names = system.glassNames();
+        double[] nd = system.glassIndices();
+        YNUTracer tracer = new YNUTracer(system, names);
+        tracer.setGlasses(names, nd);
+        tracer.compute();
+        double h1 = tracer.ax_ray.heights[tracer.first_surface_position];
+        double[] h = tracer.ax_ray.heights.clone();
+        int[] slot = new int[names.length];
+        for (int m = 0; m < names.length; m++)
+            slot[m] = List.of(SLOTS).indexOf(names[m]);
+
+        List<double[]> accepted = new ArrayList<>();
+        int n = glasses.size();
+        for (int a = 0; a < n; a++)
+            for (int b = 0; b < n; b++)
+                for (int c = 0; c < n; c++) {
+                    GlassMap[] g = {glasses.get(a), glasses.get(b), glasses.get(c)};
+                    double[] index = new double[names.length];
+                    double[] disp = new double[names.length];
+                    for (int m = 0; m < names.length; m++) {
+                        index[m] = slot[m] >= 0 ? g[slot[m]].nd : nd[m];
+                        disp[m] = slot[m] >= 0 ? (g[slot[m]].nd - 1) / g[slot[m]].vd : 0.0;
+                    }
+                    double petzval = 0, colour = 0;
+                    for (int i = 0; i < tracer.elements.length; i++) {
+                        if (!(tracer.elements[i] instanceof OpticalSurface))
+                            continue;
+                        int l = tracer.left_medium[i], r = tracer.right_medium[i];
+                        double cv = tracer.curvatures[i], hi = h[i] / h1;
+                        petzval += cv * (1 / index[l] - 1 / index[r]);
+                        colour += hi * hi * cv * (disp[r] - disp[l]);
+                    }
+                    if (petzval < pmin || petzval > pmax || colour < cmin || colour > cmax)
+                        continue;
+                    tracer.setGlasses(names, index);
+                    ParaxialFirstOrderInfo pfo = tracer.compute();
+                    double de = (pfo.effective_focal_length - efl) / tol;
+                    double db = (pfo.back_focal_length - bfl) / tol;
+                    if (Math.abs(de) <= 1 && Math.abs(db) <= 1)
+                        accepted.add(new double[]{de * de + db * db, a, b, c, petzval, colour});
+                }
+        accepted.sort(Comparator.<double[]>comparingDouble(r -> r[0])
+                .thenComparingDouble(r -> r[1]).thenComparingDouble(r -> r[2]).thenComparingDouble(r -> r[3]));
+        return accepted;
+    }
+
+    static void assertSameResults(List<double[]> expected, List<GlassSearch.Result> actual,
+                                  List<GlassMap> glasses, int k) {
+        Assertions.assertEquals(Math.min(k, expected.size()), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            double[] e = expected.get(i);
+            GlassSearch.Result r = actual.get(i);
+            Assertions.assertEquals(e[0], r.score, 1e-9);
+            for (int s = 0; s < SLOTS.length; s++)
+                Assertions.assertSame(glasses.get((int) e[1 + s]), r.glasses[s]);
+            Assertions.assertEquals(e[4], r.petzval, 1e-12);
+            Assertions.assertEquals(e[5], r.colour, 1e-12);
+        }
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        OpticalSystem system = triplet();
+        List<GlassMap> glasses = catalogue();
+        GlassSearch search = new GlassSearch(system, SLOTS, glasses);
+        double efl = ParaxialFirstOrderInfo.compute(system).effective_focal_length;
+        double bfl = ParaxialFirstOrderInfo.compute(system).back_focal_length;
+        search.target(ParaxialFirstOrderInfo.Effective_focal_length, efl, 2.0)
+                .target(ParaxialFirstOrderInfo.Back_focal_length, bfl, 2.0)
+                .topK(25);
+
+        List<double[]> expected = bruteForce(system, glasses, efl, bfl, 2.0,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        Assertions.assertTrue(expected.size() > 25);
+        List<GlassSearch.Result> serial = search.threads(1).run();
+        Assertions.assertEquals((long) glasses.size() * glasses.size() * glasses.size(), search.getEvaluated());
+        Assertions.assertEquals(0, search.getPruned());
+        assertSameResults(expected, serial, glasses, 25);
+        List<GlassSearch.Result> parallel = search.threads(4).run();
+        assertSameResults(expected, parallel, glasses, 25);
+    }
+
+    @Test
+    public void testPruning() {
+        OpticalSystem system = triplet();
+        List<GlassMap> glasses = catalogue();
+        GlassSearch search = new GlassSearch(system, SLOTS, glasses);
+        double p0 = search.getPetzvalSum();
+        double c0 = search.getColourSum();
+        double efl = ParaxialFirstOrderInfo.compute(system).effective_focal_length;
+        double bfl = ParaxialFirstOrderInfo.compute(system).back_focal_length;
+        double pmin = p0 - 0.1 * Math.abs(p0), pmax = p0 + 0.1 * Math.abs(p0);
+        double cmin = c0 - 0.002, cmax = c0 + 0.002;
+        search.target(ParaxialFirstOrderInfo.Effective_focal_length, efl, 2.0)
+                .target(ParaxialFirstOrderInfo.Back_focal_length, bfl, 2.0)
+                .petzval(pmin, pmax)
+                .colour(cmin, cmax)
+                .topK(1000);
+
+        List<double[]> expected = bruteForce(system, glasses, efl, bfl, 2.0, pmin, pmax, cmin, cmax);
+        Assertions.assertFalse(expected.isEmpty());
+        for (int nthreads : new int[]{1, 4}) {
+            List<GlassSearch.Result> results = search.threads(nthreads).run();
+            assertSameResults(expected, results, glasses, 1000);
+            Assertions.assertTrue(search.getPruned() > 0);
+            Assertions.assertTrue(search.getEvaluated() < (long) glasses.size() * glasses.size() * glasses.size());
+            for (GlassSearch.Result r : results) {
+                Assertions.assertTrue(r.petzval >= pmin && r.petzval <= pmax);
+                Assertions.assertTrue(r.colour >= cmin && r.colour <= cmax);
+            }
+        }
+    }
+
+    @Test
+    public void testPrunedMatchesFullSearch() {
+        OpticalSystem system = triplet();
+        List<GlassMap> glasses = catalogue().subList(0, 12);
+        double efl = ParaxialFirstOrderInfo.compute(system).effective_focal_length;
+        double bfl = ParaxialFirstOrderInfo.compute(system).back_focal_length;
+        GlassSearch full = new GlassSearch(system, SLOTS, glasses)
+                .target(ParaxialFirstOrderInfo.Effective_focal_length, efl, 5.0)
+                .target(ParaxialFirstOrderInfo.Back_focal_length, bfl, 5.0)
+                .topK(glasses.size() * glasses.size() * glasses.size());
+        double p0 = full.getPetzvalSum();
+        double c0 = full.getColourSum();
+        double pmin = p0 - 0.2 * Math.abs(p0), pmax = p0 + 0.2 * Math.abs(p0);
+        double cmin = c0 - 0.005, cmax = c0 + 0.005;
+        List<GlassSearch.Result> expected = full.threads(1).run().stream()
+                .filter(r -> r.petzval >= pmin && r.petzval <= pmax && r.colour >= cmin && r.colour <= cmax)
+                .limit(20)
+                .toList();
+        Assertions.assertFalse(expected.isEmpty());
+
+        GlassSearch pruned = new GlassSearch(system, SLOTS, glasses)
+                .target(ParaxialFirstOrderInfo.Effective_focal_length, efl, 5.0)
+                .target(ParaxialFirstOrderInfo.Back_focal_length, bfl, 5.0)
+                .petzval(pmin, pmax)
+                .colour(cmin, cmax)
+                .topK(20);
+        for (int nthreads : new int[]{1, 4}) {
+            List<GlassSearch.Result> results = pruned.threads(nthreads).run();
+            Assertions.assertTrue(pruned.getPruned() > 0);
+            Assertions.assertEquals(expected.size(), results.size());
+            for (int i = 0; i < results.size(); i++) {
+                Assertions.assertEquals(expected.get(i).score, results.get(i).score);
+                Assertions.assertArrayEquals(expected.get(i).glasses, results.get(i).glasses);
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownSlot() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new GlassSearch(triplet(), new String[]{"G1", "G9"}, catalogue()));
+    }
+}
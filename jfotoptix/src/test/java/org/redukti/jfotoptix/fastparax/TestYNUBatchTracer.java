@@ -0,0 +1,74 @@
+package org.redukti.jfotoptix.fastparax;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.model.OpticalSurface;
+import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+
+import java.util.List;
+import java.util.Random;
+
+public class TestYNUBatchTracer {
+
+    @Test
+    public void testMatchesScalarTracer() {
+        OpticalSystem system = TestGlassSearch.triplet();
+        String[] names = system.glassNames();
+        YNUTracer tracer = new YNUTracer(system, names);
+        tracer.setGlasses(names, system.glassIndices());
+
+        final int n = 257;  // not a multiple of any vector width
+        YNUBatchTracer batch = new YNUBatchTracer(tracer, 300);
+        Random random = new Random(42);
+        double[][] nd = new double[3][n];
+        for (int g = 0; g < 3; g++) {
+            double[] lanes = batch.glassLanes(TestGlassSearch.SLOTS[g]);
+            for (int k = 0; k < n; k++)
+                nd[g][k] = lanes[k] = 1.5 + 0.4 * random.nextDouble();
+        }
+        int[] ids = system.get_sequence().stream()
+                .filter(e -> e instanceof OpticalSurface)
+                .mapToInt(e -> e.id())
+                .toArray();
+        double[][] curvature = new double[ids.length][n];
+        for (int s = 0; s < ids.length; s++) {
+            double[] lanes = batch.curvatureLanes(ids[s]);
+            for (int k = 0; k < n; k++)
+                curvature[s][k] = lanes[k] = lanes[k] * (1.0 + 0.05 * (random.nextDouble() - 0.5));
+        }
+        batch.compute(n);
+
+        double[] values = system.glassIndices();
+        for (int k = 0; k < n; k++) {
+            for (int g = 0; g < 3; g++)
+                values[List.of(names).indexOf(TestGlassSearch.SLOTS[g])] = nd[g][k];
+            tracer.setGlasses(names, values);
+            for (int s = 0; s < ids.length; s++)
+                tracer.curvatures[batch.position(ids[s])] = curvature[s][k];
+            ParaxialFirstOrderInfo pfo = tracer.compute();
+            for (int id = 0; id <= ParaxialFirstOrderInfo.Img_na; id++)
+                Assertions.assertEquals(pfo.get(id), batch.get(id, k), ParaxialFirstOrderInfo.Names[id]);
+            for (int i = 0; i < tracer.elements.length; i++) {
+                Assertions.assertEquals(tracer.ax_ray.heights[i], batch.getAxialRay().heights[i][k]);
+                Assertions.assertEquals(tracer.pr_ray.heights[i], batch.getChiefRay().heights[i][k]);
+                Assertions.assertEquals(tracer.pr_ray.slopes[i], batch.getChiefRay().slopes[i][k]);
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultsToTracerSystem() {
+        OpticalSystem system = TestGlassSearch.triplet();
+        String[] names = system.glassNames();
+        YNUTracer tracer = new YNUTracer(system, names);
+        tracer.setGlasses(names, system.glassIndices());
+        YNUBatchTracer batch = new YNUBatchTracer(tracer, 4);
+        batch.compute(4);
+        ParaxialFirstOrderInfo pfo = tracer.compute();
+        for (int k = 0; k < 4; k++)
+            Assertions.assertEquals(pfo.effective_focal_length, batch.effective_focal_length[k]);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> batch.compute(5));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> batch.curvatureLanes(1000));
+    }
+}
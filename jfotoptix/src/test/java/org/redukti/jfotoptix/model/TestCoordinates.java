@@ -93,4 +93,51 @@ public class TestCoordinates {
 
     }
 
+    private static void assertTransformsBetween(Element from, Element to) {
+        Vector3 p = new Vector3(1, -2, 3);
+        Vector3 expected = to.get_transform_to(null).inverse().transform(from.get_transform_to(null).transform(p));
+        Assertions.assertTrue(from.get_transform_to(to).transform(p).isEqual(expected, 1e-10));
+    }
+
+    @Test
+    public void testTransformTable() {
+        OpticalSystem.Builder sys = new OpticalSystem.Builder();
+        Group.Builder g1 = new Group.Builder().position(Vector3Pair.position_000_001);
+        Group.Builder g21 = new Group.Builder().position(new Vector3Pair(new Vector3(0, 1, 2), Vector3.vector3_001));
+        Surface.Builder s211 = new Surface.Builder().position(new Vector3Pair(new Vector3(0, 0, 3), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(Infinite.infinite);
+        Surface.Builder s1 = new Surface.Builder().position(new Vector3Pair(new Vector3(0, 0, 10), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(Infinite.infinite);
+        g21.add(s211);
+        g21.rotate(0, 0, 90);
+        g1.add(g21);
+        g1.add(s1);
+        sys.add(g1);
+
+        OpticalSystem system = sys.build();
+        Group g21e = system.getGroup(0).getGroup(0);
+        Element s211e = g21e.getSurface(0);
+        Element s1e = system.getGroup(0).getSurface(1);
+        assertTransformsBetween(s211e, s1e);
+        assertTransformsBetween(s1e, s211e);
+        assertTransformsBetween(g21e, s1e);
+
+        // moving a group recomputes the transforms of its contents
+        system.update_local_position(g21e, new Vector3(5, 0, 1));
+        Assertions.assertTrue(system.getPosition(s211e).isEqual(new Vector3(5, 0, 4), 1e-10));
+        assertTransformsBetween(s211e, s1e);
+        assertTransformsBetween(s1e, s211e);
+        assertTransformsBetween(s1e, g21e);
+
+        g21.localPosition(new Vector3(5, 0, 1));
+        OpticalSystem rebuilt = sys.build();
+        Vector3 p = new Vector3(1, 1, 1);
+        Element s211r = rebuilt.getGroup(0).getGroup(0).getSurface(0);
+        Element s1r = rebuilt.getGroup(0).getSurface(1);
+        Assertions.assertTrue(s211e.get_transform_to(s1e).transform(p)
+                .isEqual(s211r.get_transform_to(s1r).transform(p), 1e-10));
+    }
+
 }
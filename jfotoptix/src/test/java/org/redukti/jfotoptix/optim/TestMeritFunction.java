@@ -0,0 +1,98 @@
+package org.redukti.jfotoptix.optim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.math.LMLSolver;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+import org.redukti.jfotoptix.spec.Prescription;
+import org.redukti.jfotoptix.spec.TestPrescriptionUpdate;
+
+public class TestMeritFunction {
+
+    static Var[] vars(Prescription p) {
+        return new Var[]{
+                new VarRadius(p, 2),
+                new VarThickness(p, 5),
+                new VarAsphCoeff(p, 0, 0),
+                new VarRadius(p, 9),
+                new VarAsphK(p, 12)
+        };
+    }
+
+    static MeritFunction meritFunction(Prescription p, Var[] vars, int nthreads) {
+        Analysis analysis = new Analysis(p).field2(0.7);
+        Goal[] outs = {
+                new GoalSpotRMS(analysis, 1, 0.0, 1.0),
+                new GoalSpotRMS(analysis, 2, 0.0, 1.0),
+                new GoalSpotMaxRadius(analysis, 2, 0.0, 0.5),
+                new GoalParax(analysis, ParaxialFirstOrderInfo.Effective_focal_length, 58.0, 1.0),
+                new GoalParax(analysis, ParaxialFirstOrderInfo.Back_focal_length, 38.0, 1.0),
+                new GoalParax(analysis, ParaxialFirstOrderInfo.Fno, 1.2, 1.0),
+                new GoalParax(analysis, ParaxialFirstOrderInfo.Exp_dist, -50.0, 0.1)
+        };
+        return new MeritFunction(analysis, vars, outs).threads(nthreads);
+    }
+
+    @Test
+    public void testParallelJacobian() {
+        Prescription p = TestPrescriptionUpdate.noctNikkor();
+        Var[] vars = vars(p);
+        MeritFunction parallel = meritFunction(p, vars, 4);
+        Prescription q = TestPrescriptionUpdate.noctNikkor();
+        MeritFunction serial = meritFunction(q, vars(q), 1);
+        final int nvars = 5, ngoals = 7;
+
+        double rms = parallel.computeResiduals();
+        Assertions.assertEquals(rms, serial.computeResiduals());
+        double[] resid = new double[ngoals];
+        for (int i = 0; i < ngoals; i++)
+            resid[i] = parallel.getResidual(i);
+
+        // twice, so the second run updates the worker systems in place
+        for (int n = 0; n < 2; n++) {
+            Assertions.assertTrue(parallel.buildJacobian());
+            Assertions.assertTrue(serial.buildJacobian());
+            for (int i = 0; i < ngoals; i++)
+                for (int j = 0; j < nvars; j++)
+                    Assertions.assertEquals(serial.getJacobian(i, j), parallel.getJacobian(i, j));
+        }
+
+        // the current point is left alone
+        for (int i = 0; i < ngoals; i++)
+            Assertions.assertEquals(resid[i], parallel.getResidual(i));
+        Assertions.assertEquals(33.737, p.surfaces[2].radius);
+        Assertions.assertEquals(8.44, p.surfaces[5].thickness);
+
+        // and the columns are the central differences about it
+        double[] delta = new double[nvars];
+        for (int j = 0; j < nvars; j++) {
+            double d = vars[j].dDelta;
+            delta[j] = d;
+            Assertions.assertNotEquals(LMLSolver.BIGVAL, serial.nudge(delta));
+            double[] plus = new double[ngoals];
+            for (int i = 0; i < ngoals; i++)
+                plus[i] = serial.getResidual(i);
+            delta[j] = -2 * d;
+            serial.nudge(delta);
+            for (int i = 0; i < ngoals; i++) {
+                double expected = (plus[i] - serial.getResidual(i)) / (2 * d);
+                Assertions.assertEquals(expected, parallel.getJacobian(i, j),
+                        1e-6 * Math.max(1.0, Math.abs(expected)));
+            }
+            delta[j] = d;
+            serial.nudge(delta);
+            delta[j] = 0;
+        }
+    }
+
+    @Test
+    public void testFailedAnalysis() {
+        Prescription p = TestPrescriptionUpdate.noctNikkor();
+        MeritFunction f = meritFunction(p, vars(p), 4);
+        Assertions.assertTrue(f.computeResiduals() < 1e6);
+        // a radius far smaller than the surface, no ray gets through
+        double[] delta = {-33.2, 0, 0, 0, 0};
+        Assertions.assertEquals(LMLSolver.BIGVAL, f.nudge(delta));
+        Assertions.assertFalse(f.buildJacobian());
+    }
+}
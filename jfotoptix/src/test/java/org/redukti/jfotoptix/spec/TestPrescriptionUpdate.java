@@ -0,0 +1,141 @@
+package org.redukti.jfotoptix.spec;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.analysis.AnalysisSpot;
+import org.redukti.jfotoptix.model.Element;
+import org.redukti.jfotoptix.model.OpticalSystem;
+import org.redukti.jfotoptix.optim.Analysis;
+import org.redukti.jfotoptix.optim.VarAsphCoeff;
+import org.redukti.jfotoptix.optim.VarRadius;
+import org.redukti.jfotoptix.optim.VarThickness;
+import org.redukti.jfotoptix.parax.ParaxialFirstOrderInfo;
+
+import java.util.List;
+
+public class TestPrescriptionUpdate {
+
+    public static Prescription noctNikkor() {
+        return new Prescription(58.0, 1.2, 40.9, 43.28, false)
+                .surf(79.9975, 6.885, 50.4875, 1.795, 45.31, "J-LASF017")
+                .asph(0, new double[]{0.0, 0.0, 0.0, 0.0})
+                .surf(0, 0.1, 50.4875)
+                .surf(33.737, 9.75, 44.832, 1.8485, 43.79, "J-LASFH22")
+                .surf(70.18675, 1.56, 44.832)
+                .surf(134.505, 2.87, 42.169, 1.74, 28.3, "S-TIH3")
+                .surf(22.3687, 8.44, 32.12841)
+                .stop(7.95, 31.227)
+                .surf(-23.02418, 1.64, 31.445, 1.74077, 27.79, "S-TIH13")
+                .surf(306.553, 8.196, 40.2, 1.788, 47.37, "TAF4")
+                .surf(-37.555, 0.15, 40.2)
+                .surf(-396.94, 6.147, 39.5, 1.7725, 46.62, "J-LASF016")
+                .surf(-52.56789, 0.0, 39.5)
+                .surf(223.8426, 4.016, 38.275, 1.795, 45.31, "J-LASF017")
+                .surf(-94.08052, 37.78, 38.275)
+                .build();
+    }
+
+    static void assertSameSystem(OpticalSystem expected, OpticalSystem actual) {
+        List<Element> e = expected.get_sequence();
+        List<Element> a = actual.get_sequence();
+        Assertions.assertEquals(e.size(), a.size());
+        for (int i = 0; i < e.size(); i++) {
+            Assertions.assertEquals(e.get(i).get_position().z(), a.get(i).get_position().z());
+            if (i > 0)
+                Assertions.assertEquals(e.get(i - 1).get_transform_to(e.get(i)).translation.z(),
+                        a.get(i - 1).get_transform_to(a.get(i)).translation.z());
+        }
+        AnalysisSpot se = new AnalysisSpot(expected, 10).process_analysis();
+        AnalysisSpot sa = new AnalysisSpot(actual, 10).process_analysis();
+        Assertions.assertEquals(se.get_rms_radius(), sa.get_rms_radius());
+        Assertions.assertEquals(se.get_max_radius(), sa.get_max_radius());
+        Assertions.assertArrayEquals(ParaxialFirstOrderInfo.compute(expected).asArray(),
+                ParaxialFirstOrderInfo.compute(actual).asArray());
+    }
+
+    @Test
+    public void testUpdateMatchesRebuild() {
+        Prescription p = noctNikkor();
+        OpticalSystem system = p.buildSystem(true, 0.7).build();
+        // warm the transform cache, so stale entries would show
+        new AnalysisSpot(system, 10).process_analysis();
+
+        p.surfaces[2].radius = 34.1;
+        p.surfaces[5].thickness = 8.6;
+        p.surfaces[0].coeffs[0] = 2e-7;
+        p.surfaces[8].k = -0.3;                 // sphere becomes asphere
+        p.updateSystem(system);
+        assertSameSystem(p.buildSystem(true, 0.7).build(), system);
+
+        p.surfaces[8].k = 0;                    // and back
+        p.surfaces[13].thickness = 37.0;        // image moves
+        p.updateSystem(system);
+        assertSameSystem(p.buildSystem(true, 0.7).build(), system);
+    }
+
+    @Test
+    public void testUnrelatedSystemRejected() {
+        Prescription p = noctNikkor();
+        OpticalSystem system = p.buildSystem(true, 0.0).build();
+        Prescription other = new Prescription(58.0, 1.2, 40.9, 43.28, false)
+                .surf(79.9975, 6.885, 50.4875, 1.795, 45.31)
+                .surf(0, 50, 50.4875)
+                .build();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> other.updateSystem(system));
+    }
+
+    @Test
+    public void testAnalysisReusesSystems() {
+        Prescription p1 = noctNikkor();
+        Prescription p2 = noctNikkor();
+        Analysis reused = new Analysis(p1).field2(1.0);
+        Analysis rebuilt = new Analysis(p2).field2(1.0);
+        rebuilt.reuseSystems = false;
+        reused.compute();
+        OpticalSystem sys1 = reused.sys1;
+        OpticalSystem sys2 = reused.sys2;
+
+        new VarRadius(p1, 3).shift(0.5);
+        new VarThickness(p1, 9).shift(-0.05);
+        new VarAsphCoeff(p1, 0, 1).shift(1e-9);
+        new VarRadius(p2, 3).shift(0.5);
+        new VarThickness(p2, 9).shift(-0.05);
+        new VarAsphCoeff(p2, 0, 1).shift(1e-9);
+        reused.compute();
+        rebuilt.compute();
+
+        Assertions.assertSame(sys1, reused.sys1);
+        Assertions.assertSame(sys2, reused.sys2);
+        Assertions.assertEquals(rebuilt.sys1Spot.get_rms_radius(), reused.sys1Spot.get_rms_radius());
+        Assertions.assertEquals(rebuilt.sys2Spot.get_rms_radius(), reused.sys2Spot.get_rms_radius());
+        Assertions.assertEquals(rebuilt.sys2Spot.get_max_radius(), reused.sys2Spot.get_max_radius());
+        Assertions.assertArrayEquals(rebuilt.pfo, reused.pfo);
+    }
+
+    @Test
+    public void testAnalysisFieldChange() {
+        Prescription p1 = noctNikkor();
+        Analysis reused = new Analysis(p1).field2(0.7).field3(1.0);
+        reused.compute();
+        OpticalSystem sys1 = reused.sys1;
+        OpticalSystem sys2 = reused.sys2;
+        OpticalSystem sys3 = reused.sys3;
+
+        // a new field2 moves sys2's point source, sys3 is kept
+        reused.field2(0.5).compute();
+        Assertions.assertSame(sys1, reused.sys1);
+        Assertions.assertNotSame(sys2, reused.sys2);
+        Assertions.assertSame(sys3, reused.sys3);
+        Analysis rebuilt = new Analysis(noctNikkor()).field2(0.5).field3(1.0);
+        rebuilt.reuseSystems = false;
+        rebuilt.compute();
+        Assertions.assertEquals(rebuilt.sys2Spot.get_rms_radius(), reused.sys2Spot.get_rms_radius());
+
+        sys2 = reused.sys2;
+        reused.field3(0.9).compute();
+        Assertions.assertSame(sys2, reused.sys2);
+        Assertions.assertNotSame(sys3, reused.sys3);
+        rebuilt.field3(0.9).compute();
+        Assertions.assertEquals(rebuilt.sys3Spot.get_rms_radius(), reused.sys3Spot.get_rms_radius());
+    }
+}
@@ -0,0 +1,82 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.light.SpectralLine;
+import org.redukti.jfotoptix.math.Vector3;
+import org.redukti.jfotoptix.medium.Dielectric;
+import org.redukti.jfotoptix.model.*;
+import org.redukti.jfotoptix.patterns.Distribution;
+import org.redukti.jfotoptix.patterns.Pattern;
+
+import java.util.List;
+
+public class TestIndexRatioTable {
+
+    static List<OpticalSurface> surfaces(OpticalSystem system) {
+        return new RayTraceParameters(system).get_sequence().stream()
+                .filter(e -> e instanceof OpticalSurface)
+                .map(e -> (OpticalSurface) e)
+                .toList();
+    }
+
+    @Test
+    public void testMatchesDivision() {
+        OpticalSystem system = TestPrimitiveRayTracer.tessar(false, Vector3.vector3_001);
+        IndexRatioTable table = new IndexRatioTable();
+        double[] wavelengths = {SpectralLine.d, SpectralLine.C, SpectralLine.F, SpectralLine.g, SpectralLine.e};
+        for (int pass = 0; pass < 2; pass++) {
+            for (double wl : wavelengths) {
+                for (OpticalSurface s : surfaces(system)) {
+                    for (boolean right_to_left : new boolean[]{false, true}) {
+                        double expected = s.get_material(right_to_left ? 1 : 0).get_refractive_index(wl)
+                                / s.get_material(right_to_left ? 0 : 1).get_refractive_index(wl);
+                        Assertions.assertEquals(expected, table.get(s, right_to_left, wl));
+                    }
+                }
+            }
+        }
+    }
+
+    static List<TracedRay> trace(OpticalSystem system) {
+        RayTraceParameters parameters = new RayTraceParameters(system);
+        parameters.set_default_distribution(new Distribution(Pattern.MeridionalDist, 10, 0.999));
+        RayTraceResults result = new SequentialRayTracer().trace(system, parameters);
+        Image image = null;
+        for (Element e : parameters.get_sequence()) {
+            if (e instanceof Image im)
+                image = im;
+        }
+        return result.get_intercepted(image);
+    }
+
+    @Test
+    public void testTemperatureChangeBetweenTraces() {
+        OpticalSystem system = TestPrimitiveRayTracer.tessar(false, new Vector3(0, Math.sin(Math.toRadians(2.5)), Math.cos(Math.toRadians(2.5))));
+        List<TracedRay> before = trace(system);
+        Assertions.assertFalse(before.isEmpty());
+
+        Dielectric glass = (Dielectric) surfaces(system).get(0).get_material(1);
+        glass.set_temperature_dndt(1e-4);
+        glass.set_temperature(60.0);
+        List<TracedRay> heated = trace(system);
+        Assertions.assertEquals(before.size(), heated.size());
+        boolean moved = false;
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i).get_intercept_point().y() != heated.get(i).get_intercept_point().y())
+                moved = true;
+        }
+        Assertions.assertTrue(moved);
+
+        glass.set_temperature(20.0);
+        List<TracedRay> restored = trace(system);
+        Assertions.assertEquals(before.size(), restored.size());
+        for (int i = 0; i < before.size(); i++) {
+            Vector3 a = before.get(i).get_intercept_point();
+            Vector3 b = restored.get(i).get_intercept_point();
+            Assertions.assertEquals(a.x(), b.x());
+            Assertions.assertEquals(a.y(), b.y());
+            Assertions.assertEquals(a.z(), b.z());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.light.SpectralLine;
+import org.redukti.jfotoptix.math.Vector3;
+import org.redukti.jfotoptix.math.Vector3Pair;
+import org.redukti.jfotoptix.model.*;
+import org.redukti.jfotoptix.patterns.Distribution;
+import org.redukti.jfotoptix.patterns.Pattern;
+
+import java.util.List;
+
+public class TestInterceptColumns {
+
+    static final Vector3 FIELD = new Vector3(0, Math.sin(Math.toRadians(2.5)), Math.cos(Math.toRadians(2.5)));
+
+    static RayTraceParameters parameters(OpticalSystem system) {
+        RayTraceParameters parameters = new RayTraceParameters(system);
+        parameters.set_default_distribution(new Distribution(Pattern.HexaPolarDist, 20, 0.999));
+        return parameters;
+    }
+
+    static <T extends Element> T find(OpticalSystem system, Class<T> type) {
+        for (Element e : system.get_sequence()) {
+            if (type.isInstance(e))
+                return type.cast(e);
+        }
+        return null;
+    }
+
+    @Test
+    public void testMatchesTracedRays() {
+        OpticalSystem system = TestPrimitiveRayTracer.tessar(false, FIELD);
+        Image image = find(system, Image.class);
+        Stop stop = find(system, Stop.class);
+        for (RayTracer tracer : new RayTracer[]{new SequentialRayTracer(), new RayTracer()}) {
+            RayTraceResults full = tracer.trace(system, parameters(system));
+            RayTraceParameters parameters = parameters(system);
+            parameters.set_compact_results(image, stop);
+            RayTraceResults compact = tracer.trace(system, parameters);
+
+            List<TracedRay> intercepts = full.get_intercepted(image);
+            InterceptColumns columns = compact.get_intercept_columns(image);
+            Assertions.assertEquals(intercepts.size(), columns.get_count());
+            Assertions.assertEquals(0, columns.get_lost_count());
+            double[] wavelengths = compact.get_wavelengths();
+            double x0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y0 = Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+            for (int i = 0; i < intercepts.size(); i++) {
+                TracedRay ray = intercepts.get(i);
+                Vector3 p = ray.get_intercept_point();
+                Assertions.assertEquals(p.x(), columns.get_x(i));
+                Assertions.assertEquals(p.y(), columns.get_y(i));
+                Assertions.assertEquals(p.z(), columns.get_z(i));
+                Assertions.assertEquals(ray.get_intensity(), columns.get_intensity(i));
+                Assertions.assertEquals(ray.get_wavelen(), wavelengths[columns.get_wavelength_index(i)]);
+                x0 = Math.min(x0, p.x());
+                x1 = Math.max(x1, p.x());
+                y0 = Math.min(y0, p.y());
+                y1 = Math.max(y1, p.y());
+            }
+            Vector3 centroid = full.get_intercepted_centroid(image);
+            Vector3 c = columns.get_centroid();
+            Assertions.assertEquals(centroid.x(), c.x(), 1e-12);
+            Assertions.assertEquals(centroid.y(), c.y(), 1e-12);
+            Assertions.assertEquals(centroid.z(), c.z(), 1e-12);
+            double sum = 0;
+            for (TracedRay ray : intercepts) {
+                Vector3 p = ray.get_intercept_point();
+                sum += (p.x() - c.x()) * (p.x() - c.x()) + (p.y() - c.y()) * (p.y() - c.y());
+            }
+            Assertions.assertEquals(Math.sqrt(sum / intercepts.size()), columns.get_rms_radius(), 1e-12);
+            Vector3Pair window = columns.get_window();
+            Assertions.assertEquals(x0, window.v0.x());
+            Assertions.assertEquals(x1, window.v1.x());
+            Assertions.assertEquals(y0, window.v0.y());
+            Assertions.assertEquals(y1, window.v1.y());
+
+            // rays blocked by the stop are lost
+            List<TracedRay> at_stop = full.get_intercepted(stop);
+            InterceptColumns stop_columns = compact.get_intercept_columns(stop);
+            Assertions.assertEquals(at_stop.size(), stop_columns.get_count());
+            int lost = 0;
+            for (int i = 0; i < at_stop.size(); i++) {
+                boolean blocked = at_stop.get(i).get_first_child() == null;
+                Assertions.assertEquals(blocked, stop_columns.is_lost(i));
+                if (blocked)
+                    lost++;
+            }
+            Assertions.assertEquals(lost, stop_columns.get_lost_count());
+        }
+    }
+
+    @Test
+    public void testCompactResultsKeepNoRays() {
+        OpticalSystem system = TestPrimitiveRayTracer.tessar(false, Vector3.vector3_001);
+        Image image = find(system, Image.class);
+        RayTraceParameters parameters = parameters(system);
+        parameters.set_compact_results(image);
+        RayTraceResults result = new SequentialRayTracer().trace(system, parameters);
+
+        Assertions.assertTrue(result.get_intercept_columns(image).get_count() > 0);
+        Assertions.assertArrayEquals(new double[]{SpectralLine.d, SpectralLine.C, SpectralLine.F},
+                result.get_wavelengths());
+        Assertions.assertTrue(result.get_intercepted(image).isEmpty());
+        Assertions.assertTrue(result.get_generated(image).isEmpty());
+        Assertions.assertEquals(0.0, result.get_max_ray_intensity());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> result.get_intercept_columns(find(system, Stop.class)));
+        RayTraceResults full = new SequentialRayTracer().trace(system, parameters(system));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> full.get_intercept_columns(image));
+    }
+}
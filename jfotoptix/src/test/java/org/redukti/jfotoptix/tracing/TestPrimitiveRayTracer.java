@@ -0,0 +1,164 @@
+package org.redukti.jfotoptix.tracing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.jfotoptix.curve.Asphere;
+import org.redukti.jfotoptix.curve.Conic;
+import org.redukti.jfotoptix.curve.Flat;
+import org.redukti.jfotoptix.light.SpectralLine;
+import org.redukti.jfotoptix.math.Vector3;
+import org.redukti.jfotoptix.math.Vector3Pair;
+import org.redukti.jfotoptix.medium.Abbe;
+import org.redukti.jfotoptix.model.*;
+import org.redukti.jfotoptix.patterns.Distribution;
+import org.redukti.jfotoptix.patterns.Pattern;
+import org.redukti.jfotoptix.shape.Disk;
+import org.redukti.jfotoptix.shape.Rectangle;
+
+import java.util.List;
+
+public class TestPrimitiveRayTracer {
+
+    public static OpticalSystem tessar(boolean aspheric, Vector3 field) {
+        OpticalSystem.Builder systemBuilder = new OpticalSystem.Builder();
+        Lens.Builder lensBuilder = new Lens.Builder()
+                .position(Vector3Pair.position_000_001);
+        if (aspheric)
+            lensBuilder.add_surface(new Asphere(1/0.031186861, 0.9, -2.5e-6, 1.1e-8, 0, 0, 0, 0, 0, 0, 0),
+                    new Disk(14.934638), 4.627804137,
+                    new Abbe(Abbe.AbbeFormula.AbbeVd, 1.607170, 59.5002, 0.0));
+        else
+            lensBuilder.add_surface(1/0.031186861, 14.934638, 4.627804137,
+                    new Abbe(Abbe.AbbeFormula.AbbeVd, 1.607170, 59.5002, 0.0));
+        lensBuilder.add_surface(0, 14.934638, 5.417429465)
+                .add_surface(1/-0.014065441, 12.766446, 3.728230979,
+                        new Abbe(Abbe.AbbeFormula.AbbeVd, 1.575960, 41.2999, 0.0));
+        if (aspheric)
+            lensBuilder.add_surface(new Conic(1/0.034678487, -0.4), new Disk(11.918098), 4.417903733, null);
+        else
+            lensBuilder.add_surface(1/0.034678487, 11.918098, 4.417903733);
+        lensBuilder.add_stop(12.066273, 2.288913925, true)
+                .add_surface(0, 12.372318, 1.499288597,
+                        new Abbe(Abbe.AbbeFormula.AbbeVd, 1.526480, 51.4000, 0.0))
+                .add_surface(1/0.035104369, 14.642815, 7.996205852,
+                        new Abbe(Abbe.AbbeFormula.AbbeVd, 1.623770, 56.8998, 0.0))
+                .add_surface(1/-0.021187519, 14.642815, 85.243965130);
+        systemBuilder.add(lensBuilder);
+        Image.Builder imagePlaneBuilder = new Image.Builder()
+                .position(new Vector3Pair(new Vector3(0, 0, 125.596), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(new Rectangle(5.0 * 2));
+        systemBuilder.add(imagePlaneBuilder);
+
+        PointSource.Builder ps = new PointSource.Builder(PointSource.SourceInfinityMode.SourceAtInfinity, field)
+                .add_spectral_line(SpectralLine.d)
+                .add_spectral_line(SpectralLine.C)
+                .add_spectral_line(SpectralLine.F);
+        systemBuilder.add(ps);
+        return systemBuilder.build();
+    }
+
+    static void check(OpticalSystem system, Pattern pattern) {
+        RayTraceParameters parameters = new RayTraceParameters(system);
+        parameters.set_default_distribution(new Distribution(pattern, 10, 0.999));
+        RayTraceResults result = new SequentialRayTracer().trace(system, parameters);
+
+        PointSource source = null;
+        Image image = null;
+        for (Element e : parameters.get_sequence()) {
+            if (e instanceof PointSource ps)
+                source = ps;
+            else if (e instanceof Image im)
+                image = im;
+        }
+        TracePlan plan = new TracePlan(parameters, source,
+                new double[]{SpectralLine.d, SpectralLine.C, SpectralLine.F});
+        Assertions.assertSame(image, plan.get_element(plan.get_num_elements() - 1));
+
+        List<TracedRay> generated = result.get_generated(source);
+        List<TracedRay> intercepted = result.get_intercepted(image);
+        PrimitiveRayTracer tracer = new PrimitiveRayTracer(plan, generated.size());
+        tracer.set_rays(generated);
+        int nok = tracer.trace();
+        Assertions.assertEquals(intercepted.size(), nok);
+        Assertions.assertEquals(nok, tracer.trace());   // ray starts survive a trace
+        Assertions.assertTrue(nok > 0);
+
+        int j = 0;
+        for (int i = 0; i < tracer.get_count(); i++) {
+            if (!tracer.is_ok(i)) {
+                Assertions.assertNotEquals(PrimitiveRayTracer.RAY_WRONG_MEDIUM, tracer.get_status(i));
+                continue;
+            }
+            TracedRay ray = intercepted.get(j++);
+            Assertions.assertEquals(plan.wavelength_index(ray.get_wavelen()), tracer.wavelen[i]);
+            Vector3 p = ray.get_intercept_point();
+            Assertions.assertEquals(p.x(), tracer.get_x(i));   // same arithmetic, same bits
+            Assertions.assertEquals(p.y(), tracer.get_y(i));
+            Assertions.assertEquals(p.z(), tracer.get_z(i));
+        }
+    }
+
+    @Test
+    public void testMatchesSequentialRayTracer() {
+        Vector3 axis = Vector3.vector3_001;
+        Vector3 field = new Vector3(0, Math.sin(Math.toRadians(2.5)), Math.cos(Math.toRadians(2.5)));
+        check(tessar(false, axis), Pattern.MeridionalDist);
+        check(tessar(false, axis), Pattern.HexaPolarDist);
+        check(tessar(false, field), Pattern.HexaPolarDist);
+        check(tessar(true, axis), Pattern.HexaPolarDist);
+        check(tessar(true, field), Pattern.HexaPolarDist);
+    }
+
+    @Test
+    public void testStopEdge() {
+        // a stop of radius 5 has an external radius of 10, inclusive as in the RayTracer
+        OpticalSystem.Builder systemBuilder = new OpticalSystem.Builder();
+        systemBuilder.add(new Lens.Builder()
+                .position(Vector3Pair.position_000_001)
+                .add_stop(5, 10, true));
+        systemBuilder.add(new Image.Builder()
+                .position(new Vector3Pair(new Vector3(0, 0, 10), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(new Rectangle(10)));
+        systemBuilder.add(new PointSource.Builder(PointSource.SourceInfinityMode.SourceAtInfinity, Vector3.vector3_001)
+                .add_spectral_line(SpectralLine.d));
+        OpticalSystem system = systemBuilder.build();
+        RayTraceParameters parameters = new RayTraceParameters(system);
+        PointSource source = (PointSource) parameters.get_sequence().stream()
+                .filter(e -> e instanceof PointSource).findFirst().orElseThrow();
+        TracePlan plan = new TracePlan(parameters, source, new double[]{SpectralLine.d});
+
+        double[] radii = {1.0, 10.0, Math.nextUp(10.0)};
+        PrimitiveRayTracer tracer = new PrimitiveRayTracer(plan, radii.length);
+        tracer.set_count(radii.length);
+        for (int i = 0; i < radii.length; i++)
+            tracer.set_ray(i, radii[i], 0, -1, 0, 0, 1, 0);
+        Assertions.assertEquals(1, tracer.trace());
+        Assertions.assertTrue(tracer.is_ok(0));
+        Assertions.assertEquals(PrimitiveRayTracer.RAY_STOPPED, tracer.get_status(1));
+        Assertions.assertEquals(PrimitiveRayTracer.RAY_CLIPPED, tracer.get_status(2));
+    }
+
+    @Test
+    public void testUnsupportedCurve() {
+        OpticalSystem.Builder systemBuilder = new OpticalSystem.Builder();
+        systemBuilder.add(new Lens.Builder()
+                .position(Vector3Pair.position_000_001)
+                .add_surface(new Asphere(30, 1.0, 1e-6, 0, 0, 0, 0, 0, 0, 0, 0, false),
+                        new Disk(10), 5, new Abbe(Abbe.AbbeFormula.AbbeVd, 1.5168, 64.17, 0.0))
+                .add_surface(0, 10, 50));
+        systemBuilder.add(new Image.Builder()
+                .position(new Vector3Pair(new Vector3(0, 0, 55), Vector3.vector3_001))
+                .curve(Flat.flat)
+                .shape(new Rectangle(10)));
+        PointSource.Builder ps = new PointSource.Builder(PointSource.SourceInfinityMode.SourceAtInfinity, Vector3.vector3_001)
+                .add_spectral_line(SpectralLine.d);
+        systemBuilder.add(ps);
+        OpticalSystem system = systemBuilder.build();
+        RayTraceParameters parameters = new RayTraceParameters(system);
+        PointSource source = (PointSource) parameters.get_sequence().get(0);
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> new TracePlan(parameters, source, new double[]{SpectralLine.d}));
+    }
+}
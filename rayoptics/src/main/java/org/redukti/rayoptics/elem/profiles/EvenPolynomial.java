@@ -2,9 +2,12 @@ package org.redukti.rayoptics.elem.profiles;
 
 import org.redukti.mathlib.Vector2;
 import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.elem.surface.IntersectionResult;
 import org.redukti.rayoptics.exceptions.TraceMissedSurfaceException;
+import org.redukti.rayoptics.util.ZDir;
 
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Even Polynomial asphere up to 20th order, on base conic.
@@ -15,6 +18,12 @@ public class EvenPolynomial extends SurfaceProfile {
     double[] coefs;
     int max_nonzero_coef;
 
+    /**
+     * number of ray intersections, and of Newton steps taken by them
+     */
+    final LongAdder intersections = new LongAdder();
+    final LongAdder newton_steps = new LongAdder();
+
     /**
      * initialize a EvenPolynomial profile.
      *
@@ -127,6 +136,84 @@ public class EvenPolynomial extends SurfaceProfile {
         return z_tot;
     }
 
+    /**
+     * Intersect the profile, starting from the exact intersection with the
+     * base conic, so that Newton steps only correct for the polynomial terms.
+     * <p>
+     * The Newton iteration is that of Spencer and Murty, as in
+     * SurfaceProfile.intersect(), worked on scalars.
+     *
+     * @param p0 start point of the ray in the profile's coordinate system
+     * @param d direction cosine of the ray in the profile's coordinate system
+     * @param eps numeric tolerance for convergence of any iterative procedure
+     * @param z_dir +1 if propagation positive direction, -1 if otherwise
+     * @return tuple: distance to intersection point *s1*, intersection point *p*,
+     *         or IntersectionResult.MISSED
+     */
+    @Override
+    public IntersectionResult intersect(Vector3 p0, Vector3 d, double eps, ZDir z_dir) {
+        // ray against c*(x^2 + y^2 + ec*z^2) - 2*z = 0, solved as Spherical does
+        double ec = ec();
+        double ax2 = cv * (d.x * d.x + d.y * d.y + ec * d.z * d.z);
+        double cx2 = cv * (p0.x * p0.x + p0.y * p0.y + ec * p0.z * p0.z) - 2.0 * p0.z;
+        double b = cv * (d.x * p0.x + d.y * p0.y + ec * d.z * p0.z) - d.z;
+        double s1 = cx2 / (z_dir.value * Math.sqrt(b * b - ax2 * cx2) - b);
+        if (!Double.isFinite(s1))
+            s1 = 0.0; // the conic is missed, start from p0 as Spencer and Murty do
+
+        int iter = 0;
+        double delta;
+        do {
+            double x = p0.x + d.x * s1;
+            double y = p0.y + d.y * s1;
+            double z = p0.z + d.z * s1;
+            double r2 = x * x + y * y;
+            double t = 1. - ec * cv * cv * r2;
+            if (t < 0)
+                return IntersectionResult.MISSED;
+            double sqrt_t = Math.sqrt(t);
+            double z_sag = cv * r2 / (1. + sqrt_t);
+            double e = cv / sqrt_t;
+            double r_pow = 1.0;
+            double c_coef = 2.0;
+            for (int i = 0; i < max_nonzero_coef; i++) {
+                z_sag += coefs[i] * r_pow * r2;
+                e += c_coef * coefs[i] * r_pow;
+                c_coef += 2.0;
+                r_pow *= r2;
+            }
+            // f(p) and dot(d, df(p))
+            double f = z - z_sag;
+            double d_df = d.z - e * (d.x * x + d.y * y);
+            double s2 = s1 - f / d_df;
+            delta = Math.abs(s2 - s1);
+            s1 = s2;
+            iter++;
+        } while (delta > eps && iter < 1000);
+        intersections.increment();
+        newton_steps.add(iter);
+        return new IntersectionResult(s1, p0.add(d.times(s1)));
+    }
+
+    /**
+     * Returns the number of rays intersected with this profile.
+     */
+    public long intersections() {
+        return intersections.sum();
+    }
+
+    /**
+     * Returns the number of Newton steps taken by all the intersections.
+     */
+    public long newton_steps() {
+        return newton_steps.sum();
+    }
+
+    public void reset_counts() {
+        intersections.reset();
+        newton_steps.reset();
+    }
+
     @Override
     public List<Vector2> profile(double[] sd, int dir, int steps) {
         return null;
@@ -138,11 +225,11 @@ public class EvenPolynomial extends SurfaceProfile {
     }
 
     void gen_coef_list() {
+        max_nonzero_coef = 0;
         for (int i = 0; i < coefs.length; i++) {
             if (coefs[i] != 0.0)
-                max_nonzero_coef = i;
+                max_nonzero_coef = i + 1;
         }
-        max_nonzero_coef++;
     }
 
     @Override
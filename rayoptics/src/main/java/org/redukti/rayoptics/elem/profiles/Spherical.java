@@ -83,12 +83,10 @@ public class Spherical extends SurfaceProfile {
         double ax2 = cv;
         double cx2 = cv * p.lengthSquared() - 2.0 * p.z;
         double b = cv * d.dot(p) - d.z;
-        double s = 0.0;
-        try {
-            s = cx2 / (z_dir.value * Math.sqrt(b * b - ax2 * cx2) - b);
-        } catch (Exception e) {
-            throw new TraceMissedSurfaceException(e);
-        }
+        double disc = b * b - ax2 * cx2;
+        if (disc < 0.0)
+            return IntersectionResult.MISSED;
+        double s = cx2 / (z_dir.value * Math.sqrt(disc) - b);
         Vector3 p1 = p.add(d.times(s));
         return new IntersectionResult(s, p1);
     }
@@ -78,7 +78,8 @@ public abstract class SurfaceProfile {
      * @param d direction cosine of the ray in the profile's coordinate system
      * @param eps numeric tolerance for convergence of any iterative procedure
      * @param z_dir +1 if propagation positive direction, -1 if otherwise
-     * @return tuple: distance to intersection point *s1*, intersection point *p*
+     * @return tuple: distance to intersection point *s1*, intersection point *p*;
+     *         the distance is NaN if the ray misses the profile
      */
     public IntersectionResult intersect(Vector3 p0, Vector3 d, double eps, ZDir z_dir) {
         return intersect_spencer(p0, d, eps, z_dir);
@@ -96,7 +97,7 @@ public abstract class SurfaceProfile {
      * @param z_dir +1 if propagation positive direction, -1 if otherwise
      * @return tuple: distance to intersection point *s1*, intersection point *p*
      */
-    private IntersectionResult intersect_spencer(Vector3 p0, Vector3 d, double eps, ZDir z_dir) {
+    IntersectionResult intersect_spencer(Vector3 p0, Vector3 d, double eps, ZDir z_dir) {
         Vector3 p = p0;
         double s1 = -f(p) / d.dot(df(p));   // -f(p)/dot(d, df(p))
         double delta = Math.abs(s1);
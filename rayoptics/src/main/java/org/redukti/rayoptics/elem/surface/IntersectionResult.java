@@ -16,4 +16,13 @@ public class IntersectionResult {
         this.distance = x;
         this.intersection_point = v;
     }
+
+    /**
+     * result for a ray that misses the surface
+     */
+    public static final IntersectionResult MISSED = new IntersectionResult(Double.NaN, null);
+
+    public boolean is_missed() {
+        return Double.isNaN(distance);
+    }
 }
@@ -3,6 +3,9 @@ package org.redukti.rayoptics.exceptions;
 import org.redukti.mathlib.Vector3;
 
 public class TraceTIRException extends TraceException {
+    public TraceTIRException() {
+    }
+
     public TraceTIRException(Vector3 d_in, Vector3 normal, Double n_in, Double n_out) {
         super();
     }
@@ -0,0 +1,133 @@
+package org.redukti.rayoptics.raytr;
+
+import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.specs.Field;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ray aiming solutions of a sequential model, by field, wavelength
+ * and target on the aiming surface.
+ * <p>
+ * A solution is reused while the model version, the object point and
+ * the aiming plane distance it was solved for are unchanged. Otherwise
+ * it is still kept, as the starting point for solving the changed model.
+ */
+public class AimCache {
+
+    static final class Key {
+        final int ifcx;
+        final double fld_x;
+        final double fld_y;
+        final double wvl;
+        final double target_x;
+        final double target_y;
+
+        Key(int ifcx, Field fld, double wvl, double[] xy_target) {
+            this.ifcx = ifcx;
+            this.fld_x = fld.x;
+            this.fld_y = fld.y;
+            this.wvl = wvl;
+            this.target_x = xy_target[0];
+            this.target_y = xy_target[1];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return ifcx == key.ifcx && fld_x == key.fld_x && fld_y == key.fld_y && wvl == key.wvl
+                    && target_x == key.target_x && target_y == key.target_y;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ifcx, fld_x, fld_y, wvl, target_x, target_y);
+        }
+    }
+
+    static final class Solution {
+        final int version;
+        final Vector3 pt0;
+        final double dist;
+        final double[] aim_pt;
+
+        Solution(int version, Vector3 pt0, double dist, double[] aim_pt) {
+            this.version = version;
+            this.pt0 = pt0;
+            this.dist = dist;
+            this.aim_pt = aim_pt;
+        }
+
+        boolean is_current(int version, Vector3 pt0, double dist) {
+            return this.version == version && this.pt0.equals(pt0) && this.dist == dist;
+        }
+    }
+
+    private final Map<Key, Solution> solutions = new ConcurrentHashMap<>();
+
+    /**
+     * number of aims answered from the cache, of aims solved, of those
+     * started from a stale solution, and of rays traced by the solvers
+     */
+    final LongAdder hits = new LongAdder();
+    final LongAdder solves = new LongAdder();
+    final LongAdder warm_starts = new LongAdder();
+    final LongAdder evals = new LongAdder();
+
+    Solution get(Key key) {
+        return solutions.get(key);
+    }
+
+    void put(Key key, int version, Vector3 pt0, double dist, double[] aim_pt) {
+        solutions.put(key, new Solution(version, pt0, dist, Arrays.copyOf(aim_pt, aim_pt.length)));
+    }
+
+    public int size() {
+        return solutions.size();
+    }
+
+    public void clear() {
+        solutions.clear();
+    }
+
+    /**
+     * Returns the number of aims answered from the cache, without solving.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of aims solved.
+     */
+    public long solves() {
+        return solves.sum();
+    }
+
+    /**
+     * Returns the number of aims solved starting from a stale solution.
+     */
+    public long warm_starts() {
+        return warm_starts.sum();
+    }
+
+    /**
+     * Returns the number of rays traced by the aiming solvers.
+     */
+    public long evals() {
+        return evals.sum();
+    }
+
+    public void reset_counts() {
+        hits.reset();
+        solves.reset();
+        warm_starts.reset();
+        evals.reset();
+    }
+}
@@ -192,11 +192,9 @@ public class Analysis {
     public static void trace_safe(OpticalModel opt_model, Vector2 pupil, Field fld, double wvl,
                                   List<RayFanItem> ray_list, String output_filter, String rayerr_filter) {
 
-        RayPkg ray_pkg;
-        try {
-            ray_pkg = Trace.trace_base(opt_model, pupil.as_array(), fld, wvl);
-        } catch (Exception e) {
-            // TODO
+        RayPkg ray_pkg = Trace.trace_base(opt_model, pupil.as_array(), fld, wvl, false);
+        if (!ray_pkg.is_traced()) {
+            // TODO rayerr_filter
             return;
         }
         if (output_filter == null)
@@ -10,8 +10,29 @@ public class RayDataFrame {
     public final Vector3[] after_dir;
     public final double[] after_dst;
     public final Vector3[] normal;
+    /**
+     * whether the ray was traced through, or why it failed
+     */
+    public final RayPkg.Status status;
+    /**
+     * index of the surface the ray failed at, if it failed
+     */
+    public final int fail_surf;
 
     public RayDataFrame(List<RaySeg> raySegList) {
+        this(raySegList, RayPkg.Status.TRACED, 0);
+    }
+
+    /**
+     * The ray of ray_pkg, up to the surface it failed at if it failed
+     */
+    public RayDataFrame(RayPkg ray_pkg) {
+        this(ray_pkg.ray, ray_pkg.status, ray_pkg.fail_surf);
+    }
+
+    private RayDataFrame(List<RaySeg> raySegList, RayPkg.Status status, int fail_surf) {
+        this.status = status;
+        this.fail_surf = fail_surf;
         int size = raySegList.size();
         inc_pt = new Vector3[size];
         after_dir = new Vector3[size];
@@ -26,4 +47,8 @@ public class RayDataFrame {
         }
     }
 
+    public boolean is_traced() {
+        return status == RayPkg.Status.TRACED;
+    }
+
 }
@@ -0,0 +1,268 @@
+package org.redukti.rayoptics.raytr;
+
+import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.optical.OpticalModel;
+import org.redukti.rayoptics.parax.firstorder.FirstOrderData;
+import org.redukti.rayoptics.seq.SequentialModel;
+import org.redukti.rayoptics.specs.Field;
+import org.redukti.rayoptics.specs.OpticalSpecs;
+import org.redukti.rayoptics.util.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A grid of rays across the pupil, traced at every field and wavelength
+ * of the optical spec, giving spot diagrams, RMS spot sizes and OPD maps.
+ * <p>
+ * The rays are traced in parallel, on the common fork-join pool or on
+ * one given to the constructor; the model must not be changed while
+ * the grid is computed. Results are held in flat arrays indexed by
+ * index(fi, wi, i), where i is the index of the pupil sample. Rays that
+ * fail to trace have NaN results.
+ * <p>
+ * Attributes:
+ * opt_model: :class:`~.OpticalModel` instance
+ * num_rays: number of samples across the pupil diameter
+ * pattern: square or hexagonal sampling of the pupil
+ * foc: focus shift to apply to the results
+ * pupil_x, pupil_y: relative pupil coordinates of the samples within the unit circle
+ * x, y: transverse aberration of each ray wrt the chief ray, in the defocussed image plane
+ * opd: optical path difference of each ray, in waves at the central wavelength
+ */
+public class RayGrid {
+
+    public enum Pattern {
+        SQUARE,
+        HEX
+    }
+
+    public final OpticalModel opt_model;
+    public final int num_rays;
+    public final Pattern pattern;
+    public final double foc;
+    public final Field[] flds;
+    public final double[] wvls;
+    public final double[] pupil_x;
+    public final double[] pupil_y;
+    public final double[] x;
+    public final double[] y;
+    public final double[] opd;
+
+    public RayGrid(OpticalModel opt_model, int num_rays, Pattern pattern, Double foc) {
+        this(opt_model, num_rays, pattern, foc, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * As RayGrid(opt_model, num_rays, pattern, foc), tracing the rays on the
+     * given pool, or on the calling thread if pool is null.
+     */
+    public RayGrid(OpticalModel opt_model, int num_rays, Pattern pattern, Double foc, ForkJoinPool pool) {
+        if (num_rays < 2)
+            throw new IllegalArgumentException("num_rays must be at least 2");
+        this.opt_model = opt_model;
+        OpticalSpecs osp = opt_model.optical_spec;
+        this.num_rays = num_rays;
+        this.pattern = pattern;
+        this.foc = foc == null ? osp.defocus().focus_shift : foc;
+        this.flds = osp.field_of_view.fields;
+        this.wvls = osp.spectral_region.wavelengths;
+
+        List<double[]> samples = pattern == Pattern.HEX ? hex_grid(num_rays) : square_grid(num_rays);
+        pupil_x = new double[samples.size()];
+        pupil_y = new double[samples.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            pupil_x[i] = samples.get(i)[0];
+            pupil_y[i] = samples.get(i)[1];
+        }
+        int size = flds.length * wvls.length * pupil_x.length;
+        x = new double[size];
+        y = new double[size];
+        opd = new double[size];
+
+        update_data(pool);
+    }
+
+    static List<double[]> square_grid(int num_rays) {
+        List<double[]> samples = new ArrayList<>();
+        double step = 2.0 / (num_rays - 1);
+        for (int j = 0; j < num_rays; j++) {
+            for (int i = 0; i < num_rays; i++) {
+                double px = -1.0 + i * step;
+                double py = -1.0 + j * step;
+                if (px * px + py * py <= 1.0 + 1e-12)
+                    samples.add(new double[]{px, py});
+            }
+        }
+        return samples;
+    }
+
+    static List<double[]> hex_grid(int num_rays) {
+        List<double[]> samples = new ArrayList<>();
+        double step = 2.0 / (num_rays - 1);
+        double row_step = step * Math.sqrt(3.0) / 2.0;
+        int rows = (int) Math.floor(1.0 / row_step);
+        for (int j = -rows; j <= rows; j++) {
+            // odd rows are offset by half a step, so that the samples form triangles
+            double offset = (j & 1) != 0 ? step / 2.0 : 0.0;
+            double py = j * row_step;
+            for (double px = offset - 1.0; px <= 1.0 + 1e-12; px += step) {
+                if (px * px + py * py <= 1.0 + 1e-12)
+                    samples.add(new double[]{px, py});
+            }
+        }
+        return samples;
+    }
+
+    public int num_samples() {
+        return pupil_x.length;
+    }
+
+    public int index(int fi, int wi, int i) {
+        return (fi * wvls.length + wi) * pupil_x.length + i;
+    }
+
+    void update_data(ForkJoinPool pool) {
+        OpticalSpecs osp = opt_model.optical_spec;
+        SequentialModel seq_model = opt_model.seq_model;
+        FirstOrderData fod = osp.parax_data.fod;
+        double convert_to_opd = 1 / opt_model.nm_to_sys_units(osp.spectral_region.central_wvl());
+        double eprad = fod.enp_radius;
+        double enp_z = fod.obj_dist + fod.enp_dist;
+
+        // chief rays and reference spheres are traced up front, as is the
+        // path for each wavelength, so the parallel part only reads the model
+        int nw = wvls.length;
+        ChiefRayPkg[] cr_pkgs = new ChiefRayPkg[flds.length * nw];
+        RefSphere[] ref_spheres = new RefSphere[flds.length * nw];
+        Vector3[] obj_pts = new Vector3[flds.length];
+        for (int wi = 0; wi < nw; wi++)
+            seq_model.trace_path(wvls[wi]);
+        for (int fi = 0; fi < flds.length; fi++) {
+            obj_pts[fi] = osp.obj_coords(flds[fi]);
+            for (int wi = 0; wi < nw; wi++) {
+                ChiefRayPkg cr_pkg = Trace.trace_chief_ray(opt_model, flds[fi], wvls[wi], foc);
+                cr_pkgs[fi * nw + wi] = cr_pkg;
+                ref_spheres[fi * nw + wi] = Analysis.setup_exit_pupil_coords(opt_model, flds[fi], wvls[wi], foc,
+                        cr_pkg, null);
+            }
+        }
+
+        IntConsumer trace_ray = k -> {
+            int i = k % pupil_x.length;
+            int fw = k / pupil_x.length;
+            int fi = fw / nw;
+            int wi = fw % nw;
+            Field fld = flds[fi];
+            double wvl = wvls[wi];
+
+            // as Trace.trace_base()
+            double[] vig_pupil = fld.apply_vignetting(new double[]{pupil_x[i], pupil_y[i]});
+            double[] aim_pt = fld.aim_pt != null ? fld.aim_pt : new double[]{0., 0.};
+            Vector3 pt1 = new Vector3(eprad * vig_pupil[0] + aim_pt[0],
+                    eprad * vig_pupil[1] + aim_pt[1],
+                    enp_z);
+            Vector3 pt0 = obj_pts[fi];
+            Vector3 dir0 = pt1.minus(pt0).normalize();
+            RayPkg ray_pkg = RayTrace.trace_with_status(seq_model, pt0, dir0, wvl);
+            if (!ray_pkg.is_traced()) {
+                x[k] = y[k] = opd[k] = Double.NaN;
+                return;
+            }
+
+            // as Analysis.focus_fan()
+            ChiefRayPkg cr_pkg = cr_pkgs[fw];
+            RefSphere ref_sphere = ref_spheres[fw];
+            RaySeg last = Lists.get(ray_pkg.ray, -1);
+            double dist = foc / last.d.z;
+            Vector3 defocused_pt = last.p.plus(last.d.times(dist));
+            x[k] = defocused_pt.x - ref_sphere.image_pt.x;
+            y[k] = defocused_pt.y - ref_sphere.image_pt.y;
+            WaveAbrPreCalc pre_opd_pkg = Analysis.wave_abr_pre_calc(fod, fld, wvl, foc, ray_pkg, cr_pkg);
+            opd[k] = convert_to_opd * Analysis.wave_abr_calc(fod, fld, wvl, foc, ray_pkg, cr_pkg,
+                    pre_opd_pkg, ref_sphere);
+        };
+        // a parallel stream started in a task of the pool runs in that pool
+        if (pool == null)
+            IntStream.range(0, x.length).forEach(trace_ray);
+        else
+            pool.submit(() -> IntStream.range(0, x.length).parallel().forEach(trace_ray)).join();
+    }
+
+    /**
+     * Returns the RMS spot radius about the centroid at field fi and wavelength wi.
+     */
+    public double rms_spot(int fi, int wi) {
+        double[] wts = new double[wvls.length];
+        wts[wi] = 1.0;
+        return rms_spot(fi, wts);
+    }
+
+    /**
+     * Returns the RMS spot radius about the centroid at field fi,
+     * over all wavelengths weighted by the spectral weights.
+     */
+    public double rms_spot(int fi) {
+        return rms_spot(fi, opt_model.optical_spec.spectral_region.spectral_wts);
+    }
+
+    private double rms_spot(int fi, double[] wts) {
+        double sw = 0, sx = 0, sy = 0;
+        for (int wi = 0; wi < wvls.length; wi++) {
+            if (wts[wi] == 0.0)
+                continue;
+            for (int k = index(fi, wi, 0); k < index(fi, wi, pupil_x.length); k++) {
+                if (Double.isNaN(x[k]))
+                    continue;
+                sw += wts[wi];
+                sx += wts[wi] * x[k];
+                sy += wts[wi] * y[k];
+            }
+        }
+        if (sw == 0.0)
+            return Double.NaN;
+        double cx = sx / sw;
+        double cy = sy / sw;
+        double s2 = 0;
+        for (int wi = 0; wi < wvls.length; wi++) {
+            if (wts[wi] == 0.0)
+                continue;
+            for (int k = index(fi, wi, 0); k < index(fi, wi, pupil_x.length); k++) {
+                if (Double.isNaN(x[k]))
+                    continue;
+                double dx = x[k] - cx;
+                double dy = y[k] - cy;
+                s2 += wts[wi] * (dx * dx + dy * dy);
+            }
+        }
+        return Math.sqrt(s2 / sw);
+    }
+
+    /**
+     * Returns the RMS wavefront error, with piston removed, at field fi and wavelength wi.
+     */
+    public double rms_opd(int fi, int wi) {
+        int n = 0;
+        double sum = 0;
+        for (int k = index(fi, wi, 0); k < index(fi, wi, pupil_x.length); k++) {
+            if (Double.isNaN(opd[k]))
+                continue;
+            n++;
+            sum += opd[k];
+        }
+        if (n == 0)
+            return Double.NaN;
+        double mean = sum / n;
+        double s2 = 0;
+        for (int k = index(fi, wi, 0); k < index(fi, wi, pupil_x.length); k++) {
+            if (Double.isNaN(opd[k]))
+                continue;
+            double d = opd[k] - mean;
+            s2 += d * d;
+        }
+        return Math.sqrt(s2 / n);
+    }
+}
@@ -6,6 +6,13 @@ import java.util.List;
  * Ray and optical path length, plus wavelength
  */
 public class RayPkg {
+
+    public enum Status {
+        TRACED,
+        MISSED_SURFACE,
+        TIR
+    }
+
     /**
      * List of RaySegs for each interface in the path,
      * Each RaySeg contains
@@ -23,6 +30,14 @@ public class RayPkg {
      * wavelength (in nm) that the ray was traced in
      */
     public double wvl;
+    /**
+     * whether the ray was traced through, or why it failed
+     */
+    public Status status = Status.TRACED;
+    /**
+     * index of the surface the ray failed at, if it failed
+     */
+    public int fail_surf;
 
     public RayPkg(List<RaySeg> ray, double op_delta, double wvl) {
         this.ray = ray;
@@ -30,12 +45,23 @@ public class RayPkg {
         this.wvl = wvl;
     }
 
+    RayPkg(List<RaySeg> ray, double op_delta, double wvl, Status status, int fail_surf) {
+        this(ray, op_delta, wvl);
+        this.status = status;
+        this.fail_surf = fail_surf;
+    }
+
+    public boolean is_traced() {
+        return status == Status.TRACED;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "(" +
                 "ray=" + ray +
                 ", op_delta=" + op_delta +
                 ", wvl=" + wvl +
+                (status != Status.TRACED ? ", status=" + status + ", fail_surf=" + fail_surf : "") +
                 ')';
     }
 }
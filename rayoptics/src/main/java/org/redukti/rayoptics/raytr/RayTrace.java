@@ -15,7 +15,6 @@ import org.redukti.rayoptics.util.ZDir;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
 
 public class RayTrace {
 
@@ -50,11 +49,47 @@ public class RayTrace {
      * @param wvl
      */
     public static RayPkg trace(SequentialModel seq_model, Vector3 pt0, Vector3 dir0, double wvl) {
-        List<SeqPathComponent> path = seq_model.path(wvl, null, null, 1);
+        return trace_raw(seq_model.trace_path(wvl), pt0, dir0, wvl, default_options(seq_model, true));
+    }
+
+    /**
+     * As trace(), but a ray that misses a surface or is totally internally
+     * reflected is returned with its RayPkg.status set instead of thrown.
+     * For analyses that trace many rays, some of which are expected to fail.
+     */
+    static RayPkg trace_with_status(SequentialModel seq_model, Vector3 pt0, Vector3 dir0, double wvl) {
+        return trace_raw(seq_model.trace_path(wvl), pt0, dir0, wvl, default_options(seq_model, false));
+    }
+
+    /**
+     * Traces several rays in the same wavelength along one path.
+     * <p>
+     * Rays that miss a surface or are totally internally reflected
+     * are returned with their RayPkg.status set rather than thrown.
+     *
+     * @param seq_model the sequential model to be traced
+     * @param pt0       starting points in coords of first interface
+     * @param dir0      starting direction cosines in coords of first interface
+     * @param wvl       wavelength in nm
+     * @return a RayPkg per starting ray, as trace() returns it
+     */
+    public static RayPkg[] trace(SequentialModel seq_model, Vector3[] pt0, Vector3[] dir0, double wvl) {
+        if (pt0.length != dir0.length)
+            throw new IllegalArgumentException("pt0 and dir0 must have the same length");
+        List<SeqPathComponent> path = seq_model.trace_path(wvl);
+        RayTraceOptions options = default_options(seq_model, false);
+        RayPkg[] pkgs = new RayPkg[pt0.length];
+        for (int i = 0; i < pt0.length; i++)
+            pkgs[i] = trace_raw(path, pt0[i], dir0[i], wvl, options);
+        return pkgs;
+    }
+
+    private static RayTraceOptions default_options(SequentialModel seq_model, boolean throw_trace_errors) {
         RayTraceOptions options = new RayTraceOptions();
         options.first_surf = 1;
         options.last_surf = seq_model.get_num_surfaces()-2;
-        return trace_raw(path, pt0, dir0, wvl, options);
+        options.throw_trace_errors = throw_trace_errors;
+        return options;
     }
 
     private static boolean in_surface_range(int first_surf, Integer last_surf, int s, boolean include_last_surf) {
@@ -143,126 +178,151 @@ public class RayTrace {
         Vector3 normal = null;
 
         // loop of remaining surfaces in path
-        while (true) {
+        while (iter.hasNext()) {
+            SeqPathComponent after = iter.next();
+            Matrix3 rt = tfrm_from_before.rot_mat;
+            Vector3 t = tfrm_from_before.vec;
+            Vector3 b4_pt = rt.multiply(before_pt.minus(t));
+            Vector3 b4_dir = rt.multiply(before_dir);
+            double pp_dst = -b4_pt.dot(b4_dir);
+            Vector3 pp_pt_before = b4_pt.plus(b4_dir.times(pp_dst));
+
+            Interface ifc = after.ifc;
+            ZDir z_dir_after = after.z_dir;
 
-            double pp_dst = 0.0;
-            Interface ifc = null;
+            // intersect ray with profile
             try {
-                SeqPathComponent after = iter.next();
-                Matrix3 rt = tfrm_from_before.rot_mat;
-                Vector3 t = tfrm_from_before.vec;
-                Vector3 b4_pt = rt.multiply(before_pt.minus(t));
-                Vector3 b4_dir = rt.multiply(before_dir);
-                pp_dst = -b4_pt.dot(b4_dir);
-                Vector3 pp_pt_before = b4_pt.plus(b4_dir.times(pp_dst));
-
-                ifc = after.ifc;
-                ZDir z_dir_after = after.z_dir;
-
-                // intersect ray with profile
                 intersection = ifc.intersect(pp_pt_before, b4_dir, options.eps, z_dir_before);
-                double pp_dst_intrsct = intersection.distance;
-                inc_pt = intersection.intersection_point;
-                dst_b4 = pp_dst + pp_dst_intrsct;
-                ray.add(new RaySeg(before_pt, before_dir, dst_b4, before_normal));
+                if (!intersection.is_missed())
+                    normal = ifc.normal(intersection.intersection_point);
+            } catch (TraceMissedSurfaceException ray_miss) {
+                // raised by a profile evaluated off its domain
+                intersection = IntersectionResult.MISSED;
+            }
+            if (intersection.is_missed()) {
+                ray.add(new RaySeg(before_pt, before_dir, pp_dst, before_normal));
+                return missed_surface(ray, opl, wvl, surf + 1, ifc, before.transform3, options);
+            }
+            double pp_dst_intrsct = intersection.distance;
+            inc_pt = intersection.intersection_point;
+            dst_b4 = pp_dst + pp_dst_intrsct;
+            ray.add(new RaySeg(before_pt, before_dir, dst_b4, before_normal));
 
-                if (in_surface_range(first_surf, last_surf, surf, false))
-                    opl += before.rndx * dst_b4;
+            if (in_surface_range(first_surf, last_surf, surf, false))
+                opl += before.rndx * dst_b4;
 
-                normal = ifc.normal(inc_pt);
-                double eic_dst_before = eic_distance_from_axis(inc_pt, b4_dir, z_dir_before);
+            double eic_dst_before = eic_distance_from_axis(inc_pt, b4_dir, z_dir_before);
 
-                /*
-                # if the interface has a phase element, process that first
-                if hasattr(ifc, 'phase_element'):
-                    doe_dir, phs = phase(ifc, inc_pt, b4_dir, normal, z_dir_before,
-                                     wvl, before[Indx], after[Indx])
-                    # the output of the phase element becomes the input for the
-                    #  refraction/reflection calculation
-                    b4_dir = doe_dir
-                    op_delta += phs
-                 */
+            /*
+            # if the interface has a phase element, process that first
+            if hasattr(ifc, 'phase_element'):
+                doe_dir, phs = phase(ifc, inc_pt, b4_dir, normal, z_dir_before,
+                                 wvl, before[Indx], after[Indx])
+                # the output of the phase element becomes the input for the
+                #  refraction/reflection calculation
+                b4_dir = doe_dir
+                op_delta += phs
+             */
 
-                // refract or reflect ray at interface
-                if (ifc.interact_mode.equals("reflect"))
-                    after_dir = reflect(b4_dir, normal);
-                else if (ifc.interact_mode.equals("transmit"))
-                    after_dir = bend(b4_dir, normal, before.rndx, after.rndx);
-                else if (ifc.interact_mode.equals("dummy"))
-                    after_dir = b4_dir;
-                else // no action, input becomes output
-                    after_dir = b4_dir;
-
-                surf += 1;
-
-                // Per `Hopkins, 1981 <https://dx.doi.org/10.1080/713820605>`_, the
-                //  propagation direction is given by the direction cosines of the
-                //  ray and therefore doesn't require the use of a negated
-                //  refractive index following a reflection. Thus we use the
-                //  (positive) refractive indices from the seq_model.rndx array.
-
-                if (!ifc.interact_mode.equals("dummy")) {
-                    double eic_dst_after = eic_distance_from_axis(inc_pt, after_dir, z_dir_after);
-                    double dW = after.rndx*eic_dst_after - before.rndx*eic_dst_before;
-                    eic.add(new double[]{before.rndx, eic_dst_before,
-                            after.rndx, eic_dst_after, dW});
-                    if (in_surface_range(first_surf, last_surf, surf, true))
-                        opl_eic += dW;
-                    /*
-                                    if print_details:
-                    print("after:", surf, inc_pt, after_dir)
-                    print("e{}= {:12.5g} e{}'= {:12.5g} dW={:10.8g} n={:8.5g}"
-                          " n'={:8.5g} zdb4={:2.0f} zdaft={:2.0f}"
-                          .format(surf, eic_dst_before, surf, eic_dst_after,
-                                  dW, before[Indx], after[Indx],
-                                  z_dir_before, z_dir_after))
-                     */
-                }
-
-                before_pt = inc_pt;
-                before_normal = normal;
-                before_dir = after_dir;
-                z_dir_before = z_dir_after;
-                before = after;
-                tfrm_from_before = before.transform3;
-            } catch (TraceMissedSurfaceException ray_miss) {
-                ray.add(new RaySeg(before_pt, before_dir, pp_dst, before_normal));
-                ray_miss.surf = surf + 1;
-                ray_miss.ifc = ifc;
-                ray_miss.prev_tfrm = before.transform3;
-                ray_miss.ray_pkg = new RayPkg(ray, opl, wvl);
-                throw ray_miss;
-            } catch (TraceTIRException ray_tir) {
+            // refract or reflect ray at interface
+            if (ifc.interact_mode.equals("reflect"))
+                after_dir = reflect(b4_dir, normal);
+            else if (ifc.interact_mode.equals("transmit"))
+                after_dir = bend(b4_dir, normal, before.rndx, after.rndx);
+            else if (ifc.interact_mode.equals("dummy"))
+                after_dir = b4_dir;
+            else // no action, input becomes output
+                after_dir = b4_dir;
+            if (after_dir == null) {
                 ray.add(new RaySeg(inc_pt, before_dir, 0.0, normal));
-                ray_tir.surf = surf + 1;
-                ray_tir.ifc = ifc;
-                ray_tir.int_pt = inc_pt;
-                ray_tir.ray_pkg = new RayPkg(ray, opl, wvl);
-                throw ray_tir;
-            } catch (NoSuchElementException e) {
-                ray.add(new RaySeg(inc_pt, after_dir, 0.0, normal));
-                op_delta += opl;
-                break;
+                return tir(ray, opl, wvl, surf + 1, ifc, inc_pt, options);
             }
+
+            surf += 1;
+
+            // Per `Hopkins, 1981 <https://dx.doi.org/10.1080/713820605>`_, the
+            //  propagation direction is given by the direction cosines of the
+            //  ray and therefore doesn't require the use of a negated
+            //  refractive index following a reflection. Thus we use the
+            //  (positive) refractive indices from the seq_model.rndx array.
+
+            if (!ifc.interact_mode.equals("dummy")) {
+                double eic_dst_after = eic_distance_from_axis(inc_pt, after_dir, z_dir_after);
+                double dW = after.rndx*eic_dst_after - before.rndx*eic_dst_before;
+                eic.add(new double[]{before.rndx, eic_dst_before,
+                        after.rndx, eic_dst_after, dW});
+                if (in_surface_range(first_surf, last_surf, surf, true))
+                    opl_eic += dW;
+                /*
+                                if print_details:
+                print("after:", surf, inc_pt, after_dir)
+                print("e{}= {:12.5g} e{}'= {:12.5g} dW={:10.8g} n={:8.5g}"
+                      " n'={:8.5g} zdb4={:2.0f} zdaft={:2.0f}"
+                      .format(surf, eic_dst_before, surf, eic_dst_after,
+                              dW, before[Indx], after[Indx],
+                              z_dir_before, z_dir_after))
+                 */
+            }
+
+            before_pt = inc_pt;
+            before_normal = normal;
+            before_dir = after_dir;
+            z_dir_before = z_dir_after;
+            before = after;
+            tfrm_from_before = before.transform3;
         }
+        ray.add(new RaySeg(inc_pt, after_dir, 0.0, normal));
+        op_delta += opl;
         return new RayPkg(ray, op_delta, wvl);
     }
 
+    /**
+     * Ends the trace of a ray that missed surface surf: returns the ray
+     * with its status set, or throws a TraceMissedSurfaceException carrying it.
+     */
+    private static RayPkg missed_surface(List<RaySeg> ray, double opl, double wvl,
+                                         int surf, Interface ifc, Transform3 prev_tfrm, RayTraceOptions options) {
+        if (!options.throw_trace_errors)
+            return new RayPkg(ray, opl, wvl, RayPkg.Status.MISSED_SURFACE, surf);
+        TraceMissedSurfaceException ray_miss = new TraceMissedSurfaceException();
+        ray_miss.surf = surf;
+        ray_miss.ifc = ifc;
+        ray_miss.prev_tfrm = prev_tfrm;
+        ray_miss.ray_pkg = new RayPkg(ray, opl, wvl);
+        throw ray_miss;
+    }
+
+    /**
+     * Ends the trace of a ray totally internally reflected at surface surf:
+     * returns the ray with its status set, or throws a TraceTIRException carrying it.
+     */
+    private static RayPkg tir(List<RaySeg> ray, double opl, double wvl,
+                              int surf, Interface ifc, Vector3 int_pt, RayTraceOptions options) {
+        if (!options.throw_trace_errors)
+            return new RayPkg(ray, opl, wvl, RayPkg.Status.TIR, surf);
+        TraceTIRException ray_tir = new TraceTIRException();
+        ray_tir.surf = surf;
+        ray_tir.ifc = ifc;
+        ray_tir.int_pt = int_pt;
+        ray_tir.ray_pkg = new RayPkg(ray, opl, wvl);
+        throw ray_tir;
+    }
+
     /**
      * refract incoming direction, d_in, about normal
      * @param d_in
      * @param normal
      * @param n_in
      * @param n_out
-     * @return
+     * @return refracted direction, or null on total internal reflection
      */
-    private static Vector3 bend(Vector3 d_in, Vector3 normal, Double n_in, Double n_out) {
+    private static Vector3 bend(Vector3 d_in, Vector3 normal, double n_in, double n_out) {
         double normal_len = normal.length();
         double cosI = d_in.dot(normal) / normal_len;
         double sinI_sqr = 1.0 - cosI * cosI;
         double sqrrt_in = n_out*n_out - n_in*n_in*sinI_sqr;
         if (sqrrt_in <= 0)
-            throw new TraceTIRException(d_in, normal, n_in, n_out);
+            return null;
         double sqrrt = Math.sqrt(sqrrt_in);
         double n_cosIp = cosI > 0 ? sqrrt : -sqrrt;
         double alpha = n_cosIp - n_in*cosI;
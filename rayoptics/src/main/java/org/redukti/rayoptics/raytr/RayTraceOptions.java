@@ -9,4 +9,11 @@ public class RayTraceOptions {
      * accuracy tolerance for surface intersection calculation
      */
     public double eps = 1.0e-12;
+
+    /**
+     * if false, rays that miss a surface or are totally internally reflected
+     * are returned with their RayPkg.status set, rather than thrown as
+     * TraceMissedSurfaceException / TraceTIRException
+     */
+    public boolean throw_trace_errors = true;
 }
@@ -38,17 +38,18 @@ public class Trace {
             Vector3 pt1 = new Vector3(x1, y1, dist);
             Vector3 dir0 = pt1.minus(pt0);
             dir0 = dir0.normalize();
-            RayPkg pkg = null;
-            try {
-                pkg = RayTrace.trace(seq_model, pt0, dir0, wvl);
-            } catch (TraceMissedSurfaceException ray_miss) {
-                pkg = ray_miss.ray_pkg;
-                if (ray_miss.surf <= ifcx)
-                    throw ray_miss;
-            } catch (TraceTIRException ray_tir) {
-                pkg = ray_tir.ray_pkg;
-                if (ray_tir.surf < ifcx)
-                    throw ray_tir;
+            seq_model.aim_cache.evals.increment();
+            // rays failing beyond the aiming surface are still usable
+            RayPkg pkg = RayTrace.trace_with_status(seq_model, pt0, dir0, wvl);
+            TraceException ray_error = null;
+            if (pkg.status == RayPkg.Status.MISSED_SURFACE && pkg.fail_surf <= ifcx)
+                ray_error = new TraceMissedSurfaceException();
+            else if (pkg.status == RayPkg.Status.TIR && pkg.fail_surf < ifcx)
+                ray_error = new TraceTIRException();
+            if (ray_error != null) {
+                ray_error.surf = pkg.fail_surf;
+                ray_error.ray_pkg = pkg;
+                throw ray_error;
             }
             return pkg.ray.get(ifcx);
         }
@@ -216,13 +217,33 @@ public class Trace {
     }
 
     public static double[] get_1d_solution(SequentialModel seq_model, Integer ifcx, Vector3 pt0, double dist, double wvl, double y_target) {
+        return get_1d_solution(seq_model, ifcx, pt0, dist, wvl, y_target, 0.);
+    }
+
+    /**
+     * As get_1d_solution(), with the secant iteration starting from start_y
+     */
+    public static double[] get_1d_solution(SequentialModel seq_model, Integer ifcx, Vector3 pt0, double dist, double wvl, double y_target,
+                                           double start_y) {
         SecantFunction fn = new SecantFunction(seq_model, ifcx, pt0, dist, wvl, y_target);
-        double start_y = SecantSolver.find_root(fn, 0., 50, 1.48e-8);
-        return new double[]{0, start_y};
+        double y = SecantSolver.find_root(fn, start_y, 50, 1.48e-8);
+        return new double[]{0, y};
     }
 
     public static double[] get_2d_mike_lampton_lavenberg_marquardt_solution(SequentialModel seq_model, Integer ifcx, Vector3 pt0, double dist, double wvl, double[] xy_target) {
+        double[] point = solve_2d(seq_model, ifcx, pt0, dist, wvl, xy_target, new double[]{0., 0.});
+        return point != null ? point : new double[]{0.0, 0.0};
+    }
+
+    /**
+     * Solves for the aim point with the Levenberg-Marquardt solver,
+     * starting from start, or returns null if the solver fails.
+     */
+    private static double[] solve_2d(SequentialModel seq_model, Integer ifcx, Vector3 pt0, double dist, double wvl, double[] xy_target,
+                                     double[] start) {
         ObjectiveFunction fn = new ObjectiveFunction(seq_model, ifcx, pt0, dist, wvl, Arrays.copyOf(xy_target, xy_target.length));
+        fn.point[0] = start[0];
+        fn.point[1] = start[1];
         LMLSolver lm = new LMLSolver(fn, 1e-12, 2, 2);
         int istatus = 0;
         while (istatus != LMLSolver.BADITER &&
@@ -232,7 +253,7 @@ public class Trace {
         }
         if (istatus == LMLSolver.LEVELITER)
             return fn.point;
-        return new double[]{0.0, 0.0};
+        return null;
     }
 
 //    public static double[] get_2d_minpack_lavenberg_marquardt_solution(SequentialModel seq_model, Integer ifcx, Vector3 pt0, double dist, double wvl, double[] xy_target, FirstOrderData fod) {
@@ -279,12 +300,37 @@ public class Trace {
         // 0.3171081317490797 (lm)
         // 0.3171081737822994 (expected)
         if (ifcx != null) {
+            // reuse the solution for an unchanged model, else start from it
+            AimCache.Key key = new AimCache.Key(ifcx, fld, wvl, xy_target);
+            AimCache.Solution cached = seq_model.aim_cache.get(key);
+            int version = seq_model.version();
+            if (cached != null && cached.is_current(version, pt0, dist)) {
+                seq_model.aim_cache.hits.increment();
+                return Arrays.copyOf(cached.aim_pt, cached.aim_pt.length);
+            }
+            seq_model.aim_cache.solves.increment();
+            if (cached != null)
+                seq_model.aim_cache.warm_starts.increment();
+            double[] start = cached != null ? cached.aim_pt : new double[]{0., 0.};
+            double[] aim_pt;
             if (pt0.x == 0.0 && xy_target[0] == 0.0) {
-                return get_1d_solution(seq_model, ifcx, pt0, dist, wvl, xy_target[1]);
+                try {
+                    aim_pt = get_1d_solution(seq_model, ifcx, pt0, dist, wvl, xy_target[1], start[1]);
+                } catch (RuntimeException e) {
+                    if (cached == null)
+                        throw e;
+                    aim_pt = get_1d_solution(seq_model, ifcx, pt0, dist, wvl, xy_target[1]);
+                }
             } else {
-                return get_2d_mike_lampton_lavenberg_marquardt_solution(seq_model, ifcx, pt0, dist, wvl, xy_target);
+                aim_pt = solve_2d(seq_model, ifcx, pt0, dist, wvl, xy_target, start);
+                if (aim_pt == null && cached != null)
+                    aim_pt = solve_2d(seq_model, ifcx, pt0, dist, wvl, xy_target, new double[]{0., 0.});
+                if (aim_pt == null)
+                    aim_pt = new double[]{0.0, 0.0};
                 //return get_2d_minpack_lavenberg_marquardt_solution(seq_model, ifcx, pt0, dist, wvl, xy_target, fod);
             }
+            seq_model.aim_cache.put(key, version, pt0, dist, aim_pt);
+            return aim_pt;
         } else {
             // floating stop surface - use entrance pupil for aiming
             return xy_target;
@@ -322,6 +368,14 @@ public class Trace {
      * @param wvl ray trace wavelength in nm
      */
     public static RayPkg trace_base(OpticalModel opt_model, double[] pupil, Field fld, double wvl) {
+        return trace_base(opt_model, pupil, fld, wvl, true);
+    }
+
+    /**
+     * As trace_base(), but a ray that fails is returned with its RayPkg.status
+     * set instead of thrown, unless throw_trace_errors is true.
+     */
+    static RayPkg trace_base(OpticalModel opt_model, double[] pupil, Field fld, double wvl, boolean throw_trace_errors) {
         double[] vig_pupil = fld.apply_vignetting(pupil);
         OpticalSpecs osp = opt_model.optical_spec;
         FirstOrderData fod = osp.parax_data.fod;
@@ -336,7 +390,9 @@ public class Trace {
         Vector3 pt0 = osp.obj_coords(fld);
         Vector3 dir0 = pt1.minus(pt0);
         dir0 = dir0.normalize();
-        return RayTrace.trace(opt_model.seq_model, pt0, dir0, wvl);
+        return throw_trace_errors
+                ? RayTrace.trace(opt_model.seq_model, pt0, dir0, wvl)
+                : RayTrace.trace_with_status(opt_model.seq_model, pt0, dir0, wvl);
     }
 
     /**
@@ -454,13 +510,7 @@ public class Trace {
         List<RayPkg> rim_rays = new ArrayList<>();
         OpticalSpecs osp = opt_model.optical_spec;
         for (double[] p : osp.pupil.pupil_rays) {
-            RayPkg ray_pkg;
-            try {
-                ray_pkg = trace_base(opt_model, p, fld, wvl);
-            } catch (TraceException ray_error) {
-                ray_pkg = ray_error.ray_pkg;
-            }
-            rim_rays.add(ray_pkg);
+            rim_rays.add(trace_base(opt_model, p, fld, wvl, false));
         }
         return rim_rays;
     }
@@ -489,12 +539,13 @@ public class Trace {
         return rayset;
     }
 
-    /* returns a list of ray |DataFrame| for the ray_list at field fld */
+    /* returns a list of ray |DataFrame| for the ray_list at field fld,
+       one per ray; a ray that fails keeps its partial path and status */
     public static List<RayDataFrame> trace_ray_list_at_field(OpticalModel opt_model, double[][] ray_list, Field fld, double wvl, double foc) {
         ArrayList<RayDataFrame> rayset = new ArrayList<>();
         for (double[] p : ray_list) {
-            RayPkg ray = trace_base(opt_model, p, fld, wvl);
-            rayset.add(new RayDataFrame(ray.ray));
+            RayPkg ray = trace_base(opt_model, p, fld, wvl, false);
+            rayset.add(new RayDataFrame(ray));
         }
         return rayset;
     }
@@ -6,12 +6,14 @@ import org.redukti.rayoptics.elem.surface.Surface;
 import org.redukti.rayoptics.elem.transform.Transform;
 import org.redukti.rayoptics.math.Transform3;
 import org.redukti.rayoptics.optical.OpticalModel;
+import org.redukti.rayoptics.raytr.AimCache;
 import org.redukti.rayoptics.specs.OpticalSpecs;
 import org.redukti.rayoptics.util.Lists;
 import org.redukti.rayoptics.util.Pair;
 import org.redukti.rayoptics.util.ZDir;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manager class for a sequential optical model
@@ -79,6 +81,21 @@ public class SequentialModel {
      */
     public List<double[]> rndx = new ArrayList<>();
 
+    /**
+     * full trace paths by wavelength, built on demand and dropped when the model changes
+     */
+    private final Map<Double, List<SeqPathComponent>> trace_paths = new ConcurrentHashMap<>();
+
+    /**
+     * incremented whenever the model changes, see version()
+     */
+    private volatile int version;
+
+    /**
+     * ray aiming solutions for this model
+     */
+    public final AimCache aim_cache = new AimCache();
+
     public SequentialModel(OpticalModel opm, boolean do_init) {
         this.opt_model = opm;
         if (do_init)
@@ -136,6 +153,7 @@ public class SequentialModel {
      * @param surf_data
      */
     public void add_surface(SurfaceData surf_data) {
+        model_changed();
         boolean radius_mode = opt_model.radius_mode;
         Medium mat = null;
         if (Objects.equals(surf_data.interact_mode, "REFL")) {
@@ -342,6 +360,7 @@ public class SequentialModel {
 
         this.gbl_tfrms = this.compute_global_coords(1);
         this.lcl_tfrms = this.compute_local_transforms(null, 1);
+        model_changed();
 
         /*
          if self.do_apertures:
@@ -568,6 +587,33 @@ public class SequentialModel {
         );
     }
 
+    private void model_changed() {
+        trace_paths.clear();
+        version++;
+    }
+
+    /**
+     * returns a stamp that changes whenever surfaces are added or
+     * update_model() is called, for caches of results derived from the model
+     */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * returns the path over the whole sequential model for wavelength `wl`,
+     * as path(wl, null, null, 1) does, but shared between all the rays traced
+     * until the next update_model(). The list is immutable, so it may be
+     * traced from several threads at once.
+     *
+     * @param wl wavelength in nm for path, defaults to central wavelength
+     */
+    public List<SeqPathComponent> trace_path(Double wl) {
+        if (wl == null)
+            wl = central_wavelength();
+        return trace_paths.computeIfAbsent(wl, w -> List.copyOf(path(w, null, null, 1)));
+    }
+
     public double central_wavelength() {
         return opt_model.optical_spec.spectral_region.central_wvl();
     }
@@ -0,0 +1,64 @@
+package org.redukti.rayoptics.elem.profiles;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.elem.surface.IntersectionResult;
+import org.redukti.rayoptics.util.ZDir;
+
+public class EvenPolynomialTest {
+
+    static final double EPS = 1.0e-12;
+
+    static void assertIntersects(EvenPolynomial profile, Vector3 p0, Vector3 d) {
+        IntersectionResult expected = profile.intersect_spencer(p0, d, EPS, ZDir.PROPAGATE_RIGHT);
+        IntersectionResult actual = profile.intersect(p0, d, EPS, ZDir.PROPAGATE_RIGHT);
+        Assertions.assertFalse(actual.is_missed());
+        Assertions.assertEquals(expected.distance, actual.distance, 1e-9);
+        Assertions.assertEquals(expected.intersection_point.x, actual.intersection_point.x, 1e-9);
+        Assertions.assertEquals(expected.intersection_point.y, actual.intersection_point.y, 1e-9);
+        Assertions.assertEquals(expected.intersection_point.z, actual.intersection_point.z, 1e-9);
+        Assertions.assertEquals(0.0, profile.f(actual.intersection_point), 1e-9);
+    }
+
+    @Test
+    public void testIntersect() {
+        // the front asphere of the Nikkor Z 58mm f/0.95 S
+        EvenPolynomial profile = new EvenPolynomial()
+                .r(108.488)
+                .cc(0)
+                .coefs(new double[]{0.0, -3.82177e-07, -6.06486e-11, -3.80172e-15, -1.32266e-18, 0, 0});
+        profile.update();
+        assertIntersects(profile, new Vector3(0, 0, -10), new Vector3(0, 0, 1));
+        assertIntersects(profile, new Vector3(0, 25, -10), new Vector3(0, 0, 1));
+        assertIntersects(profile, new Vector3(10, -30, -10), new Vector3(0.1, 0.3, 1).normalize());
+    }
+
+    @Test
+    public void testIntersectMissingConic() {
+        // a paraboloid bent back by the r^4 term: z = 0.05r^2 - 0.001r^4;
+        // the ray along x at z = -1 never meets the paraboloid, but does
+        // meet the asphere near r = 8.08
+        EvenPolynomial profile = new EvenPolynomial()
+                .r(10.0)
+                .cc(-1.0)
+                .coefs(new double[]{0.0, -1.0e-3});
+        profile.update();
+        Vector3 p0 = new Vector3(7, 0, -1);
+        Vector3 d = new Vector3(1, 0, 0);
+        assertIntersects(profile, p0, d);
+        Assertions.assertEquals(8.08, profile.intersect(p0, d, EPS, ZDir.PROPAGATE_RIGHT).intersection_point.x, 0.01);
+    }
+
+    @Test
+    public void testMissed() {
+        // beyond the edge of the base sphere
+        EvenPolynomial profile = new EvenPolynomial()
+                .r(10.0)
+                .cc(0)
+                .coefs(new double[]{0.0, 1.0e-5});
+        profile.update();
+        Assertions.assertTrue(profile.intersect(new Vector3(0, 12, -1), new Vector3(0, 0, 1),
+                EPS, ZDir.PROPAGATE_RIGHT).is_missed());
+    }
+}
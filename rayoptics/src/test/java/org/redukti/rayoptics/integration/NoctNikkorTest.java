@@ -13,6 +13,8 @@ import org.redukti.rayoptics.raytr.RayPkg;
 import org.redukti.rayoptics.raytr.RaySeg;
 import org.redukti.rayoptics.raytr.RayTrace;
 import org.redukti.rayoptics.raytr.RayTraceOptions;
+import org.redukti.rayoptics.raytr.Trace;
+import org.redukti.rayoptics.seq.SeqPathComponent;
 import org.redukti.rayoptics.seq.SequentialModel;
 import org.redukti.rayoptics.seq.SurfaceData;
 import org.redukti.rayoptics.specs.*;
@@ -22,12 +24,14 @@ import java.util.List;
 
 public class NoctNikkorTest {
 
-    @Test
-    public void test() {
+    /**
+     * WO2019-229849 Example 1 (Nikkor Z 58mm f/0.95 S), updated and
+     * ready to trace
+     */
+    public static OpticalModel noctNikkor() {
         OpticalModel opm = new OpticalModel();
         SequentialModel sm = opm.seq_model;
         OpticalSpecs osp = opm.optical_spec;
-        ParaxialModel pm = opm.parax_model;
         osp.pupil = new PupilSpec(osp, new Pair<>(ImageKey.Image, ValueKey.Fnum), 0.98);
         osp.field_of_view = new FieldSpec(osp, new Pair<>(ImageKey.Object, ValueKey.Angle), new double[]{0., 19.98});
         osp.spectral_region = new WvlSpec(new WvlWt[]{new WvlWt(486.1327, 0.5),
@@ -130,10 +134,19 @@ public class NoctNikkorTest {
                 .max_aperture(22.15));
         sm.add_surface(new SurfaceData(0, 1)
                 .max_aperture(22.15));
-        System.out.println(sm.list_surfaces(new StringBuilder()).toString());
-        System.out.println(sm.list_gaps(new StringBuilder()).toString());
         sm.do_apertures = false;
         opm.update_model();
+        return opm;
+    }
+
+    @Test
+    public void test() {
+        OpticalModel opm = noctNikkor();
+        SequentialModel sm = opm.seq_model;
+        OpticalSpecs osp = opm.optical_spec;
+        ParaxialModel pm = opm.parax_model;
+        System.out.println(sm.list_surfaces(new StringBuilder()).toString());
+        System.out.println(sm.list_gaps(new StringBuilder()).toString());
         pm.first_order_data();
         FirstOrderData fod = pm.parax_data.fod;
         Assertions.assertEquals(59.62, fod.efl, 0.001);
@@ -218,6 +231,101 @@ public class NoctNikkorTest {
         return;
     }
 
+    @Test
+    public void testTracePath() {
+        OpticalModel opm = noctNikkor();
+        SequentialModel sm = opm.seq_model;
+        Vector3 pt0 = new Vector3(0, -3635749788.7098503, 0.0);
+        Vector3 dir0 = new Vector3(0.0, 0.34169210791780597, 0.9398119510767493);
+
+        // the cached path is shared between rays and traces as the sliced path does
+        List<SeqPathComponent> path = sm.trace_path(587.5618);
+        Assertions.assertSame(path, sm.trace_path(587.5618));
+        Assertions.assertSame(path, sm.trace_path(null));
+        RayTraceOptions options = new RayTraceOptions();
+        options.first_surf = 1;
+        options.last_surf = sm.get_num_surfaces() - 2;
+        RayPkg expected = RayTrace.trace_raw(sm.path(587.5618, null, null, 1), pt0, dir0, 587.5618, options);
+        RayPkg raypkg = RayTrace.trace(sm, pt0, dir0, 587.5618);
+        Assertions.assertEquals(expected.ray.size(), raypkg.ray.size());
+        for (int i = 0; i < expected.ray.size(); i++)
+            Assertions.assertTrue(compare(expected.ray.get(i), raypkg.ray.get(i)), "segment " + i);
+
+        // the batch trace gives each ray as the single ray trace does
+        RayPkg[] batch = RayTrace.trace(sm, new Vector3[]{pt0, pt0}, new Vector3[]{dir0, dir0}, 587.5618);
+        Assertions.assertEquals(2, batch.length);
+        for (RayPkg ray_pkg : batch) {
+            Assertions.assertTrue(ray_pkg.is_traced());
+            Assertions.assertEquals(raypkg.ray.size(), ray_pkg.ray.size());
+            for (int i = 0; i < raypkg.ray.size(); i++)
+                Assertions.assertTrue(compare(raypkg.ray.get(i), ray_pkg.ray.get(i)));
+        }
+
+        // a change to the model drops the cached path
+        opm.update_model();
+        Assertions.assertNotSame(path, sm.trace_path(587.5618));
+    }
+
+    @Test
+    public void testAsphereNewtonSteps() {
+        OpticalModel opm = noctNikkor();
+        SequentialModel sm = opm.seq_model;
+        EvenPolynomial[] aspheres = {(EvenPolynomial) sm.ifcs.get(1).profile,
+                (EvenPolynomial) sm.ifcs.get(20).profile,
+                (EvenPolynomial) sm.ifcs.get(28).profile};
+        for (EvenPolynomial asphere : aspheres)
+            asphere.reset_counts();
+        Trace.trace_boundary_rays(opm);
+
+        // aspheres start from the base conic intersection and need few Newton steps
+        for (EvenPolynomial asphere : aspheres) {
+            Assertions.assertTrue(asphere.intersections() > 0);
+            Assertions.assertTrue(asphere.newton_steps() <= 4 * asphere.intersections(),
+                    asphere.newton_steps() + " Newton steps for " + asphere.intersections() + " intersections");
+        }
+    }
+
+    @Test
+    public void testAimCache() {
+        OpticalModel opm = noctNikkor();
+        SequentialModel sm = opm.seq_model;
+        Field fld = opm.optical_spec.field_of_view.fields[1];
+        sm.aim_cache.clear();
+        sm.aim_cache.reset_counts();
+
+        // a cold solve from the axis
+        double[] aim_pt = Trace.aim_chief_ray(opm, fld, 587.5618);
+        Assertions.assertEquals(1, sm.aim_cache.solves());
+        Assertions.assertEquals(0, sm.aim_cache.warm_starts());
+        long cold_evals = sm.aim_cache.evals();
+        Assertions.assertTrue(cold_evals > 0);
+
+        // a cache hit traces no rays
+        Assertions.assertArrayEquals(aim_pt, Trace.aim_chief_ray(opm, fld, 587.5618));
+        Assertions.assertEquals(1, sm.aim_cache.hits());
+        Assertions.assertEquals(1, sm.aim_cache.solves());
+        Assertions.assertEquals(cold_evals, sm.aim_cache.evals());
+
+        // a changed model is solved again, starting from the stale solution;
+        // only the sequential model is updated, so that the specs do not aim
+        int version = sm.version();
+        sm.update_model();
+        Assertions.assertNotEquals(version, sm.version());
+        Assertions.assertArrayEquals(aim_pt, Trace.aim_chief_ray(opm, fld, 587.5618), 1e-6);
+        Assertions.assertEquals(1, sm.aim_cache.hits());
+        Assertions.assertEquals(2, sm.aim_cache.solves());
+        Assertions.assertEquals(1, sm.aim_cache.warm_starts());
+        long warm_evals = sm.aim_cache.evals() - cold_evals;
+        Assertions.assertTrue(warm_evals < cold_evals, warm_evals + " rays warm, " + cold_evals + " cold");
+
+        // without the cache it is a cold solve again
+        sm.aim_cache.clear();
+        Assertions.assertArrayEquals(aim_pt, Trace.aim_chief_ray(opm, fld, 587.5618), 1e-6);
+        Assertions.assertEquals(3, sm.aim_cache.solves());
+        Assertions.assertEquals(1, sm.aim_cache.warm_starts());
+        Assertions.assertEquals(cold_evals, sm.aim_cache.evals() - cold_evals - warm_evals);
+    }
+
     static boolean compare(RaySeg s1, RaySeg s2) {
         return s1.p.effectivelyEqual(s2.p)
                 && s1.d.effectivelyEqual(s2.d)
@@ -0,0 +1,164 @@
+package org.redukti.rayoptics.integration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.mathlib.Vector2;
+import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.exceptions.TraceException;
+import org.redukti.rayoptics.optical.OpticalModel;
+import org.redukti.rayoptics.raytr.Analysis;
+import org.redukti.rayoptics.raytr.RayGrid;
+import org.redukti.rayoptics.raytr.Trace;
+import org.redukti.rayoptics.specs.Field;
+import org.redukti.rayoptics.util.Pair;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class RayGridTest {
+
+    /**
+     * Checks the grid at field fi and wavelength wi against a fan across
+     * the pupil, x or y as for Analysis.trace_fan(), traced ray by ray.
+     * Returns the number of fan rays, all of which are in the grid.
+     */
+    static int compare_fan(OpticalModel opm, RayGrid grid, int fi, int wi, int xy) {
+        Field fld = grid.flds[fi];
+        double wvl = grid.wvls[wi];
+        List<Pair<Vector2, Vector3>> fan = Analysis.focus_fan(opm,
+                Analysis.trace_fan(opm, fld, wvl, grid.foc, xy, null, 3, null, null),
+                fld, wvl, grid.foc, null);
+        int found = 0;
+        for (Pair<Vector2, Vector3> ray : fan) {
+            for (int i = 0; i < grid.num_samples(); i++) {
+                if (Math.abs(grid.pupil_x[i] - ray.first.x) > 1e-12 || Math.abs(grid.pupil_y[i] - ray.first.y) > 1e-12)
+                    continue;
+                int k = grid.index(fi, wi, i);
+                Assertions.assertEquals(ray.second.x, grid.x[k], 1e-12);
+                Assertions.assertEquals(ray.second.y, grid.y[k], 1e-12);
+                Assertions.assertEquals(ray.second.z, grid.opd[k], 1e-9);
+                found++;
+            }
+        }
+        Assertions.assertEquals(fan.size(), found);
+        return found;
+    }
+
+    @Test
+    public void testSquare() {
+        OpticalModel opm = NoctNikkorTest.noctNikkor();
+        RayGrid grid = new RayGrid(opm, 5, RayGrid.Pattern.SQUARE, 0.0);
+        Assertions.assertEquals(13, grid.num_samples());
+        Assertions.assertEquals(2 * 3 * 13, grid.x.length);
+        // the pupil grid agrees with fans traced ray by ray, at every field and
+        // wavelength; the fans leave out the rays that fail at the rim of the pupil
+        for (int fi = 0; fi < grid.flds.length; fi++) {
+            for (int wi = 0; wi < grid.wvls.length; wi++) {
+                Assertions.assertTrue(compare_fan(opm, grid, fi, wi, 0) >= 2);
+                Assertions.assertTrue(compare_fan(opm, grid, fi, wi, 1) >= 2);
+                Assertions.assertTrue(grid.rms_spot(fi, wi) > 0.0);
+                Assertions.assertTrue(grid.rms_opd(fi, wi) > 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testHex() {
+        OpticalModel opm = NoctNikkorTest.noctNikkor();
+        RayGrid grid = new RayGrid(opm, 5, RayGrid.Pattern.HEX, 0.0);
+        double step = 2.0 / (5 - 1);
+        // samples within the unit circle, each at one step from its nearest neighbour
+        for (int i = 0; i < grid.num_samples(); i++) {
+            Assertions.assertTrue(Math.hypot(grid.pupil_x[i], grid.pupil_y[i]) <= 1.0 + 1e-12);
+            double nearest = Double.MAX_VALUE;
+            for (int j = 0; j < grid.num_samples(); j++) {
+                if (j != i)
+                    nearest = Math.min(nearest, Math.hypot(grid.pupil_x[i] - grid.pupil_x[j],
+                            grid.pupil_y[i] - grid.pupil_y[j]));
+            }
+            Assertions.assertEquals(step, nearest, 1e-12);
+        }
+        // rows of 3, 4, 5, 4 and 3 samples
+        Assertions.assertEquals(19, grid.num_samples());
+        // the central row is an x fan
+        for (int fi = 0; fi < grid.flds.length; fi++)
+            Assertions.assertTrue(compare_fan(opm, grid, fi, 1, 0) >= 2);
+    }
+
+    @Test
+    public void testPool() {
+        OpticalModel opm = NoctNikkorTest.noctNikkor();
+        RayGrid grid = new RayGrid(opm, 9, RayGrid.Pattern.HEX, 0.0);
+        RayGrid serial = new RayGrid(opm, 9, RayGrid.Pattern.HEX, 0.0, null);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            RayGrid pooled = new RayGrid(opm, 9, RayGrid.Pattern.HEX, 0.0, pool);
+            for (RayGrid other : new RayGrid[]{serial, pooled}) {
+                Assertions.assertArrayEquals(grid.x, other.x);
+                Assertions.assertArrayEquals(grid.y, other.y);
+                Assertions.assertArrayEquals(grid.opd, other.opd);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSpectralWeights() {
+        OpticalModel opm = NoctNikkorTest.noctNikkor();
+        RayGrid grid = new RayGrid(opm, 5, RayGrid.Pattern.SQUARE, 0.0);
+        // the media of this lens are not dispersive, so give each wavelength
+        // its own spot: all its rays at x = wi, and one failed ray
+        for (int wi = 0; wi < grid.wvls.length; wi++) {
+            for (int i = 0; i < grid.num_samples(); i++) {
+                int k = grid.index(0, wi, i);
+                grid.x[k] = i == 0 ? Double.NaN : wi;
+                grid.y[k] = 0.0;
+            }
+        }
+        for (int wi = 0; wi < grid.wvls.length; wi++)
+            Assertions.assertEquals(0.0, grid.rms_spot(0, wi), 1e-15);
+        // weights 0.5, 1, 0.5 put the centroid at x = 1, and half the weight at +-1 from it
+        Assertions.assertArrayEquals(new double[]{0.5, 1.0, 0.5}, opm.optical_spec.spectral_region.spectral_wts);
+        Assertions.assertEquals(Math.sqrt(0.5), grid.rms_spot(0), 1e-15);
+
+        opm.optical_spec.spectral_region.spectral_wts = new double[]{1.0, 0.0, 1.0};
+        Assertions.assertEquals(1.0, grid.rms_spot(0), 1e-15);
+        opm.optical_spec.spectral_region.spectral_wts = new double[]{0.0, 1.0, 0.0};
+        Assertions.assertEquals(0.0, grid.rms_spot(0), 1e-15);
+        opm.optical_spec.spectral_region.spectral_wts = new double[]{1.0, 0.0, 0.0};
+        Assertions.assertEquals(0.0, grid.rms_spot(0), 1e-15);
+    }
+
+    @Test
+    public void testVignetted() {
+        // rays at the rim of the pupil are totally internally reflected
+        OpticalModel opm = TraceStatusTest.lens();
+        RayGrid grid = new RayGrid(opm, 9, RayGrid.Pattern.SQUARE, 0.0);
+        Field fld = grid.flds[0];
+        int failed = 0;
+        for (int i = 0; i < grid.num_samples(); i++) {
+            int k = grid.index(0, 0, i);
+            boolean traced;
+            try {
+                Trace.trace_base(opm, new double[]{grid.pupil_x[i], grid.pupil_y[i]}, fld, grid.wvls[0]);
+                traced = true;
+            } catch (TraceException e) {
+                traced = false;
+            }
+            Assertions.assertEquals(!traced, Double.isNaN(grid.x[k]));
+            Assertions.assertEquals(!traced, Double.isNaN(grid.y[k]));
+            Assertions.assertEquals(!traced, Double.isNaN(grid.opd[k]));
+            if (!traced)
+                failed++;
+        }
+        Assertions.assertTrue(failed > 0 && failed < grid.num_samples());
+
+        // the failed rays are left out of the statistics
+        double rms_spot = grid.rms_spot(0, 0);
+        double rms_opd = grid.rms_opd(0, 0);
+        Assertions.assertTrue(Double.isFinite(rms_spot) && rms_spot > 0.0);
+        Assertions.assertTrue(Double.isFinite(rms_opd) && rms_opd > 0.0);
+        Assertions.assertEquals(rms_spot, grid.rms_spot(0), 1e-15);
+    }
+}
@@ -0,0 +1,126 @@
+package org.redukti.rayoptics.integration;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.redukti.mathlib.Vector3;
+import org.redukti.rayoptics.exceptions.TraceException;
+import org.redukti.rayoptics.exceptions.TraceMissedSurfaceException;
+import org.redukti.rayoptics.exceptions.TraceTIRException;
+import org.redukti.rayoptics.optical.OpticalModel;
+import org.redukti.rayoptics.raytr.RayDataFrame;
+import org.redukti.rayoptics.raytr.RayPkg;
+import org.redukti.rayoptics.raytr.RayTrace;
+import org.redukti.rayoptics.raytr.RayTraceOptions;
+import org.redukti.rayoptics.raytr.Trace;
+import org.redukti.rayoptics.seq.SequentialModel;
+import org.redukti.rayoptics.seq.SurfaceData;
+import org.redukti.rayoptics.specs.*;
+import org.redukti.rayoptics.util.Pair;
+
+import java.util.List;
+
+public class TraceStatusTest {
+
+    static final double WVL = 587.5618;
+
+    /**
+     * A plano-convex lens of index 2, with the stop at its front surface
+     * and the object at infinity. A ray parallel to the axis at height 9
+     * meets the flat back surface beyond the critical angle; at height 12
+     * it misses the front surface.
+     */
+    static OpticalModel lens() {
+        OpticalModel opm = new OpticalModel();
+        SequentialModel sm = opm.seq_model;
+        OpticalSpecs osp = opm.optical_spec;
+        osp.pupil = new PupilSpec(osp, new Pair<>(ImageKey.Object, ValueKey.Pupil), 18.0);
+        osp.field_of_view = new FieldSpec(osp, new Pair<>(ImageKey.Object, ValueKey.Angle), new double[]{0.});
+        osp.spectral_region = new WvlSpec(new WvlWt[]{new WvlWt(WVL, 1.0)}, 0);
+        opm.radius_mode = true;
+        sm.gaps.get(0).thi = 1e10;
+        sm.add_surface(new SurfaceData(10.0, 10.0)
+                .rindex(2.0, 0.0)
+                .max_aperture(10.0));
+        sm.set_stop();
+        sm.add_surface(new SurfaceData(0.0, 20.0)
+                .max_aperture(10.0));
+        sm.do_apertures = false;
+        opm.update_model();
+        return opm;
+    }
+
+    static RayTraceOptions options(SequentialModel sm, boolean throw_trace_errors) {
+        RayTraceOptions options = new RayTraceOptions();
+        options.first_surf = 1;
+        options.last_surf = sm.get_num_surfaces() - 2;
+        options.throw_trace_errors = throw_trace_errors;
+        return options;
+    }
+
+    /**
+     * Traces the ray with status codes and with exceptions, and checks
+     * that both report the same failure and the same partial ray.
+     */
+    static RayPkg check_failure(SequentialModel sm, double height, RayPkg.Status status,
+                                Class<? extends TraceException> error_type) {
+        Vector3 pt0 = new Vector3(0, height, 0);
+        Vector3 dir0 = new Vector3(0, 0, 1);
+        RayPkg ray_pkg = RayTrace.trace_raw(sm.path(WVL, null, null, 1), pt0, dir0, WVL,
+                options(sm, false));
+        Assertions.assertEquals(status, ray_pkg.status);
+        Assertions.assertFalse(ray_pkg.is_traced());
+
+        TraceException error = Assertions.assertThrows(TraceException.class,
+                () -> RayTrace.trace_raw(sm.path(WVL, null, null, 1), pt0, dir0, WVL, options(sm, true)));
+        Assertions.assertEquals(error_type, error.getClass());
+        Assertions.assertEquals(error.surf, ray_pkg.fail_surf);
+        Assertions.assertEquals(error.ray_pkg.ray.size(), ray_pkg.ray.size());
+        for (int i = 0; i < ray_pkg.ray.size(); i++)
+            Assertions.assertTrue(NoctNikkorTest.compare(error.ray_pkg.ray.get(i), ray_pkg.ray.get(i)));
+
+        // the single ray API still throws, the batch API returns the status
+        Assertions.assertThrows(error_type, () -> RayTrace.trace(sm, pt0, dir0, WVL));
+        RayPkg[] batch = RayTrace.trace(sm, new Vector3[]{pt0}, new Vector3[]{dir0}, WVL);
+        Assertions.assertEquals(status, batch[0].status);
+        Assertions.assertEquals(ray_pkg.fail_surf, batch[0].fail_surf);
+        return ray_pkg;
+    }
+
+    @Test
+    public void testMissedSurface() {
+        SequentialModel sm = lens().seq_model;
+        RayPkg ray_pkg = check_failure(sm, 12.0, RayPkg.Status.MISSED_SURFACE, TraceMissedSurfaceException.class);
+        Assertions.assertEquals(1, ray_pkg.fail_surf);
+    }
+
+    @Test
+    public void testTIR() {
+        SequentialModel sm = lens().seq_model;
+        RayPkg ray_pkg = check_failure(sm, 9.0, RayPkg.Status.TIR, TraceTIRException.class);
+        Assertions.assertEquals(2, ray_pkg.fail_surf);
+    }
+
+    @Test
+    public void testTraced() {
+        SequentialModel sm = lens().seq_model;
+        RayPkg ray_pkg = RayTrace.trace_raw(sm.path(WVL, null, null, 1), new Vector3(0, 2, 0),
+                new Vector3(0, 0, 1), WVL, options(sm, false));
+        Assertions.assertTrue(ray_pkg.is_traced());
+        Assertions.assertEquals(sm.get_num_surfaces(), ray_pkg.ray.size());
+    }
+
+    @Test
+    public void testRayList() {
+        OpticalModel opm = lens();
+        Field fld = opm.optical_spec.field_of_view.fields[0];
+        // the entrance pupil radius is 9, so these meet the front surface at 0, 9 and 12
+        double[][] ray_list = {{0., 0.}, {0., 1.}, {0., 12. / 9.}};
+        List<RayDataFrame> rayset = Trace.trace_ray_list_at_field(opm, ray_list, fld, WVL, 0.0);
+        Assertions.assertEquals(ray_list.length, rayset.size());
+        Assertions.assertTrue(rayset.get(0).is_traced());
+        Assertions.assertEquals(RayPkg.Status.TIR, rayset.get(1).status);
+        Assertions.assertEquals(2, rayset.get(1).fail_surf);
+        Assertions.assertEquals(RayPkg.Status.MISSED_SURFACE, rayset.get(2).status);
+        Assertions.assertEquals(1, rayset.get(2).fail_surf);
+    }
+}